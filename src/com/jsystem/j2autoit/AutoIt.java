@@ -15,6 +15,7 @@
  */
 package com.jsystem.j2autoit;
 
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -34,6 +35,18 @@ public interface AutoIt extends AutoItConstants{
 	 * @throws Exception
 	 */
 	public Map<String, Comparable<?>> runScript(String script, String workDir, String autoItLocation,int timeout) throws Exception;	
+	
+	/**
+	 * Run several AutoIt commands with a single script execution
+	 * 
+	 * @param commands	The commands, each one as it would be sent to runScript
+	 * @param workDir	The directory to execute the script from
+	 * @param autoItLocation	The location of the AutoIt executable file
+	 * @param timeout Timeout for the whole batch (miliseconds)
+	 * @return	a Map of execution results per command, in the order of the commands
+	 * @throws Exception
+	 */
+	public List<Map<String, Comparable<?>>> runScriptBatch(List<String> commands, String workDir, String autoItLocation, int timeout) throws Exception;
 	/**
 	 * Retrieve a file from the FtpServer
 	 * 
@@ -104,7 +117,8 @@ public interface AutoIt extends AutoItConstants{
 	public String revealAutoIt3Location() throws Exception;
 
 	/**
-	 * Kill all current running AutoIt processes
+	 * Kill all the AutoIt script processes launched by this agent.<br>
+	 * Returns immediately, processes that ignore the graceful kill are killed forcibly later.
 	 * 
 	 * @return
 	 * @throws Exception
@@ -112,7 +126,8 @@ public interface AutoIt extends AutoItConstants{
 	public int killAutoItProcess() throws Exception;
 
 	/**
-	 * Kill all instances of a given process name
+	 * Kill all instances of a given process name.<br>
+	 * Returns immediately, processes that ignore the graceful kill are killed forcibly later.
 	 * 
 	 * @param processName The process to kill
 	 * @return
@@ -120,6 +135,26 @@ public interface AutoIt extends AutoItConstants{
 	 */
 	public int killProcess(String processName) throws Exception;
 
+	/**
+	 * Kill the processes of a job (with their descendants).<br>
+	 * Returns immediately, processes that ignore the graceful kill are killed forcibly later.
+	 * 
+	 * @param jobId	The job id
+	 * @return	The number of processes that were signalled
+	 * @throws Exception	If the job does not exist
+	 */
+	public int killJob(String jobId) throws Exception;
+
+	/**
+	 * Kill a process (with its descendants) by PID.<br>
+	 * Returns immediately, a process that ignores the graceful kill is killed forcibly later.
+	 * 
+	 * @param pid	The process id
+	 * @return	true if a live process with that PID was found
+	 * @throws Exception
+	 */
+	public boolean killPid(long pid) throws Exception;
+
 	/**
 	 * Check if a process is still active
 	 * 
@@ -129,6 +164,24 @@ public interface AutoIt extends AutoItConstants{
 	 */
 	public boolean isProcessStillActive(String processName) throws Exception;
 
+	/**
+	 * Get the PIDs of all the instances of a given process name
+	 * 
+	 * @param processName	The process to search
+	 * @return	The PIDs, empty if the process is not running
+	 * @throws Exception
+	 */
+	public List<Long> getProcessIds(String processName) throws Exception;
+
+	/**
+	 * Count the running instances of several process names with one call
+	 * 
+	 * @param processNames	The processes to search
+	 * @return	a Map of process name to number of running instances
+	 * @throws Exception
+	 */
+	public Map<String, Integer> countProcesses(List<String> processNames) throws Exception;
+
 	/**
 	 * Check if AutoIt process is active
 	 * 
@@ -168,4 +221,158 @@ public interface AutoIt extends AutoItConstants{
 	 */
 	public int setSilentMode(boolean silentMode) throws Exception;
 	
+	/**
+	 * Submit an AutoIt script for asynchronous execution
+	 * 
+	 * @param script	The script content string
+	 * @param workDir	The directory to execute the script from
+	 * @param autoItLocation	The location of the AutoIt executable file
+	 * @param timeout Timeout for the script (miliseconds)
+	 * @return	The job id
+	 * @throws Exception
+	 */
+	public String submitScript(String script, String workDir, String autoItLocation, int timeout) throws Exception;
+	
+	/**
+	 * Submit an AutoIt file for asynchronous execution
+	 * 
+	 * @param fullPath	Script file full path
+	 * @param workDir	The directory to execute the script from
+	 * @param autoItLocation	The location of the AutoIt executable
+	 * @param timeout	The timeout for the script execution in miliseconds
+	 * @param params The script parameters
+	 * @return	The job id
+	 * @throws Exception
+	 */
+	public String submitAutoitFile(String fullPath, String workDir, String autoItLocation, int timeout, Object... params) throws Exception;
+	
+	/**
+	 * Get the status of a submitted job
+	 * 
+	 * @param jobId	The job id
+	 * @return	QUEUED, RUNNING, DONE, FAILED, CANCELLED (by {@link #cancel(String)}), EXPIRED (the request
+	 *         deadline passed before the job started) or UNKNOWN (no such job or already evicted)
+	 * @throws Exception
+	 */
+	public String getJobStatus(String jobId) throws Exception;
+	
+	/**
+	 * Wait for a submitted job to finish
+	 * 
+	 * @param jobId	The job id
+	 * @param maxWait	Maximum time to wait in miliseconds
+	 * @return	true if the job finished
+	 * @throws Exception
+	 */
+	public boolean awaitJob(String jobId, int maxWait) throws Exception;
+	
+	/**
+	 * Get the result of a finished job
+	 * 
+	 * @param jobId	The job id
+	 * @return	a Map of script execution results
+	 * @throws Exception	If the job failed, did not finish yet or does not exist
+	 */
+	public Map<String, Comparable<?>> getJobResult(String jobId) throws Exception;
+	
+	/**
+	 * Read the stdout of a job incrementally, also while the job is still running
+	 * 
+	 * @param jobId	The job id
+	 * @param offset	The offset (in characters) to read from
+	 * @param maxLength	Maximum number of characters to read
+	 * @return	The output from the given offset, or an empty string if there is no new output
+	 * @throws Exception	If the job does not exist
+	 */
+	public String readOutput(String jobId, int offset, int maxLength) throws Exception;
+	
+	/**
+	 * Read the stderr of a job incrementally, also while the job is still running
+	 * 
+	 * @param jobId	The job id
+	 * @param offset	The offset (in characters) to read from
+	 * @param maxLength	Maximum number of characters to read
+	 * @return	The error output from the given offset, or an empty string if there is no new output
+	 * @throws Exception	If the job does not exist
+	 */
+	public String readError(String jobId, int offset, int maxLength) throws Exception;
+	
+	/**
+	 * Cancel the work of a client request: queued jobs are dropped and the processes of
+	 * running jobs are killed
+	 * 
+	 * @param requestId	The request id sent in the request envelope
+	 * @return	The number of jobs that were cancelled
+	 * @throws Exception
+	 */
+	public int cancel(String requestId) throws Exception;
+	
+	/**
+	 * Register a stored procedure: the script body is written to a file once on the agent,
+	 * and later invoked by name with {@link #invokeProcedure(String, String, String, int, Object...)}.
+	 * Registering a procedure again replaces it.
+	 * 
+	 * @param name	The procedure name, an AutoIt identifier
+	 * @param scriptBody	The script body, it reads its parameters as $paramName variables
+	 * @param paramNames	The parameter names
+	 * @return 0
+	 * @throws Exception	If a name is not a legal AutoIt identifier
+	 */
+	public int registerProcedure(String name, String scriptBody, List<String> paramNames) throws Exception;
+	
+	/**
+	 * Invoke a stored procedure. The arguments are bound to the procedure parameters as
+	 * strings, they are not spliced into the script so they need no escaping.
+	 * 
+	 * @param name	The procedure name
+	 * @param workDir	The directory to execute the script from
+	 * @param autoItLocation	The location of the AutoIt executable
+	 * @param timeout	The timeout for the script execution in miliseconds
+	 * @param args	One argument per procedure parameter, a single collection is one argument
+	 * @return	The execution result
+	 * @throws Exception	If the procedure is unknown (the agent restarted, a fault with the code
+	 *             of {@link com.jsystem.j2autoit.script.UnknownProcedureException#FAULT_CODE}) or
+	 *             the argument count does not match
+	 */
+	public Map<String, Comparable<?>> invokeProcedure(String name, String workDir, String autoItLocation, int timeout, Object... args) throws Exception;
+	
+	/**
+	 * Subscribe to window or process events, sampled once on the agent for all subscribers.<br>
+	 * The first poll reports the current state: matching windows (processes) as opened
+	 * (started), the active window as activated, or a closed (exited) event if nothing matches.
+	 * 
+	 * @param eventType	WINDOW_OPENED, WINDOW_CLOSED, WINDOW_ACTIVATED, PROCESS_STARTED or PROCESS_EXITED
+	 * @param pattern	Window title prefix or process image name, empty for all
+	 * @return	The subscription id
+	 * @throws Exception	If the event type is unknown or the window sampler could not start
+	 */
+	public String subscribe(String eventType, String pattern) throws Exception;
+	
+	/**
+	 * Wait for the events of a subscription (long poll)
+	 * 
+	 * @param subscriptionId	The subscription id
+	 * @param timeout	Maximum time to wait in milliseconds when there are no events yet
+	 * @return	The events (type, subject, handle or pid, time, sequence), empty if none arrived in time
+	 * @throws Exception	If the subscription does not exist or expired (not polled for a minute)
+	 */
+	public List<Map<String, Comparable<?>>> pollEvents(String subscriptionId, int timeout) throws Exception;
+	
+	/**
+	 * Cancel a subscription
+	 * 
+	 * @param subscriptionId	The subscription id
+	 * @return	false if there was no such subscription
+	 * @throws Exception
+	 */
+	public boolean unsubscribe(String subscriptionId) throws Exception;
+	
+	/**
+	 * Retrieve the agent internal counters (worker pool, script cache etc.)
+	 * 
+	 * @return	a Map of counter name to value
+	 * @throws Exception
+	 */
+	public Map<String, Comparable<?>> getAgentStatistics() throws Exception;
+	
 }
@@ -45,10 +45,14 @@ import java.io.InputStreamReader;
 import java.net.InetAddress;
 import java.net.URL;
 import java.text.MessageFormat;
+import java.util.Arrays;
 import java.util.Hashtable;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -63,17 +67,47 @@ import javax.swing.SwingUtilities;
 import javax.swing.UIManager;
 
 import jsystem.utils.FileUtils;
-import jsystem.utils.exec.Command;
-import jsystem.utils.exec.Execute;
 
 import org.apache.commons.net.ftp.FTPClient;
 import org.apache.commons.net.ftp.FTPReply;
+import org.apache.xmlrpc.XmlRpcException;
 import org.apache.xmlrpc.server.PropertyHandlerMapping;
 import org.apache.xmlrpc.server.XmlRpcServer;
+import org.apache.xmlrpc.server.XmlRpcServerConfigImpl;
 import org.apache.xmlrpc.webserver.WebServer;
 
+import com.jsystem.j2autoit.boot.BootSequence;
+import com.jsystem.j2autoit.boot.InterpreterLocationCache;
+import com.jsystem.j2autoit.cache.QueryCache;
+import com.jsystem.j2autoit.cache.ReplyCache;
+import com.jsystem.j2autoit.cache.ScriptFileCache;
 import com.jsystem.j2autoit.history.HistoryFile;
+import com.jsystem.j2autoit.history.TempScriptManager;
+import com.jsystem.j2autoit.job.Job;
+import com.jsystem.j2autoit.job.JobTable;
+import com.jsystem.j2autoit.job.OutputBuffer;
+import com.jsystem.j2autoit.job.RequestContext;
+import com.jsystem.j2autoit.job.ResultShape;
 import com.jsystem.j2autoit.logger.Log;
+import com.jsystem.j2autoit.pool.InterpreterPool;
+import com.jsystem.j2autoit.process.ProcessTable;
+import com.jsystem.j2autoit.process.ProcessTracker;
+import com.jsystem.j2autoit.process.ResourceAccounting;
+import com.jsystem.j2autoit.process.ResourceUsage;
+import com.jsystem.j2autoit.process.ScriptRunner;
+import com.jsystem.j2autoit.process.TimeoutWatchdog;
+import com.jsystem.j2autoit.scheduler.CommandClassifier;
+import com.jsystem.j2autoit.scheduler.AgentBusyException;
+import com.jsystem.j2autoit.scheduler.ExecutionScheduler;
+import com.jsystem.j2autoit.scheduler.Priority;
+import com.jsystem.j2autoit.script.BatchScript;
+import com.jsystem.j2autoit.script.ProcedureRegistry;
+import com.jsystem.j2autoit.script.ProcedureRegistry.Procedure;
+import com.jsystem.j2autoit.script.UnknownProcedureException;
+import com.jsystem.j2autoit.script.ValueRecord;
+import com.jsystem.j2autoit.transport.BinaryServer;
+import com.jsystem.j2autoit.watch.EventType;
+import com.jsystem.j2autoit.watch.Watcher;
 
 public class AutoItAgent implements AutoIt {
 	private static final String NEW_LINE = "\n";
@@ -84,6 +118,10 @@ public class AutoItAgent implements AutoIt {
 	
 	private static File agentWorkDir = new File(System.getProperty("user.dir"));
 	private static WebServer webServer = null;
+	private static Integer binaryPort = 0;
+	private static Integer binaryWorkers = 32;
+	private static Integer binaryQueueLength = 64;
+	private static BinaryServer binaryServer = null;
 	private static Boolean serverState = true;
 	private static final Integer DEFAULT_HistorySize = 1000;
 	private static Boolean isAutoDeleteFiles = true;
@@ -93,6 +131,51 @@ public class AutoItAgent implements AutoIt {
 	private static Boolean isDebug = false;
 	private static Boolean isUseScreenShot = false;
 	private static String autoIt_Location = null;
+	private static final Object LOCATION_LOCK = new Object();
+	private static final InterpreterLocationCache LOCATION_CACHE = new InterpreterLocationCache(new File("autoitLocation.properties"));
+	private static final BootSequence boot = new BootSequence();
+	private static Integer workerPoolSize = 2;
+	private static Integer workerMaxCommands = 500;
+	private static InterpreterPool interpreterPool = null;
+	private static Integer scriptCacheSize = 256;
+	private static ScriptFileCache scriptFileCache = null;
+	private static Integer tempScriptSlots = 8;
+	private static TempScriptManager tempScriptManager = null;
+	private static Integer parallelLaneWorkers = 4;
+	private static ExecutionScheduler scheduler = null;
+	private static Integer priorityAgingMillis = 5000;
+	private static Integer maxInFlightJobs = 64;
+	private static Integer maxQueueLength = 32;
+	private static Integer queryCacheSize = 1000;
+	private static Integer queryCacheEnvTtlMillis = 60000;
+	private static Integer queryCacheRegistryTtlMillis = 60000;
+	private static Integer queryCacheFileTtlMillis = 30000;
+	private static QueryCache queryCache = null;
+	private static Integer replyCacheSize = 256;
+	private static Integer replyCacheMaxBytes = 16 * 1024 * 1024;
+	private static Integer replyCacheTtlMillis = 60000;
+	private static ReplyCache replyCache = null;
+	private static ProcedureRegistry procedureRegistry = null;
+	private static Integer watchSampleMillis = 250;
+	private static Watcher watcher = null;
+	private static Integer jobTableSize = 1000;
+	private static JobTable jobTable = null;
+	// Jobs of synchronous calls, kept only while running so they can be cancelled by request id
+	private static final Map<String, Job> synchronousJobs = new ConcurrentHashMap<String, Job>();
+	private static Integer outputMemoryLimit = 1024 * 1024;
+	private static Integer outputResultLimit = 64 * 1024;
+	private static File jobOutputDir = null;
+	private static ProcessTracker processTracker = null;
+	private static Integer watchdogTickMillis = 20;
+	private static TimeoutWatchdog timeoutWatchdog = null;
+	private static ScriptRunner scriptRunner = null;
+	private static Integer resourceSampleMillis = 100;
+	private static Integer resourceAccountingSize = 500;
+	private static ResourceAccounting resourceAccounting = null;
+	private static RequestDispatcher dispatcher = null;
+	private static long cancelledJobs = 0;
+	private static Integer processTableRefreshMillis = 500;
+	private static ProcessTable processTable = null;
 
 	/**
 	 * Launch the server side
@@ -102,80 +185,279 @@ public class AutoItAgent implements AutoIt {
 	public static void main(String[] args) {
 		try {
 			Log.initLog();
+			boot.mark("log");
 			isDebug = AutoItProperties.DEBUG_MODE_KEY.getValue(isDebug);
 			isAutoDeleteFiles = AutoItProperties.AUTO_DELETE_TEMPORARY_SCRIPT_FILE_KEY.getValue(isAutoDeleteFiles);
-			if (isAutoDeleteFiles) {
-				Integer tempHistory = AutoItProperties.AUTO_IT_SCRIPT_HISTORY_SIZE_KEY.getValue(DEFAULT_HistorySize);
-				
-				HistoryFile.init();
-				HistoryFile.setHistory_Size(tempHistory);
-			}
 			isForceAutoItShutDown = AutoItProperties.FORCE_AUTO_IT_PROCESS_SHUTDOWN_KEY.getValue(isForceAutoItShutDown);
 			webServicePort = AutoItProperties.AGENT_PORT_KEY.getValue(webServicePort);
 			serverState = AutoItProperties.SERVER_UP_ON_INIT_KEY.getValue(serverState);
+			workerPoolSize = AutoItProperties.WORKER_POOL_SIZE_KEY.getValue(workerPoolSize);
+			workerMaxCommands = AutoItProperties.WORKER_MAX_COMMANDS_KEY.getValue(workerMaxCommands);
+			scriptCacheSize = AutoItProperties.SCRIPT_CACHE_SIZE_KEY.getValue(scriptCacheSize);
+			tempScriptSlots = AutoItProperties.TEMP_SCRIPT_SLOTS_KEY.getValue(tempScriptSlots);
+			parallelLaneWorkers = AutoItProperties.PARALLEL_LANE_WORKERS_KEY.getValue(parallelLaneWorkers);
+			priorityAgingMillis = AutoItProperties.PRIORITY_AGING_MILLIS_KEY.getValue(priorityAgingMillis);
+			maxInFlightJobs = AutoItProperties.MAX_IN_FLIGHT_JOBS_KEY.getValue(maxInFlightJobs);
+			maxQueueLength = AutoItProperties.MAX_QUEUE_LENGTH_KEY.getValue(maxQueueLength);
+			queryCacheSize = AutoItProperties.QUERY_CACHE_SIZE_KEY.getValue(queryCacheSize);
+			queryCacheEnvTtlMillis = AutoItProperties.QUERY_CACHE_ENV_TTL_MILLIS_KEY.getValue(queryCacheEnvTtlMillis);
+			queryCacheRegistryTtlMillis = AutoItProperties.QUERY_CACHE_REGISTRY_TTL_MILLIS_KEY.getValue(queryCacheRegistryTtlMillis);
+			queryCacheFileTtlMillis = AutoItProperties.QUERY_CACHE_FILE_TTL_MILLIS_KEY.getValue(queryCacheFileTtlMillis);
+			watchSampleMillis = AutoItProperties.WATCH_SAMPLE_MILLIS_KEY.getValue(watchSampleMillis);
+			replyCacheSize = AutoItProperties.REPLY_CACHE_SIZE_KEY.getValue(replyCacheSize);
+			replyCacheMaxBytes = AutoItProperties.REPLY_CACHE_MAX_BYTES_KEY.getValue(replyCacheMaxBytes);
+			replyCacheTtlMillis = AutoItProperties.REPLY_CACHE_TTL_MILLIS_KEY.getValue(replyCacheTtlMillis);
+			jobTableSize = AutoItProperties.JOB_TABLE_SIZE_KEY.getValue(jobTableSize);
+			outputMemoryLimit = AutoItProperties.OUTPUT_MEMORY_LIMIT_KEY.getValue(outputMemoryLimit);
+			outputResultLimit = AutoItProperties.OUTPUT_RESULT_LIMIT_KEY.getValue(outputResultLimit);
+			watchdogTickMillis = AutoItProperties.WATCHDOG_TICK_MILLIS_KEY.getValue(watchdogTickMillis);
+			processTableRefreshMillis = AutoItProperties.PROCESS_TABLE_REFRESH_MILLIS_KEY.getValue(processTableRefreshMillis);
+			resourceSampleMillis = AutoItProperties.RESOURCE_SAMPLE_MILLIS_KEY.getValue(resourceSampleMillis);
+			resourceAccountingSize = AutoItProperties.RESOURCE_ACCOUNTING_SIZE_KEY.getValue(resourceAccountingSize);
+			binaryPort = AutoItProperties.BINARY_PORT_KEY.getValue(binaryPort);
+			binaryWorkers = AutoItProperties.BINARY_WORKERS_KEY.getValue(binaryWorkers);
+			binaryQueueLength = AutoItProperties.BINARY_QUEUE_LENGTH_KEY.getValue(binaryQueueLength);
 			
 			Log.setLogMode(false, isDebug);
+			boot.mark("properties");
 			Runtime.getRuntime().addShutdownHook(new ExitThread());
 			Log.info(System.getProperty("user.dir") + NEW_LINE);
-			Log.info("AutoIt Location: " + getAutoExecuterItLocation("Unable to find") + NEW_LINE);
+			// Open the RPC port first, everything else runs in the background or on first use
 			startAutoItWebServer(webServicePort);
 			if (serverState) {
 				serverState = false;
 				runWebServer();
 			}
+			boot.mark("webServer");
+			boot.ready();
 
-			UIManager.setLookAndFeel("com.sun.java.swing.plaf.windows.WindowsLookAndFeel");
-
+			if (isAutoDeleteFiles) {
+				final Integer tempHistory = AutoItProperties.AUTO_IT_SCRIPT_HISTORY_SIZE_KEY.getValue(DEFAULT_HistorySize);
+				boot.background("history", new Runnable() {
+					@Override
+					public void run() {
+						HistoryFile.init();
+						HistoryFile.setHistory_Size(tempHistory);
+					}
+				});
+			}
+			boot.background("interpreterLocation", new Runnable() {
+				@Override
+				public void run() {
+					Log.info("AutoIt Location: " + getAutoExecuterItLocation("Unable to find") + NEW_LINE);
+				}
+			});
 		} catch (Exception exception) {
 			Log.throwable(exception.getMessage() + NEW_LINE, exception);
 		}
 
-		/* Turn off metal's use of bold fonts */
-		UIManager.put("swing.boldMetal", Boolean.FALSE);
 		//Schedule a job for the event-dispatching thread:
-		//adding TrayIcon.
+		//loading Swing and adding TrayIcon.
+		boot.expect();
 		SwingUtilities.invokeLater(new Runnable() {
 			@Override
 			public void run() {
-				createAndShowGUI();
+				long start = System.currentTimeMillis();
+				try {
+					try {
+						UIManager.setLookAndFeel("com.sun.java.swing.plaf.windows.WindowsLookAndFeel");
+					} catch (Exception exception) {
+						Log.throwable(exception.getMessage() + NEW_LINE, exception);
+					}
+					/* Turn off metal's use of bold fonts */
+					UIManager.put("swing.boldMetal", Boolean.FALSE);
+					createAndShowGUI();
+				} finally {
+					boot.finished("tray", System.currentTimeMillis() - start);
+				}
 			}
 		});
+		boot.foregroundDone();
 	}
 	
 	@Override
-	public Map<String, Comparable<?>> runScript(String script, String workDir, String autoItLocation, int timeout) throws Exception{
+	public Map<String, Comparable<?>> runScript(final String script, final String workDir, final String autoItLocation, final int timeout) throws Exception{
+		QueryCache cache = getQueryCache();
+		RequestContext request = RequestContext.current();
+		if (request == null || request.isCacheEnabled()) {
+			Map<String, Comparable<?>> cached = cache.get(script, workDir);
+			if (cached != null) {
+				// The answer did not run anything, the job and the resource usage of the run that filled the cache do not apply
+				cached.remove(JOB_ID);
+				cached.remove(WALL_MILLIS);
+				cached.remove(CPU_MILLIS);
+				cached.remove(QUEUE_MILLIS);
+				cached.remove(PEAK_MEMORY_BYTES);
+				return shapeResult(cached, script);
+			}
+		}
+		long stamp = cache.stamp();
+		Map<String, Comparable<?>> result;
+		try {
+			result = runJob(CommandClassifier.isGuiCommand(script), Priority.INTERACTIVE, new Callable<Map<String, Comparable<?>>>() {
+				@Override
+				public Map<String, Comparable<?>> call() throws Exception {
+					return doRunScript(script, workDir, autoItLocation, timeout);
+				}
+			});
+		} finally {
+			cache.invalidateFor(script);
+		}
+		if (isCleanResult(result)) {
+			cache.put(script, workDir, result, stamp);
+		}
+		return shapeResult(result, script);
+	}
 
-		File sfile = File.createTempFile("autoit", ".au3"); //create autoit file
+	private Map<String, Comparable<?>> doRunScript(String script, String workDir, String autoItLocation, int timeout) throws Exception{
 
 		StringBuffer buf = new StringBuffer();
 
+		// The value is written once, as a typed record the agent cuts off the stdout and replaces with the value text
 		buf.append("Local $var = ").
 		append(script).
 		append(NEW_LINE).
-		append("Local $rc = @error\nConsoleWrite($var)\nExit($rc)\n");
+		append("Local $rc = @error, $ext = @extended\nConsoleWrite(__J2A_Record($var, $rc, $ext))\nExit($rc)\n").
+		append("#include \"").append(ValueRecord.getEncoderScript().getAbsolutePath()).append("\"\n");
+
+		if (!isDebug) {
+			Job job = Job.current();
+			int cappedTimeout = job == null ? timeout : (int) job.capTimeout(timeout);
+			ResourceUsage usage = new ResourceUsage();
+			CommandResult pooled = getInterpreterPool().execute(script, workDir, getAutoExecuterItLocation(autoItLocation), cappedTimeout,
+					job == null ? "agent" : job.getId());
+			if (pooled != null) {
+				usage.finish();
+				if (pooled.getCpuMillis() >= 0) {
+					usage.setCpuMillis(pooled.getCpuMillis());
+				}
+				Log.info("AutoIt Command : " + script + NEW_LINE);
+				OutputBuffer stdout = currentStdout();
+				OutputBuffer stderr = currentStderr();
+				stdout.append(pooled.getStdout());
+				stderr.append(pooled.getStderr());
+				return buildResult(buf.toString(), stdout, pooled.getReturnCode(), stderr, null, usage);
+			}
+		}
+		return executeScriptText(buf.toString(), workDir, autoItLocation, timeout);
+	}
 
-		FileOutputStream out = new FileOutputStream(sfile);
-		out.write(buf.toString().getBytes("UTF-8"));
-		out.close();
+	@Override
+	public List<Map<String, Comparable<?>>> runScriptBatch(final List<String> commands, final String workDir, final String autoItLocation, final int timeout) throws Exception {
+		if (commands.isEmpty()) {
+			return new Vector<Map<String, Comparable<?>>>();
+		}
+		boolean gui = false;
+		for (String command : commands) {
+			gui |= CommandClassifier.isGuiCommand(command);
+		}
+		Map<String, Comparable<?>> batchResult = runJob(gui, Priority.INTERACTIVE, new Callable<Map<String, Comparable<?>>>() {
+			@Override
+			public Map<String, Comparable<?>> call() throws Exception {
+				return executeScriptText(BatchScript.build(commands), workDir, autoItLocation, timeout);
+			}
+		});
+		for (String command : commands) {
+			getQueryCache().invalidateFor(command);
+		}
+		List<Map<String, Comparable<?>>> results = BatchScript.parse(commands, batchResult);
+		for (int index = 0; index < results.size(); index++) {
+			results.set(index, shapeResult(results.get(index), commands.get(index)));
+		}
+		return results;
+	}
+
+	/**
+	 * Write the script content to a file (cached, slot or debug temp file) and execute it
+	 */
+	private Map<String, Comparable<?>> executeScriptText(String scriptText, String workDir, String autoItLocation, int timeout) throws Exception {
+		if (isDebug) {
+			File sfile = File.createTempFile("autoit", ".au3"); //create autoit file
 
-		Map<String, Comparable<?>> result = executeAutoitFile(sfile.getAbsolutePath(), workDir, autoItLocation, timeout, new Vector<Object>());
+			FileOutputStream out = new FileOutputStream(sfile);
+			out.write(scriptText.getBytes("UTF-8"));
+			out.close();
 
-		return result;
+			Map<String, Comparable<?>> result = executeFile(sfile.getAbsolutePath(), workDir, autoItLocation, timeout, new Vector<Object>());
+			if (isAutoDeleteFiles) {
+				HistoryFile.addFile(sfile);
+				Log.infoLog("Adding " + sfile.getAbsolutePath() + " to \"For deletion files list\"\n");
+			}
+			return result;
+		}
+
+		if (scriptCacheSize > 0) {
+			ScriptFileCache cache = getScriptFileCache();
+			File sfile = cache.acquire(scriptText);
+			try {
+				return executeFile(sfile.getAbsolutePath(), workDir, autoItLocation, timeout, new Vector<Object>());
+			} finally {
+				cache.release(sfile);
+			}
+		}
+
+		TempScriptManager tempScripts = getTempScriptManager();
+		File sfile = tempScripts.acquire(scriptText);
+		try {
+			return executeFile(sfile.getAbsolutePath(), workDir, autoItLocation, timeout, new Vector<Object>());
+		} finally {
+			tempScripts.release(sfile);
+		}
+	}
+
+	private static synchronized TempScriptManager getTempScriptManager() {
+		if (tempScriptManager == null) {
+			tempScriptManager = new TempScriptManager(new File("tempScripts"), tempScriptSlots);
+		}
+		return tempScriptManager;
+	}
+
+	private static synchronized ScriptFileCache getScriptFileCache() {
+		if (scriptFileCache == null) {
+			scriptFileCache = new ScriptFileCache(new File("scriptCache"), scriptCacheSize);
+		}
+		return scriptFileCache;
+	}
+
+	static synchronized void shutdownInterpreterPool() {
+		if (interpreterPool != null) {
+			interpreterPool.shutdown();
+		}
 	}
 
-	public Map<String, Comparable<?>> executeAutoitFile(String fullPath, String workDir, String autoItLocation, int timeout, Vector<Object> params) {
+	private static synchronized InterpreterPool getInterpreterPool() {
+		if (interpreterPool == null) {
+			interpreterPool = new InterpreterPool(workerPoolSize, workerMaxCommands, agentWorkDir);
+			interpreterPool.setProcessTracker(getProcessTracker());
+		}
+		return interpreterPool;
+	}
+
+	public Map<String, Comparable<?>> executeAutoitFile(final String fullPath, final String workDir, final String autoItLocation, final int timeout, final Vector<Object> params) throws Exception {
+		Map<String, Comparable<?>> result = runJob(true, Priority.BULK, new Callable<Map<String, Comparable<?>>>() {
+			@Override
+			public Map<String, Comparable<?>> call() throws Exception {
+				try {
+					return executeFile(fullPath, workDir, autoItLocation, timeout, params);
+				} finally {
+					// A script file may change anything
+					getQueryCache().invalidateAll();
+				}
+			}
+		});
+		// The echo of a script file is the file as it was read, not wrapped
+		return shapeResult(result, (String) result.get(SCRIPT));
+	}
+
+	private Map<String, Comparable<?>> executeFile(String fullPath, String workDir, String autoItLocation, int timeout, Vector<Object> params) {
 		
 		Exception threwOne = null;
-		Hashtable<String, Comparable<?>> result = new Hashtable<String, Comparable<?>>();
 		File sfile = new File(fullPath);
 		if (!sfile.exists()) {
 			System.out.println(agentWorkDir.getAbsolutePath());
 			System.out.println("Couldn't find " + sfile);
-			return result;
+			return new Hashtable<String, Comparable<?>>();
 		}
-		Command cmd = new Command();
-		cmd.setTimeout(timeout);
-
 		String[] commandParams = new String[3 + params.size()];
 		commandParams[0] = getAutoExecuterItLocation(autoItLocation);;
 		commandParams[1] = "/ErrorStdOut";
@@ -187,12 +469,16 @@ public class AutoItAgent implements AutoIt {
 			commandParams[index + 3] = params.get(index).toString();
 		}
 		
-		cmd.setCmd(commandParams);
 		File workingDirectory = new File(workDir);
-		cmd.setDir(workingDirectory.exists()?workingDirectory:agentWorkDir);
+		OutputBuffer stdout = currentStdout();
+		OutputBuffer stderr = currentStderr();
+		int returnCodeValue = -1;
+		Job job = Job.current();
+		long cappedTimeout = job == null ? timeout : job.capTimeout(timeout);
+		ResourceUsage usage = new ResourceUsage();
 
 		try {
-			Execute.execute(cmd, true);
+			returnCodeValue = getScriptRunner().execute(commandParams, workingDirectory.exists()?workingDirectory:agentWorkDir, cappedTimeout, stdout, stderr, job == null ? "agent" : job.getId(), usage);
 		} catch (Exception e) {
 			threwOne = e;
 		}
@@ -211,47 +497,502 @@ public class AutoItAgent implements AutoIt {
 		} catch (IOException ioException) {
 			Log.throwable(ioException.getMessage(), ioException);
 		}
-		String stdoutText = cmd.getStdout().toString();
-		int returnCodeValue = cmd.getReturnCode();
-		String stderrText = cmd.getStderr().toString();
+		return buildResult(scriptText, stdout, returnCodeValue, stderr, threwOne, usage);
+	}
+
+	private static OutputBuffer currentStdout() {
+		Job job = Job.current();
+		return job == null ? new OutputBuffer() : job.getStdout();
+	}
+
+	private static OutputBuffer currentStderr() {
+		Job job = Job.current();
+		return job == null ? new OutputBuffer() : job.getStderr();
+	}
 
-		if (isUseScreenShot || threwOne != null || !stderrText.isEmpty()) {
+	/**
+	 * Build the execution result.<br>
+	 * Output that exceeds the result limit is returned as head and tail only, the full output
+	 * can be read with readOutput/readError using the job id in the result. A synchronous call
+	 * gets a job id only then: its job is kept in the job table for that.<br>
+	 * The resources the run used go into the result and into the per script accounting.
+	 */
+	private Hashtable<String, Comparable<?>> buildResult(String scriptText, OutputBuffer stdout, int returnCodeValue, OutputBuffer stderr, Exception threwOne, ResourceUsage usage) {
+		if (isUseScreenShot || threwOne != null || stderr.length() > 0) {
 			String windowName = UUID.randomUUID().toString();
 			new ScreenShotThread(windowName).start();
 			Log.infoLog("A screenshot with the uuid : " + windowName + NEW_LINE);
 		} 
 
+		String valueRecord = ValueRecord.cut(stdout);
+		String stdoutText = stdout.summary();
+		String stderrText = stderr.summary();
 		Log.messageLog(SCRIPT + ":\n" + scriptText + NEW_LINE);
 		Log.messageLog(STDOUT + ":\n" + stdoutText + NEW_LINE);
 		Log.messageLog(RETURN + ":\n" + returnCodeValue + NEW_LINE);
 		Log.messageLog(STDERR + ":\n" + stderrText + NEW_LINE);
 
-
+		Hashtable<String, Comparable<?>> result = new Hashtable<String, Comparable<?>>();
 		result.put(SCRIPT, scriptText);
 		result.put(STDOUT, stdoutText);
 		result.put(RETURN, returnCodeValue);
 		result.put(STDERR, stderrText);
+		result.put(TRUNCATED, stdout.isTruncated() || stderr.isTruncated());
+		if (valueRecord != null) {
+			result.put(VALUE, valueRecord);
+		}
+		Job job = Job.current();
+		if (job != null && Boolean.TRUE.equals(result.get(TRUNCATED)) && synchronousJobs.containsKey(job.getId())) {
+			keepSynchronousJob(job);
+		}
+		if (job != null && getJobTable().get(job.getId()) == job) {
+			result.put(JOB_ID, job.getId());
+		}
+		usage.fillResult(result);
+		long queueMillis = ResourceUsage.UNKNOWN;
+		if (job != null) {
+			queueMillis = job.getQueueMillis();
+			result.put(QUEUE_MILLIS, queueMillis);
+		}
+		getResourceAccounting().record(ScriptFileCache.hash(scriptText), usage, queueMillis);
+		return result;
+	}
 
-		if (isDebug) {
-			if (isAutoDeleteFiles) {
-				HistoryFile.addFile(sfile);
-				Log.infoLog("Adding " + sfile.getAbsolutePath() + " to \"For deletion files list\"\n");
+	@Override
+	public String submitScript(final String script, final String workDir, final String autoItLocation, final int timeout) throws Exception {
+		return submitJob(CommandClassifier.isGuiCommand(script), Priority.NORMAL, script, new Callable<Map<String, Comparable<?>>>() {
+			@Override
+			public Map<String, Comparable<?>> call() throws Exception {
+				try {
+					return doRunScript(script, workDir, autoItLocation, timeout);
+				} finally {
+					getQueryCache().invalidateFor(script);
+				}
 			}
+		});
+	}
+
+	@Override
+	public int registerProcedure(String name, String scriptBody, List<String> paramNames) throws Exception {
+		getProcedureRegistry().register(name, scriptBody, paramNames);
+		return 0;
+	}
+
+	public Map<String, Comparable<?>> invokeProcedure(String name, final String workDir, final String autoItLocation, final int timeout, Vector<Object> args) throws Exception {
+		final ProcedureRegistry registry = getProcedureRegistry();
+		final Procedure procedure = registry.acquire(name);
+		Map<String, Comparable<?>> result;
+		try {
+			final File arguments = registry.writeArguments(procedure, args);
+			try {
+				final Vector<Object> params = new Vector<Object>();
+				params.add(arguments.getAbsolutePath());
+				result = runJob(CommandClassifier.isGuiCommand(procedure.getBody()), Priority.INTERACTIVE, new Callable<Map<String, Comparable<?>>>() {
+					@Override
+					public Map<String, Comparable<?>> call() throws Exception {
+						try {
+							return executeFile(procedure.getFile().getAbsolutePath(), workDir, autoItLocation, timeout, params);
+						} finally {
+							getQueryCache().invalidateFor(procedure.getBody());
+						}
+					}
+				});
+			} finally {
+				arguments.delete();
+			}
+		} finally {
+			registry.release(procedure);
+		}
+		return shapeResult(result, procedure.getBody());
+	}
+
+	@Override
+	public Map<String, Comparable<?>> invokeProcedure(String name, String workDir, String autoItLocation, int timeout, Object... args) throws Exception {
+		return invokeProcedure(name, workDir, autoItLocation, timeout, new Vector<Object>(Arrays.asList(args)));
+	}
+
+	private static synchronized ReplyCache getReplyCache() {
+		if (replyCache == null) {
+			replyCache = new ReplyCache(replyCacheSize, replyCacheMaxBytes, replyCacheTtlMillis);
+		}
+		return replyCache;
+	}
+
+	private static synchronized ProcedureRegistry getProcedureRegistry() {
+		if (procedureRegistry == null) {
+			procedureRegistry = new ProcedureRegistry(new File("procedures"));
+		}
+		return procedureRegistry;
+	}
+
+	public String submitAutoitFile(final String fullPath, final String workDir, final String autoItLocation, final int timeout, final Vector<Object> params) throws Exception {
+		return submitJob(true, Priority.BULK, null, new Callable<Map<String, Comparable<?>>>() {
+			@Override
+			public Map<String, Comparable<?>> call() throws Exception {
+				try {
+					return executeFile(fullPath, workDir, autoItLocation, timeout, params);
+				} finally {
+					getQueryCache().invalidateAll();
+				}
+			}
+		});
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public String submitAutoitFile(String fullPath, String workDir, String autoItLocation, int timeout, Object... params) throws Exception {
+		Vector<Object> parameters = new Vector<Object>();
+		if (params.length == 1 && params[0] instanceof Vector) {
+			parameters = (Vector<Object>) params[0];
 		} else {
-			sfile.deleteOnExit();
+			for (Object param : params) {
+				parameters.add(param);
+			}
+		}
+		return submitAutoitFile(fullPath, workDir, autoItLocation, timeout, parameters);
+	}
+
+	/**
+	 * @param source	The script as the client sent it, null for a script file
+	 */
+	private String submitJob(boolean gui, Priority priority, String source, Callable<Map<String, Comparable<?>>> work) throws Exception {
+		Job job = createJob(gui, priority, source, work);
+		Log.infoLog("Submitted job " + job.getId() + NEW_LINE);
+		return job.getId();
+	}
+
+	/**
+	 * Run the work on the scheduler and wait for its result. The job of a synchronous call
+	 * enters the job table only if its output was truncated, so the rest can be read, the
+	 * caller gets its result directly.
+	 */
+	private Map<String, Comparable<?>> runJob(boolean gui, Priority priority, Callable<Map<String, Comparable<?>>> work) throws Exception {
+		Job job = newJob(work);
+		synchronousJobs.put(job.getId(), job);
+		try {
+			job.setFuture(getScheduler().submit(gui, requestPriority(priority), job));
+			job.await(Long.MAX_VALUE);
+			return job.getResult();
+		} catch (AgentBusyException exception) {
+			job.dispose();
+			Log.infoLog(exception.getMessage() + NEW_LINE);
+			throw exception;
+		} finally {
+			synchronousJobs.remove(job.getId());
+			if (job.isFinished() && getJobTable().get(job.getId()) != job) {
+				job.dispose();
+			}
+		}
+	}
+
+	/**
+	 * Keep the job of a synchronous call whose output was truncated, as if it was submitted.
+	 * The job table evicts it like any finished job.
+	 */
+	private static void keepSynchronousJob(Job job) {
+		try {
+			if (getJobTable().get(job.getId()) == null) {
+				getJobTable().add(job);
+			}
+		} catch (Exception exception) {
+			Log.infoLog("The full output of job " + job.getId() + " is not kept: " + exception.getMessage() + NEW_LINE);
+		}
+	}
+
+	/**
+	 * @param priority	The default priority of the work, used unless the client request sets one
+	 */
+	private Job createJob(boolean gui, Priority priority, String source, Callable<Map<String, Comparable<?>>> work) throws Exception {
+		Job job = newJob(work);
+		job.setSource(source);
+		getJobTable().add(job);
+		try {
+			job.setFuture(getScheduler().submit(gui, requestPriority(priority), job));
+		} catch (AgentBusyException exception) {
+			getJobTable().remove(job.getId());
+			Log.infoLog(exception.getMessage() + NEW_LINE);
+			throw exception;
+		}
+		return job;
+	}
+
+	private Job newJob(Callable<Map<String, Comparable<?>>> work) throws Exception {
+		Job job = new Job(work, outputMemoryLimit, outputResultLimit, getJobOutputDir());
+		job.setRequest(RequestContext.current());
+		return job;
+	}
+
+	/**
+	 * Entry point of the request envelope: run an agent method on behalf of a client request.
+	 * The envelope carries the request id and the time budget of the request, jobs created by
+	 * the call inherit them so they can be cancelled by request id and skipped once the
+	 * deadline passed. The reply is kept for a while by request id, see {@link ReplyCache}.
+	 * A rejection of a saturated agent is a fault with the code of {@link AgentBusyException#getFaultCode()}.
+	 *
+	 * @param envelope	The request id and budget (milliseconds, 0 for none)
+	 * @param method	The name of the agent method to run
+	 * @param params	The method parameters
+	 * @return	The method return value
+	 * @throws Exception
+	 */
+	public Object dispatch(Map<String, Object> envelope, final String method, final Object[] params) throws Exception {
+		RequestContext request = RequestContext.fromEnvelope(envelope);
+		RequestContext.setCurrent(request);
+		try {
+			// A request sent again after a broken connection gets the reply of its first execution
+			return getReplyCache().execute(request.getRequestId(), new Callable<Object>() {
+				@Override
+				public Object call() throws Exception {
+					return getDispatcher().invoke(method, params);
+				}
+			}, request.remaining());
+		} catch (AgentBusyException exception) {
+			// The retry hint goes in the fault code, the client does not parse messages
+			throw new XmlRpcException(exception.getFaultCode(), exception.getMessage());
+		} catch (UnknownProcedureException exception) {
+			throw new XmlRpcException(UnknownProcedureException.FAULT_CODE, exception.getMessage());
+		} finally {
+			RequestContext.setCurrent(null);
 		}
-		
-		return result;
 	}
 
 	@Override
-	public int getFile(String user, String password, String host,int port, String fileName, String location) throws Exception{
-		getFileFtp(user, password, host, port, fileName, location);
-		return 0;
+	public int cancel(String requestId) throws Exception {
+		int count = 0;
+		List<Job> jobs = getJobTable().findByRequest(requestId);
+		for (Job job : synchronousJobs.values()) {
+			if (requestId.equals(job.getRequestId())) {
+				jobs.add(job);
+			}
+		}
+		for (Job job : jobs) {
+			if (job.cancel()) {
+				getProcessTracker().killOwner(job.getId());
+				count++;
+			}
+		}
+		synchronized (AutoItAgent.class) {
+			cancelledJobs += count;
+		}
+		Log.infoLog("Cancel request " + requestId + ", " + count + " jobs cancelled\n");
+		return count;
+	}
+
+	/**
+	 * @return	The priority set by the current client request, or the given default
+	 */
+	private static Priority requestPriority(Priority defaultPriority) {
+		RequestContext request = RequestContext.current();
+		return request == null || request.getPriority() == null ? defaultPriority : request.getPriority();
+	}
+
+	/**
+	 * @return	true if the script succeeded with its full output, the only results worth memoizing
+	 */
+	private static boolean isCleanResult(Map<String, Comparable<?>> result) {
+		Object stderr = result.get(STDERR);
+		return Integer.valueOf(0).equals(result.get(RETURN)) && (stderr == null || stderr.toString().isEmpty()) && !Boolean.TRUE.equals(result.get(TRUNCATED));
+	}
+
+	private static synchronized QueryCache getQueryCache() {
+		if (queryCache == null) {
+			queryCache = new QueryCache(queryCacheSize);
+			queryCache.setTimeToLive(QueryCache.Family.ENV, queryCacheEnvTtlMillis);
+			queryCache.setTimeToLive(QueryCache.Family.REGISTRY, queryCacheRegistryTtlMillis);
+			queryCache.setTimeToLive(QueryCache.Family.FILE, queryCacheFileTtlMillis);
+		}
+		return queryCache;
+	}
+
+	/**
+	 * Apply the result shape of the current client request: the script echo is replaced with
+	 * the hash of the script the client sent, or dropped. The job keeps the full result.
+	 *
+	 * @param source	The script as the client sent it
+	 */
+	private static Map<String, Comparable<?>> shapeResult(Map<String, Comparable<?>> result, String source) {
+		RequestContext request = RequestContext.current();
+		ResultShape shape = request == null ? ResultShape.FULL : request.getResultShape();
+		if (shape == ResultShape.FULL) {
+			return result;
+		}
+		Hashtable<String, Comparable<?>> shaped = new Hashtable<String, Comparable<?>>(result);
+		shaped.remove(SCRIPT);
+		if (shape == ResultShape.HASH && source != null) {
+			shaped.put(SCRIPT_HASH, ScriptFileCache.hash(source));
+		}
+		return shaped;
+	}
+
+	private static synchronized RequestDispatcher getDispatcher() {
+		if (dispatcher == null) {
+			dispatcher = new RequestDispatcher(new AutoItAgent(), "dispatch");
+		}
+		return dispatcher;
+	}
+
+	@Override
+	public String readOutput(String jobId, int offset, int maxLength) throws Exception {
+		return getJob(jobId).getStdout().read(offset, maxLength);
 	}
 
 	@Override
-	public int createFile(String fileName, String content) throws IOException{	
+	public String readError(String jobId, int offset, int maxLength) throws Exception {
+		return getJob(jobId).getStderr().read(offset, maxLength);
+	}
+
+	@Override
+	public String getJobStatus(String jobId) {
+		Job job = getJobTable().get(jobId);
+		return (job == null ? Job.Status.UNKNOWN : job.getStatus()).toString();
+	}
+
+	@Override
+	public boolean awaitJob(String jobId, int maxWait) throws Exception {
+		return getJob(jobId).await(maxWait);
+	}
+
+	@Override
+	public Map<String, Comparable<?>> getJobResult(String jobId) throws Exception {
+		Job job = getJob(jobId);
+		Map<String, Comparable<?>> result = job.getResult();
+		if (result == null) {
+			return null;
+		}
+		// The echo of a script job is the wrapped script, the hash is of the script the client sent
+		return shapeResult(result, job.getSource() != null ? job.getSource() : (String) result.get(SCRIPT));
+	}
+
+	private static Job getJob(String jobId) throws Exception {
+		Job job = getJobTable().get(jobId);
+		if (job == null) {
+			throw new Exception("Unknown job " + jobId);
+		}
+		return job;
+	}
+
+	@Override
+	public int killJob(String jobId) throws Exception {
+		Job job = getJob(jobId);
+		int count = getProcessTracker().killOwner(jobId);
+		Log.infoLog("Kill job " + jobId + " (" + job.getStatus() + "), " + count + " processes signalled\n");
+		return count;
+	}
+
+	@Override
+	public boolean killPid(long pid) {
+		return getProcessTracker().killPid(pid);
+	}
+
+	private static synchronized ProcessTracker getProcessTracker() {
+		if (processTracker == null) {
+			processTracker = new ProcessTracker(shutDownTimeOut);
+		}
+		return processTracker;
+	}
+
+	static synchronized void shutdownProcessTracker() {
+		if (watcher != null) {
+			watcher.shutdown();
+		}
+		if (processTable != null) {
+			processTable.shutdown();
+		}
+		if (timeoutWatchdog != null) {
+			timeoutWatchdog.shutdown();
+		}
+		if (processTracker != null) {
+			processTracker.shutdown();
+		}
+	}
+
+	private static synchronized TimeoutWatchdog getTimeoutWatchdog() {
+		if (timeoutWatchdog == null) {
+			timeoutWatchdog = new TimeoutWatchdog(watchdogTickMillis);
+		}
+		return timeoutWatchdog;
+	}
+
+	private static synchronized ScriptRunner getScriptRunner() {
+		if (scriptRunner == null) {
+			scriptRunner = new ScriptRunner(getProcessTracker(), getTimeoutWatchdog(), resourceSampleMillis);
+		}
+		return scriptRunner;
+	}
+
+	private static synchronized ResourceAccounting getResourceAccounting() {
+		if (resourceAccounting == null) {
+			resourceAccounting = new ResourceAccounting(resourceAccountingSize);
+		}
+		return resourceAccounting;
+	}
+
+	private static synchronized JobTable getJobTable() {
+		if (jobTable == null) {
+			jobTable = new JobTable(jobTableSize);
+		}
+		return jobTable;
+	}
+
+	/**
+	 * @return	The directory for job output spill files, emptied on first use
+	 */
+	private static synchronized File getJobOutputDir() {
+		if (jobOutputDir == null) {
+			jobOutputDir = new File("jobOutput");
+			File[] leftovers = jobOutputDir.listFiles();
+			if (leftovers != null) {
+				for (File leftover : leftovers) {
+					leftover.delete();
+				}
+			}
+		}
+		return jobOutputDir;
+	}
+
+	private static synchronized ExecutionScheduler getScheduler() {
+		if (scheduler == null) {
+			scheduler = new ExecutionScheduler(parallelLaneWorkers, priorityAgingMillis, maxInFlightJobs, maxQueueLength);
+		}
+		return scheduler;
+	}
+
+	static synchronized void shutdownScheduler() {
+		if (scheduler != null) {
+			scheduler.shutdown();
+		}
+	}
+
+	@Override
+	public int getFile(final String user, final String password, final String host, final int port, final String fileName, final String location) throws Exception{
+		return getScheduler().execute(false, requestPriority(Priority.BULK), new Callable<Integer>() {
+			@Override
+			public Integer call() throws Exception {
+				try {
+					getFileFtp(user, password, host, port, fileName, location);
+				} finally {
+					getQueryCache().invalidatePath(location);
+				}
+				return 0;
+			}
+		});
+	}
+
+	@Override
+	public int createFile(final String fileName, final String content) throws Exception{
+		return getScheduler().execute(false, requestPriority(Priority.NORMAL), new Callable<Integer>() {
+			@Override
+			public Integer call() throws Exception {
+				try {
+					return doCreateFile(fileName, content);
+				} finally {
+					getQueryCache().invalidatePath(fileName);
+				}
+			}
+		});
+	}
+
+	private int doCreateFile(String fileName, String content) throws IOException{	
 		File outFile = new File(fileName);
 		if (outFile.exists()) {
 			outFile.delete();
@@ -325,20 +1066,38 @@ public class AutoItAgent implements AutoIt {
 	}
 
 	@Override
-	public int deleteLocation(String location) throws Exception{
-		FileUtils.deltree(location);
-		return 0;
+	public int deleteLocation(final String location) throws Exception{
+		return getScheduler().execute(false, requestPriority(Priority.NORMAL), new Callable<Integer>() {
+			@Override
+			public Integer call() throws Exception {
+				try {
+					FileUtils.deltree(location);
+				} finally {
+					getQueryCache().invalidatePath(location);
+				}
+				return 0;
+			}
+		});
 	}
 
 	@Override
-	public int unzipFile(String filePath, String distDir) throws Exception{
-		File dist = new File(distDir);
-		if (dist.exists()) {
-			FileUtils.deltree(dist);
-		}
-		dist.mkdirs();
-		FileUtils.extractZipFile(new File(filePath), dist);
-		return 0;
+	public int unzipFile(final String filePath, final String distDir) throws Exception{
+		return getScheduler().execute(false, requestPriority(Priority.BULK), new Callable<Integer>() {
+			@Override
+			public Integer call() throws Exception {
+				File dist = new File(distDir);
+				try {
+					if (dist.exists()) {
+						FileUtils.deltree(dist);
+					}
+					dist.mkdirs();
+					FileUtils.extractZipFile(new File(filePath), dist);
+				} finally {
+					getQueryCache().invalidatePath(distDir);
+				}
+				return 0;
+			}
+		});
 	}
 
 	@Override
@@ -499,6 +1258,7 @@ public class AutoItAgent implements AutoIt {
 				String timeOutAsString = JOptionPane.showInputDialog("Please Insert Force ShutDown TimeOut (in seconds)", String.valueOf(shutDownTimeOut / 1000));
 				try {
 					shutDownTimeOut = 1000 * Long.parseLong(timeOutAsString);
+					getProcessTracker().setGracePeriod(shutDownTimeOut);
 				} catch (Exception e2) {
 				}
 				Log.infoLog("Setting the force shutdown time out to : " + (shutDownTimeOut / 1000) + " seconds.\n");
@@ -632,6 +1392,11 @@ public class AutoItAgent implements AutoIt {
 			phm.addHandler("autoit", AutoItAgent.class);
 			XmlRpcServer xmlRpcServer = webServer.getXmlRpcServer();
 			xmlRpcServer.setHandlerMapping(phm);
+			XmlRpcServerConfigImpl serverConfig = (XmlRpcServerConfigImpl) xmlRpcServer.getConfig();
+			serverConfig.setEnabledForExtensions(true);
+			// Keep the client connections open between calls, the replies need a content length for that
+			serverConfig.setKeepAliveEnabled(true);
+			serverConfig.setContentLengthOptional(false);
 		} catch (Exception e) {
 			throw new RuntimeException(e);
 		}
@@ -640,6 +1405,7 @@ public class AutoItAgent implements AutoIt {
 		if (serverState) {
 			serverState = false;
 			webServer.shutdown();
+			shutDownBinaryServer();
 			Log.info("J2AutoIt Agent Stopped\n");
 		}
 	}
@@ -651,28 +1417,73 @@ public class AutoItAgent implements AutoIt {
 			}catch (Exception e) {
 				throw new RuntimeException(e);
 			}
+			runBinaryServer();
 			Log.info("J2AutoIt Agent Started\n");
 		}
 	}
 
+	/**
+	 * Serve the binary protocol next to XML-RPC, if a binary port is configured
+	 */
+	private static synchronized void runBinaryServer() {
+		if (binaryPort <= 0 || binaryServer != null && binaryServer.isRunning()) {
+			return;
+		}
+		// Listen on the same address as the XML-RPC server
+		InetAddress address = null;
+		try {
+			address = InetAddress.getLocalHost();
+		} catch (Exception exception) {
+			Log.info("Binary protocol on all the local addresses: " + exception.getMessage() + NEW_LINE);
+		}
+		binaryServer = new BinaryServer(address, binaryPort, binaryWorkers, binaryQueueLength, new BinaryServer.Handler() {
+			@Override
+			public Object handle(Map<String, Object> envelope, String method, Object[] params) throws Exception {
+				return new AutoItAgent().dispatch(envelope, method, params);
+			}
+		});
+		try {
+			binaryServer.start();
+			Log.info("J2AutoIt Agent binary protocol on " + (address == null ? "port: " : "address: " + address.getHostAddress() + ":") + binaryPort + NEW_LINE);
+		} catch (IOException exception) {
+			Log.throwable("Failed to open the binary port " + binaryPort + NEW_LINE, exception);
+			binaryServer = null;
+		}
+	}
+
+	private static synchronized void shutDownBinaryServer() {
+		if (binaryServer != null) {
+			binaryServer.shutdown();
+			binaryServer = null;
+		}
+	}
+
 	@Override
 	public String revealAutoIt3Location() throws Exception{
 		return getAutoExecuterItLocation("Unable to find autoIt location");
 	}
 	
 	private static String getAutoExecuterItLocation(String defaulValue) {
-		if (autoIt_Location == null || autoIt_Location.trim().isEmpty()) {
-			String autoIt32 = MessageFormat.format(AUTOIT_REGISTRY_KEY, "");
-			String autoIt64 = MessageFormat.format(AUTOIT_REGISTRY_KEY, "_x64");
-			for (String currentKey : new String[] {autoIt32, autoIt64}) {
-				try {
-					return autoIt_Location = extractLocation(currentKey);
-				} catch (Exception exception) {
+		synchronized (LOCATION_LOCK) {
+			if (autoIt_Location == null || autoIt_Location.trim().isEmpty()) {
+				autoIt_Location = LOCATION_CACHE.load();
+				if (autoIt_Location != null) {
+					return autoIt_Location;
 				}
+				String autoIt32 = MessageFormat.format(AUTOIT_REGISTRY_KEY, "");
+				String autoIt64 = MessageFormat.format(AUTOIT_REGISTRY_KEY, "_x64");
+				for (String currentKey : new String[] {autoIt32, autoIt64}) {
+					try {
+						autoIt_Location = extractLocation(currentKey);
+						LOCATION_CACHE.store(autoIt_Location);
+						return autoIt_Location;
+					} catch (Exception exception) {
+					}
+				}
+				return defaulValue;
 			}
-			return defaulValue;
+			return autoIt_Location;
 		}
-		return autoIt_Location;
 	}
 
 	private static String extractLocation(String regkey) throws Exception {
@@ -695,39 +1506,15 @@ public class AutoItAgent implements AutoIt {
 
 	@Override
 	public int killProcess(String image) {
-		try {
-			Thread.sleep(shutDownTimeOut);
-			Process taskKillProcess = Runtime.getRuntime().exec("TASKKILL /F /IM " + image);
-			Log.infoLog("Forcing AutoIt Script Shutdown!!\n");
-			StringBuilder sb = new StringBuilder("");
-			BufferedReader br = new BufferedReader(new InputStreamReader(taskKillProcess.getInputStream()));
-			String line = null;
-			while((line = br.readLine()) != null) {
-				if (!line.trim().isEmpty()) {
-					sb.append(line).append(NEW_LINE);
-				}
-			}
-			if (sb.length() > 0) {
-				Log.infoLog(sb.toString());
-			} else {
-				br = new BufferedReader(new InputStreamReader(taskKillProcess.getErrorStream()));
-				line = null;
-				while((line = br.readLine()) != null) {
-					if (!line.trim().isEmpty()) {
-						sb.append(line).append(NEW_LINE);
-					}
-				}
-				Log.errorLog(sb.toString());
-			}
-		} catch (Exception e) {
-			Log.errorLog(e.getMessage());
-		}
+		int count = getProcessTracker().killImage(image);
+		Log.infoLog("Kill " + image + ", " + count + " processes signalled\n");
 		return 0;
 	}
 
 	@Override
 	public int killAutoItProcess() {
-		killProcess("AutoIt3.exe");
+		int count = getProcessTracker().killAll();
+		Log.infoLog("Kill AutoIt scripts, " + count + " processes signalled\n");
 		return 0;
 	}
 
@@ -745,30 +1532,48 @@ public class AutoItAgent implements AutoIt {
 
 	@Override
 	public boolean isProcessStillActive(String processName) throws Exception{
-		String cmd = "TASKLIST.EXE /FO CSV /NH /FI \"IMAGENAME eq " + processName +"\"";
-		Process child = Runtime.getRuntime().exec(cmd);
-		Log.infoLog("Running the command line : " + cmd + NEW_LINE);
-		return readFromStream("ErrorStream : ", child.getErrorStream()) && 
-						readFromStream("InputStream : ", child.getInputStream());
+		return getProcessTable().isRunning(processName);
 	}
-	
-	private boolean readFromStream(String location, InputStream inputStream) throws Exception{
-		BufferedReader br = new BufferedReader(new InputStreamReader(inputStream));
-		StringBuilder sb = new StringBuilder("");
-		String line = null;
-		while((line = br.readLine()) != null) {
-			if (line.trim().toLowerCase().contains("no tasks")) {
-				Log.infoLog(location + line + NEW_LINE);
-				br.close();
-				return false;
-			} else {
-				sb.append(line).append(NEW_LINE);
-			}
+
+	@Override
+	public List<Long> getProcessIds(String processName) {
+		return new Vector<Long>(getProcessTable().getPids(processName));
+	}
+
+	@Override
+	public Map<String, Integer> countProcesses(List<String> processNames) {
+		return getProcessTable().count(processNames);
+	}
+
+	@Override
+	public String subscribe(String eventType, String pattern) throws Exception {
+		return getWatcher().subscribe(EventType.parse(eventType), pattern);
+	}
+
+	@Override
+	public List<Map<String, Comparable<?>>> pollEvents(String subscriptionId, int timeout) throws Exception {
+		RequestContext request = RequestContext.current();
+		long wait = request == null ? timeout : Math.min(timeout, Math.max(0, request.remaining()));
+		return getWatcher().poll(subscriptionId, wait);
+	}
+
+	@Override
+	public boolean unsubscribe(String subscriptionId) {
+		return getWatcher().unsubscribe(subscriptionId);
+	}
+
+	private static synchronized Watcher getWatcher() {
+		if (watcher == null) {
+			watcher = new Watcher(getProcessTable(), getAutoExecuterItLocation("AutoIt3.exe"), watchSampleMillis);
+		}
+		return watcher;
+	}
+
+	private static synchronized ProcessTable getProcessTable() {
+		if (processTable == null) {
+			processTable = new ProcessTable(processTableRefreshMillis);
 		}
-		Log.infoLog(location + sb.toString());
-		sb = null;
-		br.close();
-		return true;
+		return processTable;
 	}
 
 	@Override
@@ -776,6 +1581,126 @@ public class AutoItAgent implements AutoIt {
 		return System.getProperty(key);
 	}
 
+	@Override
+	public Map<String, Comparable<?>> getAgentStatistics() {
+		Hashtable<String, Comparable<?>> statistics = new Hashtable<String, Comparable<?>>();
+		// Read the subsystems as they are: a subsystem that was never used reports zeros instead of being created here
+		InterpreterPool pool;
+		ScriptFileCache cache;
+		QueryCache queries;
+		ReplyCache replies;
+		ProcedureRegistry procedures;
+		ExecutionScheduler executionScheduler;
+		JobTable jobs;
+		TempScriptManager tempScripts;
+		ProcessTracker tracker;
+		TimeoutWatchdog watchdog;
+		ProcessTable processes;
+		ResourceAccounting resources;
+		synchronized (AutoItAgent.class) {
+			pool = interpreterPool;
+			cache = scriptFileCache;
+			queries = queryCache;
+			replies = replyCache;
+			procedures = procedureRegistry;
+			executionScheduler = scheduler;
+			jobs = jobTable;
+			tempScripts = tempScriptManager;
+			tracker = processTracker;
+			watchdog = timeoutWatchdog;
+			processes = processTable;
+			resources = resourceAccounting;
+			statistics.put("jobs.cancelled", cancelledJobs);
+			if (watcher != null) {
+				watcher.fillStatistics(statistics, "watch");
+			}
+			if (binaryServer != null) {
+				binaryServer.fillStatistics(statistics, "binary");
+			}
+		}
+		if (pool != null) {
+			statistics.put("workerPool.size", pool.getPoolSize());
+			statistics.put("workerPool.live", pool.getLiveWorkers());
+			statistics.put("workerPool.recycled", pool.getRecycledWorkers());
+		} else {
+			putZeros(statistics, "workerPool", "size", "live", "recycled");
+		}
+		if (cache != null) {
+			statistics.put("scriptCache.size", cache.size());
+			statistics.put("scriptCache.hits", cache.getHits());
+			statistics.put("scriptCache.misses", cache.getMisses());
+			statistics.put("scriptCache.evictions", cache.getEvictions());
+		} else if (scriptCacheSize > 0) {
+			putZeros(statistics, "scriptCache", "size", "hits", "misses", "evictions");
+		}
+		boot.fillStatistics(statistics, "boot");
+		if (queries != null) {
+			queries.fillStatistics(statistics, "queryCache");
+		} else {
+			putZeros(statistics, "queryCache", "size");
+		}
+		if (replies != null) {
+			replies.fillStatistics(statistics, "replyCache");
+		} else {
+			putZeros(statistics, "replyCache", "size", "bytes", "executions", "hits", "joins", "expirations", "evictions");
+		}
+		if (procedures != null) {
+			statistics.put("procedures.registered", procedures.size());
+			statistics.put("procedures.invocations", procedures.getInvocations());
+		} else {
+			putZeros(statistics, "procedures", "registered", "invocations");
+		}
+		if (executionScheduler != null) {
+			executionScheduler.fillStatistics(statistics);
+		} else {
+			putZeros(statistics, "admission", "inFlight", "rejected");
+		}
+		if (jobs != null) {
+			statistics.put("jobs.size", jobs.size());
+			statistics.put("jobs.evictions", jobs.getEvictions());
+		} else {
+			putZeros(statistics, "jobs", "size", "evictions");
+		}
+		if (tracker != null) {
+			statistics.put("processes.tracked", tracker.getTrackedCount());
+			statistics.put("processes.killRequests", tracker.getKillRequests());
+			statistics.put("processes.forcedKills", tracker.getForcedKills());
+			statistics.put("processes.reaped", tracker.getReaped());
+		} else {
+			putZeros(statistics, "processes", "tracked", "killRequests", "forcedKills", "reaped");
+		}
+		if (watchdog != null) {
+			watchdog.fillStatistics(statistics, "watchdog");
+		} else {
+			putZeros(statistics, "watchdog", "pending", "scheduled", "cancelled", "expired");
+		}
+		if (processes != null) {
+			processes.fillStatistics(statistics, "processTable");
+		} else {
+			putZeros(statistics, "processTable", "images", "refreshes", "queries");
+		}
+		if (resources != null) {
+			resources.fillStatistics(statistics, "resources");
+		} else {
+			putZeros(statistics, "resources", "scripts", "runs", "evictions");
+		}
+		if (tempScripts != null) {
+			statistics.put("tempScripts.slots", tempScripts.getSlotCount());
+			statistics.put("tempScripts.liveFiles", tempScripts.getLiveFiles());
+			statistics.put("tempScripts.liveBytes", tempScripts.getLiveBytes());
+			statistics.put("tempScripts.overflows", tempScripts.getOverflows());
+		} else {
+			putZeros(statistics, "tempScripts", "slots", "liveFiles", "liveBytes", "overflows");
+		}
+		return statistics;
+	}
+
+	private static void putZeros(Map<String, Comparable<?>> statistics, String prefix, String... names) {
+		for (String name : names) {
+			statistics.put(prefix + "." + name, 0);
+		}
+	}
+
 	@Override
 	public int setSilentMode(boolean silentMode) {
 		Log.setLogMode(silentMode, isDebug);
@@ -809,6 +1734,18 @@ class ExitThread extends Thread {
 			HistoryFile.close();
 		} catch (Exception e) {
 		}
+		try {
+			AutoItAgent.shutdownScheduler();
+		} catch (Exception e) {
+		}
+		try {
+			AutoItAgent.shutdownInterpreterPool();
+		} catch (Exception e) {
+		}
+		try {
+			AutoItAgent.shutdownProcessTracker();
+		} catch (Exception e) {
+		}
 		try {
 			Log.closeLog();
 		} catch (Exception e) {
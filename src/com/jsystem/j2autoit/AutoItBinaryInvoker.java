@@ -0,0 +1,113 @@
+/*
+ * Copyright 2005-2010 Ignis Software Tools Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jsystem.j2autoit;
+
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+
+import org.apache.xmlrpc.XmlRpcException;
+
+import com.aqua.filetransfer.ftp.FTPServer;
+import com.jsystem.j2autoit.transport.BinaryCodec;
+import com.jsystem.j2autoit.transport.BinaryConnectionPool;
+
+/**
+ * Calls the remote AutoIt agent over the binary protocol instead of XML-RPC.<br>
+ * The agent serves the protocol on its binary port (the binaryPort agent property). The
+ * calls carry the same request envelope as the XML-RPC calls and go through the same
+ * agent dispatch, so deadlines, priorities, retries and request id deduplication behave
+ * the same; errors reported by the agent are thrown as XmlRpcException, as the XML-RPC
+ * invoker throws them.
+ */
+public class AutoItBinaryInvoker extends AutoItRemoteInvoker {
+	private static final String HANDLER_PREFIX = "autoit.";
+	private static final String DISPATCH = "dispatch";
+
+	private BinaryConnectionPool pool;
+
+	/**
+	 * @param port
+	 *            The binary port of the agent
+	 */
+	public AutoItBinaryInvoker(String host, int port, FTPServer ftps) {
+		super(host, port, ftps);
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	protected Object call(String method, Vector<Object> params, long budget) throws Exception {
+		String command = method.startsWith(HANDLER_PREFIX) ? method.substring(HANDLER_PREFIX.length()) : method;
+		Map<String, Object> envelope;
+		List<Object> arguments;
+		if (DISPATCH.equals(command)) {
+			envelope = (Map<String, Object>) params.get(0);
+			command = (String) params.get(1);
+			arguments = (List<Object>) params.get(2);
+		} else {
+			envelope = new Hashtable<String, Object>();
+			arguments = params;
+		}
+		int replyTimeout = budget > 0 ? (int) Math.min(Integer.MAX_VALUE, budget + REPLY_TIMEOUT_MARGIN) : 0;
+		Object[] reply = (Object[]) getPool().call(BinaryCodec.request(envelope, command, arguments.toArray()), replyTimeout);
+		if (!Boolean.TRUE.equals(reply[0])) {
+			throw new XmlRpcException(reply.length > 2 ? (Integer) reply[2] : 0, String.valueOf(reply[1]));
+		}
+		return reply[1];
+	}
+
+	private synchronized BinaryConnectionPool getPool() {
+		if (pool == null) {
+			pool = new BinaryConnectionPool(getHost(), getPort(), getMaxConnections(), IDLE_CONNECTION_TIMEOUT);
+		}
+		return pool;
+	}
+
+	@Override
+	public synchronized void shutdown() {
+		super.shutdown();
+		if (pool != null) {
+			pool.shutdown();
+			pool = null;
+		}
+	}
+
+	/**
+	 * The pool closes its busy connections when their calls return
+	 */
+	@Override
+	protected synchronized void retireClient() {
+		super.retireClient();
+		if (pool != null) {
+			pool.shutdown();
+			pool = null;
+		}
+	}
+
+	@Override
+	public synchronized void setMaxConnections(int maxConnections) {
+		super.setMaxConnections(maxConnections);
+		if (pool != null) {
+			pool.setMaxConnections(getMaxConnections());
+		}
+	}
+
+	@Override
+	public synchronized int getOpenConnections() {
+		return pool == null ? 0 : pool.getOpenConnections();
+	}
+}
@@ -22,9 +22,12 @@ import java.awt.image.BufferedImage;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeoutException;
 
 import javax.imageio.ImageIO;
@@ -33,17 +36,43 @@ import jsystem.framework.system.SystemObjectImpl;
 import jsystem.utils.FileUtils;
 import jsystem.utils.StringUtils;
 
+import org.apache.xmlrpc.XmlRpcException;
+
 import com.aqua.filetransfer.ftp.FTPServer;
+import com.jsystem.j2autoit.cache.ScriptFileCache;
+import com.jsystem.j2autoit.job.ResultShape;
+import com.jsystem.j2autoit.scheduler.Priority;
+import com.jsystem.j2autoit.scheduler.TimeoutProfile;
+import com.jsystem.j2autoit.script.UnknownProcedureException;
+import com.jsystem.j2autoit.script.ValueRecord;
+import com.jsystem.j2autoit.transport.AgentTransport;
+import com.jsystem.j2autoit.watch.Watcher;
 
 public class AutoItClient extends SystemObjectImpl implements AutoItConstants {
 
 	private static final int DEFAULT_TIME_OUT = 30;
 
+	private static final int SCRIPT_TABLE_SIZE = 1024;
+
+	private static final int MAX_POLL_WAIT = 30000;
+
+	private static final int DEFAULT_MIN_SCRIPT_TIMEOUT = 5;
+
+	private static final int DEFAULT_MAX_SCRIPT_TIMEOUT = 120;
+
+	private static final double DEFAULT_TIMEOUT_SAFETY_FACTOR = 3.0;
+
+	private static final int DEFAULT_MAX_AGENT_CONNECTIONS = 8;
+
+	private static final int DEFAULT_BINARY_PORT = 8889;
+
 	private static final String FTP_HOME_DIR = "c:\\ftpserver";
 
 	String host = "127.0.0.1";
 	private String name = "";
 	int port = 8888;
+	private int binaryPort = DEFAULT_BINARY_PORT;
+	private AgentTransport transport = AgentTransport.XMLRPC;
 	String autoItLocation;
 	String workDir = System.getProperty("user.dir");
 
@@ -53,6 +82,21 @@ public class AutoItClient extends SystemObjectImpl implements AutoItConstants {
 	private Process serverProcess;
 	private int scriptTimeout = DEFAULT_TIME_OUT;
 
+	/**
+	 * Derive the default script timeout from the latency history of the command family
+	 * instead of using the fixed script timeout
+	 */
+	private boolean adaptiveTimeouts = false;
+
+	private final TimeoutProfile timeoutProfile = new TimeoutProfile(DEFAULT_TIMEOUT_SAFETY_FACTOR, DEFAULT_MIN_SCRIPT_TIMEOUT * 1000L,
+			DEFAULT_MAX_SCRIPT_TIMEOUT * 1000L);
+
+	/**
+	 * The file the latency history is kept in between runs, empty to keep it in memory only.
+	 * The agent host and port are added to the name, so every agent has its own history.
+	 */
+	private String timeoutProfileFile = "autoitTimeouts.properties";
+
 	/**
 	 * Direct connection to agent in case running without the XML-RPC
 	 */
@@ -65,6 +109,37 @@ public class AutoItClient extends SystemObjectImpl implements AutoItConstants {
 
 	private boolean silentMode = false;
 
+	private ResultShape resultShape = ResultShape.FULL;
+
+	/**
+	 * The most connections kept open to the agent at once
+	 */
+	private int maxAgentConnections = DEFAULT_MAX_AGENT_CONNECTIONS;
+
+	/**
+	 * Wait for windows with the agent watcher instead of WinWait scripts, turned off when
+	 * the agent does not support it
+	 */
+	private boolean useAgentWatcher = true;
+
+	/**
+	 * The procedures registered by this client, name to {body, parameter names}
+	 */
+	private final Map<String, Object[]> procedures = new ConcurrentHashMap<String, Object[]>();
+
+	/**
+	 * The scripts sent to the agent by hash, to report the script text of results that
+	 * only carry its hash
+	 */
+	private final Map<String, String> scriptsByHash = Collections.synchronizedMap(new LinkedHashMap<String, String>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+			return size() > SCRIPT_TABLE_SIZE;
+		}
+	});
+
 	public AutoItClient() {
 		super();
 	}
@@ -108,17 +183,44 @@ public class AutoItClient extends SystemObjectImpl implements AutoItConstants {
 			} catch (Exception exception) {
 				exception.printStackTrace();
 			}
-			agent = new AutoItRemoteInvoker(host, port, ftps);
+			AutoItRemoteInvoker invoker;
+			if (transport == AgentTransport.BINARY) {
+				invoker = new AutoItBinaryInvoker(host, binaryPort, ftps);
+			} else {
+				invoker = new AutoItRemoteInvoker(host, port, ftps);
+			}
+			invoker.setResultShape(resultShape);
+			invoker.setMaxConnections(maxAgentConnections);
+			agent = invoker;
 		}
 		try {
 			agent.setSilentMode(silentMode);
 		} catch (Exception exception) {
 			exception.printStackTrace();
 		}
+		File profile = getAgentTimeoutProfileFile();
+		if (profile != null) {
+			try {
+				timeoutProfile.load(profile);
+			} catch (Exception exception) {
+				report.report("Failed to load the script timeout profile " + profile + ": " + exception.getMessage());
+			}
+		}
 	}
 
 	@Override
 	public void close() {
+		File profile = getAgentTimeoutProfileFile();
+		if (profile != null) {
+			try {
+				timeoutProfile.save(profile);
+			} catch (Exception exception) {
+				report.report("Failed to save the script timeout profile " + profile + ": " + exception.getMessage());
+			}
+		}
+		if (agent instanceof AutoItRemoteInvoker) {
+			((AutoItRemoteInvoker) agent).shutdown();
+		}
 		counter--;
 		if (counter == 0) {
 			try {
@@ -134,14 +236,20 @@ public class AutoItClient extends SystemObjectImpl implements AutoItConstants {
 	}
 
 	/**
-	 * run script on the remote machine with default 30 seconds timeout
+	 * run script on the remote machine with the default timeout: the script timeout (30
+	 * seconds by default), or the timeout learned for the command family of the script
+	 * when adaptive timeouts are on
 	 * 
 	 * @param script
 	 * @return
 	 * @throws Exception
 	 */
 	public Map<String, Comparable<?>> runRemoteScript(String script) throws Exception {
-		return runRemoteScript(script, scriptTimeout);
+		long timeout = scriptTimeout * 1000L;
+		if (adaptiveTimeouts) {
+			timeout = timeoutProfile.timeoutFor(TimeoutProfile.familyOf(script), timeout);
+		}
+		return runRemoteScriptMillis(script, (int) timeout, true);
 	}
 
 	/**
@@ -153,9 +261,42 @@ public class AutoItClient extends SystemObjectImpl implements AutoItConstants {
 	 * @return
 	 * @throws Exception
 	 */
-	@SuppressWarnings("unchecked")
 	public Map<String, Comparable<?>> runRemoteScript(String script, int timeout) throws Exception {
-		Object returnedObject = agent.runScript(script, workDir, autoItLocation, timeout * 1000);
+		return runRemoteScript(script, timeout, true);
+	}
+
+	/**
+	 * run script on the remote machine with timeout, choosing whether a query may be
+	 * answered from the agent query cache
+	 * 
+	 * @param script
+	 * @param timeout
+	 *            Timeout in seconds
+	 * @param useCache
+	 *            false to run the script even if the agent has its result cached
+	 * @return
+	 * @throws Exception
+	 */
+	public Map<String, Comparable<?>> runRemoteScript(String script, int timeout, boolean useCache) throws Exception {
+		return runRemoteScriptMillis(script, timeout * 1000, useCache);
+	}
+
+	/**
+	 * Run the script, the latency of the scripts that complete goes to the timeout profile
+	 */
+	@SuppressWarnings("unchecked")
+	private Map<String, Comparable<?>> runRemoteScriptMillis(String script, int timeout, boolean useCache) throws Exception {
+		rememberScript(script);
+		Object returnedObject;
+		long start = System.currentTimeMillis();
+		if (!useCache && agent instanceof AutoItRemoteInvoker) {
+			returnedObject = ((AutoItRemoteInvoker) agent).runScript(script, workDir, autoItLocation, timeout, false);
+		} else {
+			returnedObject = agent.runScript(script, workDir, autoItLocation, timeout);
+		}
+		if (returnedObject instanceof Map<?, ?> && "".equals(((Map<?, ?>) returnedObject).get(STDERR))) {
+			timeoutProfile.record(TimeoutProfile.familyOf(script), System.currentTimeMillis() - start);
+		}
 		if (returnedObject instanceof Exception) {
 			throw (Exception) returnedObject;
 		} else if (returnedObject instanceof Map<?, ?>) {
@@ -169,6 +310,270 @@ public class AutoItClient extends SystemObjectImpl implements AutoItConstants {
 		}
 	}
 
+	/**
+	 * run several commands on the remote machine with one script execution and default timeout
+	 * 
+	 * @param commands
+	 * @return The result of every command, in the order of the commands
+	 * @throws Exception
+	 */
+	public List<Map<String, Comparable<?>>> runRemoteScriptBatch(List<String> commands) throws Exception {
+		return runRemoteScriptBatch(commands, scriptTimeout);
+	}
+
+	/**
+	 * run several commands on the remote machine with one script execution
+	 * 
+	 * @param commands
+	 * @param timeout
+	 *            Timeout in seconds for the whole batch
+	 * @return The result of every command, in the order of the commands
+	 * @throws Exception
+	 */
+	public List<Map<String, Comparable<?>>> runRemoteScriptBatch(List<String> commands, int timeout) throws Exception {
+		for (String command : commands) {
+			rememberScript(command);
+		}
+		return agent.runScriptBatch(commands, workDir, autoItLocation, timeout * 1000);
+	}
+
+	/**
+	 * Register a stored procedure on the remote machine. The procedure is kept by this
+	 * client too and registered again if the agent restarted.
+	 * 
+	 * @param name
+	 *            The procedure name, an AutoIt identifier
+	 * @param scriptBody
+	 *            The script body, it reads its parameters as $paramName variables
+	 * @param paramNames
+	 *            The parameter names
+	 * @throws Exception
+	 */
+	public void registerProcedure(String name, String scriptBody, String... paramNames) throws Exception {
+		List<String> params = Arrays.asList(paramNames);
+		agent.registerProcedure(name, scriptBody, params);
+		procedures.put(name, new Object[] {scriptBody, params});
+		rememberScript(scriptBody);
+	}
+
+	/**
+	 * Invoke a stored procedure with the default timeout
+	 * 
+	 * @param name
+	 *            The procedure name
+	 * @param args
+	 *            One argument per procedure parameter, passed as strings without any escaping
+	 * @return
+	 * @throws Exception
+	 */
+	public Map<String, Comparable<?>> invokeProcedure(String name, Object... args) throws Exception {
+		return invokeProcedureWithTimeout(name, scriptTimeout, args);
+	}
+
+	/**
+	 * Invoke a stored procedure
+	 * 
+	 * @param name
+	 *            The procedure name
+	 * @param timeout
+	 *            Timeout in seconds
+	 * @param args
+	 *            One argument per procedure parameter, passed as strings without any escaping
+	 * @return
+	 * @throws Exception
+	 */
+	@SuppressWarnings("unchecked")
+	public Map<String, Comparable<?>> invokeProcedureWithTimeout(String name, int timeout, Object... args) throws Exception {
+		try {
+			return agent.invokeProcedure(name, workDir, autoItLocation, timeout * 1000, args);
+		} catch (XmlRpcException exception) {
+			Object[] procedure = procedures.get(name);
+			if (procedure == null || exception.code != UnknownProcedureException.FAULT_CODE) {
+				throw exception;
+			}
+			// The agent restarted since the procedure was registered
+			agent.registerProcedure(name, (String) procedure[0], (List<String>) procedure[1]);
+			return agent.invokeProcedure(name, workDir, autoItLocation, timeout * 1000, args);
+		}
+	}
+
+	/**
+	 * Wait for a window or process event, watched on the agent by one sampler shared by all
+	 * waiters instead of an AutoIt process per wait
+	 * 
+	 * @param eventType
+	 *            WINDOW_OPENED, WINDOW_CLOSED, WINDOW_ACTIVATED, PROCESS_STARTED or PROCESS_EXITED
+	 * @param pattern
+	 *            Window title prefix or process image name
+	 * @param timeout
+	 *            Timeout in seconds, 0 to wait forever
+	 * @return The first event (the current state counts, see {@link AutoIt#subscribe(String, String)}), or null on timeout
+	 * @throws Exception
+	 */
+	public Map<String, Comparable<?>> waitForEvent(String eventType, String pattern, int timeout) throws Exception {
+		return awaitEvent(agent.subscribe(eventType, pattern), timeout);
+	}
+
+	/**
+	 * Wait for a window to close
+	 * 
+	 * @param title
+	 *            Window title prefix
+	 * @param timeout
+	 *            Timeout in seconds, 0 to wait forever
+	 * @return false if the timeout expired
+	 * @throws Exception
+	 */
+	public boolean waitForWindowClose(String title, int timeout) throws Exception {
+		return waitForEvent("WINDOW_CLOSED", title, timeout) != null;
+	}
+
+	/**
+	 * Wait for all the processes of an image to exit
+	 * 
+	 * @param image
+	 *            Process image name, for example setup.exe
+	 * @param timeout
+	 *            Timeout in seconds, 0 to wait forever
+	 * @return false if the timeout expired
+	 * @throws Exception
+	 */
+	public boolean waitForProcessExit(String image, int timeout) throws Exception {
+		Map<String, Integer> counts = countRemoteProcesses(Arrays.asList(image));
+		Integer count = counts.get(image);
+		if (count == null || count == 0) {
+			return true;
+		}
+		String subscriptionId = agent.subscribe("PROCESS_EXITED", image);
+		long deadline = timeout > 0 ? System.currentTimeMillis() + timeout * 1000L : Long.MAX_VALUE;
+		try {
+			while (true) {
+				long remaining = deadline - System.currentTimeMillis();
+				if (remaining <= 0) {
+					return false;
+				}
+				for (Map<String, Comparable<?>> event : agent.pollEvents(subscriptionId, (int) Math.min(remaining, MAX_POLL_WAIT))) {
+					// An exit event without a PID: none is left
+					if (Long.valueOf(0).equals(event.get(Watcher.PID))) {
+						return true;
+					}
+				}
+				counts = countRemoteProcesses(Arrays.asList(image));
+				count = counts.get(image);
+				if (count == null || count == 0) {
+					return true;
+				}
+			}
+		} finally {
+			unsubscribeQuietly(subscriptionId);
+		}
+	}
+
+	/**
+	 * Wait for a window event on the agent watcher
+	 * 
+	 * @return the wait result, or null if the wait has to run as a script (window text or an
+	 *         advanced title, or an agent without the watcher)
+	 */
+	private Boolean watchWindow(String eventType, String title, String text, int timeout) throws Exception {
+		if (!useAgentWatcher || (text != null && !text.isEmpty()) || title == null || title.startsWith("[")) {
+			return null;
+		}
+		String subscriptionId;
+		try {
+			subscriptionId = agent.subscribe(eventType, title);
+		} catch (Exception exception) {
+			useAgentWatcher = false;
+			report.report("The agent can not watch windows, waiting with scripts: " + exception.getMessage());
+			return null;
+		}
+		return awaitEvent(subscriptionId, timeout) != null;
+	}
+
+	private Map<String, Comparable<?>> awaitEvent(String subscriptionId, int timeout) throws Exception {
+		long deadline = timeout > 0 ? System.currentTimeMillis() + timeout * 1000L : Long.MAX_VALUE;
+		try {
+			while (true) {
+				long remaining = deadline - System.currentTimeMillis();
+				if (remaining <= 0) {
+					return null;
+				}
+				List<Map<String, Comparable<?>>> events = agent.pollEvents(subscriptionId, (int) Math.min(remaining, MAX_POLL_WAIT));
+				if (!events.isEmpty()) {
+					return events.get(0);
+				}
+			}
+		} finally {
+			unsubscribeQuietly(subscriptionId);
+		}
+	}
+
+	private void unsubscribeQuietly(String subscriptionId) {
+		try {
+			agent.unsubscribe(subscriptionId);
+		} catch (Exception exception) {
+			// The subscription expires on the agent anyway
+		}
+	}
+
+	/**
+	 * Submit a script for asynchronous execution on the remote machine
+	 * 
+	 * @param script
+	 * @param timeout
+	 *            Timeout in seconds
+	 * @return The job id
+	 * @throws Exception
+	 */
+	public String submitRemoteScript(String script, int timeout) throws Exception {
+		return agent.submitScript(script, workDir, autoItLocation, timeout * 1000);
+	}
+
+	/**
+	 * Get the status of a submitted job
+	 * 
+	 * @param jobId
+	 * @return QUEUED, RUNNING, DONE, FAILED, CANCELLED, EXPIRED or UNKNOWN
+	 * @throws Exception
+	 */
+	public String getJobStatus(String jobId) throws Exception {
+		return agent.getJobStatus(jobId);
+	}
+
+	/**
+	 * Wait for a submitted job to finish
+	 * 
+	 * @param jobId
+	 * @param maxWait
+	 *            Maximum time to wait in seconds
+	 * @return true if the job finished
+	 * @throws Exception
+	 */
+	public boolean awaitJob(String jobId, int maxWait) throws Exception {
+		return agent.awaitJob(jobId, maxWait * 1000);
+	}
+
+	/**
+	 * Get the result of a finished job
+	 * 
+	 * @param jobId
+	 * @return
+	 * @throws Exception
+	 */
+	public Map<String, Comparable<?>> getJobResult(String jobId) throws Exception {
+		return agent.getJobResult(jobId);
+	}
+
+	/**
+	 * Open a reader that tails the stdout of a submitted job
+	 *
+	 * @param jobId
+	 * @return
+	 */
+	public JobOutputReader openOutputReader(String jobId) {
+		return new JobOutputReader(agent, jobId);
+	}
+
 	/**
 	 * Add quote to the var.
 	 * 
@@ -342,6 +747,10 @@ public class AutoItClient extends SystemObjectImpl implements AutoItConstants {
 				+ "\")\nConsoleWrite($var[0] & \" \" & $var[1] & \" \" & $var[2] & \" \" & $var[3])";
 		Map<?, ?> result = runRemoteScript(cmd);
 		processResult("Wait for windows active, title: ", result);
+		ValueRecord value = valueOf(result);
+		if (value != null && value.isArray()) {
+			return value.asStrings().toArray(new String[0]);
+		}
 		String posArray[] = result.get(STDOUT).toString().split(" ");
 		return posArray;
 	}
@@ -354,7 +763,8 @@ public class AutoItClient extends SystemObjectImpl implements AutoItConstants {
 	public String[] winGetClassList(String title) throws Exception {
 		Map<?, ?> result = runRemoteScript(commandCreate("WinGetClassList", title));
 		processResult("Get autoit class list of specific window, title: ", result);
-		String posArray[] = result.get(STDOUT).toString().split("\n");
+		ValueRecord value = valueOf(result);
+		String posArray[] = (value != null ? value.asString() : result.get(STDOUT).toString()).split("\n");
 		return posArray;
 	}
 
@@ -396,7 +806,60 @@ public class AutoItClient extends SystemObjectImpl implements AutoItConstants {
 	 * @param result
 	 */
 	private void processResult(String title, Map<?, ?> result) {
-		report.report(name + " " + title, (String) result.get(SCRIPT), true);
+		report.report(name + " " + title, scriptOf(result), true);
+	}
+
+	/**
+	 * @return	The script text of a result, resolved from the local script table when the
+	 *         agent echoed only its hash
+	 */
+	private String scriptOf(Map<?, ?> result) {
+		Object script = result.get(SCRIPT);
+		if (script != null) {
+			return script.toString();
+		}
+		Object hash = result.get(SCRIPT_HASH);
+		if (hash == null) {
+			return null;
+		}
+		String known = scriptsByHash.get(hash.toString());
+		return known != null ? known : "script " + hash;
+	}
+
+	/**
+	 * Decode the typed value of a script result
+	 *
+	 * @return	The value record, null if the result has none (an older agent, or a script that
+	 *         exited by itself before the wrapper wrote the record)
+	 */
+	public static ValueRecord valueOf(Map<?, ?> result) {
+		Object record = result.get(VALUE);
+		if (record == null) {
+			return null;
+		}
+		try {
+			return ValueRecord.decode(record.toString());
+		} catch (IllegalArgumentException exception) {
+			return null;
+		}
+	}
+
+	/**
+	 * @return	The script value as a number, read from the value record or parsed from the stdout
+	 * @throws NumberFormatException	If the value is not a number
+	 */
+	private static int intValue(Map<?, ?> result) {
+		ValueRecord value = valueOf(result);
+		if (value != null) {
+			return value.asInt();
+		}
+		return Integer.parseInt(result.get(STDOUT).toString());
+	}
+
+	private void rememberScript(String script) {
+		if (resultShape == ResultShape.HASH) {
+			scriptsByHash.put(ScriptFileCache.hash(script), script);
+		}
 	}
 
 	/**
@@ -484,7 +947,7 @@ public class AutoItClient extends SystemObjectImpl implements AutoItConstants {
 		} else {
 			result = runRemoteScript(commandCreate("Ping", host));
 		}
-		return Integer.parseInt(result.get(STDOUT).toString());
+		return intValue(result);
 	}
 
 	/**
@@ -837,9 +1300,9 @@ public class AutoItClient extends SystemObjectImpl implements AutoItConstants {
 				overwrite ? 1 : 0));
 		processResult("Rename section in ini file: ", result);
 		Object stdOut = result.get(STDOUT);
-		if (stdOut != null && !StringUtils.isEmpty(stdOut.toString())) {
+		if (valueOf(result) != null || stdOut != null && !StringUtils.isEmpty(stdOut.toString())) {
 			try {
-				return Integer.parseInt(stdOut.toString());
+				return intValue(result);
 			} catch (Exception exception) {
 			}
 		}
@@ -1038,7 +1501,7 @@ public class AutoItClient extends SystemObjectImpl implements AutoItConstants {
 			}
 		}
 		Map<String, Comparable<?>> result = runRemoteScript(script);
-		return Integer.valueOf(result.get(STDOUT).toString());
+		return intValue(result);
 	}
 
 	public int runAs(String username, String domain, String password, int logon_flag, String program,
@@ -1169,7 +1632,7 @@ public class AutoItClient extends SystemObjectImpl implements AutoItConstants {
 			}
 		}
 		Map<String, Comparable<?>> result = runRemoteScript(script);
-		return Integer.valueOf(result.get(STDOUT).toString());
+		return intValue(result);
 	}
 
 	public int runAsWait(String username, String domain, String password, int logon_flag, String program,
@@ -1270,6 +1733,12 @@ public class AutoItClient extends SystemObjectImpl implements AutoItConstants {
 	 *         Failure: Returns 0 if timeout occurred.
 	 */
 	public boolean winWait(String title) throws Exception {
+		// Bound like the WinWait script, which the script timeout stops
+		Boolean watched = watchWindow("WINDOW_OPENED", title, null, scriptTimeout);
+		if (watched != null) {
+			report.report(name + " Window wait: " + title + ", watched on the agent", watched.booleanValue());
+			return watched;
+		}
 		Map<?, ?> result = runRemoteScript(commandCreate("WinWait", title));
 		processResult("Window wait: " + title, result);
 		return !"0".equals(result.get(STDOUT));
@@ -1290,6 +1759,11 @@ public class AutoItClient extends SystemObjectImpl implements AutoItConstants {
 	 *         Failure: Returns 0 if timeout occurred.
 	 */
 	public boolean winWait(String title, String text, int timeOut) throws Exception {
+		Boolean watched = watchWindow("WINDOW_OPENED", title, text, timeOut);
+		if (watched != null) {
+			report.report(name + " Window wait: " + title + ", watched on the agent", watched.booleanValue());
+			return watched;
+		}
 		Map<?, ?> result = runRemoteScript(commandCreate("WinWait", title, text, timeOut));
 		processResult("Window wait: " + title, result);
 		return !"0".equals(result.get(STDOUT));
@@ -1596,6 +2070,11 @@ public class AutoItClient extends SystemObjectImpl implements AutoItConstants {
 	 * @throws Exception
 	 */
 	public boolean winWaitActive(String title, String text, int timeout) throws Exception {
+		Boolean watched = watchWindow("WINDOW_ACTIVATED", title, text, timeout);
+		if (watched != null) {
+			report.report(name + " Wait for windows active, title: " + title + ", watched on the agent", watched.booleanValue());
+			return watched;
+		}
 		Map<?, ?> result = null;
 		if (text != null) {
 			if (timeout > 0) {
@@ -1827,7 +2306,7 @@ public class AutoItClient extends SystemObjectImpl implements AutoItConstants {
 	public int processExists(String process) throws Exception {
 		Map<?, ?> result = runRemoteScript(commandCreate("ProcessExists", process));
 		processResult("Process exists", result);
-		return Integer.parseInt(result.get(STDOUT).toString());
+		return intValue(result);
 	}
 
 	/**
@@ -1999,7 +2478,7 @@ public class AutoItClient extends SystemObjectImpl implements AutoItConstants {
 		Map<?, ?> result = runRemoteScript(commandCreate("ShellExecuteWait", list.toArray()), timeOutInSeconds);
 		processResult("Shell execute: ", result);
 
-		return Integer.parseInt(result.get(STDOUT).toString());
+		return intValue(result);
 	}
 
 	/**
@@ -2108,7 +2587,7 @@ public class AutoItClient extends SystemObjectImpl implements AutoItConstants {
 	public int inetGetSize(String url, int options) throws Exception {
 		Map<?, ?> result = runRemoteScript(commandCreate("InetGetSize", url, options));
 		processResult("The " + url + " size: ", result);
-		return Integer.parseInt(result.get(STDOUT).toString());
+		return intValue(result);
 	}
 
 	/**
@@ -2122,7 +2601,7 @@ public class AutoItClient extends SystemObjectImpl implements AutoItConstants {
 	public int fileGetSize(String filename) throws Exception {
 		Map<?, ?> result = runRemoteScript(commandCreate("FileGetSize", filename));
 		processResult("The file " + filename + " size: ", result);
-		return Integer.parseInt(result.get(STDOUT).toString());
+		return intValue(result);
 	}
 
 	/**
@@ -2343,6 +2822,16 @@ public class AutoItClient extends SystemObjectImpl implements AutoItConstants {
 		return agent.revealAutoIt3Location();
 	}
 
+	/**
+	 * Retrieve the remote agent internal counters
+	 * 
+	 * @return
+	 * @throws Exception
+	 */
+	public Map<String, Comparable<?>> getAgentStatistics() throws Exception {
+		return agent.getAgentStatistics();
+	}
+
 	public boolean isAutoItScriptAlive() throws Exception {
 		return agent.isAutoItActive();
 	}
@@ -2355,10 +2844,47 @@ public class AutoItClient extends SystemObjectImpl implements AutoItConstants {
 		agent.killProcess(imageName);
 	}
 
+	/**
+	 * Kill the processes of a submitted job, returns without waiting for them to exit
+	 * 
+	 * @param jobId
+	 * @return The number of processes that were signalled
+	 * @throws Exception
+	 */
+	public int killJob(String jobId) throws Exception {
+		return agent.killJob(jobId);
+	}
+
+	/**
+	 * Kill a remote process by PID, returns without waiting for it to exit
+	 * 
+	 * @param pid
+	 * @return true if the process was found
+	 * @throws Exception
+	 */
+	public boolean killRemotePid(long pid) throws Exception {
+		return agent.killPid(pid);
+	}
+
 	public boolean isProcessActive(String imageName) throws Exception {
 		return agent.isProcessStillActive(imageName);
 	}
 
+	public List<Long> getRemoteProcessIds(String imageName) throws Exception {
+		return agent.getProcessIds(imageName);
+	}
+
+	/**
+	 * Count the running instances of several images with one call to the agent
+	 * 
+	 * @param imageNames
+	 * @return Image name to number of running instances
+	 * @throws Exception
+	 */
+	public Map<String, Integer> countRemoteProcesses(List<String> imageNames) throws Exception {
+		return agent.countProcesses(imageNames);
+	}
+
 	public int shutdownComputer(String switches) throws Exception {
 		return agent.shutdownComputer(switches);
 	}
@@ -2480,7 +3006,7 @@ public class AutoItClient extends SystemObjectImpl implements AutoItConstants {
 		} else {
 			result = runRemoteScript(commandCreate("RegDelete", true, keyname, valuename));
 		}
-		return Integer.parseInt(result.get(STDOUT).toString());
+		return intValue(result);
 	}
 
 	public String getFileVersion(String fullPath) throws Exception {
@@ -2662,7 +3188,7 @@ public class AutoItClient extends SystemObjectImpl implements AutoItConstants {
 	public void setHost(String host) {
 		if (!isRunAgentDirectly()) {
 			if (agent instanceof AutoItRemoteInvoker) {
-				((AutoItRemoteInvoker) agent).host = host;
+				((AutoItRemoteInvoker) agent).setHost(host);
 			}
 		}
 		this.host = host;
@@ -2674,8 +3200,8 @@ public class AutoItClient extends SystemObjectImpl implements AutoItConstants {
 
 	public void setPort(int port) {
 		if (!isRunAgentDirectly()) {
-			if (agent instanceof AutoItRemoteInvoker) {
-				((AutoItRemoteInvoker) agent).port = port;
+			if (agent instanceof AutoItRemoteInvoker && !(agent instanceof AutoItBinaryInvoker)) {
+				((AutoItRemoteInvoker) agent).setPort(port);
 			}
 		}
 		this.port = port;
@@ -2693,6 +3219,18 @@ public class AutoItClient extends SystemObjectImpl implements AutoItConstants {
 		this.autoItLocation = autoItLocation;
 	}
 
+	public boolean isUseAgentWatcher() {
+		return useAgentWatcher;
+	}
+
+	/**
+	 * If set to false, winWait and winWaitActive run WinWait scripts instead of waiting on
+	 * the agent watcher
+	 */
+	public void setUseAgentWatcher(boolean useAgentWatcher) {
+		this.useAgentWatcher = useAgentWatcher;
+	}
+
 	public boolean isRunAgentDirectly() {
 		return runAgentDirectly;
 	}
@@ -2711,6 +3249,81 @@ public class AutoItClient extends SystemObjectImpl implements AutoItConstants {
 		}
 	}
 
+	/**
+	 * Set the priority class of the following calls to the agent (remote agents only).<br>
+	 * Use BULK for long installs and extractions so short interactive commands do not wait
+	 * behind them.
+	 * 
+	 * @param priority
+	 *            The priority, null for the default of each agent method
+	 */
+	public void setCallPriority(Priority priority) {
+		if (agent instanceof AutoItRemoteInvoker) {
+			((AutoItRemoteInvoker) agent).setPriority(priority);
+		}
+	}
+
+	/**
+	 * Set how much of the script the agent echoes in the results (remote agents only).<br>
+	 * HASH and NONE save encoding time and bandwidth for large scripts; with HASH the
+	 * reports still show the script text, taken from the scripts this client sent.
+	 * 
+	 * @param resultShape
+	 *            FULL (the default), HASH or NONE
+	 */
+	public void setResultShape(ResultShape resultShape) {
+		this.resultShape = resultShape;
+		if (agent instanceof AutoItRemoteInvoker) {
+			((AutoItRemoteInvoker) agent).setResultShape(resultShape);
+		}
+	}
+
+	public AgentTransport getTransport() {
+		return transport;
+	}
+
+	/**
+	 * Choose the protocol of the calls to the agent, takes effect on init
+	 * 
+	 * @param transport
+	 *            XMLRPC (the default) on the agent port, or BINARY on the binary port; the
+	 *            agent serves BINARY only when its binaryPort property is set
+	 */
+	public void setTransport(AgentTransport transport) {
+		this.transport = transport;
+	}
+
+	public int getBinaryPort() {
+		return binaryPort;
+	}
+
+	/**
+	 * @param binaryPort
+	 *            The binary port of the agent (8889 by default)
+	 */
+	public void setBinaryPort(int binaryPort) {
+		if (agent instanceof AutoItBinaryInvoker) {
+			((AutoItBinaryInvoker) agent).setPort(binaryPort);
+		}
+		this.binaryPort = binaryPort;
+	}
+
+	public int getMaxAgentConnections() {
+		return maxAgentConnections;
+	}
+
+	/**
+	 * @param maxAgentConnections
+	 *            The most connections kept open to the agent at once (8 by default), calls
+	 *            made while all of them are busy wait for one to be free
+	 */
+	public void setMaxAgentConnections(int maxAgentConnections) {
+		this.maxAgentConnections = maxAgentConnections;
+		if (agent instanceof AutoItRemoteInvoker) {
+			((AutoItRemoteInvoker) agent).setMaxConnections(maxAgentConnections);
+		}
+	}
+
 	public int getScriptTimeout() {
 		return scriptTimeout;
 	}
@@ -2723,4 +3336,91 @@ public class AutoItClient extends SystemObjectImpl implements AutoItConstants {
 		this.scriptTimeout = DEFAULT_TIME_OUT;
 	}
 
+	public boolean isAdaptiveTimeouts() {
+		return adaptiveTimeouts;
+	}
+
+	/**
+	 * @param adaptiveTimeouts
+	 *            true to derive the default script timeout from the latency history of the
+	 *            command family, false (the default) to always use the script timeout
+	 */
+	public void setAdaptiveTimeouts(boolean adaptiveTimeouts) {
+		this.adaptiveTimeouts = adaptiveTimeouts;
+	}
+
+	public double getTimeoutSafetyFactor() {
+		return timeoutProfile.getSafetyFactor();
+	}
+
+	/**
+	 * @param timeoutSafetyFactor
+	 *            The learned timeout is the p99 latency of the command family times this factor
+	 */
+	public void setTimeoutSafetyFactor(double timeoutSafetyFactor) {
+		timeoutProfile.setSafetyFactor(timeoutSafetyFactor);
+	}
+
+	public int getMinScriptTimeout() {
+		return (int) (timeoutProfile.getFloorMillis() / 1000);
+	}
+
+	/**
+	 * @param minScriptTimeout
+	 *            The shortest learned timeout, in seconds
+	 */
+	public void setMinScriptTimeout(int minScriptTimeout) {
+		timeoutProfile.setFloorMillis(minScriptTimeout * 1000L);
+	}
+
+	public int getMaxScriptTimeout() {
+		return (int) (timeoutProfile.getCapMillis() / 1000);
+	}
+
+	/**
+	 * @param maxScriptTimeout
+	 *            The longest learned timeout, in seconds
+	 */
+	public void setMaxScriptTimeout(int maxScriptTimeout) {
+		timeoutProfile.setCapMillis(maxScriptTimeout * 1000L);
+	}
+
+	public String getTimeoutProfileFile() {
+		return timeoutProfileFile;
+	}
+
+	/**
+	 * @param timeoutProfileFile
+	 *            The file the latency history is loaded from on init and saved to on close,
+	 *            with the agent host and port added to its name, empty to keep it in memory only
+	 */
+	public void setTimeoutProfileFile(String timeoutProfileFile) {
+		this.timeoutProfileFile = timeoutProfileFile;
+	}
+
+	/**
+	 * @return The timeout profile file of the agent this client talks to, null if adaptive
+	 *         timeouts are off or the history is kept in memory only
+	 */
+	private File getAgentTimeoutProfileFile() {
+		if (!adaptiveTimeouts || StringUtils.isEmpty(timeoutProfileFile)) {
+			return null;
+		}
+		String agentKey = "-" + (host + "-" + port).replaceAll("[^\\w.-]", "_");
+		int extension = timeoutProfileFile.lastIndexOf('.');
+		if (extension <= Math.max(timeoutProfileFile.lastIndexOf('/'), timeoutProfileFile.lastIndexOf('\\'))) {
+			return new File(timeoutProfileFile + agentKey);
+		}
+		return new File(timeoutProfileFile.substring(0, extension) + agentKey + timeoutProfileFile.substring(extension));
+	}
+
+	/**
+	 * @return The latency percentiles and the current timeout of every command family
+	 */
+	public Map<String, Comparable<?>> getTimeoutStatistics() {
+		Map<String, Comparable<?>> statistics = new LinkedHashMap<String, Comparable<?>>();
+		timeoutProfile.fillStatistics(statistics, "timeouts", scriptTimeout * 1000L);
+		return statistics;
+	}
+
 }
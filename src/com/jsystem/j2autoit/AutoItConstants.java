@@ -20,4 +20,12 @@ public interface AutoItConstants {
 	public static final String RETURN = "return";
 	public static final String STDOUT = "stdout";
 	public static final String SCRIPT = "script";
+	public static final String SCRIPT_HASH = "scriptHash";
+	public static final String JOB_ID = "jobId";
+	public static final String TRUNCATED = "truncated";
+	public static final String VALUE = "value";
+	public static final String WALL_MILLIS = "wallMillis";
+	public static final String CPU_MILLIS = "cpuMillis";
+	public static final String QUEUE_MILLIS = "queueMillis";
+	public static final String PEAK_MEMORY_BYTES = "peakMemoryBytes";
 }
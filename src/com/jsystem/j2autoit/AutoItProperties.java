@@ -37,7 +37,33 @@ public enum AutoItProperties {
 	AUTO_IT_SCRIPT_HISTORY_SIZE_KEY("autoItScriptHistorySize"),
 	FORCE_AUTO_IT_PROCESS_SHUTDOWN_KEY("forceAutoItProcessShutdown"),
 	AGENT_PORT_KEY("agentPort"),
-	SERVER_UP_ON_INIT_KEY("serverUpOnInit");
+	SERVER_UP_ON_INIT_KEY("serverUpOnInit"),
+	WORKER_POOL_SIZE_KEY("workerPoolSize"),
+	WORKER_MAX_COMMANDS_KEY("workerMaxCommands"),
+	SCRIPT_CACHE_SIZE_KEY("scriptCacheSize"),
+	TEMP_SCRIPT_SLOTS_KEY("tempScriptSlots"),
+	PARALLEL_LANE_WORKERS_KEY("parallelLaneWorkers"),
+	JOB_TABLE_SIZE_KEY("jobTableSize"),
+	OUTPUT_MEMORY_LIMIT_KEY("outputMemoryLimit"),
+	OUTPUT_RESULT_LIMIT_KEY("outputResultLimit"),
+	WATCHDOG_TICK_MILLIS_KEY("watchdogTickMillis"),
+	PROCESS_TABLE_REFRESH_MILLIS_KEY("processTableRefreshMillis"),
+	PRIORITY_AGING_MILLIS_KEY("priorityAgingMillis"),
+	MAX_IN_FLIGHT_JOBS_KEY("maxInFlightJobs"),
+	MAX_QUEUE_LENGTH_KEY("maxQueueLength"),
+	QUERY_CACHE_SIZE_KEY("queryCacheSize"),
+	QUERY_CACHE_ENV_TTL_MILLIS_KEY("queryCacheEnvTtlMillis"),
+	QUERY_CACHE_REGISTRY_TTL_MILLIS_KEY("queryCacheRegistryTtlMillis"),
+	QUERY_CACHE_FILE_TTL_MILLIS_KEY("queryCacheFileTtlMillis"),
+	WATCH_SAMPLE_MILLIS_KEY("watchSampleMillis"),
+	REPLY_CACHE_SIZE_KEY("replyCacheSize"),
+	REPLY_CACHE_MAX_BYTES_KEY("replyCacheMaxBytes"),
+	REPLY_CACHE_TTL_MILLIS_KEY("replyCacheTtlMillis"),
+	RESOURCE_SAMPLE_MILLIS_KEY("resourceSampleMillis"),
+	RESOURCE_ACCOUNTING_SIZE_KEY("resourceAccountingSize"),
+	BINARY_PORT_KEY("binaryPort"),
+	BINARY_WORKERS_KEY("binaryWorkers"),
+	BINARY_QUEUE_LENGTH_KEY("binaryQueueLength");
 	protected static Properties properties = new Properties();
 	static{
 		try {
@@ -15,15 +15,30 @@
  */
 package com.jsystem.j2autoit;
 
+import java.io.IOException;
+import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.Arrays;
+import java.util.Hashtable;
+import java.util.List;
 import java.util.Map;
+import java.util.UUID;
 import java.util.Vector;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
+import org.apache.xmlrpc.XmlRpcException;
 import org.apache.xmlrpc.client.XmlRpcClient;
 import org.apache.xmlrpc.client.XmlRpcClientConfigImpl;
-import org.apache.xmlrpc.client.XmlRpcCommonsTransportFactory;
 
 import com.aqua.filetransfer.ftp.FTPServer;
+import com.jsystem.j2autoit.job.RequestContext;
+import com.jsystem.j2autoit.job.ResultShape;
+import com.jsystem.j2autoit.scheduler.AgentBusyException;
+import com.jsystem.j2autoit.scheduler.Priority;
 
 /**
  * A Mediator for sending xml-rpc requests to remote Autoit Agent
@@ -33,9 +48,49 @@ import com.aqua.filetransfer.ftp.FTPServer;
  */
 public class AutoItRemoteInvoker implements AutoIt {
 
+	private static final long DEFAULT_DEADLINE_MARGIN = 30000;
+	static final long REPLY_TIMEOUT_MARGIN = 2000;
+	private static final int CANCEL_TIMEOUT = 5000;
+	private static final int DEFAULT_BUSY_RETRIES = 5;
+	private static final long MAX_BUSY_BACKOFF = 30000;
+	private static final int DEFAULT_TRANSPORT_RETRIES = 2;
+	private static final long TRANSPORT_RETRY_DELAY = 200;
+	private static final int DEFAULT_MAX_CONNECTIONS = 8;
+	static final long IDLE_CONNECTION_TIMEOUT = 30000;
+	private static final int MAX_PENDING_CANCELS = 100;
+
+	/**
+	 * Sends the best effort cancels of abandoned requests, shared by all the invokers
+	 */
+	private static final ThreadPoolExecutor CANCEL_EXECUTOR = new ThreadPoolExecutor(2, 2, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(MAX_PENDING_CANCELS), new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "CancelRequest");
+			thread.setDaemon(true);
+			return thread;
+		}
+	}, new ThreadPoolExecutor.DiscardPolicy());
+
+	static {
+		CANCEL_EXECUTOR.allowCoreThreadTimeOut(true);
+	}
+
 	private FTPServer ftps;
-	String host = "127.0.0.1";
-	int port = 8888;
+	private long deadlineMargin = DEFAULT_DEADLINE_MARGIN;
+	// Whether the agent takes the request envelope, null until probed
+	private volatile Boolean envelopeAgent = null;
+	private volatile Priority priority = null;
+	private volatile ResultShape resultShape = ResultShape.FULL;
+	private volatile boolean queryCache = true;
+	private volatile int busyRetries = DEFAULT_BUSY_RETRIES;
+	private volatile int transportRetries = DEFAULT_TRANSPORT_RETRIES;
+	private String host = "127.0.0.1";
+	private int port = 8888;
+	private int maxConnections = DEFAULT_MAX_CONNECTIONS;
+	private XmlRpcClient client;
+	private PooledTransportFactory transportFactory;
+	private XmlRpcClientConfigImpl defaultConfig;
+	private long lastIdleCheck = 0;
 	
 	public AutoItRemoteInvoker(String host, int port, FTPServer ftps){
 		super();
@@ -60,7 +115,7 @@ public class AutoItRemoteInvoker implements AutoIt {
 	private Map<String, Comparable<?>> executeAutoitFile(String fullPath,
 			String workDir, String autoItLocation, int timeout,
 			Vector<Object> params) throws Exception {
-		return (Map<String, Comparable<?>>) execute("executeAutoitFile", fullPath, workDir, autoItLocation, timeout, params);
+		return (Map<String, Comparable<?>>) executeWithBudget(scriptBudget(timeout), "executeAutoitFile", fullPath, workDir, autoItLocation, timeout, params);
 	}
 	
 	@SuppressWarnings("unchecked")
@@ -79,6 +134,100 @@ public class AutoItRemoteInvoker implements AutoIt {
 		return executeAutoitFile(fullPath, workDir, autoItLocation, timeout, parameters);
 	}
 
+	@Override
+	public int registerProcedure(String name, String scriptBody, List<String> paramNames) throws Exception {
+		execute("registerProcedure", name, scriptBody, new Vector<String>(paramNames));
+		return 0;
+	}
+
+	/**
+	 * Every element of args is one procedure argument, a single collection argument is not unwrapped
+	 */
+	@SuppressWarnings("unchecked")
+	@Override
+	public Map<String, Comparable<?>> invokeProcedure(String name, String workDir, String autoItLocation, int timeout, Object... args) throws Exception {
+		Vector<Object> arguments = new Vector<Object>(Arrays.asList(args));
+		return (Map<String, Comparable<?>>) executeWithBudget(scriptBudget(timeout), "invokeProcedure", name, workDir, autoItLocation, timeout, arguments);
+	}
+
+	@Override
+	public String subscribe(String eventType, String pattern) throws Exception {
+		return execute("subscribe", eventType, pattern).toString();
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public List<Map<String, Comparable<?>>> pollEvents(String subscriptionId, int timeout) throws Exception {
+		Object[] events = (Object[]) executeWithBudget(timeout + REPLY_TIMEOUT_MARGIN, "pollEvents", subscriptionId, timeout);
+		List<Map<String, Comparable<?>>> list = new Vector<Map<String, Comparable<?>>>();
+		for (Object event : events) {
+			list.add((Map<String, Comparable<?>>) event);
+		}
+		return list;
+	}
+
+	@Override
+	public boolean unsubscribe(String subscriptionId) throws Exception {
+		return Boolean.valueOf(execute("unsubscribe", subscriptionId).toString());
+	}
+
+	@Override
+	public String submitScript(String script, String workDir, String autoItLocation, int timeout) throws Exception {
+		return execute("submitScript", script, workDir, autoItLocation, timeout).toString();
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public String submitAutoitFile(String fullPath, String workDir, String autoItLocation, int timeout, Object... params) throws Exception {
+		Vector<Object> parameters = new Vector<Object>();
+		if (params.length == 1 && params[0] instanceof Vector){
+			parameters = (Vector<Object>) params[0];
+		}else{
+			for (Object param : params){
+				parameters.add(param);
+			}
+		}
+		return execute("submitAutoitFile", fullPath, workDir, autoItLocation, timeout, parameters).toString();
+	}
+
+	@Override
+	public String getJobStatus(String jobId) throws Exception {
+		return execute("getJobStatus", jobId).toString();
+	}
+
+	@Override
+	public boolean awaitJob(String jobId, int maxWait) throws Exception {
+		Object obj = execute("awaitJob", jobId, maxWait);
+		return Boolean.valueOf(obj.toString());
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public Map<String, Comparable<?>> getJobResult(String jobId) throws Exception {
+		return (Map<String, Comparable<?>>) execute("getJobResult", jobId);
+	}
+
+	@Override
+	public String readOutput(String jobId, int offset, int maxLength) throws Exception {
+		return execute("readOutput", jobId, offset, maxLength).toString();
+	}
+
+	@Override
+	public String readError(String jobId, int offset, int maxLength) throws Exception {
+		return execute("readError", jobId, offset, maxLength).toString();
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public List<Map<String, Comparable<?>>> runScriptBatch(List<String> commands, String workDir, String autoItLocation, int timeout) throws Exception {
+		Object[] returnedObjects = (Object[]) executeWithBudget(scriptBudget(timeout), "runScriptBatch", new Vector<String>(commands), workDir, autoItLocation, timeout);
+		List<Map<String, Comparable<?>>> results = new Vector<Map<String, Comparable<?>>>();
+		for (Object returnedObject : returnedObjects) {
+			results.add((Map<String, Comparable<?>>) returnedObject);
+		}
+		return results;
+	}
+
 	@Override
 	public int getFile(String user, String password, String host, int port,
 			String fileName, String location) throws Exception {
@@ -104,12 +253,42 @@ public class AutoItRemoteInvoker implements AutoIt {
 		return Boolean.valueOf(obj.toString());
 	}
 
+	@Override
+	public List<Long> getProcessIds(String processName) throws Exception {
+		Object[] returnedObjects = (Object[]) execute("getProcessIds", processName);
+		List<Long> pids = new Vector<Long>();
+		for (Object returnedObject : returnedObjects) {
+			pids.add(Long.valueOf(returnedObject.toString()));
+		}
+		return pids;
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public Map<String, Integer> countProcesses(List<String> processNames) throws Exception {
+		Vector<Object> params = new Vector<Object>();
+		params.add(new Vector<String>(processNames));
+		return (Map<String, Integer>) execute("countProcesses", params);
+	}
+
 	@Override
 	public int killAutoItProcess() throws Exception {
 		execute("killAutoItProcess");
 		return 0;
 	}
 
+	@Override
+	public int killJob(String jobId) throws Exception {
+		Object obj = execute("killJob", jobId);
+		return Integer.parseInt(obj.toString());
+	}
+
+	@Override
+	public boolean killPid(long pid) throws Exception {
+		Object obj = execute("killPid", pid);
+		return Boolean.valueOf(obj.toString());
+	}
+
 	@Override
 	public int killProcess(String processName) throws Exception {
 		execute("killProcess", processName);
@@ -131,7 +310,23 @@ public class AutoItRemoteInvoker implements AutoIt {
 	@SuppressWarnings("unchecked")
 	@Override
 	public Map<String, Comparable<?>> runScript(String script, String workDir, String autoItLocation,int timeout) throws Exception{
-	    return (Map<String, Comparable<?>>) execute("runScript", script, workDir, autoItLocation, timeout);
+	    return (Map<String, Comparable<?>>) executeWithBudget(scriptBudget(timeout), "runScript", script, workDir, autoItLocation, timeout);
+	}
+
+	/**
+	 * Run a script, choosing for this call whether the agent may answer a query from its cache
+	 * 
+	 * @param useCache
+	 *            false to always run the script
+	 */
+	@SuppressWarnings("unchecked")
+	public Map<String, Comparable<?>> runScript(String script, String workDir, String autoItLocation, int timeout, boolean useCache) throws Exception {
+		Vector<Object> params = new Vector<Object>();
+		params.add(script);
+		params.add(workDir);
+		params.add(autoItLocation);
+		params.add(timeout);
+		return (Map<String, Comparable<?>>) invoke(null, scriptBudget(timeout), useCache, "runScript", params);
 	}
 
 	@Override
@@ -141,17 +336,55 @@ public class AutoItRemoteInvoker implements AutoIt {
 	}
 	
 	/**
-	 * creates an XmlRpcClient and calls it's execute method to connect to a
-	 * server
+	 * calls the agent through the XmlRpcClient of this invoker, which keeps its
+	 * connections to the server open between calls
 	 * 
 	 * @param command
 	 * @param params
 	 * @return
 	 * @throws Exception
 	 */
-	@SuppressWarnings("unchecked")
 	public Object execute(String command, Object...objects) throws Exception {
-		command = "autoit." + command;
+		return executeWithBudget(0, command, objects);
+	}
+
+	/**
+	 * Call the agent within a time budget.<br>
+	 * The call is wrapped in a request envelope carrying a new request id and the budget, the
+	 * agent skips the work if it is still queued when the budget runs out. If the connection
+	 * fails the call is sent again with the same request id, the agent answers the repeated
+	 * request with the reply of the first execution instead of running it twice. If the call
+	 * still fails on the client side (reply timeout, connection error, interrupt) the agent is
+	 * asked to cancel the request, so it does not keep running work nobody waits for.
+	 * 
+	 * @param budget
+	 *            Time in milliseconds the client is willing to wait, 0 for no limit
+	 * @param command
+	 * @param objects
+	 * @return
+	 * @throws Exception
+	 */
+	public Object executeWithBudget(long budget, String command, Object... objects) throws Exception {
+		return executeWithRequestId(null, budget, command, objects);
+	}
+
+	/**
+	 * Call the agent with a request id chosen by the caller.<br>
+	 * The agent runs a request id once while it remembers its reply (a minute by default), so
+	 * a caller that repeats a call which may have run already (a Send, a FileMove) gets the
+	 * first reply back instead of a second execution.
+	 * 
+	 * @param requestId
+	 *            The request id, null for a new one
+	 * @param budget
+	 *            Time in milliseconds the client is willing to wait, 0 for no limit
+	 * @param command
+	 * @param objects
+	 * @return
+	 * @throws Exception
+	 */
+	@SuppressWarnings("unchecked")
+	public Object executeWithRequestId(String requestId, long budget, String command, Object... objects) throws Exception {
 		Vector<Object> params = new Vector<Object>();
 		if (objects.length==1 && objects[0] instanceof Vector<?>){
 			params = (Vector<Object>) objects[0];
@@ -160,19 +393,347 @@ public class AutoItRemoteInvoker implements AutoIt {
 				params.add(object);
 			}
 		}
-		XmlRpcClientConfigImpl config = new XmlRpcClientConfigImpl();
-		config.setServerURL(new URL(new StringBuilder().append("http://").append(host).append(":").append(port).append("/RPC2").toString()));
-		XmlRpcClient client = new XmlRpcClient();
-		client.setTransportFactory(new XmlRpcCommonsTransportFactory(client));
-		client.setConfig(config);
-		config.setEnabledForExtensions(true);
-		Object returnedObject = client.execute(command, params);
+		return invoke(requestId, budget, queryCache, command, params);
+	}
+
+	private Object invoke(String requestId, long budget, boolean useCache, String command, Vector<Object> params) throws Exception {
+		if (requestId == null) {
+			requestId = UUID.randomUUID().toString();
+		}
+		long start = System.currentTimeMillis();
+		int busyAttempts = 0;
+		int transportAttempts = 0;
+		while (true) {
+			long elapsed = System.currentTimeMillis() - start;
+			try {
+				return executeOnce(requestId, budget > 0 ? Math.max(1, budget - elapsed) : 0, useCache, command, params);
+			} catch (Exception exception) {
+				boolean clientSide = !(exception instanceof XmlRpcException) || exception.getCause() != null;
+				long retryAfter = clientSide ? -1 : AgentBusyException.retryAfterOf(((XmlRpcException) exception).code);
+				long delay;
+				if (retryAfter >= 0 && busyAttempts < busyRetries) {
+					delay = busyBackoff(retryAfter, busyAttempts++);
+				} else if (isConnectionFailure(exception) && !isLegacyAgent() && transportAttempts < transportRetries) {
+					delay = TRANSPORT_RETRY_DELAY << transportAttempts++;
+				} else {
+					delay = -1;
+				}
+				if (delay < 0 || budget > 0 && elapsed + delay >= budget) {
+					if (clientSide && !isLegacyAgent()) {
+						cancelInBackground(requestId);
+					}
+					throw exception;
+				}
+				Thread.sleep(delay);
+			}
+		}
+	}
+
+	/**
+	 * @return	true if the call failed on the connection (refused, reset, timed out), the only
+	 *         failures worth sending the same request again
+	 */
+	private static boolean isConnectionFailure(Exception exception) {
+		return exception instanceof IOException || exception instanceof XmlRpcException && exception.getCause() instanceof IOException;
+	}
+
+	/**
+	 * The delay before retrying a call the agent rejected as busy: the agent hint doubled on
+	 * every attempt, spread randomly between half and one and a half times that value so
+	 * clients rejected together do not come back together
+	 */
+	private static long busyBackoff(long retryAfter, int attempt) {
+		long delay = Math.min(MAX_BUSY_BACKOFF, retryAfter << Math.min(attempt, 16));
+		return delay / 2 + ThreadLocalRandom.current().nextLong(delay + 1);
+	}
+
+	private boolean isLegacyAgent() {
+		return Boolean.FALSE.equals(envelopeAgent);
+	}
+
+	/**
+	 * Find out once whether the agent takes the request envelope. An agent with the envelope
+	 * cancels by request id, an older agent has no cancel method and answers with a fault.
+	 * 
+	 * @return	true if the agent takes the request envelope
+	 * @throws Exception	If the agent could not be reached, the probe is sent again on the next call
+	 */
+	private boolean probeEnvelope() throws Exception {
+		Boolean supported = envelopeAgent;
+		if (supported == null) {
+			Vector<Object> params = new Vector<Object>();
+			params.add(UUID.randomUUID().toString());
+			try {
+				call("autoit.cancel", params, CANCEL_TIMEOUT);
+				supported = Boolean.TRUE;
+			} catch (XmlRpcException exception) {
+				if (isConnectionFailure(exception)) {
+					throw exception;
+				}
+				supported = Boolean.FALSE;
+			}
+			envelopeAgent = supported;
+		}
+		return supported;
+	}
+
+	private Object executeOnce(String requestId, long budget, boolean useCache, String command, Vector<Object> params) throws Exception {
+		if (!probeEnvelope()) {
+			return call("autoit." + command, params, budget);
+		}
+		Hashtable<String, Object> envelope = new Hashtable<String, Object>();
+		envelope.put(RequestContext.REQUEST_ID, requestId);
+		envelope.put(RequestContext.BUDGET, (int) Math.min(Integer.MAX_VALUE, budget));
+		Priority callPriority = priority;
+		if (callPriority != null) {
+			envelope.put(RequestContext.PRIORITY, callPriority.name());
+		}
+		ResultShape shape = resultShape;
+		if (shape != ResultShape.FULL) {
+			envelope.put(RequestContext.RESULT_SHAPE, shape.name());
+		}
+		if (!useCache) {
+			envelope.put(RequestContext.CACHE, Boolean.FALSE);
+		}
+		Vector<Object> dispatchParams = new Vector<Object>();
+		dispatchParams.add(envelope);
+		dispatchParams.add(command);
+		dispatchParams.add(params);
+		return call("autoit.dispatch", dispatchParams, budget);
+	}
+
+	/**
+	 * Send one XML-RPC call to the agent
+	 * 
+	 * @param method
+	 *            The handler method, "autoit." and the agent method name
+	 * @param budget
+	 *            Time in milliseconds to wait for the reply (plus a margin), 0 for no limit
+	 */
+	protected Object call(String method, Vector<Object> params, long budget) throws Exception {
+		XmlRpcClient rpcClient;
+		XmlRpcClientConfigImpl config;
+		PooledTransportFactory factory;
+		synchronized (this) {
+			rpcClient = getClient();
+			config = defaultConfig;
+			factory = transportFactory;
+			factory.beginCall();
+			long now = System.currentTimeMillis();
+			if (now - lastIdleCheck > IDLE_CONNECTION_TIMEOUT) {
+				lastIdleCheck = now;
+				factory.closeIdleConnections(IDLE_CONNECTION_TIMEOUT);
+			}
+		}
+		Object returnedObject;
+		try {
+			if (budget > 0) {
+				config = newConfig(config.getServerURL());
+				config.setReplyTimeout((int) Math.min(Integer.MAX_VALUE, budget + REPLY_TIMEOUT_MARGIN));
+			}
+			returnedObject = rpcClient.execute(config, method, params);
+		} finally {
+			factory.endCall();
+		}
 		if (returnedObject instanceof Exception) {
 			throw (Exception) returnedObject;
 		}
 		return returnedObject;	
 	}
 
+	/**
+	 * @return	The client shared by all the calls, created on the first call and after the
+	 *         agent address changed
+	 */
+	private XmlRpcClient getClient() throws MalformedURLException {
+		if (client == null) {
+			defaultConfig = newConfig(new URL(new StringBuilder().append("http://").append(host).append(":").append(port).append("/RPC2").toString()));
+			client = new XmlRpcClient();
+			transportFactory = new PooledTransportFactory(client, maxConnections);
+			client.setTransportFactory(transportFactory);
+			client.setConfig(defaultConfig);
+		}
+		return client;
+	}
+
+	private static XmlRpcClientConfigImpl newConfig(URL serverUrl) {
+		XmlRpcClientConfigImpl config = new XmlRpcClientConfigImpl();
+		config.setServerURL(serverUrl);
+		config.setEnabledForExtensions(true);
+		return config;
+	}
+
+	/**
+	 * Close the connections to the agent. A later call opens new ones.
+	 */
+	public synchronized void shutdown() {
+		if (transportFactory != null) {
+			transportFactory.shutdown();
+		}
+		client = null;
+		transportFactory = null;
+		defaultConfig = null;
+	}
+
+	/**
+	 * Make the next call open new connections, to a new agent address. The calls still
+	 * running keep their connections until they end.
+	 */
+	protected synchronized void retireClient() {
+		if (transportFactory != null) {
+			transportFactory.retire();
+		}
+		client = null;
+		transportFactory = null;
+		defaultConfig = null;
+	}
+
+	public synchronized String getHost() {
+		return host;
+	}
+
+	/**
+	 * Set the agent host; the connections to the previous host are closed once the calls
+	 * using them end
+	 */
+	public synchronized void setHost(String host) {
+		this.host = host;
+		envelopeAgent = null;
+		retireClient();
+	}
+
+	public synchronized int getPort() {
+		return port;
+	}
+
+	/**
+	 * Set the agent port; the connections to the previous port are closed once the calls
+	 * using them end
+	 */
+	public synchronized void setPort(int port) {
+		this.port = port;
+		envelopeAgent = null;
+		retireClient();
+	}
+
+	public synchronized int getMaxConnections() {
+		return maxConnections;
+	}
+
+	/**
+	 * Set how many connections to the agent are kept open at most. Calls made while all of
+	 * them are busy wait for one to be free.
+	 * 
+	 * @param maxConnections
+	 *            Number of connections, at least 1
+	 */
+	public synchronized void setMaxConnections(int maxConnections) {
+		this.maxConnections = Math.max(1, maxConnections);
+		if (transportFactory != null) {
+			transportFactory.setMaxConnections(this.maxConnections);
+		}
+	}
+
+	/**
+	 * @return	The number of connections open to the agent, busy or idle
+	 */
+	public synchronized int getOpenConnections() {
+		return transportFactory == null ? 0 : transportFactory.getOpenConnections();
+	}
+
+	/**
+	 * Ask the agent to drop the work of an abandoned request, without waiting for the answer.
+	 * Cancels beyond {@link #MAX_PENDING_CANCELS} waiting ones are dropped.
+	 */
+	private void cancelInBackground(final String requestId) {
+		CANCEL_EXECUTOR.execute(new Runnable() {
+			@Override
+			public void run() {
+				Vector<Object> params = new Vector<Object>();
+				params.add(requestId);
+				try {
+					call("autoit.cancel", params, CANCEL_TIMEOUT);
+				} catch (Exception exception) {
+				}
+			}
+		});
+	}
+
+	/**
+	 * @return	The budget of a script call with the given timeout, 0 if deadlines are disabled
+	 */
+	private long scriptBudget(int timeout) {
+		return deadlineMargin < 0 ? 0 : timeout + deadlineMargin;
+	}
+
+	/**
+	 * Set the time a script call may wait on top of the script timeout (queueing, transfer)
+	 * before the client gives up and the agent drops the work
+	 * 
+	 * @param deadlineMargin
+	 *            Milliseconds, negative to call without a deadline
+	 */
+	public void setDeadlineMargin(long deadlineMargin) {
+		this.deadlineMargin = deadlineMargin;
+	}
+
+	/**
+	 * Set the priority class of the following calls
+	 * 
+	 * @param priority
+	 *            The priority, null to let the agent pick the default of each method
+	 *            (INTERACTIVE for scripts, BULK for script files and downloads)
+	 */
+	public void setPriority(Priority priority) {
+		this.priority = priority;
+	}
+
+	/**
+	 * Set how much of the script the results of the following calls echo
+	 * 
+	 * @param resultShape
+	 *            FULL for the script text, HASH for its hash only, NONE for no echo
+	 */
+	public void setResultShape(ResultShape resultShape) {
+		this.resultShape = resultShape;
+	}
+
+	/**
+	 * Set whether the agent may answer the following query scripts from its cache
+	 * 
+	 * @param queryCache
+	 *            false to always run the scripts
+	 */
+	public void setQueryCache(boolean queryCache) {
+		this.queryCache = queryCache;
+	}
+
+	/**
+	 * Set how many times a call rejected by a busy agent is retried
+	 * 
+	 * @param busyRetries
+	 *            Number of retries, 0 to fail at once with the busy error
+	 */
+	public void setBusyRetries(int busyRetries) {
+		this.busyRetries = busyRetries;
+	}
+
+	/**
+	 * Set how many times a call that failed on the connection is sent again
+	 * 
+	 * @param transportRetries
+	 *            Number of retries, 0 to fail at once
+	 */
+	public void setTransportRetries(int transportRetries) {
+		this.transportRetries = transportRetries;
+	}
+
+	@Override
+	public int cancel(String requestId) throws Exception {
+		Object obj = execute("cancel", requestId);
+		return Integer.parseInt(obj.toString());
+	}
+
 	@Override
 	public int shutdownComputer(String switches) throws Exception {
 		Object obj = execute("shutdownComputer", switches);
@@ -185,4 +746,10 @@ public class AutoItRemoteInvoker implements AutoIt {
 		return Integer.parseInt(obj.toString());
 	}
 
+	@SuppressWarnings("unchecked")
+	@Override
+	public Map<String, Comparable<?>> getAgentStatistics() throws Exception {
+		return (Map<String, Comparable<?>>) execute("getAgentStatistics");
+	}
+
 }
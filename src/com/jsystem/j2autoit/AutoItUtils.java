@@ -17,11 +17,77 @@ package com.jsystem.j2autoit;
 
 import java.io.File;
 import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
 
 import jsystem.utils.exec.Command;
 import jsystem.utils.exec.Execute;
 
 public class AutoItUtils {
+	/**
+	 * The charset of the text AutoIt writes to its console, ConsoleWrite writes in the ANSI code page of the system
+	 */
+	public static final Charset CONSOLE_CHARSET = consoleCharset();
+
+	private static Charset consoleCharset() {
+		try {
+			return Charset.forName(System.getProperty("sun.jnu.encoding"));
+		} catch (Exception exception) {
+			return Charset.defaultCharset();
+		}
+	}
+
+	/**
+	 * Copy a resource to a new temporary file, deleted when the JVM exits
+	 *
+	 * @param owner	The class the resource is loaded with
+	 * @param resource	The resource name, relative to the package of the owner
+	 * @param prefix	The temporary file name prefix
+	 * @param header	Text written before the resource content, null for none. AutoIt reads a
+	 *            script without a byte order mark in the ANSI code page, so is the header written
+	 * @return	The temporary file
+	 * @throws IOException	If the resource does not exist or the file could not be written
+	 */
+	public static File extractResource(Class<?> owner, String resource, String prefix, String header) throws IOException {
+		InputStream in = owner.getResourceAsStream(resource);
+		if (in == null) {
+			throw new IOException("Resource not found: " + resource);
+		}
+		File file = File.createTempFile(prefix, ".au3");
+		file.deleteOnExit();
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			if (header != null) {
+				out.write(header.getBytes(CONSOLE_CHARSET));
+			}
+			byte[] buf = new byte[4000];
+			int c;
+			while ((c = in.read(buf)) != -1) {
+				out.write(buf, 0, c);
+			}
+		} finally {
+			out.close();
+			in.close();
+		}
+		return file;
+	}
+
+	/**
+	 * @return	The enum constant with the given name (case insensitive), or the default if the name is empty or unknown
+	 */
+	public static <E extends Enum<E>> E parseEnum(Class<E> type, Object name, E defaultValue) {
+		if (name == null) {
+			return defaultValue;
+		}
+		for (E constant : type.getEnumConstants()) {
+			if (constant.name().equalsIgnoreCase(name.toString().trim())) {
+				return constant;
+			}
+		}
+		return defaultValue;
+	}
+
 	public static CommandResult runScript(String script, String workDir, String autoItLocation,int timeout) throws Exception{
 		return runScript(script, workDir, autoItLocation, timeout, false);
 	}
@@ -20,6 +20,7 @@ public class CommandResult {
 	private String stdout;
 	private String stderr;
 	private int returnCode;
+	private long cpuMillis = -1;
 	public String getScript() {
 		return script;
 	}
@@ -44,4 +45,10 @@ public class CommandResult {
 	public void setReturnCode(int returnCode) {
 		this.returnCode = returnCode;
 	}
+	public long getCpuMillis() {
+		return cpuMillis;
+	}
+	public void setCpuMillis(long cpuMillis) {
+		this.cpuMillis = cpuMillis;
+	}
 }
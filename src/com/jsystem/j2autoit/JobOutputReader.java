@@ -0,0 +1,111 @@
+/*
+ * Copyright 2005-2010 Ignis Software Tools Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jsystem.j2autoit;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Tails the stdout of a job running on the agent.<br>
+ * Keeps the read offset, so every call to {@link #read()} returns only the new output.
+ */
+public class JobOutputReader {
+	private static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+	private static final long POLL_INTERVAL = 200;
+
+	private final AutoIt agent;
+	private final String jobId;
+	private int offset = 0;
+	private int chunkSize = DEFAULT_CHUNK_SIZE;
+	private StringBuilder pendingLine = new StringBuilder();
+
+	public JobOutputReader(AutoIt agent, String jobId) {
+		this.agent = agent;
+		this.jobId = jobId;
+	}
+
+	/**
+	 * Read the output written since the previous call
+	 *
+	 * @return The new output, or an empty string
+	 * @throws Exception
+	 */
+	public String read() throws Exception {
+		String chunk = agent.readOutput(jobId, offset, chunkSize);
+		offset += chunk.length();
+		return chunk;
+	}
+
+	/**
+	 * Tail the job output until a line matches the given pattern or the job finishes
+	 *
+	 * @param pattern
+	 *            The pattern to look for in every output line
+	 * @param timeout
+	 *            Maximum time to wait in milliseconds
+	 * @return The first matching line, or null if the job finished or the timeout expired first
+	 * @throws Exception
+	 */
+	public String waitForLine(Pattern pattern, long timeout) throws Exception {
+		long deadline = System.currentTimeMillis() + timeout;
+		while (true) {
+			boolean finished = isFinished();
+			String chunk = read();
+			while (!chunk.isEmpty()) {
+				String line = nextMatchingLine(chunk, pattern);
+				if (line != null) {
+					return line;
+				}
+				chunk = read();
+			}
+			if (finished || System.currentTimeMillis() >= deadline) {
+				return null;
+			}
+			Thread.sleep(POLL_INTERVAL);
+		}
+	}
+
+	private String nextMatchingLine(String chunk, Pattern pattern) {
+		pendingLine.append(chunk);
+		int lineEnd;
+		while ((lineEnd = pendingLine.indexOf("\n")) >= 0) {
+			String line = pendingLine.substring(0, lineEnd);
+			pendingLine.delete(0, lineEnd + 1);
+			Matcher matcher = pattern.matcher(line);
+			if (matcher.find()) {
+				return line;
+			}
+		}
+		return null;
+	}
+
+	public boolean isFinished() throws Exception {
+		String status = agent.getJobStatus(jobId);
+		return !"QUEUED".equals(status) && !"RUNNING".equals(status);
+	}
+
+	public int getOffset() {
+		return offset;
+	}
+
+	public void setChunkSize(int chunkSize) {
+		this.chunkSize = chunkSize;
+	}
+
+	public String getJobId() {
+		return jobId;
+	}
+}
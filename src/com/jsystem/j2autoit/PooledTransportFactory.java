@@ -0,0 +1,125 @@
+/*
+ * Copyright 2005-2010 Ignis Software Tools Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jsystem.j2autoit;
+
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+import org.apache.commons.httpclient.methods.PostMethod;
+import org.apache.commons.httpclient.params.HttpConnectionManagerParams;
+import org.apache.xmlrpc.client.XmlRpcClient;
+import org.apache.xmlrpc.client.XmlRpcCommonsTransport;
+import org.apache.xmlrpc.client.XmlRpcCommonsTransportFactory;
+import org.apache.xmlrpc.client.XmlRpcHttpClientConfig;
+import org.apache.xmlrpc.client.XmlRpcTransport;
+
+/**
+ * A Commons HttpClient transport factory that keeps its HTTP/1.1 connections to the agent
+ * open between calls.<br>
+ * All the calls of an invoker share one connection manager, limited to a number of
+ * connections per agent; a call waits for a free connection when all of them are busy.
+ * Connections closed by the agent while idle are detected before reuse (stale check).<br>
+ * The commons transport writes the reply timeout of a call into the shared connection
+ * manager, so the timeout is also set on the HTTP method of the call, which is what the
+ * socket of the call uses.<br>
+ * A factory replaced while calls still use it (the agent address changed) is retired: its
+ * idle connections close right away and the rest once the last of those calls ends.
+ */
+class PooledTransportFactory extends XmlRpcCommonsTransportFactory {
+	private final MultiThreadedHttpConnectionManager connections = new MultiThreadedHttpConnectionManager();
+	private int activeCalls = 0;
+	private boolean retired = false;
+
+	/**
+	 * @param client	The client the transports are created for
+	 * @param maxConnections	The most connections open to the agent at once
+	 */
+	PooledTransportFactory(XmlRpcClient client, int maxConnections) {
+		super(client);
+		HttpConnectionManagerParams params = connections.getParams();
+		params.setStaleCheckingEnabled(true);
+		setMaxConnections(maxConnections);
+		setHttpClient(new HttpClient(connections));
+	}
+
+	@Override
+	public XmlRpcTransport getTransport() {
+		return new XmlRpcCommonsTransport(this) {
+			@Override
+			protected PostMethod newPostMethod(XmlRpcHttpClientConfig config) {
+				PostMethod method = super.newPostMethod(config);
+				method.getParams().setSoTimeout(config.getReplyTimeout());
+				return method;
+			}
+		};
+	}
+
+	void setMaxConnections(int maxConnections) {
+		HttpConnectionManagerParams params = connections.getParams();
+		params.setDefaultMaxConnectionsPerHost(Math.max(1, maxConnections));
+		params.setMaxTotalConnections(Math.max(1, maxConnections));
+	}
+
+	int getMaxConnections() {
+		return connections.getParams().getDefaultMaxConnectionsPerHost();
+	}
+
+	/**
+	 * @return	The number of connections open to the agent, busy or idle
+	 */
+	int getOpenConnections() {
+		return connections.getConnectionsInPool();
+	}
+
+	/**
+	 * Close the connections that were not used for the given time
+	 */
+	void closeIdleConnections(long idleMillis) {
+		connections.closeIdleConnections(idleMillis);
+	}
+
+	/**
+	 * Called before a call uses the factory
+	 */
+	synchronized void beginCall() {
+		activeCalls++;
+	}
+
+	/**
+	 * Called when a call is done with the factory
+	 */
+	synchronized void endCall() {
+		activeCalls--;
+		if (retired && activeCalls == 0) {
+			connections.shutdown();
+		}
+	}
+
+	/**
+	 * Close the connections once the calls using them ended, no new calls are expected
+	 */
+	synchronized void retire() {
+		retired = true;
+		if (activeCalls == 0) {
+			connections.shutdown();
+		} else {
+			connections.closeIdleConnections(0);
+		}
+	}
+
+	void shutdown() {
+		connections.shutdown();
+	}
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2005-2010 Ignis Software Tools Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jsystem.j2autoit;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+
+/**
+ * Invoke an agent method by name with parameters as they arrive over XML-RPC.<br>
+ * Used by the request envelope, which wraps the real call so every call can carry its
+ * request id and deadline. Parameters are converted the way the XML-RPC handler mapping
+ * converts them (arrays to lists and vectors, numbers to primitives).
+ */
+class RequestDispatcher {
+	private static final Object NO_MATCH = new Object();
+
+	private final Object target;
+	private final Map<String, List<Method>> methods = new HashMap<String, List<Method>>();
+
+	RequestDispatcher(Object target, String... excluded) {
+		this.target = target;
+		List<String> excludedNames = Arrays.asList(excluded);
+		for (Method method : target.getClass().getMethods()) {
+			if (Modifier.isStatic(method.getModifiers()) || method.getDeclaringClass() == Object.class || excludedNames.contains(method.getName())) {
+				continue;
+			}
+			List<Method> overloads = methods.get(method.getName());
+			if (overloads == null) {
+				overloads = new ArrayList<Method>();
+				methods.put(method.getName(), overloads);
+			}
+			// Prefer the plain overloads to the varargs ones
+			if (method.isVarArgs()) {
+				overloads.add(method);
+			} else {
+				overloads.add(0, method);
+			}
+		}
+	}
+
+	Object invoke(String name, Object[] params) throws Exception {
+		List<Method> overloads = methods.get(name);
+		if (overloads == null) {
+			throw new Exception("No such method " + name);
+		}
+		for (Method method : overloads) {
+			Object[] arguments = convertAll(method.getParameterTypes(), params);
+			if (arguments == null) {
+				continue;
+			}
+			try {
+				return method.invoke(target, arguments);
+			} catch (InvocationTargetException exception) {
+				Throwable cause = exception.getCause();
+				if (cause instanceof Exception) {
+					throw (Exception) cause;
+				}
+				throw exception;
+			}
+		}
+		throw new Exception("No overload of " + name + " matches " + params.length + " parameters");
+	}
+
+	private static Object[] convertAll(Class<?>[] types, Object[] params) {
+		if (types.length != params.length) {
+			return null;
+		}
+		Object[] arguments = new Object[params.length];
+		for (int index = 0; index < params.length; index++) {
+			Object argument = convert(params[index], types[index]);
+			if (argument == NO_MATCH) {
+				return null;
+			}
+			arguments[index] = argument;
+		}
+		return arguments;
+	}
+
+	private static Object convert(Object value, Class<?> type) {
+		if (value == null) {
+			return type.isPrimitive() ? NO_MATCH : null;
+		}
+		if (type == int.class || type == Integer.class) {
+			return value instanceof Number ? (Object) ((Number) value).intValue() : NO_MATCH;
+		}
+		if (type == long.class || type == Long.class) {
+			return value instanceof Number ? (Object) ((Number) value).longValue() : NO_MATCH;
+		}
+		if (type == double.class || type == Double.class) {
+			return value instanceof Number ? (Object) ((Number) value).doubleValue() : NO_MATCH;
+		}
+		if (type == boolean.class) {
+			return value instanceof Boolean ? value : NO_MATCH;
+		}
+		if (type.isInstance(value)) {
+			return value;
+		}
+		Collection<?> elements = null;
+		if (value instanceof Object[]) {
+			elements = Arrays.asList((Object[]) value);
+		} else if (value instanceof Collection<?>) {
+			elements = (Collection<?>) value;
+		}
+		if (elements != null) {
+			if (type.isAssignableFrom(Vector.class)) {
+				return new Vector<Object>(elements);
+			}
+			if (type.isArray()) {
+				Object array = Array.newInstance(type.getComponentType(), elements.size());
+				int index = 0;
+				for (Object element : elements) {
+					if (element != null && !type.getComponentType().isInstance(element)) {
+						return NO_MATCH;
+					}
+					Array.set(array, index++, element);
+				}
+				return array;
+			}
+		}
+		return NO_MATCH;
+	}
+}
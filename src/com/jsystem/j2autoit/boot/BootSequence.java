@@ -0,0 +1,128 @@
+/*
+ * Copyright 2005-2010 Ignis Software Tools Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jsystem.j2autoit.boot;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.jsystem.j2autoit.logger.Log;
+
+/**
+ * Times the steps of the agent start-up.<br>
+ * Foreground steps are closed with {@link #mark(String)}, which records the time since the
+ * previous mark. Steps that are not needed to open the RPC port run on their own threads
+ * with {@link #background(String, Runnable)}. The breakdown is logged once the foreground
+ * is done and the last background step finished.
+ */
+public class BootSequence {
+	private final long start = System.currentTimeMillis();
+	private final Map<String, Long> steps = new LinkedHashMap<String, Long>();
+	private long lastMark = start;
+	private long readyMillis = -1;
+	private long totalMillis = -1;
+	private int pending = 0;
+	private boolean foregroundDone = false;
+
+	/**
+	 * Close a foreground step
+	 */
+	public synchronized void mark(String step) {
+		long now = System.currentTimeMillis();
+		steps.put(step, now - lastMark);
+		lastMark = now;
+	}
+
+	/**
+	 * Record that the agent accepts requests
+	 */
+	public synchronized void ready() {
+		readyMillis = System.currentTimeMillis() - start;
+		Log.info("J2AutoIt Agent ready after " + readyMillis + " ms\n");
+	}
+
+	/**
+	 * Run a step on its own daemon thread
+	 */
+	public synchronized void background(final String step, final Runnable work) {
+		pending++;
+		Thread thread = new Thread("Boot-" + step) {
+			@Override
+			public void run() {
+				long stepStart = System.currentTimeMillis();
+				try {
+					work.run();
+				} catch (Throwable throwable) {
+					Log.throwable("Boot step " + step + " failed\n", throwable);
+				} finally {
+					finished(step, System.currentTimeMillis() - stepStart);
+				}
+			}
+		};
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Record a step that ran on a thread not started by the sequence (the Swing event thread)
+	 */
+	public synchronized void expect() {
+		pending++;
+	}
+
+	public synchronized void finished(String step, long millis) {
+		steps.put(step, millis);
+		pending--;
+		complete();
+	}
+
+	/**
+	 * Mark the end of the foreground steps
+	 */
+	public synchronized void foregroundDone() {
+		foregroundDone = true;
+		complete();
+	}
+
+	private void complete() {
+		if (foregroundDone && pending == 0 && totalMillis < 0) {
+			totalMillis = System.currentTimeMillis() - start;
+			Log.info("Boot finished: " + summary() + "\n");
+		}
+	}
+
+	/**
+	 * @return	The step durations, for example "ready=180ms total=950ms log=3ms ..."
+	 */
+	public synchronized String summary() {
+		StringBuilder builder = new StringBuilder();
+		builder.append("ready=").append(readyMillis).append("ms total=").append(totalMillis).append("ms");
+		for (Map.Entry<String, Long> step : steps.entrySet()) {
+			builder.append(' ').append(step.getKey()).append('=').append(step.getValue()).append("ms");
+		}
+		return builder.toString();
+	}
+
+	/**
+	 * Add the boot timing to the statistics map
+	 */
+	public synchronized void fillStatistics(Map<String, Comparable<?>> statistics, String prefix) {
+		statistics.put(prefix + ".readyMillis", readyMillis);
+		statistics.put(prefix + ".totalMillis", totalMillis);
+		for (Map.Entry<String, Long> step : steps.entrySet()) {
+			statistics.put(prefix + "." + step.getKey() + "Millis", step.getValue());
+		}
+	}
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2005-2010 Ignis Software Tools Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jsystem.j2autoit.boot;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+
+import com.jsystem.j2autoit.logger.Log;
+
+/**
+ * The AutoIt interpreter path resolved from the registry, persisted between agent runs.<br>
+ * The entry keeps the modification time of the interpreter, it is used only while the
+ * interpreter file still exists with the same modification time, so a reinstall or an
+ * upgrade goes back to the registry.
+ */
+public class InterpreterLocationCache {
+	private static final String PATH = "path";
+	private static final String LAST_MODIFIED = "lastModified";
+
+	private final File file;
+
+	/**
+	 * @param file	The file the location is persisted to
+	 */
+	public InterpreterLocationCache(File file) {
+		this.file = file;
+	}
+
+	/**
+	 * @return	The persisted interpreter path, or null if there is none or it is stale
+	 */
+	public String load() {
+		if (!file.isFile()) {
+			return null;
+		}
+		Properties properties = new Properties();
+		try {
+			InputStream in = new FileInputStream(file);
+			try {
+				properties.load(in);
+			} finally {
+				in.close();
+			}
+		} catch (Exception exception) {
+			Log.warning("Unable to read " + file + ": " + exception.getMessage() + "\n");
+			return null;
+		}
+		String path = properties.getProperty(PATH);
+		if (path == null) {
+			return null;
+		}
+		File interpreter = new File(path);
+		if (!interpreter.isFile() || !String.valueOf(interpreter.lastModified()).equals(properties.getProperty(LAST_MODIFIED))) {
+			return null;
+		}
+		return path;
+	}
+
+	/**
+	 * Persist the interpreter path together with its current modification time
+	 */
+	public void store(String path) {
+		Properties properties = new Properties();
+		properties.setProperty(PATH, path);
+		properties.setProperty(LAST_MODIFIED, String.valueOf(new File(path).lastModified()));
+		try {
+			OutputStream out = new FileOutputStream(file);
+			try {
+				properties.store(out, "AutoIt interpreter location");
+			} finally {
+				out.close();
+			}
+		} catch (Exception exception) {
+			Log.warning("Unable to write " + file + ": " + exception.getMessage() + "\n");
+		}
+	}
+}
@@ -0,0 +1,464 @@
+/*
+ * Copyright 2005-2010 Ignis Software Tools Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jsystem.j2autoit.cache;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Memoized results of read-only query scripts.<br>
+ * A script is cached only if it is a single call of a known query function (EnvGet,
+ * RegRead, FileGetVersion ...). Every query function belongs to a family with its own time
+ * to live. Write functions (EnvSet, RegWrite, FileCopy ...) invalidate the entries of their
+ * family whose scope (the variable name, registry key or file path) is at or under the
+ * scope they write to; when the scope is not a literal the whole family is dropped.
+ * Registry roots are compared by the key they name (HKLM and HKEY_LOCAL_MACHINE are the
+ * same scope), and a file path that is not absolute is dropped by any file write.<br>
+ * Results are cached per script and working directory. A result is stored only if no
+ * invalidation happened while the query ran, see {@link #stamp()}.
+ */
+public class QueryCache {
+	/**
+	 * Query families, each with its own time to live
+	 */
+	public enum Family {
+		ENV,
+		REGISTRY,
+		FILE
+	}
+
+	private static final Map<String, Family> QUERIES = new HashMap<String, Family>();
+	private static final Map<String, Write> WRITES = new HashMap<String, Write>();
+	private static final String[] PROCESS_LAUNCHES = {"run", "runwait", "runas", "runaswait", "shellexecute", "shellexecutewait"};
+
+	static {
+		QUERIES.put("envget", Family.ENV);
+		QUERIES.put("regread", Family.REGISTRY);
+		QUERIES.put("regenumkey", Family.REGISTRY);
+		QUERIES.put("regenumval", Family.REGISTRY);
+		QUERIES.put("filegetversion", Family.FILE);
+
+		WRITES.put("envset", new Write(Family.ENV, 0));
+		WRITES.put("envupdate", new Write(Family.ENV));
+		WRITES.put("regwrite", new Write(Family.REGISTRY, 0));
+		WRITES.put("regdelete", new Write(Family.REGISTRY, 0));
+		WRITES.put("filecopy", new Write(Family.FILE, 1));
+		WRITES.put("filemove", new Write(Family.FILE, 0, 1));
+		WRITES.put("filedelete", new Write(Family.FILE, 0));
+		WRITES.put("filerecycle", new Write(Family.FILE, 0));
+		WRITES.put("filewrite", new Write(Family.FILE, 0));
+		WRITES.put("filewriteline", new Write(Family.FILE, 0));
+		WRITES.put("fileinstall", new Write(Family.FILE, 1));
+		WRITES.put("dircopy", new Write(Family.FILE, 1));
+		WRITES.put("dirmove", new Write(Family.FILE, 0, 1));
+		WRITES.put("dirremove", new Write(Family.FILE, 0));
+		WRITES.put("inetget", new Write(Family.FILE, 1));
+	}
+
+	private static final String[][] REGISTRY_ROOTS = {
+		{"hkey_local_machine", "hklm"},
+		{"hkey_current_user", "hkcu"},
+		{"hkey_classes_root", "hkcr"},
+		{"hkey_users", "hku"},
+		{"hkey_current_config", "hkcc"}
+	};
+
+	private final Map<Family, Long> timeToLive = new EnumMap<Family, Long>(Family.class);
+	private final Map<String, Entry> entries = new HashMap<String, Entry>();
+	private final Map<Family, long[]> counters = new EnumMap<Family, long[]>(Family.class);
+	private final int maxEntries;
+	private long generation = 0;
+
+	/**
+	 * @param maxEntries	Maximum number of cached results
+	 */
+	public QueryCache(int maxEntries) {
+		this.maxEntries = maxEntries;
+		for (Family family : Family.values()) {
+			timeToLive.put(family, 0L);
+			counters.put(family, new long[3]);
+		}
+	}
+
+	/**
+	 * @param timeToLive	Time in milliseconds a result of the family stays valid, 0 to disable caching of the family
+	 */
+	public synchronized void setTimeToLive(Family family, long timeToLive) {
+		this.timeToLive.put(family, timeToLive);
+	}
+
+	/**
+	 * @return	The family of a cacheable query script, or null if the script is not a cacheable query
+	 */
+	public Family familyOf(String script) {
+		Call call = singleCall(script);
+		if (call == null) {
+			return null;
+		}
+		Family family = QUERIES.get(call.name);
+		return family != null && timeToLive(family) > 0 ? family : null;
+	}
+
+	/**
+	 * @param workDir	The working directory the script runs in
+	 * @return	A copy of the cached result of the script, or null on a miss or if the script is not cacheable
+	 */
+	public synchronized Map<String, Comparable<?>> get(String script, String workDir) {
+		Family family = familyOf(script);
+		if (family == null) {
+			return null;
+		}
+		String key = key(script, workDir);
+		Entry entry = entries.get(key);
+		if (entry == null || entry.expires < System.currentTimeMillis()) {
+			if (entry != null) {
+				entries.remove(key);
+			}
+			counters.get(family)[1]++;
+			return null;
+		}
+		counters.get(family)[0]++;
+		return new Hashtable<String, Comparable<?>>(entry.result);
+	}
+
+	/**
+	 * @return	The current invalidation generation, to be passed to {@link #put(String, String, Map, long)}
+	 */
+	public synchronized long stamp() {
+		return generation;
+	}
+
+	/**
+	 * Store the result of a query script
+	 *
+	 * @param workDir	The working directory the script ran in
+	 * @param stamp	The generation taken before the query ran; the result is dropped if anything
+	 *            was invalidated since, as it may have been read before the write
+	 */
+	public synchronized void put(String script, String workDir, Map<String, Comparable<?>> result, long stamp) {
+		Family family = familyOf(script);
+		if (family == null || stamp != generation) {
+			return;
+		}
+		if (entries.size() >= maxEntries) {
+			purgeExpired();
+			if (entries.size() >= maxEntries) {
+				return;
+			}
+		}
+		entries.put(key(script, workDir), new Entry(new Hashtable<String, Comparable<?>>(result), family, scopeOf(family, singleCall(script), 0),
+				System.currentTimeMillis() + timeToLive.get(family)));
+	}
+
+	/**
+	 * Drop the entries a script may have changed
+	 */
+	public void invalidateFor(String script) {
+		List<Call> calls = parseCalls(script);
+		for (Call call : calls) {
+			for (String launch : PROCESS_LAUNCHES) {
+				if (launch.equals(call.name)) {
+					// A launched program may change anything
+					invalidateAll();
+					return;
+				}
+			}
+			Write write = WRITES.get(call.name);
+			if (write == null) {
+				continue;
+			}
+			if (write.arguments.length == 0) {
+				invalidate(write.family, null);
+			}
+			for (int argument : write.arguments) {
+				invalidate(write.family, scopeOf(write.family, call, argument));
+			}
+		}
+	}
+
+	/**
+	 * Drop the entries of a file path and the files under it
+	 */
+	public void invalidatePath(String path) {
+		invalidate(Family.FILE, path == null ? null : path.toLowerCase());
+	}
+
+	/**
+	 * Drop the entries of a family at or under the scope
+	 *
+	 * @param scope	The lower case scope, null for the whole family
+	 */
+	public synchronized void invalidate(Family family, String scope) {
+		generation++;
+		Iterator<Entry> iterator = entries.values().iterator();
+		while (iterator.hasNext()) {
+			Entry entry = iterator.next();
+			if (entry.family == family && (scope == null || entry.scope == null || entry.scope.startsWith(scope))) {
+				iterator.remove();
+				counters.get(family)[2]++;
+			}
+		}
+	}
+
+	public synchronized void invalidateAll() {
+		for (Family family : Family.values()) {
+			invalidate(family, null);
+		}
+	}
+
+	private void purgeExpired() {
+		long now = System.currentTimeMillis();
+		Iterator<Entry> iterator = entries.values().iterator();
+		while (iterator.hasNext()) {
+			if (iterator.next().expires < now) {
+				iterator.remove();
+			}
+		}
+	}
+
+	private synchronized long timeToLive(Family family) {
+		return timeToLive.get(family);
+	}
+
+	/**
+	 * Add the hit and miss counters of every family to the statistics map
+	 */
+	public synchronized void fillStatistics(Map<String, Comparable<?>> statistics, String prefix) {
+		statistics.put(prefix + ".size", entries.size());
+		for (Family family : Family.values()) {
+			long[] counter = counters.get(family);
+			String familyPrefix = prefix + "." + family.name().toLowerCase();
+			statistics.put(familyPrefix + ".ttlMillis", timeToLive.get(family));
+			statistics.put(familyPrefix + ".hits", counter[0]);
+			statistics.put(familyPrefix + ".misses", counter[1]);
+			statistics.put(familyPrefix + ".invalidations", counter[2]);
+			long lookups = counter[0] + counter[1];
+			statistics.put(familyPrefix + ".hitRatio", lookups == 0 ? 0.0 : (double) counter[0] / lookups);
+		}
+	}
+
+	private static String key(String script, String workDir) {
+		return (workDir == null ? "" : workDir) + '\u0000' + script;
+	}
+
+	/**
+	 * @return	The lower case literal value of an argument (wildcards cut off) in its canonical
+	 *         form, or null if it is not a literal
+	 */
+	private static String scopeOf(Family family, Call call, int argument) {
+		if (call == null || argument >= call.arguments.size()) {
+			return null;
+		}
+		String text = call.arguments.get(argument).trim();
+		if (text.length() < 2 || (text.charAt(0) != '"' && text.charAt(0) != '\'') || text.charAt(text.length() - 1) != text.charAt(0)) {
+			return null;
+		}
+		String quote = text.substring(0, 1);
+		String value = text.substring(1, text.length() - 1).replace(quote + quote, quote).toLowerCase();
+		int wildcard = value.indexOf('*');
+		if (value.indexOf('?') >= 0 && (wildcard < 0 || value.indexOf('?') < wildcard)) {
+			wildcard = value.indexOf('?');
+		}
+		String scope = wildcard >= 0 ? value.substring(0, wildcard) : value;
+		if (family == Family.REGISTRY) {
+			return canonicalKey(scope);
+		}
+		if (family == Family.FILE && !scope.matches("[a-z]:\\\\.*") && !scope.startsWith("\\\\")) {
+			// Relative to a working directory, any file write may change it
+			return null;
+		}
+		return scope;
+	}
+
+	/**
+	 * @return	The lower case registry key with its root in the short form, without the 64 bit view suffix
+	 */
+	static String canonicalKey(String key) {
+		int separator = key.indexOf('\\');
+		String root = separator < 0 ? key : key.substring(0, separator);
+		String path = separator < 0 ? "" : key.substring(separator);
+		if (root.endsWith("64")) {
+			root = root.substring(0, root.length() - 2);
+		}
+		for (String[] names : REGISTRY_ROOTS) {
+			if (names[0].equals(root)) {
+				root = names[1];
+			}
+		}
+		return root + path;
+	}
+
+	/**
+	 * @return	The call if the script is exactly one function call without nested calls, otherwise null
+	 */
+	static Call singleCall(String script) {
+		if (script == null) {
+			return null;
+		}
+		List<Call> calls = parseCalls(script);
+		if (calls.size() != 1) {
+			return null;
+		}
+		Call call = calls.get(0);
+		String trimmed = script.trim();
+		return script.indexOf(trimmed) == call.start && call.end == call.start + trimmed.length() ? call : null;
+	}
+
+	/**
+	 * Find every function call in the script, nested calls included
+	 */
+	static List<Call> parseCalls(String script) {
+		List<Call> calls = new ArrayList<Call>();
+		int length = script.length();
+		int index = 0;
+		while (index < length) {
+			char c = script.charAt(index);
+			if (c == '"' || c == '\'') {
+				index = skipString(script, index);
+				continue;
+			}
+			if (c == ';') {
+				// A comment, up to the end of the line
+				while (index < length && script.charAt(index) != '\n') {
+					index++;
+				}
+				continue;
+			}
+			if (!Character.isLetter(c) && c != '_' || index > 0 && isNamePart(script.charAt(index - 1))) {
+				index++;
+				continue;
+			}
+			int nameEnd = index;
+			while (nameEnd < length && isNamePart(script.charAt(nameEnd))) {
+				nameEnd++;
+			}
+			int open = nameEnd;
+			while (open < length && script.charAt(open) == ' ') {
+				open++;
+			}
+			if (open < length && script.charAt(open) == '(') {
+				Call call = parseArguments(script, index, script.substring(index, nameEnd).toLowerCase(), open);
+				if (call != null) {
+					calls.add(call);
+				}
+				// Continue inside the arguments to find the nested calls
+				index = open + 1;
+			} else {
+				index = nameEnd;
+			}
+		}
+		return calls;
+	}
+
+	private static Call parseArguments(String script, int start, String name, int open) {
+		List<String> arguments = new ArrayList<String>();
+		int depth = 0;
+		int argumentStart = open + 1;
+		int index = open + 1;
+		while (index < script.length()) {
+			char c = script.charAt(index);
+			if (c == '"' || c == '\'') {
+				index = skipString(script, index);
+				continue;
+			}
+			if (c == '(' || c == '[') {
+				depth++;
+			} else if ((c == ')' || c == ']') && depth > 0) {
+				depth--;
+			} else if (c == ')') {
+				String last = script.substring(argumentStart, index);
+				if (!arguments.isEmpty() || last.trim().length() > 0) {
+					arguments.add(last);
+				}
+				return new Call(name, arguments, start, index + 1);
+			} else if (c == ',' && depth == 0) {
+				arguments.add(script.substring(argumentStart, index));
+				argumentStart = index + 1;
+			}
+			index++;
+		}
+		return null;
+	}
+
+	/**
+	 * @return	The index after the string literal that starts at the given index (doubled quotes are escapes)
+	 */
+	private static int skipString(String script, int index) {
+		char quote = script.charAt(index);
+		index++;
+		while (index < script.length()) {
+			if (script.charAt(index) == quote) {
+				if (index + 1 < script.length() && script.charAt(index + 1) == quote) {
+					index += 2;
+					continue;
+				}
+				return index + 1;
+			}
+			index++;
+		}
+		return index;
+	}
+
+	private static boolean isNamePart(char c) {
+		return Character.isLetterOrDigit(c) || c == '_' || c == '$' || c == '@';
+	}
+
+	/**
+	 * A function call found in a script
+	 */
+	static class Call {
+		final String name;
+		final List<String> arguments;
+		final int start;
+		final int end;
+
+		Call(String name, List<String> arguments, int start, int end) {
+			this.name = name;
+			this.arguments = arguments;
+			this.start = start;
+			this.end = end;
+		}
+	}
+
+	private static class Write {
+		private final Family family;
+		private final int[] arguments;
+
+		private Write(Family family, int... arguments) {
+			this.family = family;
+			this.arguments = arguments;
+		}
+	}
+
+	private static class Entry {
+		private final Map<String, Comparable<?>> result;
+		private final Family family;
+		private final String scope;
+		private final long expires;
+
+		private Entry(Map<String, Comparable<?>> result, Family family, String scope, long expires) {
+			this.result = result;
+			this.family = family;
+			this.scope = scope;
+			this.expires = expires;
+		}
+	}
+}
@@ -0,0 +1,240 @@
+/*
+ * Copyright 2005-2010 Ignis Software Tools Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jsystem.j2autoit.cache;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The replies of recent requests, by request id, so a request the client sends again
+ * (after the connection broke before the reply arrived) is answered with the reply of the
+ * first execution instead of running again.<br>
+ * A repeated request that arrives while the first one still runs waits for its reply.
+ * Only replies are kept: when the first execution fails, the entry is dropped and the
+ * repeated request runs by itself. Replies expire after the time to live, and the oldest
+ * replies are dropped when the table holds too many of them or their estimated size
+ * exceeds the byte limit. Requests still running are never dropped, so a repeated request
+ * always joins the running one instead of starting a second execution.
+ */
+public class ReplyCache {
+	private final int maxEntries;
+	private final long maxBytes;
+	private final long timeToLive;
+	private final Map<String, Entry> entries = new LinkedHashMap<String, Entry>();
+	private long bytes = 0;
+	private long executions = 0;
+	private long hits = 0;
+	private long joins = 0;
+	private long expirations = 0;
+	private long evictions = 0;
+
+	/**
+	 * @param maxEntries	Maximum number of replies to remember, 0 to disable the cache
+	 * @param maxBytes	Maximum estimated size of the replies to remember, larger replies are not kept
+	 * @param timeToLive	Time in milliseconds a reply is kept after the request completed
+	 */
+	public ReplyCache(int maxEntries, long maxBytes, long timeToLive) {
+		this.maxEntries = maxEntries;
+		this.maxBytes = maxBytes;
+		this.timeToLive = timeToLive;
+	}
+
+	/**
+	 * Run a request, or return the reply of its earlier execution
+	 *
+	 * @param requestId	The request id, null to run without the cache
+	 * @param request	The request execution
+	 * @param maxWait	Time in milliseconds to wait for an earlier execution that is still running
+	 * @return	The reply
+	 * @throws Exception	The failure of the execution, or a timeout waiting for the earlier one
+	 */
+	public Object execute(String requestId, Callable<Object> request, long maxWait) throws Exception {
+		if (requestId == null || maxEntries <= 0) {
+			return request.call();
+		}
+		while (true) {
+			Entry entry;
+			boolean owner = false;
+			synchronized (this) {
+				purge(System.currentTimeMillis());
+				entry = entries.get(requestId);
+				if (entry == null) {
+					entry = new Entry();
+					entries.put(requestId, entry);
+					owner = true;
+					executions++;
+					evict();
+				} else if (entry.isDone()) {
+					hits++;
+				} else {
+					joins++;
+				}
+			}
+			if (owner) {
+				try {
+					Object reply = request.call();
+					synchronized (this) {
+						entry.complete(reply);
+						long size = sizeOf(reply);
+						if (entries.get(requestId) != entry) {
+							// Expired already
+						} else if (size > maxBytes) {
+							entries.remove(requestId);
+							evictions++;
+						} else {
+							entry.size = size;
+							bytes += size;
+							evict();
+						}
+					}
+					return reply;
+				} catch (Exception exception) {
+					synchronized (this) {
+						if (entries.get(requestId) == entry) {
+							entries.remove(requestId);
+						}
+					}
+					entry.fail();
+					throw exception;
+				}
+			}
+			if (!entry.done.await(maxWait, TimeUnit.MILLISECONDS)) {
+				throw new Exception("Request " + requestId + " is still running");
+			}
+			if (!entry.failed) {
+				return entry.reply;
+			}
+		}
+	}
+
+	/**
+	 * Drop the oldest replies until the table fits its limits. Entries of requests still
+	 * running are skipped, they hold no reply yet.
+	 */
+	private void evict() {
+		Iterator<Entry> iterator = entries.values().iterator();
+		while ((entries.size() > maxEntries || bytes > maxBytes) && iterator.hasNext()) {
+			Entry entry = iterator.next();
+			if (entry.isDone()) {
+				iterator.remove();
+				bytes -= entry.size;
+				evictions++;
+			}
+		}
+	}
+
+	/**
+	 * @return	A rough size in bytes of a reply: strings count two bytes per character
+	 */
+	static long sizeOf(Object value) {
+		long size = 16;
+		if (value instanceof CharSequence) {
+			size += 2L * ((CharSequence) value).length();
+		} else if (value instanceof byte[]) {
+			size += ((byte[]) value).length;
+		} else if (value instanceof Object[]) {
+			for (Object element : (Object[]) value) {
+				size += sizeOf(element);
+			}
+		} else if (value instanceof Collection<?>) {
+			for (Object element : (Collection<?>) value) {
+				size += sizeOf(element);
+			}
+		} else if (value instanceof Map<?, ?>) {
+			for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+				size += sizeOf(entry.getKey()) + sizeOf(entry.getValue());
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * Drop the expired replies. Entries are in arrival order, which is close to completion
+	 * order, so the scan stops at the first live reply.
+	 */
+	private void purge(long now) {
+		Iterator<Entry> iterator = entries.values().iterator();
+		while (iterator.hasNext()) {
+			Entry entry = iterator.next();
+			if (!entry.isDone()) {
+				continue;
+			}
+			if (now - entry.completedAt < timeToLive) {
+				break;
+			}
+			iterator.remove();
+			bytes -= entry.size;
+			expirations++;
+		}
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getJoins() {
+		return joins;
+	}
+
+	/**
+	 * Add the reply cache counters to the statistics map
+	 */
+	public synchronized void fillStatistics(Map<String, Comparable<?>> statistics, String prefix) {
+		statistics.put(prefix + ".size", entries.size());
+		statistics.put(prefix + ".maxEntries", maxEntries);
+		statistics.put(prefix + ".bytes", bytes);
+		statistics.put(prefix + ".maxBytes", maxBytes);
+		statistics.put(prefix + ".ttlMillis", timeToLive);
+		statistics.put(prefix + ".executions", executions);
+		statistics.put(prefix + ".hits", hits);
+		statistics.put(prefix + ".joins", joins);
+		statistics.put(prefix + ".expirations", expirations);
+		statistics.put(prefix + ".evictions", evictions);
+	}
+
+	private static class Entry {
+		private final CountDownLatch done = new CountDownLatch(1);
+		private volatile Object reply;
+		private volatile boolean failed = false;
+		private volatile long completedAt;
+		private long size = 0;
+
+		private boolean isDone() {
+			return done.getCount() == 0;
+		}
+
+		private void complete(Object value) {
+			reply = value;
+			completedAt = System.currentTimeMillis();
+			done.countDown();
+		}
+
+		private void fail() {
+			failed = true;
+			completedAt = System.currentTimeMillis();
+			done.countDown();
+		}
+	}
+}
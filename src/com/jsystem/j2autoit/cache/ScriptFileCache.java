@@ -0,0 +1,181 @@
+/*
+ * Copyright 2005-2010 Ignis Software Tools Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jsystem.j2autoit.cache;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.jsystem.j2autoit.logger.Log;
+
+/**
+ * Content addressed cache of generated script files.<br>
+ * Every script is stored once under the SHA-1 of its text, so repeated commands
+ * reuse the existing file without any write I/O. The cache keeps at most
+ * <code>maxEntries</code> files and evicts the least recently used one. A file that
+ * is evicted while a script still runs from it is deleted on release.
+ */
+public class ScriptFileCache {
+	private final File directory;
+	private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+	private final Map<File, Entry> acquired = new HashMap<File, Entry>();
+	private int maxEntries;
+	private long hits = 0;
+	private long misses = 0;
+	private long evictions = 0;
+
+	public ScriptFileCache(File directory, int maxEntries) {
+		this.directory = directory;
+		this.maxEntries = maxEntries;
+		directory.mkdirs();
+		File[] staleFiles = directory.listFiles();
+		if (staleFiles != null) {
+			for (File staleFile : staleFiles) {
+				staleFile.delete();
+			}
+		}
+	}
+
+	/**
+	 * Get a file holding the given script text, writing it only on a cache miss.<br>
+	 * Every acquired file must be handed back with {@link #release(File)}.
+	 *
+	 * @param scriptText	The full script text
+	 * @return	The script file
+	 * @throws IOException
+	 */
+	public synchronized File acquire(String scriptText) throws IOException {
+		String key = hash(scriptText);
+		Entry entry = entries.get(key);
+		if (entry == null) {
+			File file = new File(directory, "autoit_" + key + ".au3");
+			entry = acquired.get(file);
+			if (entry != null) {
+				hits++;
+				entry.evicted = false;
+			} else {
+				misses++;
+				entry = new Entry(file);
+				write(entry.file, scriptText);
+			}
+			entries.put(key, entry);
+			evict();
+		} else if (!entry.file.exists()) {
+			misses++;
+			write(entry.file, scriptText);
+		} else {
+			hits++;
+		}
+		entry.users++;
+		acquired.put(entry.file, entry);
+		return entry.file;
+	}
+
+	public synchronized void release(File file) {
+		Entry entry = acquired.get(file);
+		if (entry == null) {
+			return;
+		}
+		if (--entry.users == 0) {
+			acquired.remove(file);
+			if (entry.evicted) {
+				delete(entry.file);
+			}
+		}
+	}
+
+	private void write(File file, String scriptText) throws IOException {
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write(scriptText.getBytes("UTF-8"));
+		} finally {
+			out.close();
+		}
+	}
+
+	private void evict() {
+		Iterator<Entry> iterator = entries.values().iterator();
+		while (entries.size() > Math.max(maxEntries, 1) && iterator.hasNext()) {
+			Entry eldest = iterator.next();
+			iterator.remove();
+			evictions++;
+			if (eldest.users == 0) {
+				delete(eldest.file);
+			} else {
+				eldest.evicted = true;
+			}
+		}
+	}
+
+	private void delete(File file) {
+		if (!file.delete() && file.exists()) {
+			Log.warningLog(file.getAbsolutePath() + " failed to deleted\n");
+		}
+	}
+
+	public synchronized void setMaxEntries(int maxEntries) {
+		this.maxEntries = maxEntries;
+		evict();
+	}
+
+	public synchronized int getMaxEntries() {
+		return maxEntries;
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+
+	public static String hash(String text) {
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-1").digest(text.getBytes("UTF-8"));
+			StringBuilder sb = new StringBuilder();
+			for (byte b : digest) {
+				sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+			}
+			return sb.toString();
+		} catch (Exception exception) {
+			throw new IllegalStateException(exception);
+		}
+	}
+
+	private static class Entry {
+		private final File file;
+		private int users = 0;
+		private boolean evicted = false;
+
+		private Entry(File file) {
+			this.file = file;
+		}
+	}
+}
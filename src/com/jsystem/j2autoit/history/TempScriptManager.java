@@ -0,0 +1,134 @@
+/*
+ * Copyright 2005-2010 Ignis Software Tools Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jsystem.j2autoit.history;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.jsystem.j2autoit.logger.Log;
+
+/**
+ * Owns the temporary script files the agent writes for a single execution.<br>
+ * A fixed set of slot files is reused: a slot is rewritten on acquire and truncated on
+ * release. When all slots are busy an overflow file is created and deleted as soon as
+ * it is released, so no file is left for <code>File.deleteOnExit</code>.
+ */
+public class TempScriptManager {
+	private final File directory;
+	private final ConcurrentLinkedQueue<File> freeSlots = new ConcurrentLinkedQueue<File>();
+	private final Set<File> slots = new HashSet<File>();
+	private final AtomicInteger liveFiles = new AtomicInteger(0);
+	private final AtomicLong liveBytes = new AtomicLong(0);
+	private final AtomicLong overflows = new AtomicLong(0);
+
+	public TempScriptManager(File directory, int slotCount) {
+		this.directory = directory;
+		directory.mkdirs();
+		File[] staleFiles = directory.listFiles();
+		if (staleFiles != null) {
+			for (File staleFile : staleFiles) {
+				staleFile.delete();
+			}
+		}
+		for (int index = 0; index < slotCount; index++) {
+			File slot = new File(directory, "slot_" + index + ".au3");
+			slots.add(slot);
+			freeSlots.offer(slot);
+		}
+	}
+
+	/**
+	 * Write the script text to a free slot (or to an overflow file when all slots are busy)
+	 *
+	 * @param scriptText	The script text
+	 * @return	The file holding the script, must be handed back with {@link #release(File)}
+	 * @throws IOException
+	 */
+	public File acquire(String scriptText) throws IOException {
+		File file = freeSlots.poll();
+		if (file == null) {
+			overflows.incrementAndGet();
+			file = File.createTempFile("autoit", ".au3", directory);
+		}
+		byte[] bytes = scriptText.getBytes("UTF-8");
+		try {
+			FileOutputStream out = new FileOutputStream(file);
+			try {
+				out.write(bytes);
+			} finally {
+				out.close();
+			}
+		} catch (IOException exception) {
+			discard(file);
+			throw exception;
+		}
+		liveFiles.incrementAndGet();
+		liveBytes.addAndGet(bytes.length);
+		return file;
+	}
+
+	/**
+	 * Hand back a file once the execution finished
+	 *
+	 * @param file	A file returned by {@link #acquire(String)}
+	 */
+	public void release(File file) {
+		liveFiles.decrementAndGet();
+		liveBytes.addAndGet(-file.length());
+		discard(file);
+	}
+
+	private void discard(File file) {
+		if (slots.contains(file)) {
+			try {
+				new FileOutputStream(file).close();
+			} catch (IOException exception) {
+				Log.throwableLog(exception.getMessage() + "\n", exception);
+			}
+			freeSlots.offer(file);
+		} else if (!file.delete() && file.exists()) {
+			Log.errorLog(file.getAbsolutePath() + " failed to deleted\n");
+		}
+	}
+
+	/**
+	 * @return	The number of script files currently holding a script
+	 */
+	public int getLiveFiles() {
+		return liveFiles.get();
+	}
+
+	/**
+	 * @return	The number of bytes currently held by script files
+	 */
+	public long getLiveBytes() {
+		return liveBytes.get();
+	}
+
+	public int getSlotCount() {
+		return slots.size();
+	}
+
+	public long getOverflows() {
+		return overflows.get();
+	}
+}
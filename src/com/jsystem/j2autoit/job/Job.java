@@ -0,0 +1,259 @@
+/*
+ * Copyright 2005-2010 Ignis Software Tools Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jsystem.j2autoit.job;
+
+import java.io.File;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A unit of agent work that can be submitted, polled and collected later.<br>
+ * The job itself is the callable handed to the scheduler, so its status follows the
+ * real execution.
+ */
+public class Job implements Callable<Map<String, Comparable<?>>> {
+
+	public enum Status {
+		QUEUED,
+		RUNNING,
+		DONE,
+		FAILED,
+		CANCELLED,
+		EXPIRED,
+		UNKNOWN
+	}
+
+	private static final ThreadLocal<Job> CURRENT = new ThreadLocal<Job>();
+
+	private final String id = UUID.randomUUID().toString();
+	private final Callable<Map<String, Comparable<?>>> work;
+	private final CountDownLatch finished = new CountDownLatch(1);
+	private final long submitTime = System.currentTimeMillis();
+	private volatile long startTime = 0;
+	private volatile Status status = Status.QUEUED;
+	private volatile Map<String, Comparable<?>> result = null;
+	private volatile Exception failure = null;
+	private volatile Future<?> future = null;
+	private volatile RequestContext request = null;
+	private volatile String source = null;
+	private volatile boolean cancelled = false;
+	private final OutputBuffer stdout;
+	private final OutputBuffer stderr;
+
+	public Job(Callable<Map<String, Comparable<?>>> work) {
+		this.work = work;
+		this.stdout = new OutputBuffer();
+		this.stderr = new OutputBuffer();
+	}
+
+	/**
+	 * @param work	The work to run
+	 * @param memoryLimit	Maximum number of output characters (per stream) to keep in memory
+	 * @param summaryLimit	Maximum number of output characters (per stream) to return in the result
+	 * @param spillDir	The directory for output that exceeds the memory limit
+	 */
+	public Job(Callable<Map<String, Comparable<?>>> work, int memoryLimit, int summaryLimit, File spillDir) {
+		this.work = work;
+		this.stdout = new OutputBuffer(memoryLimit, summaryLimit, new File(spillDir, id + ".stdout"));
+		this.stderr = new OutputBuffer(memoryLimit, summaryLimit, new File(spillDir, id + ".stderr"));
+	}
+
+	/**
+	 * @return	The job running on the current thread, or null
+	 */
+	public static Job current() {
+		return CURRENT.get();
+	}
+
+	@Override
+	public Map<String, Comparable<?>> call() throws Exception {
+		CURRENT.set(this);
+		try {
+			synchronized (this) {
+				if (cancelled) {
+					throw failure;
+				}
+				if (request != null && request.remaining() <= 0) {
+					failure = new Exception("Job " + id + " expired before it started, the deadline of request " + request.getRequestId() + " passed");
+					status = Status.EXPIRED;
+					throw failure;
+				}
+				status = Status.RUNNING;
+				startTime = System.currentTimeMillis();
+			}
+			Map<String, Comparable<?>> workResult = work.call();
+			synchronized (this) {
+				if (cancelled) {
+					throw failure;
+				}
+				result = workResult;
+				status = Status.DONE;
+			}
+			return result;
+		} catch (Exception exception) {
+			synchronized (this) {
+				if (!cancelled && status != Status.EXPIRED) {
+					failure = exception;
+					status = Status.FAILED;
+				}
+			}
+			throw exception;
+		} finally {
+			stdout.seal();
+			stderr.seal();
+			CURRENT.remove();
+			finished.countDown();
+		}
+	}
+
+	/**
+	 * Cancel the job. A queued job finishes right away and leaves the scheduler queue, the
+	 * processes of a running job have to be killed by the caller.
+	 *
+	 * @return	false if the job already finished
+	 */
+	public synchronized boolean cancel() {
+		if (isFinished() || cancelled) {
+			return false;
+		}
+		boolean queued = status == Status.QUEUED;
+		cancelled = true;
+		failure = new Exception("Job " + id + " was cancelled");
+		status = Status.CANCELLED;
+		if (queued) {
+			finished.countDown();
+			if (future != null) {
+				future.cancel(false);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Limit a timeout to the time left until the request deadline
+	 *
+	 * @param timeout	Timeout in milliseconds
+	 * @return	The smaller of the timeout and the time left, at least 1
+	 */
+	public long capTimeout(long timeout) {
+		if (request == null || !request.hasDeadline()) {
+			return timeout;
+		}
+		return Math.max(1, Math.min(timeout, request.remaining()));
+	}
+
+	/**
+	 * Wait for the job to finish
+	 *
+	 * @param maxWait	Maximum time to wait in milliseconds
+	 * @return	true if the job finished
+	 * @throws InterruptedException
+	 */
+	public boolean await(long maxWait) throws InterruptedException {
+		return finished.await(maxWait, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * @return	The job result
+	 * @throws Exception	The exception the job failed with, or if the job did not finish yet
+	 */
+	public Map<String, Comparable<?>> getResult() throws Exception {
+		if (status == Status.FAILED || status == Status.CANCELLED || status == Status.EXPIRED) {
+			throw failure;
+		}
+		if (status != Status.DONE) {
+			throw new Exception("Job " + id + " is " + status);
+		}
+		return result;
+	}
+
+	public boolean isFinished() {
+		return finished.getCount() == 0;
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	public Status getStatus() {
+		return status;
+	}
+
+	public long getSubmitTime() {
+		return submitTime;
+	}
+
+	/**
+	 * @return	Time in milliseconds the job waited in the scheduler queue, so far if it did not start yet
+	 */
+	public long getQueueMillis() {
+		long start = startTime;
+		return (start == 0 ? System.currentTimeMillis() : start) - submitTime;
+	}
+
+	public void setRequest(RequestContext request) {
+		this.request = request;
+	}
+
+	/**
+	 * @param source	The script as the client sent it, before the agent wrapped it
+	 */
+	public void setSource(String source) {
+		this.source = source;
+	}
+
+	/**
+	 * @return	The script as the client sent it, or null if the job runs a script file
+	 */
+	public String getSource() {
+		return source;
+	}
+
+	/**
+	 * @return	The id of the request that created the job, or null
+	 */
+	public String getRequestId() {
+		return request == null ? null : request.getRequestId();
+	}
+
+	public OutputBuffer getStdout() {
+		return stdout;
+	}
+
+	public OutputBuffer getStderr() {
+		return stderr;
+	}
+
+	/**
+	 * Release the resources held by the job output
+	 */
+	public void dispose() {
+		stdout.dispose();
+		stderr.dispose();
+	}
+
+	public void setFuture(Future<?> future) {
+		this.future = future;
+	}
+
+	public Future<?> getFuture() {
+		return future;
+	}
+}
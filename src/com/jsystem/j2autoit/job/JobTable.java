@@ -0,0 +1,95 @@
+/*
+ * Copyright 2005-2010 Ignis Software Tools Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jsystem.j2autoit.job;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Bounded table of submitted jobs.<br>
+ * When the table is full the oldest finished jobs are evicted. Jobs that did not
+ * finish yet are never evicted, so a table full of running jobs rejects new ones.
+ */
+public class JobTable {
+	private final LinkedHashMap<String, Job> jobs = new LinkedHashMap<String, Job>();
+	private int maxJobs;
+	private long evictions = 0;
+
+	public JobTable(int maxJobs) {
+		this.maxJobs = maxJobs;
+	}
+
+	public synchronized void add(Job job) throws Exception {
+		if (jobs.size() >= maxJobs) {
+			evictFinished();
+			if (jobs.size() >= maxJobs) {
+				throw new Exception("Job table is full (" + maxJobs + " unfinished jobs)");
+			}
+		}
+		jobs.put(job.getId(), job);
+	}
+
+	public synchronized Job get(String jobId) {
+		return jobs.get(jobId);
+	}
+
+	/**
+	 * @return	The jobs created by the given client request
+	 */
+	public synchronized List<Job> findByRequest(String requestId) {
+		List<Job> found = new ArrayList<Job>();
+		for (Job job : jobs.values()) {
+			if (requestId.equals(job.getRequestId())) {
+				found.add(job);
+			}
+		}
+		return found;
+	}
+
+	public synchronized Job remove(String jobId) {
+		Job job = jobs.remove(jobId);
+		if (job != null) {
+			job.dispose();
+		}
+		return job;
+	}
+
+	private void evictFinished() {
+		Iterator<Job> iterator = jobs.values().iterator();
+		while (jobs.size() >= maxJobs && iterator.hasNext()) {
+			Job job = iterator.next();
+			if (job.isFinished()) {
+				iterator.remove();
+				job.dispose();
+				evictions++;
+			}
+		}
+	}
+
+	public synchronized void setMaxJobs(int maxJobs) {
+		this.maxJobs = maxJobs;
+	}
+
+	public synchronized int size() {
+		return jobs.size();
+	}
+
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+}
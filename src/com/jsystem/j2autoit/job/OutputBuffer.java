@@ -0,0 +1,258 @@
+/*
+ * Copyright 2005-2010 Ignis Software Tools Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jsystem.j2autoit.job;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import com.jsystem.j2autoit.logger.Log;
+
+/**
+ * Append only text buffer for the output of a running job.<br>
+ * Readers fetch the output incrementally by offset while the job is still writing.<br>
+ * <br>
+ * The buffer keeps at most memoryLimit characters in memory. Beyond that the whole
+ * output is moved to a spill file (two bytes per character, so an offset can be read
+ * without scanning the file) and only the head and the tail needed for
+ * {@link #summary()} stay in memory.
+ */
+public class OutputBuffer {
+	private static final int UNLIMITED = Integer.MAX_VALUE;
+
+	private final int memoryLimit;
+	private final int headLength;
+	private final int tailLength;
+	private final File spillFile;
+	private StringBuilder buffer = new StringBuilder();
+	private String head = null;
+	private RandomAccessFile spill = null;
+	private boolean spillFailed = false;
+	private int length = 0;
+
+	/**
+	 * Create an in memory buffer without limits
+	 */
+	public OutputBuffer() {
+		this(UNLIMITED, UNLIMITED, null);
+	}
+
+	/**
+	 * @param memoryLimit	Maximum number of characters to keep in memory before spilling to the file
+	 * @param summaryLimit	Maximum number of characters returned by {@link #summary()}, half head and half tail
+	 * @param spillFile	The file to spill to, null to keep everything in memory
+	 */
+	public OutputBuffer(int memoryLimit, int summaryLimit, File spillFile) {
+		this.spillFile = spillFile;
+		this.headLength = summaryLimit / 2;
+		this.tailLength = summaryLimit - headLength;
+		this.memoryLimit = spillFile == null ? UNLIMITED : Math.max(memoryLimit, summaryLimit);
+	}
+
+	public synchronized void append(char[] chars, int offset, int length) {
+		append(new String(chars, offset, length));
+	}
+
+	public synchronized void append(String text) {
+		length += text.length();
+		if (spill == null) {
+			buffer.append(text);
+			if (buffer.length() > memoryLimit && !spillFailed) {
+				startSpill();
+			}
+			return;
+		}
+		try {
+			spill.seek(spill.length());
+			spill.writeChars(text);
+		} catch (IOException exception) {
+			Log.throwable("Failed writing to " + spillFile.getAbsolutePath() + "\n", exception);
+		}
+		buffer.append(text);
+		if (buffer.length() > 2L * tailLength) {
+			buffer.delete(0, buffer.length() - tailLength);
+		}
+	}
+
+	private void startSpill() {
+		try {
+			spillFile.getParentFile().mkdirs();
+			spill = new RandomAccessFile(spillFile, "rw");
+			spill.setLength(0);
+			spill.writeChars(buffer.toString());
+			head = buffer.substring(0, headLength);
+			buffer.delete(0, buffer.length() - tailLength);
+			Log.infoLog("Output exceeded " + memoryLimit + " characters, spilling to " + spillFile.getAbsolutePath() + "\n");
+		} catch (IOException exception) {
+			Log.throwable("Failed to create " + spillFile.getAbsolutePath() + ", keeping output in memory\n", exception);
+			spillFailed = true;
+			closeSpill();
+		}
+	}
+
+	/**
+	 * Read part of the output
+	 *
+	 * @param offset	The offset (in characters) to read from
+	 * @param maxLength	Maximum number of characters to read
+	 * @return	The characters between offset and the current end of the output, or an empty string
+	 */
+	public synchronized String read(int offset, int maxLength) {
+		if (offset < 0 || offset >= length || maxLength <= 0) {
+			return "";
+		}
+		int count = Math.min(length - offset, maxLength);
+		if (spill == null) {
+			return buffer.substring(offset, offset + count);
+		}
+		try {
+			byte[] bytes = new byte[count * 2];
+			spill.seek(offset * 2L);
+			spill.readFully(bytes);
+			return new String(bytes, "UTF-16BE");
+		} catch (IOException exception) {
+			Log.throwable("Failed reading from " + spillFile.getAbsolutePath() + "\n", exception);
+			return "";
+		}
+	}
+
+	/**
+	 * @param text	The text to look for
+	 * @return	The offset of the last occurrence of the text in the whole output, -1 if there is none
+	 */
+	public synchronized int lastIndexOf(String text) {
+		if (spill == null) {
+			return buffer.lastIndexOf(text);
+		}
+		int chunk = Math.max(tailLength, text.length());
+		for (int end = length; end >= text.length(); end -= chunk - text.length() + 1) {
+			int start = Math.max(0, end - chunk);
+			int index = read(start, end - start).lastIndexOf(text);
+			if (index >= 0) {
+				return start + index;
+			}
+			if (start == 0) {
+				break;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Remove the end of the output. Output that fits the memory limit again is taken back
+	 * from the spill file.
+	 *
+	 * @param offset	The offset (in characters) to cut from
+	 * @return	The characters removed, or an empty string
+	 */
+	public synchronized String cut(int offset) {
+		if (offset < 0 || offset >= length) {
+			return "";
+		}
+		String removed = read(offset, length - offset);
+		if (spill == null) {
+			buffer.setLength(offset);
+			length = offset;
+			return removed;
+		}
+		if (offset <= memoryLimit) {
+			buffer = new StringBuilder(read(0, offset));
+			head = null;
+			closeSpill();
+			if (!spillFile.delete()) {
+				spillFile.deleteOnExit();
+			}
+		} else {
+			try {
+				spill.setLength(offset * 2L);
+			} catch (IOException exception) {
+				Log.throwable("Failed truncating " + spillFile.getAbsolutePath() + "\n", exception);
+			}
+			buffer = new StringBuilder(read(offset - tailLength, tailLength));
+		}
+		length = offset;
+		return removed;
+	}
+
+	/**
+	 * @return	The whole output if it fits the summary limit, otherwise its head and its tail
+	 *         with a marker of the number of characters left out
+	 */
+	public synchronized String summary() {
+		if (!isTruncated()) {
+			return buffer.toString();
+		}
+		String currentHead = spill == null ? buffer.substring(0, headLength) : head;
+		String tail = buffer.substring(buffer.length() - tailLength);
+		return currentHead + "\n... " + (length - headLength - tailLength) + " characters truncated ...\n" + tail;
+	}
+
+	/**
+	 * @return	true if the {@link #summary()} leaves part of the output out
+	 */
+	public synchronized boolean isTruncated() {
+		return length > (long) headLength + tailLength;
+	}
+
+	public synchronized boolean isSpilled() {
+		return spill != null;
+	}
+
+	public synchronized int length() {
+		return length;
+	}
+
+	/**
+	 * Called when the writer is done. Output that does not fit the summary is moved to the
+	 * spill file, so a finished job keeps only its head and tail in memory.
+	 */
+	public synchronized void seal() {
+		if (spill == null && spillFile != null && !spillFailed && isTruncated()) {
+			startSpill();
+		}
+	}
+
+	/**
+	 * Release the spill file
+	 */
+	public synchronized void dispose() {
+		closeSpill();
+		buffer = new StringBuilder();
+		head = null;
+		length = 0;
+		if (spillFile != null && spillFile.exists() && !spillFile.delete()) {
+			spillFile.deleteOnExit();
+		}
+	}
+
+	private void closeSpill() {
+		if (spill != null) {
+			try {
+				spill.close();
+			} catch (IOException exception) {
+			}
+			spill = null;
+		}
+	}
+
+	/**
+	 * @return	The whole output, prefer {@link #summary()} or {@link #read(int, int)} for output that may be large
+	 */
+	@Override
+	public synchronized String toString() {
+		return read(0, length);
+	}
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2005-2010 Ignis Software Tools Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jsystem.j2autoit.job;
+
+import java.util.Map;
+
+import com.jsystem.j2autoit.scheduler.Priority;
+
+/**
+ * The envelope of a client request: its id, its deadline, its priority, the shape of the
+ * results it wants and whether it accepts memoized query results.<br>
+ * The client sends the time it is still willing to wait (a relative budget), and the
+ * agent turns it into an absolute deadline on its own clock when the request arrives, so
+ * the clocks of the two machines do not have to agree.
+ */
+public class RequestContext {
+	public static final String REQUEST_ID = "requestId";
+	public static final String BUDGET = "budget";
+	public static final String PRIORITY = "priority";
+	public static final String RESULT_SHAPE = "resultShape";
+	public static final String CACHE = "cache";
+
+	private static final ThreadLocal<RequestContext> CURRENT = new ThreadLocal<RequestContext>();
+
+	private final String requestId;
+	private final long deadline;
+	private final Priority priority;
+	private final ResultShape resultShape;
+	private final boolean cacheEnabled;
+
+	/**
+	 * @param requestId	The client request id
+	 * @param deadline	Absolute deadline (agent clock, milliseconds), 0 for none
+	 * @param priority	The priority the client asked for, null for the default of the called method
+	 * @param resultShape	How much of the script the results echo
+	 * @param cacheEnabled	false if the request must not be answered from the query cache
+	 */
+	public RequestContext(String requestId, long deadline, Priority priority, ResultShape resultShape, boolean cacheEnabled) {
+		this.requestId = requestId;
+		this.deadline = deadline;
+		this.priority = priority;
+		this.resultShape = resultShape;
+		this.cacheEnabled = cacheEnabled;
+	}
+
+	/**
+	 * Create the context from the envelope sent by the client
+	 */
+	public static RequestContext fromEnvelope(Map<?, ?> envelope) {
+		Object requestId = envelope.get(REQUEST_ID);
+		Object budget = envelope.get(BUDGET);
+		long deadline = 0;
+		if (budget instanceof Number && ((Number) budget).longValue() > 0) {
+			deadline = System.currentTimeMillis() + ((Number) budget).longValue();
+		}
+		return new RequestContext(requestId == null ? null : requestId.toString(), deadline, Priority.parse(envelope.get(PRIORITY), null),
+				ResultShape.parse(envelope.get(RESULT_SHAPE), ResultShape.FULL), !Boolean.FALSE.equals(envelope.get(CACHE)));
+	}
+
+	/**
+	 * @return	The context of the request handled by the current thread, or null
+	 */
+	public static RequestContext current() {
+		return CURRENT.get();
+	}
+
+	public static void setCurrent(RequestContext context) {
+		if (context == null) {
+			CURRENT.remove();
+		} else {
+			CURRENT.set(context);
+		}
+	}
+
+	public String getRequestId() {
+		return requestId;
+	}
+
+	public long getDeadline() {
+		return deadline;
+	}
+
+	public Priority getPriority() {
+		return priority;
+	}
+
+	public ResultShape getResultShape() {
+		return resultShape;
+	}
+
+	public boolean isCacheEnabled() {
+		return cacheEnabled;
+	}
+
+	public boolean hasDeadline() {
+		return deadline > 0;
+	}
+
+	/**
+	 * @return	Milliseconds left until the deadline (may be negative), Long.MAX_VALUE if there is no deadline
+	 */
+	public long remaining() {
+		return hasDeadline() ? deadline - System.currentTimeMillis() : Long.MAX_VALUE;
+	}
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright 2005-2010 Ignis Software Tools Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jsystem.j2autoit.pool;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+import com.jsystem.j2autoit.AutoItUtils;
+import com.jsystem.j2autoit.CommandResult;
+import com.jsystem.j2autoit.logger.Log;
+import com.jsystem.j2autoit.process.ProcessTracker;
+import com.jsystem.j2autoit.script.ValueRecord;
+
+/**
+ * Pool of long-lived AutoIt interpreter processes.<br>
+ * Single line commands are evaluated by an idle worker instead of launching a new
+ * interpreter per call. When the pool is disabled, all workers are busy or no worker
+ * could take the command, <code>execute</code> returns null and the caller should fall
+ * back to spawning a dedicated process. A worker that crashes after it received the
+ * command returns an error result instead, the command is never run twice.<br>
+ * The workers are shared by all the clients, so commands that leave state behind in the
+ * interpreter (options, hot keys, registered functions, variables, open handles, windows)
+ * are never pooled: each of them runs in its own interpreter, as every command used to.<br>
+ * While a worker evaluates a command it is registered with the process tracker under the
+ * job that borrowed it, so killing the job (or all the AutoIt processes) kills the worker
+ * and the command returns at once. A killed worker is retired.
+ */
+public class InterpreterPool {
+	private static final String HOST_SCRIPT_RESOURCE = "WorkerHost.au3";
+	private static final Pattern STATEFUL_CALL = Pattern.compile("\\b(Opt|AutoItSetOption|AutoItWinSetTitle|HotKeySet|Adlib\\w*|OnAutoItExit\\w*|Assign|"
+			+ "SRandom|Dll(Open|CallbackRegister)|Plugin\\w*|ObjEvent|GUI\\w*|Tray\\w*|TCPStartup|UDPStartup|SplashImageOn|SplashTextOn|ProgressOn)\\s*\\(",
+			Pattern.CASE_INSENSITIVE);
+
+	private final ConcurrentLinkedQueue<InterpreterWorker> idleWorkers = new ConcurrentLinkedQueue<InterpreterWorker>();
+	private final AtomicInteger liveWorkers = new AtomicInteger(0);
+	private final AtomicInteger recycledWorkers = new AtomicInteger(0);
+	private final File workDir;
+	private volatile int poolSize;
+	private volatile int maxCommandsPerWorker;
+	private File hostScript = null;
+	private volatile ProcessTracker processTracker = null;
+
+	public InterpreterPool(int poolSize, int maxCommandsPerWorker, File workDir) {
+		this.poolSize = poolSize;
+		this.maxCommandsPerWorker = maxCommandsPerWorker;
+		this.workDir = workDir;
+	}
+
+	/**
+	 * Evaluate a single line expression on a pooled worker
+	 *
+	 * @param expression	The AutoIt expression
+	 * @param workDir	The directory to evaluate the expression from
+	 * @param interpreter	The AutoIt executable location
+	 * @param timeout	Timeout in milliseconds
+	 * @param owner	The id of the job the expression runs for
+	 * @return	The result, or null if no worker received the request
+	 */
+	public CommandResult execute(String expression, String workDir, String interpreter, long timeout, String owner) {
+		if (!isPoolable(expression)) {
+			return null;
+		}
+		InterpreterWorker worker = borrow(interpreter);
+		if (worker == null) {
+			return null;
+		}
+		ProcessTracker tracker = processTracker;
+		ProcessTracker.TrackedProcess tracked = tracker == null ? null : tracker.register(worker.getProcess(), owner);
+		CommandResult result;
+		try {
+			result = worker.execute(expression, workDir, timeout);
+		} finally {
+			if (tracked != null) {
+				tracker.forget(tracked);
+			}
+		}
+		if (tracked != null && tracked.isKilled()) {
+			retire(worker);
+		} else {
+			giveBack(worker);
+		}
+		return result;
+	}
+
+	/**
+	 * @return	true for a single line expression that leaves no state behind in the worker
+	 */
+	public static boolean isPoolable(String expression) {
+		return expression != null && expression.indexOf('\n') < 0 && expression.indexOf('\r') < 0 && !expression.trim().isEmpty()
+				&& !STATEFUL_CALL.matcher(expression).find();
+	}
+
+	private InterpreterWorker borrow(String interpreter) {
+		InterpreterWorker worker = null;
+		while ((worker = idleWorkers.poll()) != null) {
+			if (worker.isUsable(maxCommandsPerWorker) && worker.getInterpreter().equals(interpreter)) {
+				return worker;
+			}
+			retire(worker);
+		}
+		if (liveWorkers.incrementAndGet() > poolSize) {
+			liveWorkers.decrementAndGet();
+			return null;
+		}
+		try {
+			return new InterpreterWorker(interpreter, getHostScript(), workDir);
+		} catch (Exception exception) {
+			liveWorkers.decrementAndGet();
+			Log.throwableLog("Failed to start interpreter worker : " + exception.getMessage() + "\n", exception);
+			return null;
+		}
+	}
+
+	private void giveBack(InterpreterWorker worker) {
+		if (worker.isUsable(maxCommandsPerWorker)) {
+			idleWorkers.offer(worker);
+		} else {
+			retire(worker);
+		}
+	}
+
+	private void retire(InterpreterWorker worker) {
+		worker.close();
+		liveWorkers.decrementAndGet();
+		recycledWorkers.incrementAndGet();
+		Log.infoLog("Interpreter worker retired after " + worker.getCommandCount() + " commands\n");
+	}
+
+	private synchronized File getHostScript() throws IOException {
+		if (hostScript == null || !hostScript.exists()) {
+			hostScript = AutoItUtils.extractResource(InterpreterPool.class, HOST_SCRIPT_RESOURCE, "autoitHost",
+					"#include \"" + ValueRecord.getEncoderScript().getAbsolutePath() + "\"\r\n");
+		}
+		return hostScript;
+	}
+
+	/**
+	 * @param processTracker	The tracker busy workers are registered with, null to leave them untracked
+	 */
+	public void setProcessTracker(ProcessTracker processTracker) {
+		this.processTracker = processTracker;
+	}
+
+	public void setPoolSize(int poolSize) {
+		this.poolSize = poolSize;
+	}
+
+	public int getPoolSize() {
+		return poolSize;
+	}
+
+	public void setMaxCommandsPerWorker(int maxCommandsPerWorker) {
+		this.maxCommandsPerWorker = maxCommandsPerWorker;
+	}
+
+	public int getMaxCommandsPerWorker() {
+		return maxCommandsPerWorker;
+	}
+
+	public int getLiveWorkers() {
+		return liveWorkers.get();
+	}
+
+	public int getRecycledWorkers() {
+		return recycledWorkers.get();
+	}
+
+	/**
+	 * Stop all idle workers, busy workers are retired when they are returned
+	 */
+	public void shutdown() {
+		poolSize = 0;
+		InterpreterWorker worker = null;
+		while ((worker = idleWorkers.poll()) != null) {
+			retire(worker);
+		}
+	}
+}
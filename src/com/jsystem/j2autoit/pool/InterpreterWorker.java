@@ -0,0 +1,268 @@
+/*
+ * Copyright 2005-2010 Ignis Software Tools Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jsystem.j2autoit.pool;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.time.Duration;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.jsystem.j2autoit.AutoItUtils;
+import com.jsystem.j2autoit.CommandResult;
+import com.jsystem.j2autoit.logger.Log;
+
+/**
+ * A single long-lived interpreter process running the worker host script.<br>
+ * Requests are written to the process stdin as one line: <code>workDir TAB expression LF</code>.<br>
+ * Every reply on stdout is framed as <code>MARKER #returnCode length LF</code> followed by exactly
+ * <code>length</code> characters; whatever the expression wrote to the console before the frame is
+ * part of its output. The expression errors go to stderr, which the host ends with <code>MARKER LF</code>
+ * after every request.
+ */
+public class InterpreterWorker {
+	static final String MARKER = "\u001EJ2W";
+	private static final Pattern FRAME_HEADER = Pattern.compile("^#(-?\\d+) (\\d+)$");
+	private static final CommandResult CRASHED = new CommandResult();
+
+	private final String interpreter;
+	private final Process process;
+	private final Writer stdin;
+	private final BlockingQueue<CommandResult> replies = new ArrayBlockingQueue<CommandResult>(1);
+	private final BlockingQueue<String> errors = new LinkedBlockingQueue<String>();
+	private final StringBuffer crashOutput = new StringBuffer();
+	private int commandCount = 0;
+	private volatile boolean broken = false;
+
+	public InterpreterWorker(String interpreter, File hostScript, File workDir) throws IOException {
+		this.interpreter = interpreter;
+		ProcessBuilder builder = new ProcessBuilder(interpreter, "/ErrorStdOut", hostScript.getAbsolutePath());
+		builder.directory(workDir);
+		process = builder.start();
+		// ConsoleRead and ConsoleWrite use the ANSI code page
+		stdin = new OutputStreamWriter(process.getOutputStream(), AutoItUtils.CONSOLE_CHARSET);
+		FrameReader frameReader = new FrameReader(new BufferedReader(new InputStreamReader(process.getInputStream(), AutoItUtils.CONSOLE_CHARSET)));
+		frameReader.setDaemon(true);
+		frameReader.start();
+		ErrorReader errorReader = new ErrorReader(new BufferedReader(new InputStreamReader(process.getErrorStream(), AutoItUtils.CONSOLE_CHARSET)));
+		errorReader.setDaemon(true);
+		errorReader.start();
+	}
+
+	/**
+	 * Evaluate a single line AutoIt expression inside the worker.
+	 *
+	 * @param expression	The expression to evaluate, must not contain line breaks
+	 * @param workDir	The directory to evaluate the expression from
+	 * @param timeout	Timeout in milliseconds
+	 * @return	The evaluation result, or null if the request could not be sent to the worker and should be
+	 * executed elsewhere. Once the worker received the request a crash is reported as an error result, the
+	 * expression may have run already.<br>
+	 * The CPU time of the result is the CPU time the worker used while evaluating, when the OS reports it.
+	 */
+	public CommandResult execute(String expression, String workDir, long timeout) {
+		commandCount++;
+		long cpuBefore = cpuMillis();
+		try {
+			stdin.write(workDir + "\t" + expression + "\n");
+			stdin.flush();
+		} catch (IOException exception) {
+			broken = true;
+			Log.throwableLog(exception.getMessage() + "\n", exception);
+			return null;
+		}
+		try {
+			long deadline = System.currentTimeMillis() + timeout;
+			CommandResult reply = replies.poll(timeout, TimeUnit.MILLISECONDS);
+			if (reply == null) {
+				broken = true;
+				return failure("Timeout of " + timeout + " milliseconds expired\n");
+			}
+			if (reply == CRASHED) {
+				broken = true;
+				return failure("Interpreter worker exited while evaluating the command\n" + crashOutput);
+			}
+			String errorText = errors.poll(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+			if (errorText == null) {
+				// The error stream is out of step with the replies, do not reuse the worker
+				broken = true;
+				errorText = "";
+			}
+			reply.setStderr(errorText);
+			long cpuAfter = cpuMillis();
+			if (cpuBefore >= 0 && cpuAfter >= cpuBefore) {
+				reply.setCpuMillis(cpuAfter - cpuBefore);
+			}
+			return reply;
+		} catch (InterruptedException exception) {
+			broken = true;
+			Thread.currentThread().interrupt();
+			return failure("Interrupted while waiting for the interpreter worker\n");
+		}
+	}
+
+	private static CommandResult failure(String message) {
+		CommandResult result = new CommandResult();
+		result.setStdout("");
+		result.setStderr(message);
+		result.setReturnCode(-1);
+		return result;
+	}
+
+	private long cpuMillis() {
+		Duration cpu = process.toHandle().info().totalCpuDuration().orElse(null);
+		return cpu == null ? -1 : cpu.toMillis();
+	}
+
+	public boolean isUsable(int maxCommands) {
+		return !broken && commandCount < maxCommands && isAlive();
+	}
+
+	public boolean isAlive() {
+		try {
+			process.exitValue();
+			return false;
+		} catch (IllegalThreadStateException exception) {
+			return true;
+		}
+	}
+
+	Process getProcess() {
+		return process;
+	}
+
+	public String getInterpreter() {
+		return interpreter;
+	}
+
+	public int getCommandCount() {
+		return commandCount;
+	}
+
+	public void close() {
+		try {
+			stdin.close();
+		} catch (IOException exception) {
+		}
+		process.destroy();
+	}
+
+	/**
+	 * Read from the stream until the marker
+	 *
+	 * @return	The text before the marker, or null at the end of the stream (the text read is left in the builder)
+	 */
+	private static String readToMarker(BufferedReader reader, StringBuilder text) throws IOException {
+		int character;
+		while ((character = reader.read()) != -1) {
+			text.append((char) character);
+			if (endsWithMarker(text)) {
+				String before = text.substring(0, text.length() - MARKER.length());
+				text.setLength(0);
+				return before;
+			}
+		}
+		return null;
+	}
+
+	private static boolean endsWithMarker(StringBuilder text) {
+		int start = text.length() - MARKER.length();
+		if (start < 0) {
+			return false;
+		}
+		for (int index = 0; index < MARKER.length(); index++) {
+			if (text.charAt(start + index) != MARKER.charAt(index)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private class FrameReader extends Thread {
+		private final BufferedReader reader;
+
+		public FrameReader(BufferedReader reader) {
+			super("InterpreterWorker-FrameReader");
+			this.reader = reader;
+		}
+
+		@Override
+		public void run() {
+			StringBuilder text = new StringBuilder();
+			try {
+				String output;
+				while ((output = readToMarker(reader, text)) != null) {
+					String header = reader.readLine();
+					Matcher matcher = FRAME_HEADER.matcher(header == null ? "" : header.trim());
+					if (!matcher.matches()) {
+						Log.errorLog("Unexpected interpreter worker output : " + header + "\n");
+						break;
+					}
+					char[] payload = new char[Integer.parseInt(matcher.group(2))];
+					int offset = 0;
+					while (offset < payload.length) {
+						int read = reader.read(payload, offset, payload.length - offset);
+						if (read == -1) {
+							throw new IOException("Interpreter worker closed in the middle of a reply");
+						}
+						offset += read;
+					}
+					CommandResult result = new CommandResult();
+					result.setStdout(output + new String(payload));
+					result.setReturnCode(Integer.parseInt(matcher.group(1)));
+					replies.put(result);
+				}
+			} catch (Exception exception) {
+				Log.throwableLog(exception.getMessage() + "\n", exception);
+			}
+			// Whatever the worker wrote without a frame explains why it stopped (an AutoIt fatal error)
+			crashOutput.append(text);
+			broken = true;
+			replies.offer(CRASHED);
+		}
+	}
+
+	private class ErrorReader extends Thread {
+		private final BufferedReader reader;
+
+		public ErrorReader(BufferedReader reader) {
+			super("InterpreterWorker-ErrorReader");
+			this.reader = reader;
+		}
+
+		@Override
+		public void run() {
+			StringBuilder text = new StringBuilder();
+			try {
+				String errorText;
+				while ((errorText = readToMarker(reader, text)) != null) {
+					reader.readLine();
+					errors.add(errorText);
+				}
+			} catch (IOException exception) {
+			}
+			crashOutput.append(text);
+		}
+	}
+}
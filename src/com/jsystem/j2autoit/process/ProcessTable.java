@@ -0,0 +1,198 @@
+/*
+ * Copyright 2005-2010 Ignis Software Tools Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jsystem.j2autoit.process;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.jsystem.j2autoit.logger.Log;
+
+/**
+ * Snapshot of the process table, keyed by image name (the executable file name,
+ * case insensitive as TASKLIST matches it).<br>
+ * The snapshot is rebuilt from {@link ProcessHandle#allProcesses()} by a background
+ * thread every refresh interval, so queries are answered from memory and may be up to
+ * one interval old. Processes whose executable is not visible to the agent user are
+ * not in the snapshot.<br>
+ * The background refresh runs only while the table is in use: it stops once no query came
+ * for {@link #IDLE_REFRESHES} intervals, and the next query rebuilds the snapshot before
+ * answering and starts it again.
+ */
+public class ProcessTable {
+	public static final int IDLE_REFRESHES = 20;
+	private final long refreshInterval;
+	private final ScheduledExecutorService executor;
+	private ScheduledFuture<?> refresher = null;
+	private long lastQuery = 0;
+	private volatile Map<String, List<Long>> snapshot = Collections.emptyMap();
+	private volatile long lastRefreshDuration = 0;
+	private final AtomicLong refreshes = new AtomicLong();
+	private final AtomicLong queries = new AtomicLong();
+
+	/**
+	 * @param refreshInterval	Time in milliseconds between snapshots
+	 */
+	public ProcessTable(long refreshInterval) {
+		this.refreshInterval = Math.max(1, refreshInterval);
+		executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "ProcessTable");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * @return	The snapshot to answer a query from, rebuilt first if the table was idle
+	 */
+	private Map<String, List<Long>> current() {
+		queries.incrementAndGet();
+		synchronized (this) {
+			lastQuery = System.currentTimeMillis();
+			if (refresher == null) {
+				refresh();
+				refresher = executor.scheduleWithFixedDelay(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							if (!stopIfIdle()) {
+								refresh();
+							}
+						} catch (Throwable throwable) {
+							Log.throwable("Process table refresh failed\n", throwable);
+						}
+					}
+				}, refreshInterval, refreshInterval, TimeUnit.MILLISECONDS);
+			}
+		}
+		return snapshot;
+	}
+
+	private synchronized boolean stopIfIdle() {
+		if (refresher == null || System.currentTimeMillis() - lastQuery < refreshInterval * IDLE_REFRESHES) {
+			return false;
+		}
+		refresher.cancel(false);
+		refresher = null;
+		snapshot = Collections.emptyMap();
+		return true;
+	}
+
+	/**
+	 * @return	True while the background refresh runs
+	 */
+	public synchronized boolean isRefreshing() {
+		return refresher != null;
+	}
+
+	/**
+	 * Rebuild the snapshot now
+	 */
+	public void refresh() {
+		long start = System.currentTimeMillis();
+		Map<String, List<Long>> table = new HashMap<String, List<Long>>();
+		Iterator<ProcessHandle> iterator = ProcessHandle.allProcesses().iterator();
+		while (iterator.hasNext()) {
+			ProcessHandle handle = iterator.next();
+			String command = handle.info().command().orElse(null);
+			if (command == null) {
+				continue;
+			}
+			String image = imageKey(new File(command).getName());
+			List<Long> pids = table.get(image);
+			if (pids == null) {
+				pids = new ArrayList<Long>(1);
+				table.put(image, pids);
+			}
+			pids.add(handle.pid());
+		}
+		snapshot = table;
+		lastRefreshDuration = System.currentTimeMillis() - start;
+		refreshes.incrementAndGet();
+	}
+
+	private static String imageKey(String image) {
+		return image.toLowerCase();
+	}
+
+	public boolean isRunning(String image) {
+		return count(image) > 0;
+	}
+
+	public int count(String image) {
+		return getPids(image).size();
+	}
+
+	/**
+	 * @return	The PIDs of the processes running the given image, empty if there are none
+	 */
+	public List<Long> getPids(String image) {
+		List<Long> pids = current().get(imageKey(image));
+		return pids == null ? Collections.<Long>emptyList() : Collections.unmodifiableList(pids);
+	}
+
+	/**
+	 * Count the processes of several images against the same snapshot
+	 *
+	 * @return	Image name to number of running processes
+	 */
+	public Map<String, Integer> count(List<String> images) {
+		Map<String, List<Long>> current = current();
+		Hashtable<String, Integer> counts = new Hashtable<String, Integer>();
+		for (String image : images) {
+			List<Long> pids = current.get(imageKey(image));
+			counts.put(image, pids == null ? 0 : pids.size());
+		}
+		return counts;
+	}
+
+	/**
+	 * @return	The current snapshot, image name (lower case) to PIDs
+	 */
+	public Map<String, List<Long>> snapshot() {
+		return Collections.unmodifiableMap(current());
+	}
+
+	/**
+	 * Add the process table counters to the statistics map
+	 */
+	public void fillStatistics(Map<String, Comparable<?>> statistics, String prefix) {
+		statistics.put(prefix + ".refreshIntervalMillis", refreshInterval);
+		statistics.put(prefix + ".images", snapshot.size());
+		statistics.put(prefix + ".refreshes", refreshes.get());
+		statistics.put(prefix + ".lastRefreshMillis", lastRefreshDuration);
+		statistics.put(prefix + ".queries", queries.get());
+		statistics.put(prefix + ".refreshing", isRefreshing());
+	}
+
+	public void shutdown() {
+		executor.shutdownNow();
+	}
+}
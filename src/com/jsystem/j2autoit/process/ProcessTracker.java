@@ -0,0 +1,303 @@
+/*
+ * Copyright 2005-2010 Ignis Software Tools Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jsystem.j2autoit.process;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import com.jsystem.j2autoit.logger.Log;
+
+/**
+ * Keeps the handle of every script process the agent launches, keyed by PID.<br>
+ * Kill requests return immediately: the process tree gets a graceful destroy, and the
+ * processes that are still alive after the grace period are destroyed forcibly by a
+ * background thread.<br>
+ * Processes released by their runner while still alive (the runner timed out or was
+ * interrupted) are orphans, the reaper kills them and drops dead entries from the table.
+ */
+public class ProcessTracker {
+	private static final long REAP_INTERVAL = 5000;
+
+	private final Map<Long, TrackedProcess> processes = new LinkedHashMap<Long, TrackedProcess>();
+	private final ScheduledExecutorService executor;
+	private volatile long gracePeriod;
+	private long killRequests = 0;
+	private long forcedKills = 0;
+	private long reaped = 0;
+
+	/**
+	 * @param gracePeriod	Time in milliseconds between the graceful and the forced kill
+	 */
+	public ProcessTracker(long gracePeriod) {
+		this.gracePeriod = gracePeriod;
+		ScheduledThreadPoolExecutor scheduled = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "ProcessTracker");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		scheduled.setRemoveOnCancelPolicy(true);
+		executor = scheduled;
+		executor.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				reap();
+			}
+		}, REAP_INTERVAL, REAP_INTERVAL, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Start tracking a process
+	 *
+	 * @param process	The launched process
+	 * @param owner	The id of the job the process runs for
+	 * @return	The tracking entry, to be released when the runner is done with the process
+	 */
+	public synchronized TrackedProcess register(Process process, String owner) {
+		TrackedProcess tracked = new TrackedProcess(process.toHandle(), owner);
+		processes.put(tracked.getPid(), tracked);
+		return tracked;
+	}
+
+	/**
+	 * Stop tracking a process. A process that is still alive stays in the table as an orphan
+	 * and is killed by the reaper.
+	 */
+	public synchronized void release(TrackedProcess tracked) {
+		if (tracked.handle.isAlive()) {
+			tracked.orphan = true;
+			Log.infoLog("Process " + tracked.getPid() + " of " + tracked.owner + " is still alive, leaving it to the reaper\n");
+		} else {
+			processes.remove(tracked.getPid());
+		}
+	}
+
+	/**
+	 * Stop tracking a process that outlives the job it was registered for, such as a pooled
+	 * interpreter going back to the pool
+	 */
+	public synchronized void forget(TrackedProcess tracked) {
+		processes.remove(tracked.getPid());
+	}
+
+	/**
+	 * Kill the processes of a job
+	 *
+	 * @param owner	The job id
+	 * @return	The number of processes that were signalled
+	 */
+	public int killOwner(String owner) {
+		List<TrackedProcess> targets = new ArrayList<TrackedProcess>();
+		synchronized (this) {
+			for (TrackedProcess tracked : processes.values()) {
+				if (tracked.owner.equals(owner)) {
+					targets.add(tracked);
+				}
+			}
+		}
+		for (TrackedProcess tracked : targets) {
+			kill(tracked);
+		}
+		return targets.size();
+	}
+
+	/**
+	 * Kill all the tracked processes
+	 *
+	 * @return	The number of processes that were signalled
+	 */
+	public int killAll() {
+		List<TrackedProcess> targets;
+		synchronized (this) {
+			targets = new ArrayList<TrackedProcess>(processes.values());
+		}
+		for (TrackedProcess tracked : targets) {
+			kill(tracked);
+		}
+		return targets.size();
+	}
+
+	/**
+	 * Kill a process by PID, tracked or not
+	 *
+	 * @return	true if a live process with that PID was found
+	 */
+	public boolean killPid(long pid) {
+		TrackedProcess tracked;
+		synchronized (this) {
+			tracked = processes.get(pid);
+		}
+		if (tracked != null) {
+			kill(tracked);
+			return true;
+		}
+		ProcessHandle handle = ProcessHandle.of(pid).orElse(null);
+		if (handle == null || !handle.isAlive()) {
+			return false;
+		}
+		terminate(handle);
+		return true;
+	}
+
+	/**
+	 * Kill every live process whose executable file name matches the image name
+	 *
+	 * @return	The number of processes that were signalled
+	 */
+	public int killImage(String image) {
+		int count = 0;
+		Iterator<ProcessHandle> iterator = ProcessHandle.allProcesses().iterator();
+		while (iterator.hasNext()) {
+			ProcessHandle handle = iterator.next();
+			String command = handle.info().command().orElse(null);
+			if (command != null && new File(command).getName().equalsIgnoreCase(image)) {
+				terminate(handle);
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Kill a tracked process with its descendants
+	 */
+	public void kill(TrackedProcess tracked) {
+		tracked.killed = true;
+		terminate(tracked.handle);
+	}
+
+	/**
+	 * Destroy the process tree gracefully and schedule the forced destroy
+	 */
+	private void terminate(ProcessHandle handle) {
+		synchronized (this) {
+			killRequests++;
+		}
+		final List<ProcessHandle> tree = new ArrayList<ProcessHandle>();
+		Iterator<ProcessHandle> descendants = handle.descendants().iterator();
+		while (descendants.hasNext()) {
+			tree.add(descendants.next());
+		}
+		tree.add(handle);
+		for (ProcessHandle member : tree) {
+			member.destroy();
+		}
+		Log.infoLog("Sent a kill request to process " + handle.pid() + " and " + (tree.size() - 1) + " descendants\n");
+		executor.schedule(new Runnable() {
+			@Override
+			public void run() {
+				for (ProcessHandle member : tree) {
+					if (member.isAlive()) {
+						member.destroyForcibly();
+						synchronized (ProcessTracker.this) {
+							forcedKills++;
+						}
+						Log.infoLog("Forcing shutdown of process " + member.pid() + "\n");
+					}
+				}
+			}
+		}, gracePeriod, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Drop dead processes from the table and kill orphans
+	 */
+	void reap() {
+		List<TrackedProcess> orphans = new ArrayList<TrackedProcess>();
+		synchronized (this) {
+			Iterator<TrackedProcess> iterator = processes.values().iterator();
+			while (iterator.hasNext()) {
+				TrackedProcess tracked = iterator.next();
+				if (!tracked.handle.isAlive()) {
+					if (tracked.orphan) {
+						iterator.remove();
+						reaped++;
+					}
+				} else if (tracked.orphan && !tracked.killed) {
+					orphans.add(tracked);
+				}
+			}
+		}
+		for (TrackedProcess tracked : orphans) {
+			Log.infoLog("Reaping orphan process " + tracked.getPid() + " of " + tracked.owner + "\n");
+			kill(tracked);
+		}
+	}
+
+	public void setGracePeriod(long gracePeriod) {
+		this.gracePeriod = gracePeriod;
+	}
+
+	public synchronized int getTrackedCount() {
+		return processes.size();
+	}
+
+	public synchronized long getKillRequests() {
+		return killRequests;
+	}
+
+	public synchronized long getForcedKills() {
+		return forcedKills;
+	}
+
+	public synchronized long getReaped() {
+		return reaped;
+	}
+
+	public void shutdown() {
+		executor.shutdownNow();
+	}
+
+	/**
+	 * A process launched by the agent
+	 */
+	public static class TrackedProcess {
+		private final ProcessHandle handle;
+		private final String owner;
+		private volatile boolean orphan = false;
+		private volatile boolean killed = false;
+
+		private TrackedProcess(ProcessHandle handle, String owner) {
+			this.handle = handle;
+			this.owner = owner;
+		}
+
+		public long getPid() {
+			return handle.pid();
+		}
+
+		public String getOwner() {
+			return owner;
+		}
+
+		/**
+		 * @return	true if the process was killed on request (or by the reaper)
+		 */
+		public boolean isKilled() {
+			return killed;
+		}
+	}
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright 2005-2010 Ignis Software Tools Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jsystem.j2autoit.process;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Resource usage of the agent scripts, added up per script hash.<br>
+ * The table keeps the most recently run scripts up to its size. The statistics list the
+ * scripts that used the most CPU time (wall time where CPU time is not measured), so the
+ * expensive scripts of a suite can be found without reading every result.
+ */
+public class ResourceAccounting {
+	private static final int TOP_SCRIPTS = 10;
+
+	private final int size;
+	private final Map<String, Totals> scripts;
+	private long runs = 0;
+	private long evictions = 0;
+
+	/**
+	 * @param size	Maximum number of script hashes to keep
+	 */
+	public ResourceAccounting(int size) {
+		this.size = Math.max(1, size);
+		this.scripts = new LinkedHashMap<String, Totals>(16, 0.75f, true);
+	}
+
+	/**
+	 * Add a script run
+	 *
+	 * @param scriptHash	The hash of the script text
+	 * @param usage	The resources the run used
+	 * @param queueMillis	Time the run waited in the scheduler queue, {@link ResourceUsage#UNKNOWN} if it was not queued
+	 */
+	public synchronized void record(String scriptHash, ResourceUsage usage, long queueMillis) {
+		Totals totals = scripts.get(scriptHash);
+		if (totals == null) {
+			totals = new Totals(scriptHash);
+			scripts.put(scriptHash, totals);
+			if (scripts.size() > size) {
+				Iterator<Totals> eldest = scripts.values().iterator();
+				eldest.next();
+				eldest.remove();
+				evictions++;
+			}
+		}
+		totals.add(usage, queueMillis);
+		runs++;
+	}
+
+	/**
+	 * @return	A copy of the totals of a script, null if it is not in the table
+	 */
+	public synchronized Totals get(String scriptHash) {
+		Totals totals = scripts.get(scriptHash);
+		return totals == null ? null : totals.copy();
+	}
+
+	/**
+	 * @return	Copies of the totals of the scripts that used the most CPU (or wall) time, most expensive first
+	 */
+	public synchronized List<Totals> top(int count) {
+		List<Totals> all = new ArrayList<Totals>(scripts.size());
+		for (Totals totals : scripts.values()) {
+			all.add(totals.copy());
+		}
+		Collections.sort(all, new Comparator<Totals>() {
+			@Override
+			public int compare(Totals first, Totals second) {
+				return Long.compare(second.cost(), first.cost());
+			}
+		});
+		return all.subList(0, Math.min(count, all.size()));
+	}
+
+	/**
+	 * Add the accounting counters and the most expensive scripts to the statistics map
+	 */
+	public void fillStatistics(Map<String, Comparable<?>> statistics, String prefix) {
+		synchronized (this) {
+			statistics.put(prefix + ".scripts", scripts.size());
+			statistics.put(prefix + ".runs", runs);
+			statistics.put(prefix + ".evictions", evictions);
+		}
+		for (Totals totals : top(TOP_SCRIPTS)) {
+			String key = prefix + ".script." + totals.scriptHash;
+			statistics.put(key + ".runs", totals.runs);
+			statistics.put(key + ".wallMillis", totals.wallMillis);
+			statistics.put(key + ".queueMillis", totals.queueMillis);
+			if (totals.cpuRuns > 0) {
+				statistics.put(key + ".cpuMillis", totals.cpuMillis);
+			}
+			if (totals.peakMemoryBytes != ResourceUsage.UNKNOWN) {
+				statistics.put(key + ".peakMemoryBytes", totals.peakMemoryBytes);
+			}
+		}
+	}
+
+	/**
+	 * The resources used by all the runs of one script
+	 */
+	public static class Totals {
+		private final String scriptHash;
+		private long runs = 0;
+		private long wallMillis = 0;
+		private long queueMillis = 0;
+		private long cpuMillis = 0;
+		private long cpuRuns = 0;
+		private long peakMemoryBytes = ResourceUsage.UNKNOWN;
+
+		private Totals(String scriptHash) {
+			this.scriptHash = scriptHash;
+		}
+
+		private void add(ResourceUsage usage, long queue) {
+			runs++;
+			wallMillis += Math.max(0, usage.getWallMillis());
+			queueMillis += Math.max(0, queue);
+			if (usage.getCpuMillis() != ResourceUsage.UNKNOWN) {
+				cpuMillis += usage.getCpuMillis();
+				cpuRuns++;
+			}
+			peakMemoryBytes = Math.max(peakMemoryBytes, usage.getPeakMemoryBytes());
+		}
+
+		private long cost() {
+			return cpuRuns > 0 ? cpuMillis : wallMillis;
+		}
+
+		private Totals copy() {
+			Totals copy = new Totals(scriptHash);
+			copy.runs = runs;
+			copy.wallMillis = wallMillis;
+			copy.queueMillis = queueMillis;
+			copy.cpuMillis = cpuMillis;
+			copy.cpuRuns = cpuRuns;
+			copy.peakMemoryBytes = peakMemoryBytes;
+			return copy;
+		}
+
+		public String getScriptHash() {
+			return scriptHash;
+		}
+
+		public long getRuns() {
+			return runs;
+		}
+
+		public long getWallMillis() {
+			return wallMillis;
+		}
+
+		public long getQueueMillis() {
+			return queueMillis;
+		}
+
+		/**
+		 * @return	The CPU time of the runs where it was measured
+		 */
+		public long getCpuMillis() {
+			return cpuMillis;
+		}
+
+		/**
+		 * @return	The highest peak resident size of all runs, {@link ResourceUsage#UNKNOWN} if it was never measured
+		 */
+		public long getPeakMemoryBytes() {
+			return peakMemoryBytes;
+		}
+	}
+}
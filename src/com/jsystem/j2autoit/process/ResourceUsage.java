@@ -0,0 +1,220 @@
+/*
+ * Copyright 2005-2010 Ignis Software Tools Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jsystem.j2autoit.process;
+
+import static com.jsystem.j2autoit.AutoItConstants.CPU_MILLIS;
+import static com.jsystem.j2autoit.AutoItConstants.PEAK_MEMORY_BYTES;
+import static com.jsystem.j2autoit.AutoItConstants.WALL_MILLIS;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.jsystem.j2autoit.AutoItUtils;
+
+/**
+ * The resources used by one script run: wall time, CPU time and peak resident memory of
+ * the launched process.<br>
+ * The process is sampled while the runner waits for it, and once more after it exits.
+ * CPU time comes from {@link ProcessHandle.Info}, which stops answering for some
+ * processes once they are reaped, so it may be up to one sample interval short.
+ * The peak resident size is read from /proc where the OS has it. On Windows it is the
+ * peak working set reported by WMIC; a query starts a process, so it is made at most once
+ * per query interval, and a short script may end before its last allocations are seen.
+ * Where neither is available it stays {@link #UNKNOWN}.
+ */
+public class ResourceUsage {
+	public static final long UNKNOWN = -1;
+
+	private static final File PROC = new File("/proc");
+	private static final boolean WINDOWS = System.getProperty("os.name", "").toLowerCase().startsWith("windows");
+	private static final long WINDOWS_QUERY_INTERVAL = 1000;
+	private static final long WINDOWS_QUERY_TIMEOUT = 5000;
+	private static final String PEAK_WORKING_SET = "PeakWorkingSetSize=";
+
+	private static volatile boolean wmicAvailable = true;
+
+	private final long startNanos = System.nanoTime();
+	private volatile long wallMillis = UNKNOWN;
+	private volatile long cpuMillis = UNKNOWN;
+	private volatile long peakMemoryBytes = UNKNOWN;
+	private volatile int samples = 0;
+	private long lastWindowsQuery = 0;
+
+	/**
+	 * Sample a running (or just finished) process. CPU time and peak memory only grow, so a
+	 * sample never lowers them.
+	 */
+	public void sample(ProcessHandle handle) {
+		Duration cpu = handle.info().totalCpuDuration().orElse(null);
+		if (cpu != null) {
+			cpuMillis = Math.max(cpuMillis, cpu.toMillis());
+		}
+		if (handle.isAlive()) {
+			if (PROC.isDirectory()) {
+				peakMemoryBytes = Math.max(peakMemoryBytes, readPeakResident(handle.pid()));
+			} else if (WINDOWS && (samples == 0 || System.nanoTime() - lastWindowsQuery >= WINDOWS_QUERY_INTERVAL * 1000000)) {
+				lastWindowsQuery = System.nanoTime();
+				peakMemoryBytes = Math.max(peakMemoryBytes, queryPeakWorkingSet(handle.pid()));
+			}
+		}
+		samples++;
+	}
+
+	/**
+	 * Set the CPU time measured by other means, for work that did not run in a process of its own
+	 */
+	public void setCpuMillis(long cpuMillis) {
+		this.cpuMillis = cpuMillis;
+	}
+
+	/**
+	 * Stop the wall clock
+	 */
+	public void finish() {
+		if (wallMillis == UNKNOWN) {
+			wallMillis = (System.nanoTime() - startNanos) / 1000000;
+		}
+	}
+
+	/**
+	 * @return	The peak resident size of a process in bytes (VmHWM), {@link #UNKNOWN} if the OS does not report it
+	 */
+	static long readPeakResident(long pid) {
+		if (!PROC.isDirectory()) {
+			return UNKNOWN;
+		}
+		BufferedReader reader = null;
+		try {
+			reader = new BufferedReader(new FileReader(new File(PROC, pid + "/status")));
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (line.startsWith("VmHWM:")) {
+					String[] fields = line.substring(6).trim().split("\\s+");
+					return Long.parseLong(fields[0]) * 1024;
+				}
+			}
+		} catch (IOException exception) {
+		} catch (NumberFormatException exception) {
+		} finally {
+			if (reader != null) {
+				try {
+					reader.close();
+				} catch (IOException exception) {
+				}
+			}
+		}
+		return UNKNOWN;
+	}
+
+	/**
+	 * @return	The peak working set of a Windows process in bytes, {@link #UNKNOWN} if WMIC does not report it
+	 */
+	static long queryPeakWorkingSet(long pid) {
+		if (!wmicAvailable) {
+			return UNKNOWN;
+		}
+		Process query;
+		try {
+			query = new ProcessBuilder("wmic", "process", "where", "ProcessId=" + pid, "get", "PeakWorkingSetSize", "/value")
+					.redirectErrorStream(true).start();
+		} catch (IOException exception) {
+			// Not on the path, or removed from this Windows version
+			wmicAvailable = false;
+			return UNKNOWN;
+		}
+		StringBuilder output = new StringBuilder();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(query.getInputStream(), AutoItUtils.CONSOLE_CHARSET));
+		try {
+			// WMIC waits for its input to close before it answers
+			query.getOutputStream().close();
+			if (!query.waitFor(WINDOWS_QUERY_TIMEOUT, TimeUnit.MILLISECONDS)) {
+				query.destroyForcibly();
+				return UNKNOWN;
+			}
+			String line;
+			while ((line = reader.readLine()) != null) {
+				output.append(line).append('\n');
+			}
+		} catch (IOException exception) {
+			return UNKNOWN;
+		} catch (InterruptedException exception) {
+			query.destroyForcibly();
+			Thread.currentThread().interrupt();
+			return UNKNOWN;
+		} finally {
+			try {
+				reader.close();
+			} catch (IOException exception) {
+			}
+		}
+		return parsePeakWorkingSet(output.toString());
+	}
+
+	/**
+	 * @param output	The output of <code>wmic process ... get PeakWorkingSetSize /value</code>
+	 * @return	The peak working set in bytes (WMIC reports kilobytes), {@link #UNKNOWN} if the output has none
+	 */
+	static long parsePeakWorkingSet(String output) {
+		for (String line : output.split("[\r\n]+")) {
+			line = line.trim();
+			if (line.startsWith(PEAK_WORKING_SET)) {
+				try {
+					return Long.parseLong(line.substring(PEAK_WORKING_SET.length()).trim()) * 1024;
+				} catch (NumberFormatException exception) {
+					return UNKNOWN;
+				}
+			}
+		}
+		return UNKNOWN;
+	}
+
+	/**
+	 * Add the measured values to a result map, values that were not measured are left out
+	 */
+	public void fillResult(Map<String, Comparable<?>> result) {
+		if (wallMillis != UNKNOWN) {
+			result.put(WALL_MILLIS, wallMillis);
+		}
+		if (cpuMillis != UNKNOWN) {
+			result.put(CPU_MILLIS, cpuMillis);
+		}
+		if (peakMemoryBytes != UNKNOWN) {
+			result.put(PEAK_MEMORY_BYTES, peakMemoryBytes);
+		}
+	}
+
+	public long getWallMillis() {
+		return wallMillis;
+	}
+
+	public long getCpuMillis() {
+		return cpuMillis;
+	}
+
+	public long getPeakMemoryBytes() {
+		return peakMemoryBytes;
+	}
+
+	public int getSamples() {
+		return samples;
+	}
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright 2005-2010 Ignis Software Tools Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jsystem.j2autoit.process;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import com.jsystem.j2autoit.AutoItUtils;
+import com.jsystem.j2autoit.job.OutputBuffer;
+import com.jsystem.j2autoit.logger.Log;
+import com.jsystem.j2autoit.process.ProcessTracker.TrackedProcess;
+import com.jsystem.j2autoit.process.TimeoutWatchdog.Timeout;
+
+/**
+ * Launch a script process and stream its stdout and stderr into output buffers as
+ * they are produced, so the output can be read while the script is still running.<br>
+ * With a tracker the process can be killed by owner or PID while it runs, and with a
+ * watchdog its timeout is handled by the shared timer wheel instead of the waiting thread.<br>
+ * When the caller asks for the resource usage, the waiting thread samples the process
+ * every sample interval while it runs.
+ */
+public class ScriptRunner {
+	private static final long PUMP_DRAIN_TIMEOUT = 2000;
+	private static final long DEFAULT_SAMPLE_INTERVAL = 100;
+
+	private final ProcessTracker tracker;
+	private final TimeoutWatchdog watchdog;
+	private final long sampleInterval;
+
+	/**
+	 * @param tracker	The process tracker, null for untracked processes
+	 * @param watchdog	The timeout watchdog, null to wait for the timeout on the running thread
+	 */
+	public ScriptRunner(ProcessTracker tracker, TimeoutWatchdog watchdog) {
+		this(tracker, watchdog, DEFAULT_SAMPLE_INTERVAL);
+	}
+
+	/**
+	 * @param tracker	The process tracker, null for untracked processes
+	 * @param watchdog	The timeout watchdog, null to wait for the timeout on the running thread
+	 * @param sampleInterval	Time in milliseconds between resource usage samples
+	 */
+	public ScriptRunner(ProcessTracker tracker, TimeoutWatchdog watchdog, long sampleInterval) {
+		this.tracker = tracker;
+		this.watchdog = watchdog;
+		this.sampleInterval = Math.max(1, sampleInterval);
+	}
+
+	/**
+	 * Run a command, untracked, and wait for it to finish
+	 *
+	 * @see #execute(String[], File, long, OutputBuffer, OutputBuffer, String)
+	 */
+	public static int run(String[] command, File dir, long timeout, OutputBuffer stdout, OutputBuffer stderr) throws IOException, InterruptedException {
+		return new ScriptRunner(null, null).execute(command, dir, timeout, stdout, stderr, null);
+	}
+
+	/**
+	 * Run a command and wait for it to finish
+	 *
+	 * @see #execute(String[], File, long, OutputBuffer, OutputBuffer, String, ResourceUsage)
+	 */
+	public int execute(String[] command, File dir, long timeout, OutputBuffer stdout, OutputBuffer stderr, String owner) throws IOException, InterruptedException {
+		return execute(command, dir, timeout, stdout, stderr, owner, null);
+	}
+
+	/**
+	 * Run a command and wait for it to finish
+	 *
+	 * @param command	The command line
+	 * @param dir	The working directory
+	 * @param timeout	Timeout in milliseconds, the process is killed when it expires
+	 * @param stdout	Buffer receiving the process stdout
+	 * @param stderr	Buffer receiving the process stderr
+	 * @param owner	The id of the job the process runs for
+	 * @param usage	Receives the resource usage of the process, null if it is not needed
+	 * @return	The process exit code
+	 * @throws IOException	If the process could not be started
+	 * @throws InterruptedException
+	 */
+	public int execute(String[] command, File dir, long timeout, OutputBuffer stdout, OutputBuffer stderr, String owner, ResourceUsage usage) throws IOException, InterruptedException {
+		Log.infoLog("Running the command line : " + Arrays.toString(command) + "\n");
+		ProcessBuilder builder = new ProcessBuilder(command);
+		builder.directory(dir);
+		final Process process = builder.start();
+		final TrackedProcess tracked = tracker == null ? null : tracker.register(process, owner);
+		process.getOutputStream().close();
+		StreamPump stdoutPump = new StreamPump(process.getInputStream(), stdout);
+		StreamPump stderrPump = new StreamPump(process.getErrorStream(), stderr);
+		stdoutPump.start();
+		stderrPump.start();
+		Timeout deadline = null;
+		try {
+			boolean expired;
+			if (watchdog == null) {
+				expired = !await(process, timeout, usage);
+				if (expired) {
+					process.destroyForcibly();
+					process.waitFor(PUMP_DRAIN_TIMEOUT, TimeUnit.MILLISECONDS);
+				}
+			} else {
+				deadline = watchdog.schedule(timeout, new Runnable() {
+					@Override
+					public void run() {
+						if (tracked != null) {
+							tracker.kill(tracked);
+						} else {
+							process.destroyForcibly();
+						}
+					}
+				});
+				if (usage == null) {
+					process.waitFor();
+				} else {
+					await(process, Long.MAX_VALUE, usage);
+				}
+				expired = !deadline.cancel() && deadline.isExpired();
+			}
+			if (expired) {
+				stderr.append("Timeout of " + timeout + " milliseconds expired\n");
+			} else if (tracked != null && tracked.isKilled()) {
+				stderr.append("Process " + tracked.getPid() + " was killed\n");
+			}
+		} catch (InterruptedException exception) {
+			process.destroyForcibly();
+			throw exception;
+		} finally {
+			if (deadline != null) {
+				deadline.cancel();
+			}
+			if (usage != null) {
+				usage.sample(process.toHandle());
+				usage.finish();
+			}
+			if (tracked != null) {
+				tracker.release(tracked);
+			}
+			stdoutPump.join(PUMP_DRAIN_TIMEOUT);
+			stderrPump.join(PUMP_DRAIN_TIMEOUT);
+		}
+		return process.isAlive() ? -1 : process.exitValue();
+	}
+
+	/**
+	 * Wait for the process to exit, sampling its resource usage on the way
+	 *
+	 * @return	true if the process exited before the timeout
+	 */
+	private boolean await(Process process, long timeout, ResourceUsage usage) throws InterruptedException {
+		if (usage == null) {
+			return process.waitFor(timeout, TimeUnit.MILLISECONDS);
+		}
+		ProcessHandle handle = process.toHandle();
+		long start = System.currentTimeMillis();
+		while (true) {
+			usage.sample(handle);
+			long left = timeout - (System.currentTimeMillis() - start);
+			if (left <= 0) {
+				return !process.isAlive();
+			}
+			if (process.waitFor(Math.min(left, sampleInterval), TimeUnit.MILLISECONDS)) {
+				return true;
+			}
+		}
+	}
+
+	private static class StreamPump extends Thread {
+		private final InputStream in;
+		private final OutputBuffer out;
+
+		public StreamPump(InputStream in, OutputBuffer out) {
+			super("ScriptRunner-StreamPump");
+			setDaemon(true);
+			this.in = in;
+			this.out = out;
+		}
+
+		@Override
+		public void run() {
+			char[] buf = new char[4000];
+			try {
+				Reader reader = new InputStreamReader(in, AutoItUtils.CONSOLE_CHARSET);
+				int c;
+				while ((c = reader.read(buf)) != -1) {
+					out.append(buf, 0, c);
+				}
+			} catch (IOException exception) {
+			} finally {
+				try {
+					in.close();
+				} catch (IOException exception) {
+				}
+			}
+		}
+	}
+}
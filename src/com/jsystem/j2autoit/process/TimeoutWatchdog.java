@@ -0,0 +1,247 @@
+/*
+ * Copyright 2005-2010 Ignis Software Tools Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jsystem.j2autoit.process;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.jsystem.j2autoit.logger.Log;
+
+/**
+ * One thread watching the deadlines of all running jobs, using a hashed timer wheel.<br>
+ * The wheel is an array of buckets, one per tick. A timeout goes to the bucket of its
+ * deadline tick together with the number of full wheel rounds left, so scheduling and
+ * cancelling are O(1) and every tick only visits one bucket.<br>
+ * Timeouts fire at most one tick late; the lateness of every expiry is recorded.
+ */
+public class TimeoutWatchdog {
+	private static final int DEFAULT_WHEEL_SIZE = 512;
+
+	private final long tickMillis;
+	private final Timeout[] wheel;
+	private final int mask;
+	private final long startTime = System.nanoTime();
+	private final Thread thread;
+	private volatile boolean running = true;
+	private long nextTick = 1;
+	private int pending = 0;
+	private long scheduled = 0;
+	private long cancelled = 0;
+	private long expired = 0;
+	private long totalLateness = 0;
+	private long maxLateness = 0;
+
+	/**
+	 * @param tickMillis	The wheel resolution in milliseconds
+	 */
+	public TimeoutWatchdog(long tickMillis) {
+		this(tickMillis, DEFAULT_WHEEL_SIZE);
+	}
+
+	/**
+	 * @param tickMillis	The wheel resolution in milliseconds
+	 * @param wheelSize	Number of buckets, rounded up to a power of two
+	 */
+	public TimeoutWatchdog(long tickMillis, int wheelSize) {
+		this.tickMillis = Math.max(1, tickMillis);
+		int size = Integer.highestOneBit(Math.max(2, wheelSize) - 1) << 1;
+		this.wheel = new Timeout[size];
+		this.mask = size - 1;
+		thread = new Thread("TimeoutWatchdog") {
+			@Override
+			public void run() {
+				loop();
+			}
+		};
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Schedule a task
+	 *
+	 * @param delay	Delay in milliseconds
+	 * @param task	The task to run when the delay expires, it runs on the watchdog thread and must not block
+	 * @return	A handle for cancelling the timeout
+	 */
+	public synchronized Timeout schedule(long delay, Runnable task) {
+		long deadline = now() + Math.max(0, delay);
+		long target = Math.max(nextTick, (deadline + tickMillis - 1) / tickMillis);
+		Timeout timeout = new Timeout(this, task, deadline, (target - nextTick) / wheel.length);
+		int index = (int) (target & mask);
+		timeout.bucket = index;
+		timeout.next = wheel[index];
+		if (wheel[index] != null) {
+			wheel[index].prev = timeout;
+		}
+		wheel[index] = timeout;
+		pending++;
+		scheduled++;
+		return timeout;
+	}
+
+	private synchronized boolean cancel(Timeout timeout) {
+		if (timeout.state != Timeout.PENDING) {
+			return false;
+		}
+		unlink(timeout);
+		timeout.state = Timeout.CANCELLED;
+		cancelled++;
+		return true;
+	}
+
+	private void unlink(Timeout timeout) {
+		if (timeout.prev != null) {
+			timeout.prev.next = timeout.next;
+		} else {
+			wheel[timeout.bucket] = timeout.next;
+		}
+		if (timeout.next != null) {
+			timeout.next.prev = timeout.prev;
+		}
+		timeout.prev = null;
+		timeout.next = null;
+		pending--;
+	}
+
+	private void loop() {
+		while (running) {
+			long sleep;
+			synchronized (this) {
+				sleep = nextTick * tickMillis - now();
+			}
+			if (sleep > 0) {
+				try {
+					Thread.sleep(sleep);
+				} catch (InterruptedException exception) {
+					return;
+				}
+			}
+			for (Timeout timeout : advance()) {
+				long lateness = Math.max(0, now() - timeout.deadline);
+				synchronized (this) {
+					totalLateness += lateness;
+					maxLateness = Math.max(maxLateness, lateness);
+				}
+				try {
+					timeout.task.run();
+				} catch (Throwable throwable) {
+					Log.throwable("Timeout task failed\n", throwable);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Process the bucket of the next tick
+	 *
+	 * @return	The timeouts that expired
+	 */
+	private synchronized List<Timeout> advance() {
+		List<Timeout> expiredTimeouts = new ArrayList<Timeout>();
+		Timeout timeout = wheel[(int) (nextTick & mask)];
+		while (timeout != null) {
+			Timeout next = timeout.next;
+			if (timeout.rounds > 0) {
+				timeout.rounds--;
+			} else {
+				unlink(timeout);
+				timeout.state = Timeout.EXPIRED;
+				expired++;
+				expiredTimeouts.add(timeout);
+			}
+			timeout = next;
+		}
+		nextTick++;
+		return expiredTimeouts;
+	}
+
+	private long now() {
+		return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+	}
+
+	/**
+	 * Add the watchdog counters to the statistics map
+	 */
+	public synchronized void fillStatistics(Map<String, Comparable<?>> statistics, String prefix) {
+		statistics.put(prefix + ".tickMillis", tickMillis);
+		statistics.put(prefix + ".pending", pending);
+		statistics.put(prefix + ".scheduled", scheduled);
+		statistics.put(prefix + ".cancelled", cancelled);
+		statistics.put(prefix + ".expired", expired);
+		statistics.put(prefix + ".maxLatenessMillis", maxLateness);
+		statistics.put(prefix + ".averageLatenessMillis", expired == 0 ? 0 : totalLateness / expired);
+	}
+
+	public synchronized int getPending() {
+		return pending;
+	}
+
+	public synchronized long getExpired() {
+		return expired;
+	}
+
+	public synchronized long getMaxLateness() {
+		return maxLateness;
+	}
+
+	public void shutdown() {
+		running = false;
+		thread.interrupt();
+	}
+
+	/**
+	 * A scheduled timeout
+	 */
+	public static class Timeout {
+		private static final int PENDING = 0;
+		private static final int CANCELLED = 1;
+		private static final int EXPIRED = 2;
+
+		private final TimeoutWatchdog watchdog;
+		private final Runnable task;
+		private final long deadline;
+		private long rounds;
+		private int bucket;
+		private int state = PENDING;
+		private Timeout prev;
+		private Timeout next;
+
+		private Timeout(TimeoutWatchdog watchdog, Runnable task, long deadline, long rounds) {
+			this.watchdog = watchdog;
+			this.task = task;
+			this.deadline = deadline;
+			this.rounds = rounds;
+		}
+
+		/**
+		 * Cancel the timeout
+		 *
+		 * @return	false if the timeout already expired or was cancelled
+		 */
+		public boolean cancel() {
+			return watchdog.cancel(this);
+		}
+
+		public boolean isExpired() {
+			synchronized (watchdog) {
+				return state == EXPIRED;
+			}
+		}
+	}
+}
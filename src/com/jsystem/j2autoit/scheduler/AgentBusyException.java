@@ -0,0 +1,57 @@
+/*
+ * Copyright 2005-2010 Ignis Software Tools Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jsystem.j2autoit.scheduler;
+
+/**
+ * Thrown when the agent is saturated and does not admit new work.<br>
+ * The agent reports it to the client as a fault whose code carries the retry hint, see
+ * {@link #getFaultCode()}; the client reads the hint back with {@link #retryAfterOf(int)}
+ * and never from the message.
+ */
+public class AgentBusyException extends Exception {
+	private static final long serialVersionUID = -4811412934093637781L;
+	/**
+	 * Busy fault codes are this base plus the retry hint in milliseconds
+	 */
+	public static final int BUSY_FAULT_BASE = 1000000000;
+	private static final long MAX_FAULT_RETRY_AFTER = Integer.MAX_VALUE - BUSY_FAULT_BASE;
+
+	private final long retryAfter;
+
+	public AgentBusyException(String reason, long retryAfter) {
+		super("Agent busy, retry after " + retryAfter + " ms (" + reason + ")");
+		this.retryAfter = retryAfter;
+	}
+
+	public long getRetryAfter() {
+		return retryAfter;
+	}
+
+	/**
+	 * @return	The fault code reporting this rejection to the client
+	 */
+	public int getFaultCode() {
+		return (int) (BUSY_FAULT_BASE + Math.max(0, Math.min(retryAfter, MAX_FAULT_RETRY_AFTER)));
+	}
+
+	/**
+	 * @param faultCode	The code of a fault received from the agent
+	 * @return	The retry hint in milliseconds, or -1 if the fault is not a busy response
+	 */
+	public static long retryAfterOf(int faultCode) {
+		return faultCode >= BUSY_FAULT_BASE ? faultCode - BUSY_FAULT_BASE : -1;
+	}
+}
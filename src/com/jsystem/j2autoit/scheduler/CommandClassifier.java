@@ -0,0 +1,70 @@
+/*
+ * Copyright 2005-2010 Ignis Software Tools Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jsystem.j2autoit.scheduler;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Decide whether an AutoIt script touches the desktop.<br>
+ * A script is considered a pure query (or file operation) only if every function it
+ * calls is a known non GUI function. Anything else is treated as a GUI command.
+ */
+public class CommandClassifier {
+	private static final Pattern FUNCTION_CALL = Pattern.compile("([A-Za-z_][A-Za-z0-9_]*)\\s*\\(");
+	private static final Pattern STRING_LITERAL = Pattern.compile("\"(?:[^\"]|\"\")*\"|'(?:[^']|'')*'");
+
+	private static final Set<String> NON_GUI_FUNCTIONS = new HashSet<String>(Arrays.asList(
+			"consolewrite", "sleep", "ping", "isadmin",
+			"fileexists", "filegetsize", "filegettime", "filegetattrib", "filegetversion",
+			"filegetlongname", "filegetshortname", "filecopy", "filemove", "filedelete",
+			"fileread", "filewrite", "filewriteline", "filesettime", "filesetattrib", "filerecycle",
+			"dircreate", "dirremove", "dircopy", "dirmove", "dirgetsize",
+			"iniread", "iniwrite", "inidelete", "inirenamesection", "inireadsection", "inireadsectionnames",
+			"envget", "envset", "envupdate",
+			"regread", "regwrite", "regdelete", "regenumkey", "regenumval",
+			"processexists", "processlist", "processclose", "processwaitclose",
+			"inetget", "inetgetsize", "drivemapget", "drivemapadd", "drivemapdel",
+			"drivegetdrive", "drivespacefree", "drivespacetotal", "drivestatus",
+			"string", "number", "int", "stringlen", "stringleft", "stringright", "stringmid",
+			"stringreplace", "stringsplit", "stringinstr", "stringtrimleft", "stringtrimright",
+			"stringupper", "stringlower", "stringstripws", "stringregexp", "stringregexpreplace"));
+
+	private CommandClassifier() {
+	}
+
+	/**
+	 * @param script	The AutoIt script text
+	 * @return	false only if every function the script calls is known not to touch the desktop
+	 */
+	public static boolean isGuiCommand(String script) {
+		if (script == null) {
+			return true;
+		}
+		Matcher matcher = FUNCTION_CALL.matcher(STRING_LITERAL.matcher(script).replaceAll("\"\""));
+		boolean foundCall = false;
+		while (matcher.find()) {
+			foundCall = true;
+			if (!NON_GUI_FUNCTIONS.contains(matcher.group(1).toLowerCase())) {
+				return true;
+			}
+		}
+		return !foundCall;
+	}
+}
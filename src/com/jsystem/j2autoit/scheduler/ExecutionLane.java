@@ -0,0 +1,219 @@
+/*
+ * Copyright 2005-2010 Ignis Software Tools Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jsystem.j2autoit.scheduler;
+
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A named group of worker threads with its own queue.<br>
+ * Keeps queue depth and queue wait time counters.<br>
+ * The queue is ordered by priority with aging: every task gets a virtual start time of its
+ * enqueue time plus agingMillis per priority class below INTERACTIVE. Lower priority work
+ * runs first once it waited longer than that, so it is never starved.<br>
+ * A task whose future is cancelled while it waits leaves the queue counters at once.
+ */
+public class ExecutionLane {
+	private final String name;
+	private final long agingMillis;
+	private final AtomicLong sequence = new AtomicLong(0);
+	private final ThreadPoolExecutor executor;
+	private final AtomicInteger queueDepth = new AtomicInteger(0);
+	private final AtomicInteger maxQueueDepth = new AtomicInteger(0);
+	private final AtomicLong started = new AtomicLong(0);
+	private final AtomicLong totalWaitMillis = new AtomicLong(0);
+	private final AtomicLong maxWaitMillis = new AtomicLong(0);
+	private final AtomicLong completed = new AtomicLong(0);
+	private final AtomicLong totalRunMillis = new AtomicLong(0);
+
+	public ExecutionLane(final String name, int workers, long agingMillis) {
+		this.name = name;
+		this.agingMillis = agingMillis;
+		executor = new ThreadPoolExecutor(workers, workers, 60L, TimeUnit.SECONDS,
+				new PriorityBlockingQueue<Runnable>(), new ThreadFactory() {
+			private final AtomicInteger index = new AtomicInteger(0);
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, name + "-" + index.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	public <T> Future<T> submit(Callable<T> task) {
+		return submit(task, Priority.NORMAL);
+	}
+
+	public <T> Future<T> submit(Callable<T> task, Priority priority) {
+		return submit(task, priority, null);
+	}
+
+	/**
+	 * @param task	The work to run
+	 * @param priority	The priority class of the task
+	 * @param whenDone	Runs once, when the task completes or fails (before the future has its result) or
+	 *        when the future is cancelled, null for nothing
+	 * @return	The task future
+	 */
+	public <T> Future<T> submit(final Callable<T> task, Priority priority, Runnable whenDone) {
+		final long enqueued = System.currentTimeMillis();
+		int depth = queueDepth.incrementAndGet();
+		updateMax(maxQueueDepth, depth);
+		final Completion completion = new Completion(whenDone);
+		PrioritizedTask<T> prioritized = new PrioritizedTask<T>(new Callable<T>() {
+			@Override
+			public T call() throws Exception {
+				completion.dequeue();
+				long waited = System.currentTimeMillis() - enqueued;
+				started.incrementAndGet();
+				totalWaitMillis.addAndGet(waited);
+				updateMax(maxWaitMillis, waited);
+				long start = System.currentTimeMillis();
+				try {
+					return task.call();
+				} finally {
+					totalRunMillis.addAndGet(System.currentTimeMillis() - start);
+					completed.incrementAndGet();
+					completion.end();
+				}
+			}
+		}, enqueued + priority.ordinal() * agingMillis, sequence.incrementAndGet(), completion);
+		executor.execute(prioritized);
+		return prioritized;
+	}
+
+	private static void updateMax(AtomicInteger max, int value) {
+		int current;
+		while ((current = max.get()) < value && !max.compareAndSet(current, value)) {
+		}
+	}
+
+	private static void updateMax(AtomicLong max, long value) {
+		long current;
+		while ((current = max.get()) < value && !max.compareAndSet(current, value)) {
+		}
+	}
+
+	public void setWorkers(int workers) {
+		if (workers > executor.getMaximumPoolSize()) {
+			executor.setMaximumPoolSize(workers);
+			executor.setCorePoolSize(workers);
+		} else {
+			executor.setCorePoolSize(workers);
+			executor.setMaximumPoolSize(workers);
+		}
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public int getQueueDepth() {
+		return queueDepth.get();
+	}
+
+	/**
+	 * @return	The expected time in milliseconds until the current queue drains, from the average run time
+	 */
+	public long estimateDrainMillis() {
+		long count = completed.get();
+		long averageRun = count == 0 ? 0 : totalRunMillis.get() / count;
+		return averageRun * (queueDepth.get() + 1) / Math.max(executor.getMaximumPoolSize(), 1);
+	}
+
+	public void fillStatistics(Map<String, Comparable<?>> statistics) {
+		long count = started.get();
+		statistics.put(name + ".workers", executor.getMaximumPoolSize());
+		statistics.put(name + ".active", executor.getActiveCount());
+		statistics.put(name + ".queueDepth", queueDepth.get());
+		statistics.put(name + ".maxQueueDepth", maxQueueDepth.get());
+		statistics.put(name + ".started", count);
+		statistics.put(name + ".totalWaitMillis", totalWaitMillis.get());
+		statistics.put(name + ".maxWaitMillis", maxWaitMillis.get());
+		statistics.put(name + ".averageWaitMillis", count == 0 ? 0L : totalWaitMillis.get() / count);
+		statistics.put(name + ".averageRunMillis", completed.get() == 0 ? 0L : totalRunMillis.get() / completed.get());
+	}
+
+	public void shutdown() {
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Takes a task off the queue counters and runs its completion action exactly once, whether
+	 * the task ran or its future was cancelled while it waited
+	 */
+	private class Completion {
+		private final AtomicBoolean dequeued = new AtomicBoolean(false);
+		private final AtomicBoolean ended = new AtomicBoolean(false);
+		private final Runnable whenDone;
+
+		public Completion(Runnable whenDone) {
+			this.whenDone = whenDone;
+		}
+
+		public void dequeue() {
+			if (dequeued.compareAndSet(false, true)) {
+				queueDepth.decrementAndGet();
+			}
+		}
+
+		public void end() {
+			dequeue();
+			if (ended.compareAndSet(false, true) && whenDone != null) {
+				whenDone.run();
+			}
+		}
+	}
+
+	/**
+	 * Queue entry ordered by virtual start time, then by submission order
+	 */
+	private static class PrioritizedTask<T> extends FutureTask<T> implements Comparable<PrioritizedTask<?>> {
+		private final long virtualStart;
+		private final long sequence;
+		private final Completion completion;
+
+		public PrioritizedTask(Callable<T> callable, long virtualStart, long sequence, Completion completion) {
+			super(callable);
+			this.virtualStart = virtualStart;
+			this.sequence = sequence;
+			this.completion = completion;
+		}
+
+		@Override
+		protected void done() {
+			completion.end();
+		}
+
+		@Override
+		public int compareTo(PrioritizedTask<?> other) {
+			if (virtualStart != other.virtualStart) {
+				return virtualStart < other.virtualStart ? -1 : 1;
+			}
+			return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+		}
+	}
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright 2005-2010 Ignis Software Tools Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jsystem.j2autoit.scheduler;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Coordinates the agent work coming from concurrent XML-RPC calls.<br>
+ * Commands that touch the desktop run one at a time on the GUI lane, so input sent
+ * by two clients never interleaves. Pure queries and file operations run on the
+ * parallel lane.<br>
+ * Within a lane work is ordered by {@link Priority} with aging. Queue wait and total
+ * latency are recorded per priority class.<br>
+ * Admission control limits the tasks in flight and the queue length of each lane; work
+ * arriving when the agent is full is rejected at once with {@link AgentBusyException}.
+ * A task holds its place in flight until it completes, fails or its future is cancelled.
+ */
+public class ExecutionScheduler {
+	private static final long MIN_RETRY_AFTER = 100;
+	private static final long MAX_RETRY_AFTER = 10000;
+
+	private final ExecutionLane guiLane;
+	private final ExecutionLane parallelLane;
+	private final Map<Priority, LatencyRecorder> waitRecorders = new EnumMap<Priority, LatencyRecorder>(Priority.class);
+	private final Map<Priority, LatencyRecorder> latencyRecorders = new EnumMap<Priority, LatencyRecorder>(Priority.class);
+	private int maxInFlight = 0;
+	private int maxQueueLength = 0;
+	private int inFlight = 0;
+	private long rejected = 0;
+
+	/**
+	 * @param parallelWorkers	Number of parallel lane workers
+	 * @param agingMillis	Queue time after which work of one priority class competes as the class above it
+	 */
+	public ExecutionScheduler(int parallelWorkers, long agingMillis) {
+		this(parallelWorkers, agingMillis, 0, 0);
+	}
+
+	/**
+	 * @param parallelWorkers	Number of parallel lane workers
+	 * @param agingMillis	Queue time after which work of one priority class competes as the class above it
+	 * @param maxInFlight	Maximum number of queued and running tasks, 0 for no limit
+	 * @param maxQueueLength	Maximum number of queued tasks per lane, 0 for no limit
+	 */
+	public ExecutionScheduler(int parallelWorkers, long agingMillis, int maxInFlight, int maxQueueLength) {
+		this.maxInFlight = maxInFlight;
+		this.maxQueueLength = maxQueueLength;
+		guiLane = new ExecutionLane("guiLane", 1, agingMillis);
+		parallelLane = new ExecutionLane("parallelLane", Math.max(parallelWorkers, 1), agingMillis);
+		for (Priority priority : Priority.values()) {
+			waitRecorders.put(priority, new LatencyRecorder());
+			latencyRecorders.put(priority, new LatencyRecorder());
+		}
+	}
+
+	/**
+	 * Submit a task to the matching lane
+	 *
+	 * @param gui	true if the task touches the desktop
+	 * @param task	The work to run
+	 * @return	The task future
+	 */
+	public <T> Future<T> submit(boolean gui, Callable<T> task) throws AgentBusyException {
+		return submit(gui, Priority.NORMAL, task);
+	}
+
+	/**
+	 * Submit a task to the matching lane with a priority
+	 *
+	 * @param gui	true if the task touches the desktop
+	 * @param priority	The priority class of the task
+	 * @param task	The work to run
+	 * @return	The task future
+	 */
+	public <T> Future<T> submit(boolean gui, Priority priority, final Callable<T> task) throws AgentBusyException {
+		ExecutionLane lane = gui ? guiLane : parallelLane;
+		admit(lane);
+		final long enqueued = System.currentTimeMillis();
+		final LatencyRecorder waitRecorder = waitRecorders.get(priority);
+		final LatencyRecorder latencyRecorder = latencyRecorders.get(priority);
+		return lane.submit(new Callable<T>() {
+			@Override
+			public T call() throws Exception {
+				waitRecorder.record(System.currentTimeMillis() - enqueued);
+				try {
+					return task.call();
+				} finally {
+					latencyRecorder.record(System.currentTimeMillis() - enqueued);
+				}
+			}
+		}, priority, new Runnable() {
+			@Override
+			public void run() {
+				release();
+			}
+		});
+	}
+
+	/**
+	 * Admission control: reject the work right away when the agent is full, with a retry hint
+	 * based on how long the lane needs to drain
+	 */
+	private synchronized void admit(ExecutionLane lane) throws AgentBusyException {
+		String reason = null;
+		if (maxInFlight > 0 && inFlight >= maxInFlight) {
+			reason = inFlight + " jobs in flight";
+		} else if (maxQueueLength > 0 && lane.getQueueDepth() >= maxQueueLength) {
+			reason = lane.getQueueDepth() + " jobs queued on " + lane.getName();
+		}
+		if (reason != null) {
+			rejected++;
+			long retryAfter = Math.min(Math.max(lane.estimateDrainMillis(), MIN_RETRY_AFTER), MAX_RETRY_AFTER);
+			throw new AgentBusyException(reason, retryAfter);
+		}
+		inFlight++;
+	}
+
+	private synchronized void release() {
+		inFlight--;
+	}
+
+	/**
+	 * @param maxInFlight	Maximum number of queued and running tasks, 0 for no limit
+	 * @param maxQueueLength	Maximum number of queued tasks per lane, 0 for no limit
+	 */
+	public synchronized void setLimits(int maxInFlight, int maxQueueLength) {
+		this.maxInFlight = maxInFlight;
+		this.maxQueueLength = maxQueueLength;
+	}
+
+	/**
+	 * Run a task on the matching lane and wait for its result
+	 *
+	 * @param gui	true if the task touches the desktop
+	 * @param task	The work to run
+	 * @return	The task result
+	 * @throws Exception	The exception thrown by the task
+	 */
+	public <T> T execute(boolean gui, Callable<T> task) throws Exception {
+		return await(submit(gui, task));
+	}
+
+	public <T> T execute(boolean gui, Priority priority, Callable<T> task) throws Exception {
+		return await(submit(gui, priority, task));
+	}
+
+	public static <T> T await(Future<T> future) throws Exception {
+		try {
+			return future.get();
+		} catch (ExecutionException exception) {
+			Throwable cause = exception.getCause();
+			if (cause instanceof Exception) {
+				throw (Exception) cause;
+			}
+			throw exception;
+		}
+	}
+
+	public void setParallelWorkers(int workers) {
+		parallelLane.setWorkers(Math.max(workers, 1));
+	}
+
+	public void fillStatistics(Map<String, Comparable<?>> statistics) {
+		guiLane.fillStatistics(statistics);
+		parallelLane.fillStatistics(statistics);
+		synchronized (this) {
+			statistics.put("admission.inFlight", inFlight);
+			statistics.put("admission.maxInFlight", maxInFlight);
+			statistics.put("admission.maxQueueLength", maxQueueLength);
+			statistics.put("admission.rejected", rejected);
+		}
+		for (Priority priority : Priority.values()) {
+			String prefix = "priority." + priority.name().toLowerCase();
+			waitRecorders.get(priority).fillStatistics(statistics, prefix + ".wait");
+			latencyRecorders.get(priority).fillStatistics(statistics, prefix + ".latency");
+		}
+	}
+
+	public void shutdown() {
+		guiLane.shutdown();
+		parallelLane.shutdown();
+	}
+}
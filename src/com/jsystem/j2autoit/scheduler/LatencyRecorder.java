@@ -0,0 +1,95 @@
+/*
+ * Copyright 2005-2010 Ignis Software Tools Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jsystem.j2autoit.scheduler;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Keeps the most recent latency samples and computes percentiles over them.<br>
+ * The samples live in a fixed ring, so recording is O(1) and memory is bounded; the
+ * percentiles describe the recent window rather than the whole agent lifetime.
+ */
+public class LatencyRecorder {
+	private static final int DEFAULT_WINDOW = 1024;
+
+	private final long[] samples;
+	private int next = 0;
+	private int size = 0;
+	private long count = 0;
+	private long max = 0;
+
+	public LatencyRecorder() {
+		this(DEFAULT_WINDOW);
+	}
+
+	public LatencyRecorder(int window) {
+		samples = new long[Math.max(window, 1)];
+	}
+
+	public synchronized void record(long millis) {
+		samples[next] = millis;
+		next = (next + 1) % samples.length;
+		size = Math.min(size + 1, samples.length);
+		count++;
+		max = Math.max(max, millis);
+	}
+
+	/**
+	 * @param percentile	Between 0 and 100
+	 * @return	The percentile of the recent samples, 0 if there are none
+	 */
+	public synchronized long percentile(double percentile) {
+		if (size == 0) {
+			return 0;
+		}
+		long[] sorted = Arrays.copyOf(samples, size);
+		Arrays.sort(sorted);
+		int index = (int) Math.ceil(percentile / 100 * size) - 1;
+		return sorted[Math.min(Math.max(index, 0), size - 1)];
+	}
+
+	/**
+	 * @return	The recent samples, oldest first
+	 */
+	public synchronized long[] getSamples() {
+		long[] recent = new long[size];
+		int start = (next - size + samples.length) % samples.length;
+		for (int index = 0; index < size; index++) {
+			recent[index] = samples[(start + index) % samples.length];
+		}
+		return recent;
+	}
+
+	public synchronized long getCount() {
+		return count;
+	}
+
+	public synchronized long getMax() {
+		return max;
+	}
+
+	/**
+	 * Add count, p50, p90, p99 and max to the statistics map
+	 */
+	public void fillStatistics(Map<String, Comparable<?>> statistics, String prefix) {
+		statistics.put(prefix + ".count", getCount());
+		statistics.put(prefix + ".p50Millis", percentile(50));
+		statistics.put(prefix + ".p90Millis", percentile(90));
+		statistics.put(prefix + ".p99Millis", percentile(99));
+		statistics.put(prefix + ".maxMillis", getMax());
+	}
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright 2005-2010 Ignis Software Tools Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jsystem.j2autoit.scheduler;
+
+import com.jsystem.j2autoit.AutoItUtils;
+
+/**
+ * Priority classes of agent work.<br>
+ * INTERACTIVE is for short commands a test waits on (window queries, clicks), BULK is for
+ * long work such as installs, downloads and extractions.
+ */
+public enum Priority {
+	INTERACTIVE,
+	NORMAL,
+	BULK;
+
+	/**
+	 * @return	The priority with the given name (case insensitive), or the default if the name is empty or unknown
+	 */
+	public static Priority parse(Object name, Priority defaultPriority) {
+		return AutoItUtils.parseEnum(Priority.class, name, defaultPriority);
+	}
+}
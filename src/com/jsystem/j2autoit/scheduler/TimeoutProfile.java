@@ -0,0 +1,203 @@
+/*
+ * Copyright 2005-2010 Ignis Software Tools Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jsystem.j2autoit.scheduler;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Script timeouts learned from the latency of earlier commands of the same family.<br>
+ * A family is the AutoIt function a script starts with (ControlClick, WinGetText...). Once a
+ * family has enough samples, its timeout is its recent p99 latency times the safety
+ * factor, kept between a floor and a hard cap; until then the caller fallback applies. A
+ * family of fast commands thus gets a timeout shorter than the fallback, so a hung command
+ * fails early, but never shorter than the floor.<br>
+ * Scripts that call a wait function (WinWait*, ProcessWait*, Sleep...) take as long as
+ * the thing they wait for, so they belong to no family and always get the fallback.<br>
+ * The recent samples of every family can be saved to a file and loaded by the next run.
+ */
+public class TimeoutProfile {
+	public static final String DEFAULT_FAMILY = "script";
+
+	private static final int WINDOW = 256;
+	private static final int MIN_SAMPLES = 20;
+	private static final Pattern FIRST_CALL = Pattern.compile("^\\s*(\\w+)\\s*\\(");
+	private static final Pattern WAIT_CALL = Pattern.compile("\\b(WinWait\\w*|ProcessWait\\w*|Sleep|RunWait|RunAsWait|ShellExecuteWait)\\s*\\(", Pattern.CASE_INSENSITIVE);
+
+	private final Map<String, LatencyRecorder> families = new HashMap<String, LatencyRecorder>();
+	private volatile double safetyFactor;
+	private volatile long floorMillis;
+	private volatile long capMillis;
+
+	/**
+	 * @param safetyFactor	The p99 latency multiplier
+	 * @param floorMillis	The shortest timeout the profile gives
+	 * @param capMillis	The longest timeout the profile gives
+	 */
+	public TimeoutProfile(double safetyFactor, long floorMillis, long capMillis) {
+		this.safetyFactor = safetyFactor;
+		this.floorMillis = floorMillis;
+		this.capMillis = capMillis;
+	}
+
+	/**
+	 * @return	The family of a script: the lower case name of the function it starts with,
+	 *         null if the script calls a wait function
+	 */
+	public static String familyOf(String script) {
+		if (WAIT_CALL.matcher(script).find()) {
+			return null;
+		}
+		Matcher matcher = FIRST_CALL.matcher(script);
+		return matcher.find() ? matcher.group(1).toLowerCase() : DEFAULT_FAMILY;
+	}
+
+	/**
+	 * Add the latency of a command that completed, commands of no family are ignored
+	 */
+	public void record(String family, long millis) {
+		if (family != null) {
+			getRecorder(family).record(millis);
+		}
+	}
+
+	/**
+	 * @param family	The command family, null for none
+	 * @param fallbackMillis	The timeout to use while the family has too few samples. A floor longer than the
+	 *        fallback is lowered to the fallback.
+	 * @return	The timeout in milliseconds
+	 */
+	public long timeoutFor(String family, long fallbackMillis) {
+		if (family == null) {
+			return fallbackMillis;
+		}
+		LatencyRecorder recorder;
+		synchronized (this) {
+			recorder = families.get(family);
+		}
+		if (recorder == null || recorder.getSamples().length < MIN_SAMPLES) {
+			return fallbackMillis;
+		}
+		long learned = (long) Math.ceil(recorder.percentile(99) * safetyFactor);
+		return Math.max(Math.min(floorMillis, fallbackMillis), Math.min(capMillis, learned));
+	}
+
+	private synchronized LatencyRecorder getRecorder(String family) {
+		LatencyRecorder recorder = families.get(family);
+		if (recorder == null) {
+			recorder = new LatencyRecorder(WINDOW);
+			families.put(family, recorder);
+		}
+		return recorder;
+	}
+
+	/**
+	 * Add the samples saved by {@link #save(File)}. Missing files are ignored.
+	 */
+	public void load(File file) throws IOException {
+		if (!file.isFile()) {
+			return;
+		}
+		Properties properties = new Properties();
+		InputStream in = new FileInputStream(file);
+		try {
+			properties.load(in);
+		} finally {
+			in.close();
+		}
+		for (String family : properties.stringPropertyNames()) {
+			LatencyRecorder recorder = getRecorder(family);
+			for (String sample : properties.getProperty(family).split(",")) {
+				try {
+					recorder.record(Long.parseLong(sample.trim()));
+				} catch (NumberFormatException exception) {
+				}
+			}
+		}
+	}
+
+	/**
+	 * Save the recent samples of every family
+	 */
+	public void save(File file) throws IOException {
+		Properties properties = new Properties();
+		synchronized (this) {
+			for (Map.Entry<String, LatencyRecorder> entry : families.entrySet()) {
+				StringBuilder samples = new StringBuilder();
+				for (long sample : entry.getValue().getSamples()) {
+					if (samples.length() > 0) {
+						samples.append(',');
+					}
+					samples.append(sample);
+				}
+				properties.setProperty(entry.getKey(), samples.toString());
+			}
+		}
+		OutputStream out = new FileOutputStream(file);
+		try {
+			properties.store(out, "Script latency samples (milliseconds) per command family");
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Add the p50/p90/p99 latency and the current timeout of every family to the statistics map
+	 */
+	public void fillStatistics(Map<String, Comparable<?>> statistics, String prefix, long fallbackMillis) {
+		Map<String, LatencyRecorder> copy;
+		synchronized (this) {
+			copy = new HashMap<String, LatencyRecorder>(families);
+		}
+		for (Map.Entry<String, LatencyRecorder> entry : copy.entrySet()) {
+			entry.getValue().fillStatistics(statistics, prefix + "." + entry.getKey());
+			statistics.put(prefix + "." + entry.getKey() + ".timeoutMillis", timeoutFor(entry.getKey(), fallbackMillis));
+		}
+	}
+
+	public void setSafetyFactor(double safetyFactor) {
+		this.safetyFactor = safetyFactor;
+	}
+
+	public double getSafetyFactor() {
+		return safetyFactor;
+	}
+
+	public void setFloorMillis(long floorMillis) {
+		this.floorMillis = floorMillis;
+	}
+
+	public long getFloorMillis() {
+		return floorMillis;
+	}
+
+	public void setCapMillis(long capMillis) {
+		this.capMillis = capMillis;
+	}
+
+	public long getCapMillis() {
+		return capMillis;
+	}
+}
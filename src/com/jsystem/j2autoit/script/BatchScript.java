@@ -0,0 +1,109 @@
+/*
+ * Copyright 2005-2010 Ignis Software Tools Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jsystem.j2autoit.script;
+
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.jsystem.j2autoit.AutoItConstants;
+
+/**
+ * Builds a single AutoIt script out of several commands and splits its output back
+ * into one result per command.<br>
+ * Every command writes a frame to stdout: a header line "#index rc length" followed by
+ * the command value. Anything a command writes by itself (ConsoleWrite) lands before
+ * its frame and is kept as part of that command stdout.
+ */
+public class BatchScript implements AutoItConstants {
+	private static final String NEW_LINE = "\n";
+	private static final Pattern FRAME_HEADER = Pattern.compile("#(\\d+) (-?\\d+) (\\d+)\n");
+
+	private BatchScript() {
+	}
+
+	/**
+	 * Create the batch script
+	 *
+	 * @param commands	The commands, each one is an AutoIt expression as sent to runScript
+	 * @return	The script content
+	 */
+	public static String build(List<String> commands) {
+		StringBuffer buf = new StringBuffer();
+		buf.append("Local $var, $rc = 0").append(NEW_LINE);
+		for (int index = 0; index < commands.size(); index++) {
+			buf.append("$var = ").append(commands.get(index)).append(NEW_LINE);
+			buf.append("$rc = @error").append(NEW_LINE);
+			buf.append("ConsoleWrite(\"#").append(index).append(" \" & $rc & \" \" & StringLen($var) & @LF & $var)").append(NEW_LINE);
+		}
+		buf.append("Exit($rc)").append(NEW_LINE);
+		return buf.toString();
+	}
+
+	/**
+	 * Split the batch output into per command results
+	 *
+	 * @param commands	The commands the batch was built from
+	 * @param batchResult	The result of the batch script execution
+	 * @return	One result map (script, stdout, return, stderr) per command.<br>
+	 *         Commands that did not run because the script aborted get return code -1, the first
+	 *         of them also gets the stderr of the batch.
+	 */
+	public static List<Map<String, Comparable<?>>> parse(List<String> commands, Map<String, Comparable<?>> batchResult) {
+		String stdout = batchResult.get(STDOUT) == null ? "" : batchResult.get(STDOUT).toString();
+		String stderr = batchResult.get(STDERR) == null ? "" : batchResult.get(STDERR).toString();
+		Vector<Map<String, Comparable<?>>> results = new Vector<Map<String, Comparable<?>>>();
+		Matcher matcher = FRAME_HEADER.matcher(stdout);
+		int cursor = 0;
+		int index = 0;
+		while (index < commands.size() && matcher.find(cursor)) {
+			if (Integer.parseInt(matcher.group(1)) != index) {
+				break;
+			}
+			int payloadStart = matcher.end();
+			int payloadEnd = Math.min(stdout.length(), payloadStart + Integer.parseInt(matcher.group(3)));
+			String commandOutput = stdout.substring(cursor, matcher.start()) + stdout.substring(payloadStart, payloadEnd);
+			results.add(createResult(commands.get(index), commandOutput, Integer.parseInt(matcher.group(2)), ""));
+			cursor = payloadEnd;
+			index++;
+		}
+		for (; index < commands.size(); index++) {
+			if (results.size() == index) {
+				Comparable<?> returnCode = batchResult.get(RETURN);
+				String failure = stderr.isEmpty() ? "The batch ended before this command completed" : stderr;
+				if (Boolean.TRUE.equals(batchResult.get(TRUNCATED))) {
+					failure = "The batch output was truncated" + (batchResult.get(JOB_ID) == null ? "" : ", read the full output of job " + batchResult.get(JOB_ID));
+				}
+				results.add(createResult(commands.get(index), stdout.substring(cursor), -1, failure + (returnCode == null ? "" : " (rc " + returnCode + ")")));
+			} else {
+				results.add(createResult(commands.get(index), "", -1, "Not executed, a previous command in the batch failed"));
+			}
+		}
+		return results;
+	}
+
+	private static Map<String, Comparable<?>> createResult(String command, String stdout, int returnCode, String stderr) {
+		Hashtable<String, Comparable<?>> result = new Hashtable<String, Comparable<?>>();
+		result.put(SCRIPT, command);
+		result.put(STDOUT, stdout);
+		result.put(RETURN, returnCode);
+		result.put(STDERR, stderr);
+		return result;
+	}
+}
@@ -0,0 +1,230 @@
+/*
+ * Copyright 2005-2010 Ignis Software Tools Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jsystem.j2autoit.script;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import com.jsystem.j2autoit.cache.ScriptFileCache;
+import com.jsystem.j2autoit.logger.Log;
+
+/**
+ * Stored script procedures: a script body registered once under a name, and invoked
+ * later with arguments.<br>
+ * Every procedure is written once to its own file, with a prologue that binds the
+ * parameters to AutoIt variables. The arguments of an invocation are written to an
+ * arguments file as hex encoded UTF-8, one per line, and decoded by the prologue, so they
+ * are never spliced into the script text, need no escaping and are not bound by the
+ * command line length.<br>
+ * Registering a procedure again writes a new file; the file of the replaced version is
+ * deleted once the invocations still running it are released.
+ */
+public class ProcedureRegistry {
+	private static final String NEW_LINE = "\n";
+	private static final Pattern NAME = Pattern.compile("[A-Za-z_][A-Za-z0-9_]*");
+
+	private final File directory;
+	private final Map<String, Procedure> procedures = new HashMap<String, Procedure>();
+	private long invocations = 0;
+	private long version = 0;
+
+	/**
+	 * @param directory	The directory the procedure files are written to, emptied on creation
+	 */
+	public ProcedureRegistry(File directory) {
+		this.directory = directory;
+		directory.mkdirs();
+		File[] staleFiles = directory.listFiles();
+		if (staleFiles != null) {
+			for (File staleFile : staleFiles) {
+				staleFile.delete();
+			}
+		}
+	}
+
+	/**
+	 * Register a procedure, replacing a procedure with the same name.
+	 * Registering the same body and parameters again does not touch the file.
+	 *
+	 * @param name	The procedure name, an AutoIt identifier
+	 * @param body	The script body, it reads the parameters as $name variables
+	 * @param paramNames	The parameter names, with or without the leading $
+	 * @return	The registered procedure
+	 */
+	public synchronized Procedure register(String name, String body, List<String> paramNames) throws IOException {
+		if (name == null || !NAME.matcher(name).matches()) {
+			throw new IllegalArgumentException("Illegal procedure name " + name);
+		}
+		List<String> params = new ArrayList<String>();
+		for (String paramName : paramNames) {
+			String param = paramName.startsWith("$") ? paramName.substring(1) : paramName;
+			if (!NAME.matcher(param).matches()) {
+				throw new IllegalArgumentException("Illegal parameter name " + paramName + " of procedure " + name);
+			}
+			params.add(param);
+		}
+		String script = buildScript(body, params);
+		String hash = ScriptFileCache.hash(script);
+		Procedure existing = procedures.get(name);
+		if (existing != null && existing.hash.equals(hash)) {
+			return existing;
+		}
+		File file = new File(directory, name + "-" + (++version) + ".au3");
+		OutputStream out = new FileOutputStream(file);
+		try {
+			out.write(script.getBytes("UTF-8"));
+		} finally {
+			out.close();
+		}
+		Procedure procedure = new Procedure(name, body, params, file, hash);
+		procedures.put(name, procedure);
+		if (existing != null) {
+			existing.retired = true;
+			deleteIfUnused(existing);
+		}
+		Log.infoLog("Registered procedure " + name + " (" + params.size() + " parameters)" + NEW_LINE);
+		return procedure;
+	}
+
+	/**
+	 * Get a procedure to invoke, its file is kept until it is handed back with {@link #release(Procedure)}
+	 *
+	 * @return	The procedure, counted as invoked
+	 * @throws UnknownProcedureException	If there is no procedure with that name
+	 */
+	public synchronized Procedure acquire(String name) throws UnknownProcedureException {
+		Procedure procedure = procedures.get(name);
+		if (procedure == null) {
+			throw new UnknownProcedureException(name);
+		}
+		invocations++;
+		procedure.users++;
+		return procedure;
+	}
+
+	public synchronized void release(Procedure procedure) {
+		procedure.users--;
+		deleteIfUnused(procedure);
+	}
+
+	private void deleteIfUnused(Procedure procedure) {
+		if (procedure.retired && procedure.users == 0 && !procedure.file.delete() && procedure.file.exists()) {
+			Log.warningLog(procedure.file.getAbsolutePath() + " failed to deleted\n");
+		}
+	}
+
+	private static String buildScript(String body, List<String> params) {
+		StringBuffer buf = new StringBuffer();
+		buf.append("If $CmdLine[0] <> 1 Then").append(NEW_LINE);
+		buf.append("\tConsoleWriteError(\"Expected the arguments file, got \" & $CmdLine[0] & \" arguments\")").append(NEW_LINE);
+		buf.append("\tExit(-2)").append(NEW_LINE);
+		buf.append("EndIf").append(NEW_LINE);
+		// Every argument ends with a line feed, the split yields one more empty element
+		buf.append("Local $__J2A_Args = StringSplit(FileRead($CmdLine[1]), @LF)").append(NEW_LINE);
+		buf.append("If $__J2A_Args[0] <> ").append(params.size() + 1).append(" Then").append(NEW_LINE);
+		buf.append("\tConsoleWriteError(\"Expected ").append(params.size()).append(" arguments, got \" & ($__J2A_Args[0] - 1))").append(NEW_LINE);
+		buf.append("\tExit(-2)").append(NEW_LINE);
+		buf.append("EndIf").append(NEW_LINE);
+		for (int index = 0; index < params.size(); index++) {
+			buf.append("Local $").append(params.get(index)).append(" = BinaryToString(\"0x\" & StringTrimLeft($__J2A_Args[").append(index + 1).append("], 1), 4)").append(NEW_LINE);
+		}
+		buf.append(body).append(NEW_LINE);
+		return buf.toString();
+	}
+
+	/**
+	 * Write the arguments of an invocation to a new arguments file, the caller deletes it once
+	 * the invocation finished
+	 *
+	 * @return	The file holding the hex encoded UTF-8 of every argument, prefixed with 'x', one per line
+	 */
+	public File writeArguments(Procedure procedure, List<?> args) throws Exception {
+		if (args.size() != procedure.params.size()) {
+			throw new Exception("Procedure " + procedure.name + " expects " + procedure.params.size() + " arguments, got " + args.size());
+		}
+		StringBuilder encoded = new StringBuilder();
+		for (Object arg : args) {
+			byte[] bytes = (arg == null ? "" : arg.toString()).getBytes("UTF-8");
+			// The prefix keeps empty arguments apart from a missing one
+			encoded.append('x');
+			for (byte b : bytes) {
+				encoded.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+			}
+			encoded.append(NEW_LINE);
+		}
+		File file = File.createTempFile(procedure.name + "-args", ".txt", directory);
+		try {
+			OutputStream out = new FileOutputStream(file);
+			try {
+				out.write(encoded.toString().getBytes("US-ASCII"));
+			} finally {
+				out.close();
+			}
+		} catch (IOException exception) {
+			file.delete();
+			throw exception;
+		}
+		return file;
+	}
+
+	public synchronized int size() {
+		return procedures.size();
+	}
+
+	public synchronized long getInvocations() {
+		return invocations;
+	}
+
+	/**
+	 * A registered procedure
+	 */
+	public static class Procedure {
+		private final String name;
+		private final String body;
+		private final List<String> params;
+		private final File file;
+		private final String hash;
+		private int users = 0;
+		private boolean retired = false;
+
+		private Procedure(String name, String body, List<String> params, File file, String hash) {
+			this.name = name;
+			this.body = body;
+			this.params = params;
+			this.file = file;
+			this.hash = hash;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public String getBody() {
+			return body;
+		}
+
+		public File getFile() {
+			return file;
+		}
+	}
+}
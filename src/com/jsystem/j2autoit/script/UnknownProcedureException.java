@@ -0,0 +1,31 @@
+/*
+ * Copyright 2005-2010 Ignis Software Tools Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jsystem.j2autoit.script;
+
+/**
+ * Thrown when a procedure is invoked by a name the agent does not know, usually because the
+ * agent restarted since the procedure was registered.<br>
+ * The agent reports it to the client as a fault with {@link #FAULT_CODE}, so the client can
+ * register the procedure again without looking at the message.
+ */
+public class UnknownProcedureException extends Exception {
+	private static final long serialVersionUID = 2389406419522867317L;
+	public static final int FAULT_CODE = 404;
+
+	public UnknownProcedureException(String name) {
+		super("Unknown procedure " + name);
+	}
+}
@@ -0,0 +1,291 @@
+/*
+ * Copyright 2005-2010 Ignis Software Tools Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jsystem.j2autoit.script;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.jsystem.j2autoit.AutoItUtils;
+import com.jsystem.j2autoit.job.OutputBuffer;
+
+/**
+ * The typed value of a script, as written by the script wrapper after the script ran.<br>
+ * A record starts with {@link #MARKER} and holds three fields: the @error code, the
+ * @extended code and the value. Every field is <code>type length ':' payload</code>, where
+ * the length counts characters, so the record can be read without splitting or escaping:
+ * <ul>
+ * <li>e, x: the @error and @extended codes</li>
+ * <li>s: string, i: integer, d: float (as AutoIt prints it), b: boolean (1 or 0), y: binary (hex), p: pointer or handle</li>
+ * <li>n: no value (a keyword such as Default or Null), the length is 0</li>
+ * <li>a: array, the length is the number of elements and the elements follow as fields.
+ * A two dimensional array is an array of rows.</li>
+ * </ul>
+ * The script wrapper writes the value only once, in the record. The agent cuts the record off
+ * the script stdout, puts the value as text in its place, and sends the record as the
+ * {@link com.jsystem.j2autoit.AutoItConstants#VALUE} of the result.
+ */
+public class ValueRecord {
+	public static final String MARKER = "\u001EJ2A";
+
+	private static final String ENCODER_RESOURCE = "ValueRecord.au3";
+	private static File encoderScript = null;
+
+	private final int error;
+	private final int extended;
+	private final Object value;
+	private final String text;
+	private final List<String> elementTexts;
+
+	private ValueRecord(int error, int extended, Object value, String text, List<String> elementTexts) {
+		this.error = error;
+		this.extended = extended;
+		this.value = value;
+		this.text = text;
+		this.elementTexts = elementTexts;
+	}
+
+	/**
+	 * @return	The position of the record in the script stdout, -1 if there is none
+	 */
+	public static int indexOf(String stdout) {
+		return stdout.lastIndexOf(MARKER);
+	}
+
+	/**
+	 * Cut the record off the end of the output and append the value as text in its place,
+	 * so the output reads as if the script wrote the value itself.<br>
+	 * The record is cut from the whole output, not from its summary, so a value of any size
+	 * is kept whole.
+	 *
+	 * @param stdout	The script stdout
+	 * @return	The record, or null if the output has none
+	 */
+	public static String cut(OutputBuffer stdout) {
+		int start = stdout.lastIndexOf(MARKER);
+		if (start < 0) {
+			return null;
+		}
+		String record = stdout.cut(start);
+		try {
+			stdout.append(decode(record).asString());
+		} catch (IllegalArgumentException exception) {
+			// The client reports the malformed record when it decodes the value
+		}
+		return record;
+	}
+
+	/**
+	 * Decode a record
+	 *
+	 * @param record	The record, starting with the marker
+	 * @throws IllegalArgumentException	If the record is malformed
+	 */
+	public static ValueRecord decode(String record) {
+		if (!record.startsWith(MARKER)) {
+			throw new IllegalArgumentException("Not a value record");
+		}
+		Reader reader = new Reader(record, MARKER.length());
+		Object error = reader.field();
+		Object extended = reader.field();
+		Object value = reader.field();
+		if (!(error instanceof Number) || !(extended instanceof Number) || reader.position != record.length()) {
+			throw new IllegalArgumentException("Malformed value record");
+		}
+		return new ValueRecord(((Number) error).intValue(), ((Number) extended).intValue(), value, reader.text, reader.elementTexts);
+	}
+
+	/**
+	 * @return	The AutoIt file defining <code>__J2A_Record($value, $error, $extended)</code>, extracted on first use
+	 */
+	public static synchronized File getEncoderScript() throws IOException {
+		if (encoderScript == null || !encoderScript.exists()) {
+			encoderScript = AutoItUtils.extractResource(ValueRecord.class, ENCODER_RESOURCE, "autoitValueRecord", null);
+		}
+		return encoderScript;
+	}
+
+	public int getError() {
+		return error;
+	}
+
+	public int getExtended() {
+		return extended;
+	}
+
+	/**
+	 * @return	The value: String, Integer, Long, Double, Boolean, byte[], a List of values for arrays, or null
+	 */
+	public Object getValue() {
+		return value;
+	}
+
+	public boolean isArray() {
+		return value instanceof List<?>;
+	}
+
+	/**
+	 * @return	The value as a number, booleans are 1 and 0
+	 * @throws NumberFormatException	If the value is not a number or a numeric string
+	 */
+	public long asLong() {
+		if (value instanceof Number) {
+			return ((Number) value).longValue();
+		}
+		if (value instanceof Boolean) {
+			return ((Boolean) value) ? 1 : 0;
+		}
+		if (value instanceof String) {
+			return Long.parseLong(((String) value).trim());
+		}
+		throw new NumberFormatException("Not a number: " + asString());
+	}
+
+	public int asInt() {
+		return (int) asLong();
+	}
+
+	/**
+	 * @return	The value as AutoIt converts it to a string, an empty string for arrays and no value
+	 */
+	public String asString() {
+		return text;
+	}
+
+	/**
+	 * @return	The elements of an array value as strings, a single element for other values
+	 */
+	public List<String> asStrings() {
+		if (!isArray()) {
+			return Collections.singletonList(asString());
+		}
+		return Collections.unmodifiableList(elementTexts);
+	}
+
+	private static String toText(Object value) {
+		if (value == null || value instanceof List<?>) {
+			return "";
+		}
+		if (value instanceof Boolean) {
+			return ((Boolean) value) ? "True" : "False";
+		}
+		if (value instanceof byte[]) {
+			StringBuilder hex = new StringBuilder("0x");
+			for (byte b : (byte[]) value) {
+				hex.append(Character.toUpperCase(Character.forDigit((b >> 4) & 0xF, 16))).append(Character.toUpperCase(Character.forDigit(b & 0xF, 16)));
+			}
+			return hex.toString();
+		}
+		return value.toString();
+	}
+
+	@Override
+	public String toString() {
+		return "error " + error + ", extended " + extended + ", value " + (isArray() ? value : asString());
+	}
+
+	/**
+	 * Reads the fields of a record. Along with the value of the last field read it keeps the
+	 * value as AutoIt prints it, and for an array the printed values of its elements.
+	 */
+	private static class Reader {
+		private final String record;
+		private int position;
+		private String text;
+		private List<String> elementTexts;
+		private String floatText;
+
+		private Reader(String record, int position) {
+			this.record = record;
+			this.position = position;
+		}
+
+		private Object field() {
+			floatText = null;
+			Object value = parse();
+			if (!(value instanceof List<?>)) {
+				// AutoIt prints 10/2 as 5 and 1e20 as 1e+020, Double.toString does not
+				text = floatText != null ? floatText : toText(value);
+			}
+			return value;
+		}
+
+		private Object parse() {
+			if (position >= record.length()) {
+				throw new IllegalArgumentException("Value record ended early");
+			}
+			char type = record.charAt(position++);
+			int colon = record.indexOf(':', position);
+			if (colon < 0) {
+				throw new IllegalArgumentException("Value record ended early");
+			}
+			int length;
+			try {
+				length = Integer.parseInt(record.substring(position, colon));
+			} catch (NumberFormatException exception) {
+				throw new IllegalArgumentException("Bad field length in value record");
+			}
+			position = colon + 1;
+			if (type == 'a') {
+				List<Object> elements = new ArrayList<Object>(length);
+				List<String> texts = new ArrayList<String>(length);
+				for (int index = 0; index < length; index++) {
+					elements.add(field());
+					texts.add(elements.get(index) instanceof List<?> ? "" : text);
+				}
+				text = "";
+				elementTexts = texts;
+				return elements;
+			}
+			if (length < 0 || position + length > record.length()) {
+				throw new IllegalArgumentException("Value record ended early");
+			}
+			String payload = record.substring(position, position + length);
+			position += length;
+			try {
+				switch (type) {
+				case 's':
+				case 'p':
+					return payload;
+				case 'e':
+				case 'x':
+				case 'i':
+					long number = Long.parseLong(payload);
+					return number == (int) number ? (Object) (int) number : (Object) number;
+				case 'd':
+					floatText = payload;
+					return Double.parseDouble(payload);
+				case 'b':
+					return "1".equals(payload);
+				case 'y':
+					byte[] bytes = new byte[payload.length() / 2];
+					for (int index = 0; index < bytes.length; index++) {
+						bytes[index] = (byte) Integer.parseInt(payload.substring(index * 2, index * 2 + 2), 16);
+					}
+					return bytes;
+				case 'n':
+					return null;
+				default:
+					throw new IllegalArgumentException("Unknown field type " + type + " in value record");
+				}
+			} catch (NumberFormatException exception) {
+				throw new IllegalArgumentException("Bad " + type + " field in value record: " + payload);
+			}
+		}
+	}
+}
@@ -0,0 +1,27 @@
+/*
+ * Copyright 2005-2010 Ignis Software Tools Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jsystem.j2autoit.transport;
+
+/**
+ * The protocol a client uses to call a remote agent.<br>
+ * XMLRPC is served on the agent port and understood by every agent version, BINARY is the
+ * length-prefixed protocol of {@link BinaryServer}, served on the binary port of agents
+ * that have one configured.
+ */
+public enum AgentTransport {
+	XMLRPC,
+	BINARY;
+}
@@ -0,0 +1,231 @@
+/*
+ * Copyright 2005-2010 Ignis Software Tools Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jsystem.j2autoit.transport;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.xmlrpc.XmlRpcException;
+
+/**
+ * The encoding of the binary agent protocol.<br>
+ * A frame is the payload length (int), the call id (int) and the payload, a single encoded
+ * value. Values are a type byte followed by the value: strings and byte arrays are length
+ * prefixed, arrays and maps are an element count followed by the elements. The types are
+ * those XML-RPC carries with extensions: collections and arrays decode as Object[] and maps
+ * as HashMap, the way the XML-RPC client returns them, so callers handle the results of
+ * both transports the same way.<br>
+ * A request is the array {envelope, method, parameters}, a reply is {Boolean.TRUE, value}
+ * or {Boolean.FALSE, error message, fault code}, the fault code of an XmlRpcException or 0.
+ */
+public class BinaryCodec {
+	public static final int HEADER_SIZE = 8;
+	public static final int MAX_PAYLOAD = 64 * 1024 * 1024;
+
+	private static final int MAX_DEPTH = 64;
+
+	private static final byte NULL = 'N';
+	private static final byte STRING = 'S';
+	private static final byte INT = 'I';
+	private static final byte LONG = 'L';
+	private static final byte DOUBLE = 'D';
+	private static final byte BOOLEAN = 'B';
+	private static final byte BYTES = 'Y';
+	private static final byte DATE = 'T';
+	private static final byte ARRAY = 'A';
+	private static final byte MAP = 'M';
+
+	private BinaryCodec() {
+	}
+
+	/**
+	 * @return	The frame carrying the value, ready to be written
+	 */
+	public static ByteBuffer frame(int callId, Object value) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(0);
+		out.writeInt(callId);
+		write(out, value, 0);
+		out.flush();
+		ByteBuffer frame = ByteBuffer.wrap(bytes.toByteArray());
+		int payload = frame.remaining() - HEADER_SIZE;
+		if (payload > MAX_PAYLOAD) {
+			throw new IOException("Frame of " + payload + " bytes is larger than " + MAX_PAYLOAD);
+		}
+		frame.putInt(0, payload);
+		return frame;
+	}
+
+	public static Object[] request(Map<?, ?> envelope, String method, Object[] params) {
+		return new Object[] { envelope, method, params };
+	}
+
+	public static Object[] reply(Object value) {
+		return new Object[] { Boolean.TRUE, value };
+	}
+
+	public static Object[] error(Exception exception) {
+		String message = exception.getMessage();
+		int faultCode = exception instanceof XmlRpcException ? ((XmlRpcException) exception).code : 0;
+		return new Object[] { Boolean.FALSE, message == null ? exception.toString() : message, faultCode };
+	}
+
+	/**
+	 * Decode the payload of a frame
+	 */
+	public static Object decode(byte[] payload) throws IOException {
+		ByteBuffer buffer = ByteBuffer.wrap(payload);
+		try {
+			Object value = read(buffer, 0);
+			if (buffer.hasRemaining()) {
+				throw new IOException(buffer.remaining() + " bytes after the value");
+			}
+			return value;
+		} catch (BufferUnderflowException exception) {
+			throw new IOException("Truncated value");
+		}
+	}
+
+	private static void write(DataOutputStream out, Object value, int depth) throws IOException {
+		if (depth > MAX_DEPTH) {
+			throw new IOException("Values nested deeper than " + MAX_DEPTH);
+		}
+		if (value == null) {
+			out.writeByte(NULL);
+		} else if (value instanceof String || value instanceof Character) {
+			writeBytes(out, STRING, value.toString().getBytes(StandardCharsets.UTF_8));
+		} else if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+			out.writeByte(INT);
+			out.writeInt(((Number) value).intValue());
+		} else if (value instanceof Long) {
+			out.writeByte(LONG);
+			out.writeLong((Long) value);
+		} else if (value instanceof Double || value instanceof Float) {
+			out.writeByte(DOUBLE);
+			out.writeDouble(((Number) value).doubleValue());
+		} else if (value instanceof Boolean) {
+			out.writeByte(BOOLEAN);
+			out.writeBoolean((Boolean) value);
+		} else if (value instanceof byte[]) {
+			writeBytes(out, BYTES, (byte[]) value);
+		} else if (value instanceof Date) {
+			out.writeByte(DATE);
+			out.writeLong(((Date) value).getTime());
+		} else if (value instanceof Collection<?>) {
+			Collection<?> elements = (Collection<?>) value;
+			out.writeByte(ARRAY);
+			out.writeInt(elements.size());
+			for (Object element : elements) {
+				write(out, element, depth + 1);
+			}
+		} else if (value.getClass().isArray()) {
+			int length = Array.getLength(value);
+			out.writeByte(ARRAY);
+			out.writeInt(length);
+			for (int index = 0; index < length; index++) {
+				write(out, Array.get(value, index), depth + 1);
+			}
+		} else if (value instanceof Map<?, ?>) {
+			Map<?, ?> map = (Map<?, ?>) value;
+			out.writeByte(MAP);
+			out.writeInt(map.size());
+			for (Map.Entry<?, ?> entry : map.entrySet()) {
+				write(out, entry.getKey(), depth + 1);
+				write(out, entry.getValue(), depth + 1);
+			}
+		} else {
+			throw new IOException("Cannot encode a " + value.getClass().getName());
+		}
+	}
+
+	private static void writeBytes(DataOutputStream out, byte type, byte[] bytes) throws IOException {
+		out.writeByte(type);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static Object read(ByteBuffer buffer, int depth) throws IOException {
+		if (depth > MAX_DEPTH) {
+			throw new IOException("Values nested deeper than " + MAX_DEPTH);
+		}
+		byte type = buffer.get();
+		switch (type) {
+		case NULL:
+			return null;
+		case STRING:
+			return new String(readBytes(buffer), StandardCharsets.UTF_8);
+		case INT:
+			return buffer.getInt();
+		case LONG:
+			return buffer.getLong();
+		case DOUBLE:
+			return buffer.getDouble();
+		case BOOLEAN:
+			return buffer.get() != 0;
+		case BYTES:
+			return readBytes(buffer);
+		case DATE:
+			return new Date(buffer.getLong());
+		case ARRAY:
+			Object[] elements = new Object[readCount(buffer)];
+			for (int index = 0; index < elements.length; index++) {
+				elements[index] = read(buffer, depth + 1);
+			}
+			return elements;
+		case MAP:
+			int size = readCount(buffer);
+			Map<Object, Object> map = new HashMap<Object, Object>(size * 4 / 3 + 1);
+			for (int index = 0; index < size; index++) {
+				Object key = read(buffer, depth + 1);
+				map.put(key, read(buffer, depth + 1));
+			}
+			return map;
+		default:
+			throw new IOException("Unknown value type " + type);
+		}
+	}
+
+	private static byte[] readBytes(ByteBuffer buffer) throws IOException {
+		int length = buffer.getInt();
+		if (length < 0 || length > buffer.remaining()) {
+			throw new IOException("Bad length " + length);
+		}
+		byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		return bytes;
+	}
+
+	/**
+	 * Read an element count, each element takes at least one byte
+	 */
+	private static int readCount(ByteBuffer buffer) throws IOException {
+		int count = buffer.getInt();
+		if (count < 0 || count > buffer.remaining()) {
+			throw new IOException("Bad element count " + count);
+		}
+		return count;
+	}
+}
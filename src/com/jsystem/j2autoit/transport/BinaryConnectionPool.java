@@ -0,0 +1,193 @@
+/*
+ * Copyright 2005-2010 Ignis Software Tools Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jsystem.j2autoit.transport;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Blocking client connections to a {@link BinaryServer}, kept open between calls.<br>
+ * A connection carries one call at a time; a call waits for a free connection when the
+ * most connections are busy. A connection that fails in any way is closed rather than
+ * returned to the pool, and connections idle for longer than the idle timeout are closed
+ * when the pool is next used.
+ */
+public class BinaryConnectionPool {
+	private static final int CONNECT_TIMEOUT = 10000;
+
+	private final String host;
+	private final int port;
+	private final long idleTimeout;
+	private final Deque<Connection> idle = new ArrayDeque<Connection>();
+	private int maxConnections;
+	private int busy = 0;
+	private boolean closed = false;
+
+	/**
+	 * @param maxConnections	The most connections open at once
+	 * @param idleTimeout	Time in milliseconds an unused connection is kept open
+	 */
+	public BinaryConnectionPool(String host, int port, int maxConnections, long idleTimeout) {
+		this.host = host;
+		this.port = port;
+		this.maxConnections = Math.max(1, maxConnections);
+		this.idleTimeout = idleTimeout;
+	}
+
+	/**
+	 * Send a message and wait for the reply
+	 * 
+	 * @param replyTimeout	Time in milliseconds to wait for the reply, 0 for no limit
+	 * @return	The decoded reply
+	 */
+	public Object call(Object message, int replyTimeout) throws IOException, InterruptedException {
+		ByteBuffer frame = BinaryCodec.frame(0, message);
+		Connection connection = acquire();
+		boolean reusable = false;
+		try {
+			Object reply = connection.call(frame, replyTimeout);
+			reusable = true;
+			return reply;
+		} finally {
+			release(connection, reusable);
+		}
+	}
+
+	private Connection acquire() throws IOException, InterruptedException {
+		synchronized (this) {
+			while (busy >= maxConnections && !closed) {
+				wait();
+			}
+			if (closed) {
+				throw new IOException("Connection pool is shut down");
+			}
+			busy++;
+			closeIdle(System.currentTimeMillis());
+			Connection connection = idle.pollFirst();
+			if (connection != null) {
+				return connection;
+			}
+		}
+		try {
+			return new Connection(host, port);
+		} catch (IOException exception) {
+			release(null, false);
+			throw exception;
+		}
+	}
+
+	private synchronized void release(Connection connection, boolean reusable) {
+		busy--;
+		notifyAll();
+		if (connection == null) {
+			return;
+		}
+		if (reusable && !closed) {
+			connection.lastUsed = System.currentTimeMillis();
+			idle.addFirst(connection);
+		} else {
+			connection.close();
+		}
+	}
+
+	/**
+	 * Close the connections unused for longer than the idle timeout, the least recently
+	 * used are at the end of the queue
+	 */
+	private void closeIdle(long now) {
+		while (!idle.isEmpty() && now - idle.peekLast().lastUsed > idleTimeout) {
+			idle.pollLast().close();
+		}
+	}
+
+	public synchronized void setMaxConnections(int maxConnections) {
+		this.maxConnections = Math.max(1, maxConnections);
+		notifyAll();
+	}
+
+	/**
+	 * @return	The number of connections open, busy or idle
+	 */
+	public synchronized int getOpenConnections() {
+		return busy + idle.size();
+	}
+
+	/**
+	 * Close the idle connections, the busy ones are closed when their call returns
+	 */
+	public synchronized void shutdown() {
+		closed = true;
+		while (!idle.isEmpty()) {
+			idle.pollFirst().close();
+		}
+		notifyAll();
+	}
+
+	private static class Connection {
+		private final Socket socket;
+		private final DataInputStream in;
+		private final OutputStream out;
+		private int callId = 0;
+		private long lastUsed;
+
+		private Connection(String host, int port) throws IOException {
+			socket = new Socket();
+			try {
+				socket.setTcpNoDelay(true);
+				socket.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT);
+				in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+				out = new BufferedOutputStream(socket.getOutputStream());
+			} catch (IOException exception) {
+				socket.close();
+				throw exception;
+			}
+		}
+
+		private Object call(ByteBuffer frame, int replyTimeout) throws IOException {
+			int id = ++callId;
+			frame.putInt(4, id);
+			socket.setSoTimeout(replyTimeout);
+			out.write(frame.array(), frame.arrayOffset(), frame.limit());
+			out.flush();
+			int length = in.readInt();
+			int replyId = in.readInt();
+			if (length < 0 || length > BinaryCodec.MAX_PAYLOAD) {
+				throw new IOException("Bad frame length " + length);
+			}
+			if (replyId != id) {
+				throw new IOException("Reply to call " + replyId + " while waiting for call " + id);
+			}
+			byte[] payload = new byte[length];
+			in.readFully(payload);
+			return BinaryCodec.decode(payload);
+		}
+
+		private void close() {
+			try {
+				socket.close();
+			} catch (IOException exception) {
+			}
+		}
+	}
+}
@@ -0,0 +1,385 @@
+/*
+ * Copyright 2005-2010 Ignis Software Tools Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jsystem.j2autoit.transport;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.xmlrpc.XmlRpcException;
+
+import com.jsystem.j2autoit.logger.Log;
+import com.jsystem.j2autoit.scheduler.AgentBusyException;
+
+/**
+ * Serves the binary agent protocol (see {@link BinaryCodec}) on its own port.<br>
+ * One selector thread accepts connections, reads frames and writes replies; the requests
+ * are decoded and handled by a pool of worker threads, so a long script does not hold up
+ * the other connections. A connection may send several requests without waiting for the
+ * replies, each reply carries the call id of its request.<br>
+ * Requests wait for a worker in a bounded queue. When the queue is full the request is
+ * answered right away with the busy fault of {@link AgentBusyException}, so the client
+ * backs off as it does for a busy XML-RPC call.
+ */
+public class BinaryServer {
+	/**
+	 * Handles the decoded requests
+	 */
+	public interface Handler {
+		Object handle(Map<String, Object> envelope, String method, Object[] params) throws Exception;
+	}
+
+	private static final long BUSY_RETRY_AFTER = 100;
+
+	private final InetAddress address;
+	private final int port;
+	private final Handler handler;
+	private final ThreadPoolExecutor workers;
+	private final Queue<Connection> writable = new ConcurrentLinkedQueue<Connection>();
+	private final AtomicInteger openConnections = new AtomicInteger();
+	private final AtomicLong accepted = new AtomicLong();
+	private final AtomicLong requests = new AtomicLong();
+	private final AtomicLong failures = new AtomicLong();
+	private final AtomicLong rejected = new AtomicLong();
+	private final AtomicLong bytesIn = new AtomicLong();
+	private final AtomicLong bytesOut = new AtomicLong();
+	private Selector selector;
+	private ServerSocketChannel serverChannel;
+	private Thread selectorThread;
+	private volatile boolean running = false;
+
+	/**
+	 * @param address	The address to listen on, null for all the local addresses
+	 * @param port	The port to listen on, 0 for any free port
+	 * @param workerCount	The most requests handled at once
+	 * @param queueLength	The most requests waiting for a worker
+	 * @param handler	Handles the requests
+	 */
+	public BinaryServer(InetAddress address, int port, int workerCount, int queueLength, Handler handler) {
+		this.address = address;
+		this.port = port;
+		this.handler = handler;
+		workers = new ThreadPoolExecutor(Math.max(1, workerCount), Math.max(1, workerCount), 60, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(Math.max(1, queueLength)), new ThreadFactory() {
+					private final AtomicInteger count = new AtomicInteger();
+
+					@Override
+					public Thread newThread(Runnable runnable) {
+						Thread thread = new Thread(runnable, "BinaryWorker-" + count.incrementAndGet());
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+		workers.allowCoreThreadTimeOut(true);
+	}
+
+	public synchronized void start() throws IOException {
+		if (running) {
+			return;
+		}
+		selector = Selector.open();
+		serverChannel = ServerSocketChannel.open();
+		serverChannel.configureBlocking(false);
+		serverChannel.socket().setReuseAddress(true);
+		serverChannel.socket().bind(new InetSocketAddress(address, port));
+		serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+		running = true;
+		selectorThread = new Thread("BinaryServer") {
+			@Override
+			public void run() {
+				serve();
+			}
+		};
+		selectorThread.setDaemon(true);
+		selectorThread.start();
+	}
+
+	/**
+	 * @return	The address the server listens on, null for all the local addresses
+	 */
+	public InetAddress getAddress() {
+		return address;
+	}
+
+	/**
+	 * @return	The port the server listens on
+	 */
+	public synchronized int getPort() {
+		return serverChannel == null ? port : serverChannel.socket().getLocalPort();
+	}
+
+	public boolean isRunning() {
+		return running;
+	}
+
+	/**
+	 * Close the port and all the connections. Requests being handled finish, their replies
+	 * are dropped.
+	 */
+	public synchronized void shutdown() {
+		if (!running) {
+			return;
+		}
+		running = false;
+		selector.wakeup();
+		try {
+			selectorThread.join(5000);
+		} catch (InterruptedException exception) {
+			Thread.currentThread().interrupt();
+		}
+		workers.shutdown();
+	}
+
+	private void serve() {
+		try {
+			while (running) {
+				selector.select();
+				Connection connection;
+				while ((connection = writable.poll()) != null) {
+					connection.enableWrite();
+				}
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					try {
+						if (key.isAcceptable()) {
+							accept();
+						} else {
+							connection = (Connection) key.attachment();
+							if (key.isReadable()) {
+								connection.read();
+							}
+							if (key.isValid() && key.isWritable()) {
+								connection.write();
+							}
+						}
+					} catch (CancelledKeyException exception) {
+						close(key);
+					} catch (IOException exception) {
+						close(key);
+					}
+				}
+			}
+		} catch (Throwable throwable) {
+			Log.throwable("Binary server failed\n", throwable);
+		} finally {
+			for (SelectionKey key : selector.keys()) {
+				close(key);
+			}
+			try {
+				selector.close();
+			} catch (IOException exception) {
+			}
+			running = false;
+		}
+	}
+
+	private void accept() throws IOException {
+		SocketChannel channel = serverChannel.accept();
+		if (channel == null) {
+			return;
+		}
+		channel.configureBlocking(false);
+		channel.socket().setTcpNoDelay(true);
+		Connection connection = new Connection(channel);
+		connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+		accepted.incrementAndGet();
+		openConnections.incrementAndGet();
+	}
+
+	private void close(SelectionKey key) {
+		key.cancel();
+		try {
+			key.channel().close();
+		} catch (IOException exception) {
+		}
+		if (key.attachment() instanceof Connection && ((Connection) key.attachment()).close()) {
+			openConnections.decrementAndGet();
+		}
+	}
+
+	/**
+	 * Decode and handle a request on a worker thread
+	 */
+	@SuppressWarnings("unchecked")
+	private void handle(Connection connection, int callId, byte[] payload) {
+		requests.incrementAndGet();
+		ByteBuffer frame;
+		try {
+			Object[] request = (Object[]) BinaryCodec.decode(payload);
+			Object value = handler.handle((Map<String, Object>) request[0], (String) request[1], (Object[]) request[2]);
+			frame = BinaryCodec.frame(callId, BinaryCodec.reply(value));
+		} catch (Exception exception) {
+			failures.incrementAndGet();
+			try {
+				frame = BinaryCodec.frame(callId, BinaryCodec.error(exception));
+			} catch (IOException encodingException) {
+				return;
+			}
+		}
+		connection.send(frame);
+	}
+
+	/**
+	 * Add the server counters to the statistics map
+	 */
+	public void fillStatistics(Map<String, Comparable<?>> statistics, String prefix) {
+		statistics.put(prefix + ".port", getPort());
+		statistics.put(prefix + ".connections", openConnections.get());
+		statistics.put(prefix + ".accepted", accepted.get());
+		statistics.put(prefix + ".requests", requests.get());
+		statistics.put(prefix + ".failures", failures.get());
+		statistics.put(prefix + ".rejected", rejected.get());
+		statistics.put(prefix + ".queued", workers.getQueue().size());
+		statistics.put(prefix + ".active", workers.getActiveCount());
+		statistics.put(prefix + ".bytesIn", bytesIn.get());
+		statistics.put(prefix + ".bytesOut", bytesOut.get());
+	}
+
+	/**
+	 * The state of a client connection, touched by the selector thread only except for the
+	 * reply queue
+	 */
+	private class Connection {
+		private final SocketChannel channel;
+		private final ByteBuffer header = ByteBuffer.allocate(BinaryCodec.HEADER_SIZE);
+		private final Queue<ByteBuffer> replies = new ConcurrentLinkedQueue<ByteBuffer>();
+		private final AtomicBoolean closed = new AtomicBoolean();
+		private SelectionKey key;
+		private ByteBuffer body;
+		private int callId;
+
+		private Connection(SocketChannel channel) {
+			this.channel = channel;
+		}
+
+		/**
+		 * Read the available bytes and hand the complete requests to the workers
+		 */
+		private void read() throws IOException {
+			while (true) {
+				ByteBuffer target = body == null ? header : body;
+				int count = channel.read(target);
+				if (count < 0) {
+					throw new EOFException("Connection closed by the client");
+				}
+				bytesIn.addAndGet(count);
+				if (target.hasRemaining()) {
+					return;
+				}
+				if (body == null) {
+					header.flip();
+					int length = header.getInt();
+					callId = header.getInt();
+					header.clear();
+					if (length < 0 || length > BinaryCodec.MAX_PAYLOAD) {
+						throw new IOException("Bad frame length " + length);
+					}
+					body = ByteBuffer.allocate(length);
+					if (length > 0) {
+						continue;
+					}
+				}
+				final int requestCallId = callId;
+				final byte[] payload = body.array();
+				body = null;
+				try {
+					workers.execute(new Runnable() {
+						@Override
+						public void run() {
+							handle(Connection.this, requestCallId, payload);
+						}
+					});
+				} catch (RejectedExecutionException exception) {
+					if (workers.isShutdown()) {
+						throw new IOException("Server is shutting down");
+					}
+					reject(requestCallId);
+				}
+			}
+		}
+
+		/**
+		 * Answer a request the workers have no room for with the busy fault
+		 */
+		private void reject(int requestCallId) throws IOException {
+			rejected.incrementAndGet();
+			AgentBusyException busy = new AgentBusyException(workers.getQueue().size() + " binary requests queued", BUSY_RETRY_AFTER);
+			send(BinaryCodec.frame(requestCallId, BinaryCodec.error(new XmlRpcException(busy.getFaultCode(), busy.getMessage()))));
+		}
+
+		/**
+		 * Queue a reply, called by the workers and by the selector thread for rejections
+		 */
+		private void send(ByteBuffer frame) {
+			if (closed.get()) {
+				return;
+			}
+			replies.add(frame);
+			writable.add(this);
+			selector.wakeup();
+		}
+
+		private void enableWrite() {
+			if (key.isValid()) {
+				key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+			}
+		}
+
+		/**
+		 * Write the queued replies until the socket buffer is full
+		 */
+		private void write() throws IOException {
+			ByteBuffer frame;
+			while ((frame = replies.peek()) != null) {
+				bytesOut.addAndGet(channel.write(frame));
+				if (frame.hasRemaining()) {
+					return;
+				}
+				replies.poll();
+			}
+			key.interestOps(SelectionKey.OP_READ);
+		}
+
+		/**
+		 * @return	true the first time the connection is closed
+		 */
+		private boolean close() {
+			replies.clear();
+			return !closed.getAndSet(true);
+		}
+	}
+}
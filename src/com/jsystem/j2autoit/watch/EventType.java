@@ -0,0 +1,60 @@
+/*
+ * Copyright 2005-2010 Ignis Software Tools Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jsystem.j2autoit.watch;
+
+/**
+ * The events a watcher subscription can wait for.<br>
+ * Window events match windows whose title starts with the subscription pattern (case
+ * sensitive, as the default AutoIt title match mode). Process events match processes whose
+ * image name equals the pattern (case insensitive). An empty pattern matches everything.
+ */
+public enum EventType {
+	WINDOW_OPENED(true),
+	WINDOW_CLOSED(true),
+	WINDOW_ACTIVATED(true),
+	PROCESS_STARTED(false),
+	PROCESS_EXITED(false);
+
+	private final boolean window;
+
+	private EventType(boolean window) {
+		this.window = window;
+	}
+
+	public boolean isWindow() {
+		return window;
+	}
+
+	/**
+	 * @return	The type with the given name (case insensitive)
+	 * @throws IllegalArgumentException	If there is no such type
+	 */
+	public static EventType parse(String name) {
+		for (EventType type : values()) {
+			if (type.name().equalsIgnoreCase(name == null ? "" : name.trim())) {
+				return type;
+			}
+		}
+		throw new IllegalArgumentException("Unknown event type " + name);
+	}
+
+	boolean matches(String subject, String pattern) {
+		if (pattern == null || pattern.isEmpty()) {
+			return true;
+		}
+		return window ? subject.startsWith(pattern) : subject.equalsIgnoreCase(pattern);
+	}
+}
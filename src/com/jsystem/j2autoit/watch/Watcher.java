@@ -0,0 +1,425 @@
+/*
+ * Copyright 2005-2010 Ignis Software Tools Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jsystem.j2autoit.watch;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.Vector;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import com.jsystem.j2autoit.logger.Log;
+import com.jsystem.j2autoit.process.ProcessTable;
+import com.jsystem.j2autoit.watch.WindowSampler.WindowState;
+
+/**
+ * Watches window and process state once for all the waiting clients.<br>
+ * Windows are sampled by a single {@link WindowSampler} interpreter process, processes are
+ * read from the {@link ProcessTable} snapshot. Every sample is compared with the previous
+ * one and the differences are queued on the matching subscriptions, which clients drain
+ * with a long poll. Samplers only run while there are subscriptions that need them.<br>
+ * On the first sample after subscribing, the current state is reported: the matching
+ * windows or processes as opened/started, the active window as activated, and a closed or
+ * exited event without a handle or PID if nothing matches.
+ */
+public class Watcher {
+	public static final String TYPE = "type";
+	public static final String SUBJECT = "subject";
+	public static final String HANDLE = "handle";
+	public static final String PID = "pid";
+	public static final String TIME = "time";
+	public static final String SEQUENCE = "sequence";
+
+	private static final int QUEUE_LIMIT = 1000;
+	private static final long IDLE_TIMEOUT = 60000;
+	private static final long SAMPLER_RESTART_DELAY = 5000;
+
+	private final ProcessTable processTable;
+	private final String interpreter;
+	private final long sampleMillis;
+	private final ScheduledExecutorService executor;
+	private final Map<String, Subscription> subscriptions = new LinkedHashMap<String, Subscription>();
+	private WindowSampler windowSampler = null;
+	private long samplerStarted = 0;
+	private Map<String, WindowState> windows = null;
+	private Map<Long, String> processes = null;
+	private long sequence = 0;
+	private long windowSamples = 0;
+	private long processSamples = 0;
+	private long dropped = 0;
+	private long expired = 0;
+
+	/**
+	 * @param processTable	The process table snapshot
+	 * @param interpreter	The AutoIt executable location, for the window sampler
+	 * @param sampleMillis	Time in milliseconds between samples
+	 */
+	public Watcher(ProcessTable processTable, String interpreter, long sampleMillis) {
+		this.processTable = processTable;
+		this.interpreter = interpreter;
+		this.sampleMillis = Math.max(10, sampleMillis);
+		executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "Watcher");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		executor.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					tick();
+				} catch (Throwable throwable) {
+					Log.throwable("Watcher sample failed\n", throwable);
+				}
+			}
+		}, this.sampleMillis, this.sampleMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Subscribe to events
+	 *
+	 * @param type	The event type
+	 * @param pattern	The window title prefix or process image name, empty for all
+	 * @return	The subscription id
+	 * @throws IOException	If the window sampler could not be started
+	 */
+	public synchronized String subscribe(EventType type, String pattern) throws IOException {
+		if (type.isWindow() && windowSampler == null) {
+			startWindowSampler();
+		}
+		Subscription subscription = new Subscription(UUID.randomUUID().toString(), type, pattern == null ? "" : pattern);
+		subscriptions.put(subscription.id, subscription);
+		return subscription.id;
+	}
+
+	/**
+	 * @return	false if there was no such subscription
+	 */
+	public boolean unsubscribe(String subscriptionId) {
+		Subscription subscription;
+		synchronized (this) {
+			subscription = subscriptions.remove(subscriptionId);
+		}
+		if (subscription != null) {
+			subscription.close();
+		}
+		return subscription != null;
+	}
+
+	/**
+	 * Wait for events of a subscription
+	 *
+	 * @param timeout	Maximum time to wait in milliseconds if there are no events yet
+	 * @return	The queued events, oldest first, empty if none arrived in time
+	 * @throws Exception	If the subscription does not exist or expired
+	 */
+	public List<Map<String, Comparable<?>>> poll(String subscriptionId, long timeout) throws Exception {
+		Subscription subscription;
+		synchronized (this) {
+			subscription = subscriptions.get(subscriptionId);
+		}
+		if (subscription == null) {
+			throw new Exception("Unknown subscription " + subscriptionId);
+		}
+		return subscription.poll(timeout);
+	}
+
+	private void startWindowSampler() throws IOException {
+		samplerStarted = System.currentTimeMillis();
+		windows = null;
+		windowSampler = new WindowSampler(interpreter, sampleMillis, this);
+	}
+
+	private synchronized void tick() {
+		boolean windowSubscriptions = false;
+		boolean processSubscriptions = false;
+		long now = System.currentTimeMillis();
+		Iterator<Subscription> iterator = subscriptions.values().iterator();
+		while (iterator.hasNext()) {
+			Subscription subscription = iterator.next();
+			if (subscription.isIdle(now)) {
+				iterator.remove();
+				subscription.close();
+				expired++;
+				continue;
+			}
+			windowSubscriptions |= subscription.type.isWindow();
+			processSubscriptions |= !subscription.type.isWindow();
+		}
+		if (!windowSubscriptions && windowSampler != null) {
+			windowSampler.stop();
+			windowSampler = null;
+			windows = null;
+		} else if (windowSubscriptions && windowSampler == null && now - samplerStarted > SAMPLER_RESTART_DELAY) {
+			try {
+				startWindowSampler();
+			} catch (IOException exception) {
+				Log.throwable("Failed to restart the window sampler\n", exception);
+			}
+		}
+		if (processSubscriptions) {
+			updateProcesses();
+		} else {
+			processes = null;
+		}
+	}
+
+	private void updateProcesses() {
+		processSamples++;
+		Map<Long, String> current = new HashMap<Long, String>();
+		for (Map.Entry<String, List<Long>> image : processTable.snapshot().entrySet()) {
+			for (Long pid : image.getValue()) {
+				current.put(pid, image.getKey());
+			}
+		}
+		long time = System.currentTimeMillis();
+		for (Subscription subscription : subscriptions.values()) {
+			if (subscription.type.isWindow()) {
+				continue;
+			}
+			if (!subscription.primed || processes == null) {
+				primeProcesses(subscription, current, time);
+				continue;
+			}
+			if (subscription.type == EventType.PROCESS_STARTED) {
+				for (Map.Entry<Long, String> process : current.entrySet()) {
+					if (!processes.containsKey(process.getKey()) && subscription.matches(process.getValue())) {
+						deliver(subscription, process.getValue(), null, process.getKey(), time);
+					}
+				}
+			} else {
+				for (Map.Entry<Long, String> process : processes.entrySet()) {
+					if (!current.containsKey(process.getKey()) && subscription.matches(process.getValue())) {
+						deliver(subscription, process.getValue(), null, process.getKey(), time);
+					}
+				}
+			}
+		}
+		processes = current;
+	}
+
+	private void primeProcesses(Subscription subscription, Map<Long, String> current, long time) {
+		subscription.primed = true;
+		boolean found = false;
+		for (Map.Entry<Long, String> process : current.entrySet()) {
+			if (subscription.matches(process.getValue())) {
+				found = true;
+				if (subscription.type == EventType.PROCESS_STARTED) {
+					deliver(subscription, process.getValue(), null, process.getKey(), time);
+				}
+			}
+		}
+		if (!found && subscription.type == EventType.PROCESS_EXITED) {
+			deliver(subscription, subscription.pattern, null, 0L, time);
+		}
+	}
+
+	/**
+	 * Called by the window sampler with every complete sample
+	 */
+	synchronized void updateWindows(Map<String, WindowState> current) {
+		windowSamples++;
+		long time = System.currentTimeMillis();
+		for (Subscription subscription : subscriptions.values()) {
+			if (!subscription.type.isWindow()) {
+				continue;
+			}
+			if (!subscription.primed || windows == null) {
+				primeWindows(subscription, current, time);
+				continue;
+			}
+			switch (subscription.type) {
+			case WINDOW_OPENED:
+				for (Map.Entry<String, WindowState> window : current.entrySet()) {
+					if (!windows.containsKey(window.getKey()) && subscription.matches(window.getValue().title)) {
+						deliver(subscription, window.getValue().title, window.getKey(), null, time);
+					}
+				}
+				break;
+			case WINDOW_CLOSED:
+				for (Map.Entry<String, WindowState> window : windows.entrySet()) {
+					if (!current.containsKey(window.getKey()) && subscription.matches(window.getValue().title)) {
+						deliver(subscription, window.getValue().title, window.getKey(), null, time);
+					}
+				}
+				break;
+			default:
+				for (Map.Entry<String, WindowState> window : current.entrySet()) {
+					WindowState previous = windows.get(window.getKey());
+					if (window.getValue().active && (previous == null || !previous.active) && subscription.matches(window.getValue().title)) {
+						deliver(subscription, window.getValue().title, window.getKey(), null, time);
+					}
+				}
+			}
+		}
+		windows = current;
+	}
+
+	private void primeWindows(Subscription subscription, Map<String, WindowState> current, long time) {
+		subscription.primed = true;
+		boolean found = false;
+		for (Map.Entry<String, WindowState> window : current.entrySet()) {
+			if (!subscription.matches(window.getValue().title)) {
+				continue;
+			}
+			found = true;
+			if (subscription.type == EventType.WINDOW_OPENED || subscription.type == EventType.WINDOW_ACTIVATED && window.getValue().active) {
+				deliver(subscription, window.getValue().title, window.getKey(), null, time);
+			}
+		}
+		if (!found && subscription.type == EventType.WINDOW_CLOSED) {
+			deliver(subscription, subscription.pattern, "", null, time);
+		}
+	}
+
+	/**
+	 * Called by the window sampler thread when the sampler process ends
+	 */
+	synchronized void samplerStopped(WindowSampler sampler) {
+		if (windowSampler == sampler) {
+			Log.warningLog("Window sampler exited\n");
+			windowSampler = null;
+			windows = null;
+		}
+	}
+
+	private void deliver(Subscription subscription, String subject, String handle, Long pid, long time) {
+		Hashtable<String, Comparable<?>> event = new Hashtable<String, Comparable<?>>();
+		event.put(TYPE, subscription.type.name());
+		event.put(SUBJECT, subject);
+		if (handle != null) {
+			event.put(HANDLE, handle);
+		}
+		if (pid != null) {
+			event.put(PID, pid);
+		}
+		event.put(TIME, time);
+		event.put(SEQUENCE, ++sequence);
+		if (!subscription.offer(event)) {
+			dropped++;
+		}
+	}
+
+	/**
+	 * Add the watcher counters to the statistics map
+	 */
+	public synchronized void fillStatistics(Map<String, Comparable<?>> statistics, String prefix) {
+		statistics.put(prefix + ".subscriptions", subscriptions.size());
+		statistics.put(prefix + ".windowSamplerRunning", windowSampler != null);
+		statistics.put(prefix + ".windowSamples", windowSamples);
+		statistics.put(prefix + ".processSamples", processSamples);
+		statistics.put(prefix + ".events", sequence);
+		statistics.put(prefix + ".dropped", dropped);
+		statistics.put(prefix + ".expiredSubscriptions", expired);
+	}
+
+	public void shutdown() {
+		executor.shutdownNow();
+		List<Subscription> closed;
+		synchronized (this) {
+			if (windowSampler != null) {
+				windowSampler.stop();
+				windowSampler = null;
+			}
+			closed = new ArrayList<Subscription>(subscriptions.values());
+			subscriptions.clear();
+		}
+		for (Subscription subscription : closed) {
+			subscription.close();
+		}
+	}
+
+	/**
+	 * The event queue of one client
+	 */
+	private static class Subscription {
+		private final String id;
+		private final EventType type;
+		private final String pattern;
+		private final ArrayDeque<Map<String, Comparable<?>>> queue = new ArrayDeque<Map<String, Comparable<?>>>();
+		private boolean primed = false;
+		private long lastPoll = System.currentTimeMillis();
+		private boolean closed = false;
+		private int waiters = 0;
+
+		private Subscription(String id, EventType type, String pattern) {
+			this.id = id;
+			this.type = type;
+			this.pattern = pattern;
+		}
+
+		private boolean matches(String subject) {
+			return type.matches(subject, pattern);
+		}
+
+		/**
+		 * @return	false if the queue was full and the oldest event was dropped
+		 */
+		private synchronized boolean offer(Map<String, Comparable<?>> event) {
+			boolean kept = true;
+			if (queue.size() >= QUEUE_LIMIT) {
+				queue.poll();
+				kept = false;
+			}
+			queue.add(event);
+			notifyAll();
+			return kept;
+		}
+
+		private synchronized List<Map<String, Comparable<?>>> poll(long timeout) throws InterruptedException {
+			long deadline = System.currentTimeMillis() + timeout;
+			long remaining = timeout;
+			waiters++;
+			try {
+				while (queue.isEmpty() && !closed && remaining > 0) {
+					wait(remaining);
+					remaining = deadline - System.currentTimeMillis();
+				}
+			} finally {
+				waiters--;
+			}
+			lastPoll = System.currentTimeMillis();
+			Vector<Map<String, Comparable<?>>> events = new Vector<Map<String, Comparable<?>>>(queue);
+			queue.clear();
+			return events;
+		}
+
+		/**
+		 * @return	true if nobody polled for the idle timeout; a client waiting in a poll is not idle
+		 */
+		private synchronized boolean isIdle(long now) {
+			return waiters == 0 && now - lastPoll > IDLE_TIMEOUT;
+		}
+
+		private synchronized void close() {
+			closed = true;
+			notifyAll();
+		}
+	}
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2005-2010 Ignis Software Tools Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jsystem.j2autoit.watch;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.jsystem.j2autoit.AutoItUtils;
+import com.jsystem.j2autoit.logger.Log;
+
+/**
+ * One long-lived interpreter process listing the top level windows with a title at a fixed
+ * interval, shared by all the window subscriptions. Hidden windows are listed too, as
+ * WinWait and WinExists match them.<br>
+ * Every sample is a block of <code>handle TAB active TAB title</code> lines closed by a
+ * line with a single dot, and is handed to the watcher as a whole.
+ */
+class WindowSampler {
+	private static final String SAMPLER_SCRIPT_RESOURCE = "WindowSampler.au3";
+
+	private final Process process;
+
+	/**
+	 * Start the sampler process
+	 *
+	 * @param interpreter	The AutoIt executable location
+	 * @param interval	Time in milliseconds between samples
+	 * @param watcher	The watcher receiving the samples
+	 */
+	WindowSampler(String interpreter, long interval, final Watcher watcher) throws IOException {
+		ProcessBuilder builder = new ProcessBuilder(interpreter, "/ErrorStdOut", AutoItUtils.extractResource(WindowSampler.class, SAMPLER_SCRIPT_RESOURCE, "autoitSampler", null).getAbsolutePath(),
+				String.valueOf(interval), String.valueOf(ProcessHandle.current().pid()));
+		builder.redirectErrorStream(true);
+		process = builder.start();
+		final BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), AutoItUtils.CONSOLE_CHARSET));
+		Thread thread = new Thread("WindowSampler") {
+			@Override
+			public void run() {
+				Map<String, WindowState> windows = new LinkedHashMap<String, WindowState>();
+				try {
+					String line;
+					while ((line = reader.readLine()) != null) {
+						if (line.equals(".")) {
+							watcher.updateWindows(windows);
+							windows = new LinkedHashMap<String, WindowState>();
+							continue;
+						}
+						String[] fields = line.split("\t", 3);
+						if (fields.length == 3) {
+							windows.put(fields[0], new WindowState(fields[2], "1".equals(fields[1])));
+						} else {
+							Log.warningLog("Window sampler: " + line + "\n");
+						}
+					}
+				} catch (IOException exception) {
+					// The process was stopped
+				}
+				watcher.samplerStopped(WindowSampler.this);
+			}
+		};
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	void stop() {
+		process.destroyForcibly();
+	}
+
+	/**
+	 * A window as seen by one sample
+	 */
+	static class WindowState {
+		final String title;
+		final boolean active;
+
+		WindowState(String title, boolean active) {
+			this.title = title;
+			this.active = active;
+		}
+	}
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2005-2010 Ignis Software Tools Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jsystem.j2autoit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.Map;
+import java.util.Vector;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Run script files through the agent, with a shell script standing in for AutoIt on Linux.
+ */
+public class AutoItAgentTest {
+	private static final int LARGE_OUTPUT = 100000;
+
+	private File stub;
+	private File script;
+
+	@Before
+	public void createFiles() throws Exception {
+		stub = File.createTempFile("autoitStub", ".sh");
+		write(stub, "#!/bin/sh\n" +
+				"# $1 is /ErrorStdOut, $2 the script file, $3 the number of characters to print\n" +
+				"head -c \"$3\" /dev/zero | tr '\\000' x\n");
+		stub.setExecutable(true);
+		script = File.createTempFile("autoitScript", ".au3");
+		write(script, "ConsoleWrite(\"x\")\n");
+	}
+
+	@After
+	public void deleteFiles() {
+		stub.delete();
+		script.delete();
+	}
+
+	@Test
+	public void truncatedSynchronousOutputCanBeReadInFull() throws Exception {
+		AutoItAgent agent = new AutoItAgent();
+		Map<String, Comparable<?>> result = agent.executeAutoitFile(script.getAbsolutePath(), script.getParent(), stub.getAbsolutePath(), 30000, args(LARGE_OUTPUT));
+		assertEquals(Boolean.TRUE, result.get(AutoItConstants.TRUNCATED));
+		assertTrue(((String) result.get(AutoItConstants.STDOUT)).length() < LARGE_OUTPUT);
+		String jobId = (String) result.get(AutoItConstants.JOB_ID);
+		assertEquals("DONE", agent.getJobStatus(jobId));
+		String output = agent.readOutput(jobId, 0, Integer.MAX_VALUE);
+		assertEquals(LARGE_OUTPUT, output.length());
+		assertEquals(-1, output.indexOf('\n'));
+	}
+
+	@Test
+	public void shortSynchronousOutputHasNoJob() throws Exception {
+		Map<String, Comparable<?>> result = new AutoItAgent().executeAutoitFile(script.getAbsolutePath(), script.getParent(), stub.getAbsolutePath(), 30000, args(10));
+		assertEquals(Boolean.FALSE, result.get(AutoItConstants.TRUNCATED));
+		assertEquals("xxxxxxxxxx", result.get(AutoItConstants.STDOUT));
+		assertFalse(result.containsKey(AutoItConstants.JOB_ID));
+	}
+
+	private static Vector<Object> args(int length) {
+		Vector<Object> args = new Vector<Object>();
+		args.add(Integer.toString(length));
+		return args;
+	}
+
+	private static void write(File file, String text) throws Exception {
+		FileWriter writer = new FileWriter(file);
+		try {
+			writer.write(text);
+		} finally {
+			writer.close();
+		}
+	}
+}
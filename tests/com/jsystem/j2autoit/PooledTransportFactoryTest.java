@@ -0,0 +1,174 @@
+/*
+ * Copyright 2005-2010 Ignis Software Tools Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jsystem.j2autoit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.xmlrpc.client.XmlRpcClient;
+import org.apache.xmlrpc.client.XmlRpcClientConfigImpl;
+import org.apache.xmlrpc.server.PropertyHandlerMapping;
+import org.apache.xmlrpc.server.XmlRpcServerConfigImpl;
+import org.apache.xmlrpc.webserver.WebServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Call an in-process XML-RPC server, configured as the agent configures its own, through
+ * the pooled transport.
+ */
+public class PooledTransportFactoryTest {
+	private final AtomicInteger accepted = new AtomicInteger();
+	private WebServer server;
+	private XmlRpcClient client;
+	private XmlRpcClientConfigImpl config;
+	private PooledTransportFactory factory;
+
+	/**
+	 * The handler of the test server, counts the calls running at once
+	 */
+	public static class Handler {
+		private static final AtomicInteger running = new AtomicInteger();
+		private static final AtomicInteger mostRunning = new AtomicInteger();
+
+		public int sleep(int millis) throws InterruptedException {
+			int now = running.incrementAndGet();
+			synchronized (mostRunning) {
+				mostRunning.set(Math.max(mostRunning.get(), now));
+			}
+			try {
+				Thread.sleep(millis);
+			} finally {
+				running.decrementAndGet();
+			}
+			return millis;
+		}
+	}
+
+	@Before
+	public void start() throws Exception {
+		Handler.mostRunning.set(0);
+		server = new WebServer(0, InetAddress.getByName("127.0.0.1")) {
+			@Override
+			protected ServerSocket createServerSocket(int port, int backlog, InetAddress address) throws IOException {
+				return new ServerSocket(port, backlog, address) {
+					@Override
+					public Socket accept() throws IOException {
+						Socket socket = super.accept();
+						accepted.incrementAndGet();
+						return socket;
+					}
+				};
+			}
+		};
+		PropertyHandlerMapping mapping = new PropertyHandlerMapping();
+		mapping.addHandler("test", Handler.class);
+		server.getXmlRpcServer().setHandlerMapping(mapping);
+		XmlRpcServerConfigImpl serverConfig = (XmlRpcServerConfigImpl) server.getXmlRpcServer().getConfig();
+		serverConfig.setKeepAliveEnabled(true);
+		serverConfig.setContentLengthOptional(false);
+		server.start();
+
+		config = new XmlRpcClientConfigImpl();
+		config.setServerURL(new URL("http://127.0.0.1:" + server.getPort() + "/RPC2"));
+		client = new XmlRpcClient();
+		factory = new PooledTransportFactory(client, 2);
+		client.setTransportFactory(factory);
+		client.setConfig(config);
+	}
+
+	@After
+	public void stop() {
+		factory.shutdown();
+		server.shutdown();
+	}
+
+	@Test
+	public void reusesItsConnection() throws Exception {
+		for (int index = 0; index < 20; index++) {
+			assertEquals(index, client.execute(config, "test.sleep", Arrays.<Object>asList(index)));
+		}
+		assertEquals(1, accepted.get());
+		assertEquals(1, factory.getOpenConnections());
+	}
+
+	@Test
+	public void keepsToTheConnectionLimit() throws Exception {
+		List<Exception> failures = callConcurrently(6, 200);
+		assertTrue(failures.toString(), failures.isEmpty());
+		assertEquals(2, Handler.mostRunning.get());
+		assertEquals(2, accepted.get());
+		assertTrue(factory.getOpenConnections() <= 2);
+	}
+
+	@Test
+	public void retiredFactoryLetsRunningCallsFinish() throws Exception {
+		final List<Exception> failures = new ArrayList<Exception>();
+		factory.beginCall();
+		Thread call = new Thread() {
+			@Override
+			public void run() {
+				try {
+					client.execute(config, "test.sleep", Arrays.<Object>asList(300));
+				} catch (Exception exception) {
+					failures.add(exception);
+				} finally {
+					factory.endCall();
+				}
+			}
+		};
+		call.start();
+		Thread.sleep(100);
+		factory.retire();
+		call.join();
+		assertTrue(failures.toString(), failures.isEmpty());
+	}
+
+	private List<Exception> callConcurrently(int calls, final int millis) throws InterruptedException {
+		final List<Exception> failures = new ArrayList<Exception>();
+		final CountDownLatch done = new CountDownLatch(calls);
+		for (int index = 0; index < calls; index++) {
+			new Thread() {
+				@Override
+				public void run() {
+					try {
+						client.execute(config, "test.sleep", Arrays.<Object>asList(millis));
+					} catch (Exception exception) {
+						synchronized (failures) {
+							failures.add(exception);
+						}
+					} finally {
+						done.countDown();
+					}
+				}
+			}.start();
+		}
+		done.await();
+		return failures;
+	}
+}
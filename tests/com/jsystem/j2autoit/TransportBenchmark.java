@@ -0,0 +1,138 @@
+/*
+ * Copyright 2005-2010 Ignis Software Tools Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jsystem.j2autoit;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Measure the round trip of agent calls against a running agent: a short call (a system
+ * property read) and a call with a large map result (the agent statistics).<br>
+ * Usage: TransportBenchmark [host] [port] [calls per thread] [threads] [binary port]<br>
+ * The calls are made through a single pooled XML-RPC invoker, with a new XML-RPC connection
+ * for every call, and, when a binary port is given, through a binary invoker.
+ */
+public class TransportBenchmark {
+	private static final String PROPERTY = "java.version";
+
+	private enum Call {
+		PROPERTY,
+		STATISTICS;
+	}
+
+	public static void main(String[] args) throws Exception {
+		String host = args.length > 0 ? args[0] : "127.0.0.1";
+		int port = args.length > 1 ? Integer.parseInt(args[1]) : 8888;
+		int calls = args.length > 2 ? Integer.parseInt(args[2]) : 2000;
+		int threads = args.length > 3 ? Integer.parseInt(args[3]) : 4;
+		int binaryPort = args.length > 4 ? Integer.parseInt(args[4]) : 0;
+
+		runPooled("xmlrpc", new AutoItRemoteInvoker(host, port, null), calls, threads);
+		AutoItRemoteInvoker[] separate = new AutoItRemoteInvoker[threads];
+		for (int thread = 0; thread < threads; thread++) {
+			separate[thread] = new AutoItRemoteInvoker(host, port, null);
+		}
+		for (Call call : Call.values()) {
+			run("reconnect", call, separate, true, calls);
+		}
+		if (binaryPort > 0) {
+			runPooled("binary", new AutoItBinaryInvoker(host, binaryPort, null), calls, threads);
+		}
+	}
+
+	/**
+	 * Run all the calls from all the threads through one invoker
+	 */
+	private static void runPooled(String name, AutoItRemoteInvoker invoker, int calls, int threads) throws Exception {
+		invoker.setMaxConnections(threads);
+		AutoItRemoteInvoker[] shared = new AutoItRemoteInvoker[threads];
+		Arrays.fill(shared, invoker);
+		for (Call call : Call.values()) {
+			run("warmup", call, shared, false, Math.max(1, calls / 10));
+			run(name, call, shared, false, calls);
+		}
+		System.out.println(name + " open connections: " + invoker.getOpenConnections());
+		invoker.shutdown();
+	}
+
+	/**
+	 * @param invokers	The invoker of every thread
+	 * @param reconnect	true to close the connections of the invoker after every call
+	 */
+	private static void run(String name, final Call call, AutoItRemoteInvoker[] invokers, final boolean reconnect, final int calls) throws Exception {
+		final long[][] samples = new long[invokers.length][calls];
+		final List<Exception> failures = new ArrayList<Exception>();
+		final CountDownLatch done = new CountDownLatch(invokers.length);
+		long start = System.nanoTime();
+		for (int thread = 0; thread < invokers.length; thread++) {
+			final AutoItRemoteInvoker invoker = invokers[thread];
+			final long[] threadSamples = samples[thread];
+			new Thread(name + "-" + thread) {
+				@Override
+				public void run() {
+					try {
+						for (int index = 0; index < calls; index++) {
+							long callStart = System.nanoTime();
+							if (call == Call.PROPERTY) {
+								invoker.retrieveSystemProperty(PROPERTY);
+							} else {
+								invoker.getAgentStatistics();
+							}
+							threadSamples[index] = System.nanoTime() - callStart;
+							if (reconnect) {
+								invoker.shutdown();
+							}
+						}
+					} catch (Exception exception) {
+						synchronized (failures) {
+							failures.add(exception);
+						}
+					} finally {
+						done.countDown();
+					}
+				}
+			}.start();
+		}
+		done.await();
+		long elapsed = System.nanoTime() - start;
+		if (!failures.isEmpty()) {
+			throw failures.get(0);
+		}
+		report(name + "/" + call.name().toLowerCase(), samples, elapsed);
+	}
+
+	private static void report(String name, long[][] samples, long elapsedNanos) {
+		int count = 0;
+		for (long[] threadSamples : samples) {
+			count += threadSamples.length;
+		}
+		long[] all = new long[count];
+		int index = 0;
+		for (long[] threadSamples : samples) {
+			System.arraycopy(threadSamples, 0, all, index, threadSamples.length);
+			index += threadSamples.length;
+		}
+		Arrays.sort(all);
+		System.out.println(String.format("%-20s %8d calls %10.0f calls/s  p50 %6d us  p99 %6d us  max %6d us", name, count,
+				count * 1e9 / elapsedNanos, percentile(all, 0.5) / 1000, percentile(all, 0.99) / 1000, all[all.length - 1] / 1000));
+	}
+
+	private static long percentile(long[] sorted, double percentile) {
+		return sorted[Math.min(sorted.length - 1, (int) Math.ceil(percentile * sorted.length) - 1)];
+	}
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2005-2010 Ignis Software Tools Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jsystem.j2autoit.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.Hashtable;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.jsystem.j2autoit.AutoItConstants;
+
+/**
+ * Memoize query scripts and drop them when a write command touches their scope.
+ */
+public class QueryCacheTest {
+
+	private static final String WORK_DIR = "c:\\work";
+
+	private QueryCache cache;
+
+	@Before
+	public void createCache() {
+		cache = new QueryCache(100);
+		for (QueryCache.Family family : QueryCache.Family.values()) {
+			cache.setTimeToLive(family, 60000);
+		}
+	}
+
+	@Test
+	public void cachesOnlySingleQueryCalls() {
+		assertEquals(QueryCache.Family.ENV, cache.familyOf("EnvGet(\"TEMP\")"));
+		assertEquals(QueryCache.Family.REGISTRY, cache.familyOf(" RegRead(\"HKLM\\Software\\A\", \"Version\") "));
+		assertNull(cache.familyOf("EnvGet(\"TEMP\")\nEnvSet(\"TEMP\", \"x\")"));
+		assertNull(cache.familyOf("EnvGet(StringUpper(\"temp\"))"));
+		assertNull(cache.familyOf("WinExists(\"Untitled\")"));
+		cache.setTimeToLive(QueryCache.Family.ENV, 0);
+		assertNull(cache.familyOf("EnvGet(\"TEMP\")"));
+	}
+
+	@Test
+	public void writesInvalidateTheirScope() {
+		String temp = "EnvGet(\"TEMP\")";
+		String home = "EnvGet(\"HOME\")";
+		String version = "FileGetVersion(\"C:\\app\\bin\\app.exe\")";
+		cache.put(temp, WORK_DIR, result("c:\\temp"), cache.stamp());
+		cache.put(home, WORK_DIR, result("c:\\home"), cache.stamp());
+		cache.put(version, WORK_DIR, result("1.0"), cache.stamp());
+		assertEquals("c:\\temp", cache.get(temp, WORK_DIR).get(AutoItConstants.STDOUT));
+
+		cache.invalidateFor("EnvSet(\"TEMP\", \"d:\\temp\")");
+		assertNull(cache.get(temp, WORK_DIR));
+		assertNotNull(cache.get(home, WORK_DIR));
+
+		cache.invalidateFor("FileCopy(\"d:\\build\\*.exe\", \"C:\\App\\Bin\\\", 1)");
+		assertNull(cache.get(version, WORK_DIR));
+		assertNotNull(cache.get(home, WORK_DIR));
+
+		cache.invalidateFor("Run(\"setup.exe\")");
+		assertNull(cache.get(home, WORK_DIR));
+	}
+
+	@Test
+	public void keysResultsByWorkingDirectory() {
+		String version = "FileGetVersion(\"bin\\app.exe\")";
+		cache.put(version, WORK_DIR, result("1.0"), cache.stamp());
+		assertNull(cache.get(version, "d:\\other"));
+		assertNotNull(cache.get(version, WORK_DIR));
+
+		// A relative path is dropped by any file write
+		cache.invalidateFor("FileDelete(\"d:\\unrelated.txt\")");
+		assertNull(cache.get(version, WORK_DIR));
+		assertNull(cache.familyOf("FileGetSize(\"c:\\log.txt\")"));
+	}
+
+	@Test
+	public void matchesRegistryRootsByTheKeyTheyName() {
+		String read = "RegRead(\"HKLM\\Software\\App\", \"Version\")";
+		cache.put(read, WORK_DIR, result("1.0"), cache.stamp());
+		cache.invalidateFor("RegWrite(\"HKEY_CURRENT_USER\\Software\\App\", \"Version\", \"REG_SZ\", \"2.0\")");
+		assertNotNull(cache.get(read, WORK_DIR));
+		cache.invalidateFor("RegWrite(\"HKEY_LOCAL_MACHINE64\\Software\\App\", \"Version\", \"REG_SZ\", \"2.0\")");
+		assertNull(cache.get(read, WORK_DIR));
+		assertEquals("hklm\\software", QueryCache.canonicalKey("hkey_local_machine\\software"));
+		assertEquals("hkcu", QueryCache.canonicalKey("hkcu64"));
+	}
+
+	@Test
+	public void dropsResultsReadBeforeAWrite() {
+		String temp = "EnvGet(\"TEMP\")";
+		long stamp = cache.stamp();
+		cache.invalidateFor("EnvSet(\"PATH\", \"x\")");
+		cache.put(temp, WORK_DIR, result("stale"), stamp);
+		assertNull(cache.get(temp, WORK_DIR));
+		Map<String, Comparable<?>> statistics = new Hashtable<String, Comparable<?>>();
+		cache.fillStatistics(statistics, "queryCache");
+		assertEquals(1L, statistics.get("queryCache.env.misses"));
+	}
+
+	private static Map<String, Comparable<?>> result(String stdout) {
+		Map<String, Comparable<?>> result = new Hashtable<String, Comparable<?>>();
+		result.put(AutoItConstants.STDOUT, stdout);
+		result.put(AutoItConstants.RETURN, 0);
+		return result;
+	}
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright 2005-2010 Ignis Software Tools Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jsystem.j2autoit.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * Run every request id once while its reply is remembered.
+ */
+public class ReplyCacheTest {
+
+	@Test
+	public void repeatedRequestsGetTheFirstReply() throws Exception {
+		ReplyCache cache = new ReplyCache(2, 1000000, 60000);
+		AtomicInteger runs = new AtomicInteger();
+		assertEquals(1, cache.execute("a", counting(runs), 1000));
+		assertEquals(1, cache.execute("a", counting(runs), 1000));
+		assertEquals(2, cache.execute(null, counting(runs), 1000));
+		assertEquals(3, cache.execute("b", counting(runs), 1000));
+		assertEquals(4, cache.execute("c", counting(runs), 1000));
+		assertEquals(5, cache.execute("a", counting(runs), 1000));
+		assertEquals(1, cache.getHits());
+		assertEquals(2, cache.size());
+	}
+
+	@Test
+	public void runningRequestsAreNotEvicted() throws Exception {
+		final ReplyCache cache = new ReplyCache(1, 1000000, 60000);
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final AtomicInteger runs = new AtomicInteger();
+		Thread first = new Thread() {
+			@Override
+			public void run() {
+				try {
+					cache.execute("a", new Callable<Object>() {
+						@Override
+						public Object call() throws Exception {
+							started.countDown();
+							release.await();
+							return runs.incrementAndGet();
+						}
+					}, 1000);
+				} catch (Exception exception) {
+				}
+			}
+		};
+		first.start();
+		started.await();
+		assertEquals(1, cache.execute("b", counting(runs), 1000));
+		assertEquals(2, cache.execute("c", counting(runs), 1000));
+		assertEquals(1, cache.size());
+		release.countDown();
+		first.join();
+		assertEquals(3, cache.execute("a", counting(runs), 1000));
+		assertEquals(3, runs.get());
+		assertEquals(1, cache.getHits());
+	}
+
+	@Test
+	public void repliesAreBoundedBySize() throws Exception {
+		ReplyCache cache = new ReplyCache(100, 1000, 60000);
+		final StringBuilder large = new StringBuilder();
+		for (int index = 0; index < 300; index++) {
+			large.append('x');
+		}
+		AtomicInteger runs = new AtomicInteger();
+		for (String requestId : new String[] {"a", "b", "c"}) {
+			cache.execute(requestId, sized(runs, large.toString()), 1000);
+		}
+		assertEquals(1, cache.size());
+		cache.execute("c", sized(runs, large.toString()), 1000);
+		assertEquals(3, runs.get());
+		cache.execute("d", sized(runs, large.toString() + large + large + large), 1000);
+		assertEquals(1, cache.size());
+		cache.execute("d", sized(runs, ""), 1000);
+		assertEquals(5, runs.get());
+	}
+
+	private static Callable<Object> sized(final AtomicInteger runs, final String reply) {
+		return new Callable<Object>() {
+			@Override
+			public Object call() throws Exception {
+				runs.incrementAndGet();
+				return reply;
+			}
+		};
+	}
+
+	@Test
+	public void failuresAreNotRemembered() throws Exception {
+		ReplyCache cache = new ReplyCache(10, 1000000, 60000);
+		try {
+			cache.execute("a", new Callable<Object>() {
+				@Override
+				public Object call() throws Exception {
+					throw new Exception("busy");
+				}
+			}, 1000);
+		} catch (Exception exception) {
+			assertEquals("busy", exception.getMessage());
+		}
+		AtomicInteger runs = new AtomicInteger();
+		assertEquals(1, cache.execute("a", counting(runs), 1000));
+	}
+
+	@Test
+	public void repeatedRequestWaitsForTheRunningOne() throws Exception {
+		final ReplyCache cache = new ReplyCache(10, 1000000, 60000);
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final AtomicInteger runs = new AtomicInteger();
+		Thread first = new Thread() {
+			@Override
+			public void run() {
+				try {
+					cache.execute("a", new Callable<Object>() {
+						@Override
+						public Object call() throws Exception {
+							started.countDown();
+							release.await();
+							return runs.incrementAndGet();
+						}
+					}, 1000);
+				} catch (Exception exception) {
+				}
+			}
+		};
+		first.start();
+		started.await();
+		new Thread() {
+			@Override
+			public void run() {
+				try {
+					Thread.sleep(100);
+				} catch (InterruptedException exception) {
+				}
+				release.countDown();
+			}
+		}.start();
+		assertEquals(1, cache.execute("a", counting(runs), 5000));
+		assertEquals(1, runs.get());
+		assertEquals(1, cache.getJoins());
+		first.join();
+	}
+
+	@Test
+	public void repliesExpire() throws Exception {
+		ReplyCache cache = new ReplyCache(10, 1000000, 50);
+		AtomicInteger runs = new AtomicInteger();
+		cache.execute("a", counting(runs), 1000);
+		Thread.sleep(100);
+		assertEquals(2, cache.execute("a", counting(runs), 1000));
+		assertTrue(cache.getHits() == 0);
+	}
+
+	private static Callable<Object> counting(final AtomicInteger runs) {
+		return new Callable<Object>() {
+			@Override
+			public Object call() throws Exception {
+				return runs.incrementAndGet();
+			}
+		};
+	}
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2005-2010 Ignis Software Tools Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jsystem.j2autoit.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Reuse script files by content and keep files that are still running through eviction.
+ */
+public class ScriptFileCacheTest {
+
+	private File directory;
+	private ScriptFileCache cache;
+
+	@Before
+	public void createCache() throws Exception {
+		directory = File.createTempFile("scriptCache", "");
+		directory.delete();
+		cache = new ScriptFileCache(directory, 2);
+	}
+
+	@After
+	public void deleteDirectory() {
+		File[] files = directory.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+		directory.delete();
+	}
+
+	@Test
+	public void reusesTheFileOfAnIdenticalScript() throws Exception {
+		File first = cache.acquire("WinActivate(\"a\")");
+		cache.release(first);
+		File second = cache.acquire("WinActivate(\"a\")");
+		cache.release(second);
+		assertEquals(first, second);
+		assertTrue(second.exists());
+		assertEquals(1L, cache.getHits());
+		assertEquals(1L, cache.getMisses());
+		assertEquals(1, cache.size());
+	}
+
+	@Test
+	public void evictsTheLeastRecentlyUsedScript() throws Exception {
+		File a = cache.acquire("a");
+		cache.release(a);
+		File b = cache.acquire("b");
+		cache.release(b);
+		cache.release(cache.acquire("a"));
+		File c = cache.acquire("c");
+		cache.release(c);
+		assertEquals(2, cache.size());
+		assertEquals(1L, cache.getEvictions());
+		assertFalse(b.exists());
+		assertTrue(a.exists());
+		assertTrue(c.exists());
+	}
+
+	@Test
+	public void deletesAnEvictedFileOnlyWhenItsLastUserReleasesIt() throws Exception {
+		File running = cache.acquire("running");
+		cache.release(cache.acquire("b"));
+		cache.release(cache.acquire("c"));
+		assertEquals(1L, cache.getEvictions());
+		assertTrue(running.exists());
+		cache.release(running);
+		assertFalse(running.exists());
+	}
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2005-2010 Ignis Software Tools Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jsystem.j2autoit.history;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Temporary scripts go to reusable slots, overflow files are deleted once released.
+ */
+public class TempScriptManagerTest {
+
+	private File directory;
+	private TempScriptManager manager;
+
+	@Before
+	public void createManager() throws Exception {
+		directory = File.createTempFile("tempScripts", "");
+		directory.delete();
+		manager = new TempScriptManager(directory, 1);
+	}
+
+	@After
+	public void deleteDirectory() {
+		File[] files = directory.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+		directory.delete();
+	}
+
+	@Test
+	public void reusesASlotAndTruncatesItOnRelease() throws Exception {
+		File slot = manager.acquire("Sleep(1)");
+		assertEquals(1, manager.getLiveFiles());
+		assertEquals(8L, manager.getLiveBytes());
+		manager.release(slot);
+		assertTrue(slot.exists());
+		assertEquals(0L, slot.length());
+		assertEquals(0, manager.getLiveFiles());
+		assertEquals(0L, manager.getLiveBytes());
+		assertEquals(slot, manager.acquire("Sleep(2)"));
+		assertEquals(0L, manager.getOverflows());
+	}
+
+	@Test
+	public void deletesAnOverflowFileOnRelease() throws Exception {
+		File slot = manager.acquire("Sleep(1)");
+		File overflow = manager.acquire("Sleep(10)");
+		assertFalse(slot.equals(overflow));
+		assertEquals(1L, manager.getOverflows());
+		assertEquals(2, manager.getLiveFiles());
+		assertEquals(17L, manager.getLiveBytes());
+		manager.release(overflow);
+		assertFalse(overflow.exists());
+		manager.release(slot);
+		assertEquals(0, manager.getLiveFiles());
+		assertEquals(0L, manager.getLiveBytes());
+	}
+
+	@Test
+	public void removesStaleFilesOnStartup() throws Exception {
+		File stale = new File(directory, "autoit123.au3");
+		assertTrue(stale.createNewFile());
+		new TempScriptManager(directory, 1);
+		assertFalse(stale.exists());
+	}
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2005-2010 Ignis Software Tools Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jsystem.j2autoit.pool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.jsystem.j2autoit.CommandResult;
+import com.jsystem.j2autoit.process.ProcessTracker;
+
+/**
+ * Exercise the interpreter pool against a stub interpreter, so it can run on Linux
+ * without AutoIt. The stub speaks the worker host protocol and echoes the expression
+ * back, writes console output or errors when asked to, exits when asked to "crash" or
+ * blocks when asked to "hang".
+ */
+public class InterpreterPoolTest {
+
+	private static final String STUB =
+		"#!/bin/sh\n" +
+		"while IFS= read -r line; do\n" +
+		"  expression=\"${line#*\t}\"\n" +
+		"  if [ \"$expression\" = \"crash\" ]; then printf 'Error: fatal'; exit 1; fi\n" +
+		"  if [ \"$expression\" = \"hang\" ]; then while :; do :; done; fi\n" +
+		"  if [ \"$expression\" = \"noisy\" ]; then printf 'chatter'; fi\n" +
+		"  if [ \"$expression\" = \"warn\" ]; then printf 'oops' >&2; fi\n" +
+		"  printf '\\036J2W#0 %d\\n%s' \"${#expression}\" \"$expression\"\n" +
+		"  printf '\\036J2W\\n' >&2\n" +
+		"done\n";
+
+	private File stub;
+	private InterpreterPool pool;
+
+	@Before
+	public void createStub() throws Exception {
+		stub = File.createTempFile("autoitStub", ".sh");
+		FileWriter writer = new FileWriter(stub);
+		writer.write(STUB);
+		writer.close();
+		stub.setExecutable(true);
+		pool = new InterpreterPool(1, 3, stub.getParentFile());
+	}
+
+	@After
+	public void deleteStub() {
+		pool.shutdown();
+		stub.delete();
+	}
+
+	@Test
+	public void reusesWorkerAndRecyclesAfterMaxCommands() throws Exception {
+		for (int index = 0; index < 7; index++) {
+			CommandResult result = pool.execute("WinExists(\"" + index + "\")", "/tmp", stub.getAbsolutePath(), 5000, "job");
+			assertEquals("WinExists(\"" + index + "\")", result.getStdout());
+			assertEquals("", result.getStderr());
+			assertEquals(0, result.getReturnCode());
+		}
+		assertEquals(2, pool.getRecycledWorkers());
+	}
+
+	@Test
+	public void keepsConsoleOutputAndErrorsApart() throws Exception {
+		CommandResult result = pool.execute("noisy", "/tmp", stub.getAbsolutePath(), 5000, "job");
+		assertEquals("chatternoisy", result.getStdout());
+		assertEquals("", result.getStderr());
+		result = pool.execute("warn", "/tmp", stub.getAbsolutePath(), 5000, "job");
+		assertEquals("warn", result.getStdout());
+		assertEquals("oops", result.getStderr());
+		assertEquals(0, pool.getRecycledWorkers());
+	}
+
+	@Test
+	public void reportsCrashWithoutFallbackAndSkipsMultiLineScripts() throws Exception {
+		CommandResult crashed = pool.execute("crash", "/tmp", stub.getAbsolutePath(), 5000, "job");
+		assertEquals(-1, crashed.getReturnCode());
+		assertTrue(crashed.getStderr().contains("Error: fatal"));
+		assertNull(pool.execute("WinWait(\"a\")\nSend(\"b\")", "/tmp", stub.getAbsolutePath(), 5000, "job"));
+		assertEquals("Send(\"b\")", pool.execute("Send(\"b\")", "/tmp", stub.getAbsolutePath(), 5000, "job").getStdout());
+	}
+
+	@Test
+	public void leavesStateChangingCommandsOut() throws Exception {
+		for (String expression : new String[] {"Opt(\"WinTitleMatchMode\", 2)", "AutoItSetOption(\"SendKeyDelay\", 50)", "HotKeySet(\"{ESC}\", \"Quit\")",
+				"AdlibRegister(\"Poll\")", "Assign(\"x\", 1, 2)", "GUICreate(\"a\")", "WinActivate(\"a\") And opt (\"MouseCoordMode\", 0)"}) {
+			assertFalse(expression, InterpreterPool.isPoolable(expression));
+			assertNull(pool.execute(expression, "/tmp", stub.getAbsolutePath(), 5000, "job"));
+		}
+		assertTrue(InterpreterPool.isPoolable("WinGetTitle(\"[ACTIVE]\")"));
+		assertTrue(InterpreterPool.isPoolable("StringReplace(\"Options\", \"Opt\", \"x\")"));
+		assertEquals(0, pool.getLiveWorkers());
+	}
+
+	@Test
+	public void killingTheJobStopsItsWorker() throws Exception {
+		final ProcessTracker tracker = new ProcessTracker(1000);
+		pool.setProcessTracker(tracker);
+		try {
+			Thread killer = new Thread() {
+				@Override
+				public void run() {
+					try {
+						while (tracker.getTrackedCount() == 0) {
+							Thread.sleep(20);
+						}
+						Thread.sleep(200);
+					} catch (InterruptedException exception) {
+						return;
+					}
+					tracker.killOwner("hung");
+				}
+			};
+			killer.start();
+			long start = System.currentTimeMillis();
+			CommandResult result = pool.execute("hang", "/tmp", stub.getAbsolutePath(), 20000, "hung");
+			assertTrue(System.currentTimeMillis() - start < 10000);
+			assertEquals(-1, result.getReturnCode());
+			killer.join();
+			assertEquals(0, tracker.getTrackedCount());
+			assertEquals(0, pool.getLiveWorkers());
+			assertEquals("Send(\"b\")", pool.execute("Send(\"b\")", "/tmp", stub.getAbsolutePath(), 5000, "job").getStdout());
+			assertEquals(0, tracker.getTrackedCount());
+		} finally {
+			tracker.shutdown();
+		}
+	}
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2005-2010 Ignis Software Tools Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jsystem.j2autoit.process;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Hashtable;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * The snapshot is built on demand and the background refresh stops once the table is idle.
+ */
+public class ProcessTableTest {
+
+	private static final long REFRESH_MILLIS = 10;
+
+	private ProcessTable table;
+
+	@Before
+	public void createTable() {
+		table = new ProcessTable(REFRESH_MILLIS);
+	}
+
+	@After
+	public void shutdownTable() {
+		table.shutdown();
+	}
+
+	@Test
+	public void refreshesOnlyWhileQueried() throws Exception {
+		assertFalse(table.isRefreshing());
+		assertEquals(0L, refreshes());
+
+		String image = new File(ProcessHandle.current().info().command().get()).getName();
+		assertTrue(table.getPids(image).contains(ProcessHandle.current().pid()));
+		assertTrue(table.isRefreshing());
+
+		long deadline = System.currentTimeMillis() + 10000;
+		while (table.isRefreshing() && System.currentTimeMillis() < deadline) {
+			Thread.sleep(REFRESH_MILLIS);
+		}
+		assertFalse(table.isRefreshing());
+		long idleRefreshes = refreshes();
+		Thread.sleep(REFRESH_MILLIS * 10);
+		assertEquals(idleRefreshes, refreshes());
+
+		assertTrue(table.isRunning(image));
+		assertTrue(refreshes() > idleRefreshes);
+	}
+
+	private long refreshes() {
+		Map<String, Comparable<?>> statistics = new Hashtable<String, Comparable<?>>();
+		table.fillStatistics(statistics, "processTable");
+		return (Long) statistics.get("processTable.refreshes");
+	}
+}
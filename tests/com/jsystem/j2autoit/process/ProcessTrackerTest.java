@@ -0,0 +1,103 @@
+/*
+ * Copyright 2005-2010 Ignis Software Tools Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jsystem.j2autoit.process;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.jsystem.j2autoit.job.OutputBuffer;
+
+/**
+ * Kill tracked processes on Linux, using shell processes in place of AutoIt scripts.
+ * The stub ignores the graceful kill, so the forced kill has to follow.
+ */
+public class ProcessTrackerTest {
+
+	private static final long KILL_GRACE_MILLIS = 2000;
+
+	private ProcessTracker tracker;
+
+	@Before
+	public void createTracker() {
+		tracker = new ProcessTracker(KILL_GRACE_MILLIS);
+	}
+
+	@After
+	public void shutdownTracker() {
+		tracker.shutdown();
+	}
+
+	@Test
+	public void killJobReturnsImmediatelyAndEscalates() throws Exception {
+		final OutputBuffer stderr = new OutputBuffer();
+		final int[] exitCode = new int[] {0};
+		Thread runner = new Thread() {
+			@Override
+			public void run() {
+				try {
+					exitCode[0] = new ScriptRunner(tracker, null).execute(new String[] {"sh", "-c", "trap '' TERM; echo started; while true; do sleep 1; done"}, new File("/tmp"), 60000, new OutputBuffer(), stderr, "job1");
+				} catch (Exception exception) {
+					exitCode[0] = -2;
+				}
+			}
+		};
+		runner.start();
+		long deadline = System.currentTimeMillis() + 10000;
+		while (tracker.getTrackedCount() == 0 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(20);
+		}
+		assertEquals(1, tracker.getTrackedCount());
+		Thread.sleep(200);
+
+		// The kill must not wait for the grace period before the forced kill
+		long start = System.currentTimeMillis();
+		assertEquals(1, tracker.killOwner("job1"));
+		assertTrue(System.currentTimeMillis() - start < KILL_GRACE_MILLIS / 2);
+		assertEquals(0, tracker.killOwner("job2"));
+
+		runner.join(KILL_GRACE_MILLIS + 10000);
+		assertFalse(runner.isAlive());
+		assertTrue(tracker.getForcedKills() >= 1);
+		assertTrue(stderr.toString().contains("was killed"));
+		assertEquals(0, tracker.getTrackedCount());
+	}
+
+	@Test
+	public void reaperKillsOrphans() throws Exception {
+		Process process = new ProcessBuilder("sleep", "30").start();
+		ProcessTracker.TrackedProcess tracked = tracker.register(process, "job1");
+		tracker.release(tracked);
+		assertEquals(1, tracker.getTrackedCount());
+
+		tracker.reap();
+		process.waitFor();
+		tracker.reap();
+		assertEquals(0, tracker.getTrackedCount());
+		assertEquals(1, tracker.getReaped());
+	}
+
+	@Test
+	public void killUnknownPid() {
+		assertFalse(tracker.killPid(Long.MAX_VALUE));
+	}
+}
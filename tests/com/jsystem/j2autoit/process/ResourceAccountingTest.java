@@ -0,0 +1,92 @@
+/*
+ * Copyright 2005-2010 Ignis Software Tools Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jsystem.j2autoit.process;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.jsystem.j2autoit.AutoItConstants;
+import com.jsystem.j2autoit.job.OutputBuffer;
+
+/**
+ * Measure shell processes on Linux, where both the CPU time and the peak resident size are reported,
+ * and read the peak working set out of a WMIC answer as Windows gives it.
+ */
+public class ResourceAccountingTest {
+
+	@Test
+	public void measuresABusyProcess() throws Exception {
+		ResourceUsage usage = new ResourceUsage();
+		int exitCode = new ScriptRunner(null, null, 20).execute(new String[] {"sh", "-c", "i=0; while [ $i -lt 300000 ]; do i=$((i+1)); done"}, new File("/tmp"), 60000, new OutputBuffer(), new OutputBuffer(), "job1", usage);
+		assertEquals(0, exitCode);
+		assertTrue(usage.getSamples() > 1);
+		assertTrue(usage.getCpuMillis() > 0);
+		assertTrue(usage.getWallMillis() >= usage.getCpuMillis() / 2);
+		assertTrue(usage.getPeakMemoryBytes() > 0);
+
+		Map<String, Comparable<?>> result = new Hashtable<String, Comparable<?>>();
+		usage.fillResult(result);
+		assertEquals(usage.getCpuMillis(), result.get(AutoItConstants.CPU_MILLIS));
+		assertEquals(usage.getPeakMemoryBytes(), result.get(AutoItConstants.PEAK_MEMORY_BYTES));
+		assertEquals(usage.getWallMillis(), result.get(AutoItConstants.WALL_MILLIS));
+	}
+
+	@Test
+	public void readsTheWindowsPeakWorkingSet() {
+		assertEquals(5324L * 1024, ResourceUsage.parsePeakWorkingSet("\r\r\n\r\r\nPeakWorkingSetSize=5324\r\r\n\r\r\n\r\r\n"));
+		assertEquals(ResourceUsage.UNKNOWN, ResourceUsage.parsePeakWorkingSet("No Instance(s) Available.\r\r\n"));
+		assertEquals(ResourceUsage.UNKNOWN, ResourceUsage.parsePeakWorkingSet("PeakWorkingSetSize=\r\r\n"));
+	}
+
+	@Test
+	public void addsUpPerScriptAndListsTheMostExpensiveFirst() throws Exception {
+		ResourceAccounting accounting = new ResourceAccounting(2);
+		accounting.record("cheap", measured(10), 5);
+		accounting.record("costly", measured(200), 0);
+		accounting.record("cheap", measured(30), 5);
+		assertEquals(2, accounting.get("cheap").getRuns());
+		assertEquals(40, accounting.get("cheap").getCpuMillis());
+		assertEquals(10, accounting.get("cheap").getQueueMillis());
+
+		List<ResourceAccounting.Totals> top = accounting.top(5);
+		assertEquals("costly", top.get(0).getScriptHash());
+		assertEquals("cheap", top.get(1).getScriptHash());
+
+		accounting.record("new", measured(1), 0);
+		assertNull(accounting.get("costly"));
+
+		Map<String, Comparable<?>> statistics = new Hashtable<String, Comparable<?>>();
+		accounting.fillStatistics(statistics, "resources");
+		assertEquals(4L, statistics.get("resources.runs"));
+		assertEquals(1L, statistics.get("resources.evictions"));
+		assertEquals(40L, statistics.get("resources.script.cheap.cpuMillis"));
+	}
+
+	private static ResourceUsage measured(long cpuMillis) {
+		ResourceUsage usage = new ResourceUsage();
+		usage.setCpuMillis(cpuMillis);
+		usage.finish();
+		return usage;
+	}
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2005-2010 Ignis Software Tools Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jsystem.j2autoit.process;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.jsystem.j2autoit.job.OutputBuffer;
+
+/**
+ * Timer wheel accuracy with many concurrent timeouts, and script timeouts through the watchdog.
+ * A small wheel is used so deadlines span several wheel rounds.
+ */
+public class TimeoutWatchdogTest {
+
+	private TimeoutWatchdog watchdog;
+
+	@Before
+	public void createWatchdog() {
+		watchdog = new TimeoutWatchdog(10, 8);
+	}
+
+	@After
+	public void shutdownWatchdog() {
+		watchdog.shutdown();
+	}
+
+	@Test
+	public void firesOnTimeAndSkipsCancelled() throws Exception {
+		final AtomicInteger fired = new AtomicInteger();
+		Runnable task = new Runnable() {
+			@Override
+			public void run() {
+				fired.incrementAndGet();
+			}
+		};
+		TimeoutWatchdog.Timeout[] timeouts = new TimeoutWatchdog.Timeout[1000];
+		for (int index = 0; index < timeouts.length; index++) {
+			timeouts[index] = watchdog.schedule(20 + index % 300, task);
+		}
+		for (int index = 0; index < timeouts.length; index += 2) {
+			assertTrue(timeouts[index].cancel());
+		}
+		Thread.sleep(700);
+		assertEquals(500, fired.get());
+		assertEquals(500, watchdog.getExpired());
+		assertEquals(0, watchdog.getPending());
+		assertTrue(watchdog.getMaxLateness() <= 100);
+	}
+
+	@Test
+	public void killsScriptWhenDeadlinePasses() throws Exception {
+		ProcessTracker tracker = new ProcessTracker(200);
+		try {
+			OutputBuffer stderr = new OutputBuffer();
+			long start = System.currentTimeMillis();
+			new ScriptRunner(tracker, watchdog).execute(new String[] {"sleep", "30"}, new File("/tmp"), 300, new OutputBuffer(), stderr, "job1");
+			assertTrue(System.currentTimeMillis() - start < 3000);
+			assertTrue(stderr.toString().contains("Timeout of 300 milliseconds expired"));
+			assertEquals(1, watchdog.getExpired());
+		} finally {
+			tracker.shutdown();
+		}
+	}
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright 2005-2010 Ignis Software Tools Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jsystem.j2autoit.scheduler;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Split scripts between the GUI lane and the parallel lane.
+ */
+public class CommandClassifierTest {
+
+	@Test
+	public void sendsDesktopCommandsToTheGuiLane() {
+		for (String script : new String[] {"WinActivate(\"Untitled\")", "ControlClick(\"a\", \"\", \"Button1\")", "Send(\"{ENTER}\")",
+				"FileExists(\"c:\\\\a.txt\") And MouseClick(\"left\")", "$x", "", null}) {
+			assertTrue(String.valueOf(script), CommandClassifier.isGuiCommand(script));
+		}
+	}
+
+	@Test
+	public void sendsQueriesAndFileWorkToTheParallelLane() {
+		for (String script : new String[] {"FileExists(\"c:\\\\a.txt\")", "regRead(\"HKLM\\\\Software\\\\a\", \"b\")",
+				"StringLen(EnvGet(\"PATH\"))", "ProcessExists ( \"notepad.exe\" )", "Sleep(100)\nConsoleWrite(IniRead(\"a.ini\", \"s\", \"k\", \"\"))"}) {
+			assertFalse(script, CommandClassifier.isGuiCommand(script));
+		}
+	}
+
+	@Test
+	public void ignoresCallsInsideStrings() {
+		assertFalse(CommandClassifier.isGuiCommand("ConsoleWrite(\"WinActivate(\"\"a\"\")\")"));
+		assertFalse(CommandClassifier.isGuiCommand("FileWrite('a.au3', 'Send(\"x\")')"));
+		assertTrue(CommandClassifier.isGuiCommand("ConsoleWrite(\"a\") & WinGetTitle(\"[ACTIVE]\")"));
+	}
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2005-2010 Ignis Software Tools Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jsystem.j2autoit.scheduler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Queue order of a single worker lane: priority first, and lower classes promoted once
+ * they waited longer than the aging time.
+ */
+public class ExecutionLaneTest {
+	private static final long AGING_MILLIS = 100;
+
+	private ExecutionLane lane;
+	private CountDownLatch started;
+	private CountDownLatch release;
+	private List<String> order;
+
+	@Before
+	public void blockTheWorker() throws Exception {
+		lane = new ExecutionLane("testLane", 1, AGING_MILLIS);
+		started = new CountDownLatch(1);
+		release = new CountDownLatch(1);
+		order = new ArrayList<String>();
+		lane.submit(new Callable<Void>() {
+			@Override
+			public Void call() throws Exception {
+				started.countDown();
+				release.await();
+				return null;
+			}
+		});
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+	}
+
+	@After
+	public void shutdown() {
+		release.countDown();
+		lane.shutdown();
+	}
+
+	@Test
+	public void runsHigherPrioritiesFirst() throws Exception {
+		Future<?> last = lane.submit(record("bulk"), Priority.BULK);
+		lane.submit(record("normal"), Priority.NORMAL);
+		lane.submit(record("interactive 1"), Priority.INTERACTIVE);
+		lane.submit(record("interactive 2"), Priority.INTERACTIVE);
+		assertEquals(4, lane.getQueueDepth());
+		release.countDown();
+		last.get(5, TimeUnit.SECONDS);
+		assertEquals(Arrays.asList("interactive 1", "interactive 2", "normal", "bulk"), order);
+		assertEquals(0, lane.getQueueDepth());
+	}
+
+	@Test
+	public void promotesBulkWorkAfterTheAgingTime() throws Exception {
+		lane.submit(record("bulk"), Priority.BULK);
+		Thread.sleep(2 * AGING_MILLIS + 50);
+		Future<?> last = lane.submit(record("normal"), Priority.NORMAL);
+		lane.submit(record("interactive"), Priority.INTERACTIVE);
+		release.countDown();
+		last.get(5, TimeUnit.SECONDS);
+		assertEquals(Arrays.asList("bulk", "interactive", "normal"), order);
+	}
+
+	@Test
+	public void cancelledWorkLeavesTheQueue() throws Exception {
+		final CountDownLatch done = new CountDownLatch(1);
+		Future<?> cancelled = lane.submit(record("cancelled"), Priority.NORMAL, new Runnable() {
+			@Override
+			public void run() {
+				done.countDown();
+			}
+		});
+		assertEquals(1, lane.getQueueDepth());
+		assertTrue(cancelled.cancel(false));
+		assertTrue(done.await(0, TimeUnit.MILLISECONDS));
+		assertEquals(0, lane.getQueueDepth());
+		Future<?> next = lane.submit(record("next"), Priority.NORMAL);
+		release.countDown();
+		next.get(5, TimeUnit.SECONDS);
+		assertEquals(Arrays.asList("next"), order);
+
+		Map<String, Comparable<?>> statistics = new Hashtable<String, Comparable<?>>();
+		lane.fillStatistics(statistics);
+		assertEquals(0, statistics.get("testLane.queueDepth"));
+		assertEquals(2L, statistics.get("testLane.started"));
+	}
+
+	private Callable<Void> record(final String name) {
+		return new Callable<Void>() {
+			@Override
+			public Void call() {
+				synchronized (order) {
+					order.add(name);
+				}
+				return null;
+			}
+		};
+	}
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright 2005-2010 Ignis Software Tools Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jsystem.j2autoit.scheduler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.jsystem.j2autoit.job.Job;
+import com.jsystem.j2autoit.job.RequestContext;
+import com.jsystem.j2autoit.job.ResultShape;
+
+/**
+ * Lane selection, admission control and the release of the admitted places.
+ */
+public class ExecutionSchedulerTest {
+
+	private ExecutionScheduler scheduler;
+	private final CountDownLatch release = new CountDownLatch(1);
+
+	@After
+	public void shutdown() {
+		release.countDown();
+		if (scheduler != null) {
+			scheduler.shutdown();
+		}
+	}
+
+	@Test
+	public void runsGuiWorkOneAtATime() throws Exception {
+		scheduler = new ExecutionScheduler(4, 1000);
+		final AtomicInteger running = new AtomicInteger(0);
+		final AtomicInteger maxRunning = new AtomicInteger(0);
+		List<Future<Void>> futures = new ArrayList<Future<Void>>();
+		for (int index = 0; index < 4; index++) {
+			futures.add(scheduler.submit(true, new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					int now = running.incrementAndGet();
+					synchronized (maxRunning) {
+						maxRunning.set(Math.max(maxRunning.get(), now));
+					}
+					Thread.sleep(50);
+					running.decrementAndGet();
+					return null;
+				}
+			}));
+		}
+		for (Future<Void> future : futures) {
+			future.get(5, TimeUnit.SECONDS);
+		}
+		assertEquals(1, maxRunning.get());
+	}
+
+	@Test
+	public void runsQueriesInParallel() throws Exception {
+		scheduler = new ExecutionScheduler(3, 1000);
+		final CountDownLatch together = new CountDownLatch(3);
+		List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>();
+		for (int index = 0; index < 3; index++) {
+			futures.add(scheduler.submit(false, new Callable<Boolean>() {
+				@Override
+				public Boolean call() throws Exception {
+					together.countDown();
+					return together.await(5, TimeUnit.SECONDS);
+				}
+			}));
+		}
+		for (Future<Boolean> future : futures) {
+			assertTrue(future.get(10, TimeUnit.SECONDS));
+		}
+	}
+
+	@Test
+	public void rejectsWorkBeyondTheInFlightLimit() throws Exception {
+		scheduler = new ExecutionScheduler(1, 1000, 2, 0);
+		blockGuiLane();
+		scheduler.submit(true, sleep(0));
+		try {
+			scheduler.submit(false, sleep(0));
+			fail("Third task was admitted");
+		} catch (AgentBusyException exception) {
+			assertTrue(exception.getRetryAfter() >= 100 && exception.getRetryAfter() <= 10000);
+			assertTrue(exception.getMessage().contains("2 jobs in flight"));
+			assertEquals(exception.getRetryAfter(), AgentBusyException.retryAfterOf(exception.getFaultCode()));
+		}
+		assertEquals(-1, AgentBusyException.retryAfterOf(0));
+		assertEquals(1L, statistics().get("admission.rejected"));
+	}
+
+	@Test
+	public void rejectsWorkBeyondTheQueueLimitOfItsLane() throws Exception {
+		scheduler = new ExecutionScheduler(1, 1000, 0, 1);
+		blockGuiLane();
+		scheduler.submit(true, sleep(0));
+		try {
+			scheduler.submit(true, sleep(0));
+			fail("Second queued GUI task was admitted");
+		} catch (AgentBusyException exception) {
+			assertTrue(exception.getMessage().contains("guiLane"));
+		}
+		assertTrue(scheduler.execute(false, sleep(0)));
+	}
+
+	@Test
+	public void hintsTheTimeTheLaneNeedsToDrain() throws Exception {
+		scheduler = new ExecutionScheduler(1, 1000, 1, 0);
+		for (int index = 0; index < 3; index++) {
+			scheduler.execute(true, sleep(300));
+		}
+		blockGuiLane();
+		try {
+			scheduler.submit(true, sleep(0));
+			fail("Second task was admitted");
+		} catch (AgentBusyException exception) {
+			// One average run for the blocked task
+			assertTrue(String.valueOf(exception.getRetryAfter()), exception.getRetryAfter() >= 250 && exception.getRetryAfter() < 2000);
+		}
+	}
+
+	@Test
+	public void releasesThePlaceOfACancelledJobAtOnce() throws Exception {
+		scheduler = new ExecutionScheduler(1, 1000, 2, 0);
+		blockGuiLane();
+		Job job = new Job(result());
+		job.setFuture(scheduler.submit(true, Priority.NORMAL, job));
+		assertEquals(2, statistics().get("admission.inFlight"));
+		assertTrue(job.cancel());
+		assertEquals(Job.Status.CANCELLED, job.getStatus());
+		assertEquals(1, statistics().get("admission.inFlight"));
+		assertEquals(0, statistics().get("guiLane.queueDepth"));
+		scheduler.submit(true, sleep(0));
+	}
+
+	@Test
+	public void releasesThePlaceOfAnExpiredJob() throws Exception {
+		scheduler = new ExecutionScheduler(1, 1000, 2, 0);
+		blockGuiLane();
+		Job job = new Job(result());
+		job.setRequest(new RequestContext("request", System.currentTimeMillis() + 50, null, ResultShape.FULL, true));
+		job.setFuture(scheduler.submit(true, Priority.NORMAL, job));
+		Thread.sleep(100);
+		release.countDown();
+		assertTrue(job.await(5000));
+		assertEquals(Job.Status.EXPIRED, job.getStatus());
+		scheduler.execute(true, sleep(0));
+		assertEquals(0, statistics().get("admission.inFlight"));
+	}
+
+	/**
+	 * Occupy the single GUI worker until the test ends
+	 */
+	private void blockGuiLane() throws Exception {
+		final CountDownLatch started = new CountDownLatch(1);
+		scheduler.submit(true, new Callable<Void>() {
+			@Override
+			public Void call() throws Exception {
+				started.countDown();
+				release.await();
+				return null;
+			}
+		});
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+	}
+
+	private Map<String, Comparable<?>> statistics() {
+		Map<String, Comparable<?>> statistics = new Hashtable<String, Comparable<?>>();
+		scheduler.fillStatistics(statistics);
+		return statistics;
+	}
+
+	private static Callable<Boolean> sleep(final long millis) {
+		return new Callable<Boolean>() {
+			@Override
+			public Boolean call() throws Exception {
+				Thread.sleep(millis);
+				return true;
+			}
+		};
+	}
+
+	private static Callable<Map<String, Comparable<?>>> result() {
+		return new Callable<Map<String, Comparable<?>>>() {
+			@Override
+			public Map<String, Comparable<?>> call() {
+				return new Hashtable<String, Comparable<?>>();
+			}
+		};
+	}
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2005-2010 Ignis Software Tools Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jsystem.j2autoit.scheduler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+
+import org.junit.Test;
+
+/**
+ * Learn timeouts from recorded latencies and keep them across runs.
+ */
+public class TimeoutProfileTest {
+
+	@Test
+	public void learnsFromTheFamilyHistory() {
+		TimeoutProfile profile = new TimeoutProfile(3.0, 2000, 60000);
+		assertEquals("controlclick", TimeoutProfile.familyOf("  ControlClick(\"Untitled\", \"\", \"Button1\")"));
+		assertEquals(TimeoutProfile.DEFAULT_FAMILY, TimeoutProfile.familyOf("\"text\""));
+
+		for (int index = 0; index < 19; index++) {
+			profile.record("wingettext", 10000);
+		}
+		assertEquals(30000, profile.timeoutFor("wingettext", 30000));
+		profile.record("wingettext", 15000);
+		assertEquals(45000, profile.timeoutFor("wingettext", 30000));
+
+		for (int index = 0; index < 20; index++) {
+			profile.record("send", 10);
+			profile.record("run", 50000);
+		}
+		assertEquals(2000, profile.timeoutFor("send", 30000));
+		assertEquals(1000, profile.timeoutFor("send", 1000));
+		assertEquals(60000, profile.timeoutFor("run", 30000));
+		assertEquals(60000, profile.timeoutFor("run", 90000));
+		assertEquals(30000, profile.timeoutFor("controlclick", 30000));
+
+		for (int index = 0; index < 20; index++) {
+			profile.record("wingettitle", 1000);
+		}
+		assertEquals(3000, profile.timeoutFor("wingettitle", 30000));
+		profile.setFloorMillis(5000);
+		assertEquals(5000, profile.timeoutFor("wingettitle", 30000));
+	}
+
+	@Test
+	public void leavesWaitsOut() {
+		TimeoutProfile profile = new TimeoutProfile(3.0, 2000, 60000);
+		for (String script : new String[] {"WinWait(\"Untitled\", \"\", 5)", "winWaitActive(\"a\")", "ProcessWaitClose(\"notepad.exe\")", "Sleep(500)", "ControlClick(\"a\", \"\", \"b\") And WinWait(\"c\")"}) {
+			assertNull(TimeoutProfile.familyOf(script));
+		}
+		for (int index = 0; index < 20; index++) {
+			profile.record(TimeoutProfile.familyOf("Sleep(10)"), 10);
+		}
+		assertEquals(30000, profile.timeoutFor(TimeoutProfile.familyOf("Sleep(10)"), 30000));
+	}
+
+	@Test
+	public void keepsTheHistoryAcrossRuns() throws Exception {
+		File file = File.createTempFile("timeouts", ".properties");
+		try {
+			TimeoutProfile profile = new TimeoutProfile(2.0, 2000, 60000);
+			for (int index = 0; index < 25; index++) {
+				profile.record("wingettext", 20000 + index);
+			}
+			profile.save(file);
+
+			TimeoutProfile next = new TimeoutProfile(2.0, 2000, 60000);
+			next.load(file);
+			assertEquals(profile.timeoutFor("wingettext", 30000), next.timeoutFor("wingettext", 30000));
+			assertEquals(40048, next.timeoutFor("wingettext", 30000));
+		} finally {
+			file.delete();
+		}
+	}
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2005-2010 Ignis Software Tools Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jsystem.j2autoit.script;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.jsystem.j2autoit.script.ProcedureRegistry.Procedure;
+
+/**
+ * Keep the file of a replaced procedure while it runs, and pass the arguments through a file.
+ */
+public class ProcedureRegistryTest {
+
+	private File directory;
+	private ProcedureRegistry registry;
+
+	@Before
+	public void createRegistry() throws Exception {
+		directory = File.createTempFile("procedures", "");
+		directory.delete();
+		registry = new ProcedureRegistry(directory);
+	}
+
+	@After
+	public void deleteDirectory() {
+		File[] files = directory.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+		directory.delete();
+	}
+
+	@Test
+	public void keepsAReplacedVersionUntilItsLastInvocationEnds() throws Exception {
+		registry.register("greet", "ConsoleWrite($who)", Arrays.asList("who"));
+		Procedure running = registry.acquire("greet");
+		registry.register("greet", "MsgBox(0, \"\", $who)", Arrays.asList("$who"));
+		Procedure current = registry.acquire("greet");
+		assertFalse(running.getFile().equals(current.getFile()));
+		assertTrue(running.getFile().exists());
+		registry.release(running);
+		assertFalse(running.getFile().exists());
+
+		// Going back to the first body writes a new file, the released one stays deleted
+		registry.register("greet", "ConsoleWrite($who)", Arrays.asList("who"));
+		assertTrue(current.getFile().exists());
+		registry.release(current);
+		assertFalse(current.getFile().exists());
+		Procedure first = registry.acquire("greet");
+		assertTrue(first.getFile().exists());
+		registry.release(first);
+		assertTrue(first.getFile().exists());
+		assertEquals(3L, registry.getInvocations());
+	}
+
+	@Test
+	public void writesTheArgumentsHexEncodedOnePerLine() throws Exception {
+		registry.register("type", "Send($text & $more)", Arrays.asList("text", "more"));
+		Procedure procedure = registry.acquire("type");
+		File arguments = registry.writeArguments(procedure, Arrays.<Object>asList("a\u00e9", ""));
+		assertEquals("x61c3a9\nx\n", new String(Files.readAllBytes(arguments.toPath()), "US-ASCII"));
+		try {
+			registry.writeArguments(procedure, Collections.<Object>singletonList("a"));
+			fail("Wrote the wrong number of arguments");
+		} catch (Exception exception) {
+			assertTrue(exception.getMessage().contains("expects 2 arguments"));
+		}
+	}
+
+	@Test
+	public void unknownProcedureIsReportedByType() throws Exception {
+		try {
+			registry.acquire("missing");
+			fail("Acquired an unknown procedure");
+		} catch (UnknownProcedureException exception) {
+		}
+	}
+}
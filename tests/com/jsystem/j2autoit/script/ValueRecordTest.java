@@ -0,0 +1,137 @@
+/*
+ * Copyright 2005-2010 Ignis Software Tools Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jsystem.j2autoit.script;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.jsystem.j2autoit.job.OutputBuffer;
+
+/**
+ * Decode records as the wrapper writes them.
+ */
+public class ValueRecordTest {
+
+	@Test
+	public void decodesScalarsAndCodes() {
+		ValueRecord record = ValueRecord.decode(ValueRecord.MARKER + "e1:0x2:12i4:1234");
+		assertEquals(0, record.getError());
+		assertEquals(12, record.getExtended());
+		assertEquals(1234, record.asInt());
+
+		assertEquals("a:b\n", ValueRecord.decode(ValueRecord.MARKER + "e1:1x1:0s4:a:b\n").asString());
+		assertEquals(Boolean.TRUE, ValueRecord.decode(ValueRecord.MARKER + "e1:0x1:0b1:1").getValue());
+		assertEquals(1.5, (Double) ValueRecord.decode(ValueRecord.MARKER + "e1:0x1:0d3:1.5").getValue(), 0);
+		assertArrayEquals(new byte[] {0x0A, (byte) 0xFF}, (byte[]) ValueRecord.decode(ValueRecord.MARKER + "e1:0x1:0y4:0AFF").getValue());
+		assertNull(ValueRecord.decode(ValueRecord.MARKER + "e1:0x1:0n0:").getValue());
+		assertEquals(5000000000L, ValueRecord.decode(ValueRecord.MARKER + "e1:0x1:0i10:5000000000").asLong());
+	}
+
+	@Test
+	public void decodesArrays() {
+		ValueRecord record = ValueRecord.decode(ValueRecord.MARKER + "e1:0x1:0a4:i2:10i2:20i3:300i1:4");
+		assertTrue(record.isArray());
+		assertEquals(Arrays.asList("10", "20", "300", "4"), record.asStrings());
+		assertEquals("", record.asString());
+
+		List<?> rows = (List<?>) ValueRecord.decode(ValueRecord.MARKER + "e1:0x1:0a2:a2:s1:ai1:1a2:s1:bi1:2").getValue();
+		assertEquals(Arrays.asList("b", 2), rows.get(1));
+	}
+
+	@Test
+	public void floatsPrintAsAutoItPrintsThem() {
+		ValueRecord record = ValueRecord.decode(ValueRecord.MARKER + "e1:0x1:0d1:5");
+		assertEquals("5", record.asString());
+		assertEquals(5.0, (Double) record.getValue(), 0);
+		assertEquals(5, record.asInt());
+		assertEquals("1e+020", ValueRecord.decode(ValueRecord.MARKER + "e1:0x1:0d6:1e+020").asString());
+		assertEquals(Arrays.asList("2.5", "7", ""), ValueRecord.decode(ValueRecord.MARKER + "e1:0x1:0a3:d3:2.5i1:7a0:").asStrings());
+
+		OutputBuffer stdout = new OutputBuffer();
+		stdout.append("x" + ValueRecord.MARKER + "e1:0x1:0d1:5");
+		ValueRecord.cut(stdout);
+		assertEquals("x5", stdout.toString());
+	}
+
+	@Test
+	public void cutsValuesLargerThanTheSummaryWhole() throws Exception {
+		File spillFile = File.createTempFile("valueRecord", ".stdout");
+		try {
+			for (int memoryLimit : new int[] {1000000, 100}) {
+				OutputBuffer stdout = new OutputBuffer(memoryLimit, 100, spillFile);
+				String value = bigValue(80);
+				stdout.append("written by the script\n");
+				stdout.append(ValueRecord.MARKER + "e1:0x1:0s" + value.length() + ":" + value);
+				String record = ValueRecord.cut(stdout);
+				assertEquals(value, ValueRecord.decode(record).asString());
+				assertEquals("written by the script\n" + value, stdout.toString());
+				assertFalse(stdout.summary().contains(ValueRecord.MARKER));
+				stdout.dispose();
+			}
+			OutputBuffer stdout = new OutputBuffer(100, 100, spillFile);
+			String value = bigValue(500);
+			stdout.append(bigValue(300));
+			stdout.append(ValueRecord.MARKER + "e1:0x1:0s" + value.length() + ":" + value);
+			assertTrue(stdout.isSpilled());
+			assertEquals(value, ValueRecord.decode(ValueRecord.cut(stdout)).asString());
+			assertEquals(bigValue(300) + value, stdout.toString());
+			assertEquals(800, stdout.length());
+			stdout.dispose();
+		} finally {
+			spillFile.delete();
+		}
+		assertNull(ValueRecord.cut(new OutputBuffer()));
+	}
+
+	private static String bigValue(int length) {
+		StringBuilder value = new StringBuilder();
+		for (int index = 0; index < length; index++) {
+			value.append((char) ('a' + index % 26));
+		}
+		return value.toString();
+	}
+
+	@Test
+	public void findsTheRecordAfterTheOutput() {
+		String stdout = "written by the script\n" + ValueRecord.MARKER + "e1:0x1:0s2:ok";
+		int start = ValueRecord.indexOf(stdout);
+		assertEquals("written by the script\n", stdout.substring(0, start));
+		assertEquals("ok", ValueRecord.decode(stdout.substring(start)).asString());
+		assertEquals(-1, ValueRecord.indexOf("no record"));
+	}
+
+	@Test
+	public void rejectsMalformedRecords() {
+		for (String record : new String[] {"e1:0x1:0s1:a", ValueRecord.MARKER + "e1:0x1:0s5:abc", ValueRecord.MARKER + "e1:0x1:0s1:ab", ValueRecord.MARKER + "e1:0x1:0q1:a", ValueRecord.MARKER + "s1:0x1:0s1:a"}) {
+			try {
+				ValueRecord.decode(record);
+				fail("Decoded " + record);
+			} catch (IllegalArgumentException exception) {
+			}
+		}
+		assertFalse(ValueRecord.decode(ValueRecord.MARKER + "e1:0x1:0s1:a").isArray());
+	}
+}
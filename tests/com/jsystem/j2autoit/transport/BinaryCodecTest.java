@@ -0,0 +1,115 @@
+/*
+ * Copyright 2005-2010 Ignis Software Tools Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jsystem.j2autoit.transport;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Hashtable;
+import java.util.Map;
+import java.util.Vector;
+
+import org.apache.xmlrpc.XmlRpcException;
+import org.junit.Test;
+
+import com.jsystem.j2autoit.scheduler.AgentBusyException;
+
+/**
+ * Encode values the way XML-RPC decodes them, and reject malformed payloads.
+ */
+public class BinaryCodecTest {
+
+	@Test
+	public void roundTripsResultsAsXmlRpcDecodesThem() throws Exception {
+		Hashtable<String, Object> result = new Hashtable<String, Object>();
+		result.put("STDOUT", "h\u00e9llo");
+		result.put("exitCode", 3);
+		result.put("cpuMillis", 12345678901L);
+		result.put("ratio", 0.5);
+		result.put("cached", Boolean.TRUE);
+		result.put("when", new Date(1000));
+		result.put("bytes", new byte[] { 1, 2 });
+		Vector<Object> params = new Vector<Object>(Arrays.<Object>asList("a", null, new long[] { 7 }));
+
+		Object[] decoded = (Object[]) BinaryCodec.decode(payload(BinaryCodec.request(result, "runScript", new Object[] { params })));
+		Map<?, ?> map = (Map<?, ?>) decoded[0];
+		assertEquals("h\u00e9llo", map.get("STDOUT"));
+		assertEquals(3, map.get("exitCode"));
+		assertEquals(12345678901L, map.get("cpuMillis"));
+		assertEquals(0.5, (Double) map.get("ratio"), 0);
+		assertEquals(Boolean.TRUE, map.get("cached"));
+		assertEquals(new Date(1000), map.get("when"));
+		assertArrayEquals(new byte[] { 1, 2 }, (byte[]) map.get("bytes"));
+		assertEquals("runScript", decoded[1]);
+		Object[] list = (Object[]) ((Object[]) decoded[2])[0];
+		assertEquals("a", list[0]);
+		assertNull(list[1]);
+		assertEquals(7L, ((Object[]) list[2])[0]);
+	}
+
+	@Test
+	public void framesCarryTheirLengthAndCallId() throws Exception {
+		ByteBuffer frame = BinaryCodec.frame(42, "x");
+		assertEquals(frame.remaining() - BinaryCodec.HEADER_SIZE, frame.getInt(0));
+		assertEquals(42, frame.getInt(4));
+	}
+
+	@Test
+	public void errorsCarryTheFaultCode() throws Exception {
+		AgentBusyException busy = new AgentBusyException("queue full", 750);
+		Object[] reply = (Object[]) BinaryCodec.decode(payload(BinaryCodec.error(new XmlRpcException(busy.getFaultCode(), busy.getMessage()))));
+		assertEquals(Boolean.FALSE, reply[0]);
+		assertEquals(busy.getMessage(), reply[1]);
+		assertEquals(750L, AgentBusyException.retryAfterOf((Integer) reply[2]));
+		reply = (Object[]) BinaryCodec.decode(payload(BinaryCodec.error(new Exception("failed"))));
+		assertEquals(-1L, AgentBusyException.retryAfterOf((Integer) reply[2]));
+	}
+
+	@Test
+	public void rejectsMalformedPayloads() throws Exception {
+		byte[] valid = payload("text");
+		assertMalformed(Arrays.copyOf(valid, valid.length - 1));
+		assertMalformed(Arrays.copyOf(valid, valid.length + 1));
+		assertMalformed(new byte[] { 'A', 0x7f, 0, 0, 0 });
+		assertMalformed(new byte[] { '?' });
+		try {
+			BinaryCodec.frame(1, new Object());
+			fail("Encoded an unsupported type");
+		} catch (IOException exception) {
+			assertTrue(exception.getMessage().contains("java.lang.Object"));
+		}
+	}
+
+	private static byte[] payload(Object value) throws IOException {
+		ByteBuffer frame = BinaryCodec.frame(1, value);
+		return Arrays.copyOfRange(frame.array(), BinaryCodec.HEADER_SIZE, frame.limit());
+	}
+
+	private static void assertMalformed(byte[] payload) {
+		try {
+			BinaryCodec.decode(payload);
+			fail("Decoded a malformed payload");
+		} catch (IOException exception) {
+		}
+	}
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2005-2010 Ignis Software Tools Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jsystem.j2autoit.transport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.jsystem.j2autoit.scheduler.AgentBusyException;
+
+/**
+ * Call a binary server through the client connection pool.
+ */
+public class BinaryServerTest {
+	private static final BinaryServer.Handler HANDLER = new BinaryServer.Handler() {
+		@Override
+		public Object handle(Map<String, Object> envelope, String method, Object[] params) throws Exception {
+			if (method.equals("fail")) {
+				throw new Exception("failed " + envelope.get("requestId"));
+			}
+			if (method.equals("sleep")) {
+				Thread.sleep(((Number) params[0]).longValue());
+			}
+			return method + params.length;
+		}
+	};
+
+	private BinaryServer server;
+	private BinaryConnectionPool pool;
+
+	@Before
+	public void start() throws Exception {
+		server = new BinaryServer(InetAddress.getByName("127.0.0.1"), 0, 4, 16, HANDLER);
+		server.start();
+		pool = new BinaryConnectionPool(server.getAddress().getHostAddress(), server.getPort(), 2, 30000);
+	}
+
+	@After
+	public void stop() {
+		pool.shutdown();
+		server.shutdown();
+	}
+
+	@Test
+	public void repliesAndErrorsReachTheCaller() throws Exception {
+		Hashtable<String, Object> envelope = new Hashtable<String, Object>();
+		envelope.put("requestId", "r1");
+		Object[] reply = (Object[]) pool.call(BinaryCodec.request(envelope, "echo", new Object[] { 1, "two" }), 5000);
+		assertEquals(Boolean.TRUE, reply[0]);
+		assertEquals("echo2", reply[1]);
+		reply = (Object[]) pool.call(BinaryCodec.request(envelope, "fail", new Object[0]), 5000);
+		assertEquals(Boolean.FALSE, reply[0]);
+		assertEquals("failed r1", reply[1]);
+		assertEquals(1, pool.getOpenConnections());
+		Map<String, Comparable<?>> statistics = new Hashtable<String, Comparable<?>>();
+		server.fillStatistics(statistics, "binary");
+		assertEquals(2L, statistics.get("binary.requests"));
+		assertEquals(1L, statistics.get("binary.failures"));
+		assertEquals(1L, statistics.get("binary.accepted"));
+	}
+
+	@Test
+	public void concurrentCallsShareTheLimitedConnections() throws Exception {
+		final List<Object> replies = new ArrayList<Object>();
+		final CountDownLatch done = new CountDownLatch(6);
+		long start = System.currentTimeMillis();
+		for (int thread = 0; thread < 6; thread++) {
+			new Thread() {
+				@Override
+				public void run() {
+					try {
+						Object[] reply = (Object[]) pool.call(BinaryCodec.request(new Hashtable<String, Object>(), "sleep", new Object[] { 200 }), 5000);
+						synchronized (replies) {
+							replies.add(reply[1]);
+						}
+					} catch (Exception exception) {
+					} finally {
+						done.countDown();
+					}
+				}
+			}.start();
+		}
+		done.await();
+		assertEquals(6, replies.size());
+		assertTrue(System.currentTimeMillis() - start >= 600);
+		assertEquals(2, pool.getOpenConnections());
+	}
+
+	@Test
+	public void fullQueueIsAnsweredBusy() throws Exception {
+		BinaryServer small = new BinaryServer(InetAddress.getByName("127.0.0.1"), 0, 1, 1, HANDLER);
+		small.start();
+		final BinaryConnectionPool smallPool = new BinaryConnectionPool("127.0.0.1", small.getPort(), 3, 30000);
+		final List<Object[]> replies = new ArrayList<Object[]>();
+		final CountDownLatch done = new CountDownLatch(3);
+		try {
+			for (int thread = 0; thread < 3; thread++) {
+				new Thread() {
+					@Override
+					public void run() {
+						try {
+							Object[] reply = (Object[]) smallPool.call(BinaryCodec.request(new Hashtable<String, Object>(), "sleep", new Object[] { 300 }), 5000);
+							synchronized (replies) {
+								replies.add(reply);
+							}
+						} catch (Exception exception) {
+						} finally {
+							done.countDown();
+						}
+					}
+				}.start();
+			}
+			done.await();
+		} finally {
+			smallPool.shutdown();
+			small.shutdown();
+		}
+		assertEquals(3, replies.size());
+		int busy = 0;
+		for (Object[] reply : replies) {
+			if (Boolean.FALSE.equals(reply[0])) {
+				assertTrue(AgentBusyException.retryAfterOf((Integer) reply[2]) > 0);
+				busy++;
+			}
+		}
+		assertEquals(1, busy);
+		Map<String, Comparable<?>> statistics = new Hashtable<String, Comparable<?>>();
+		small.fillStatistics(statistics, "binary");
+		assertEquals(1L, statistics.get("binary.rejected"));
+	}
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2005-2010 Ignis Software Tools Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jsystem.j2autoit.watch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.jsystem.j2autoit.process.ProcessTable;
+
+/**
+ * Process events on Linux, using sleep processes in place of installers.
+ */
+public class WatcherTest {
+
+	private ProcessTable processTable;
+	private Watcher watcher;
+
+	@Before
+	public void createWatcher() {
+		processTable = new ProcessTable(50);
+		watcher = new Watcher(processTable, "AutoIt3.exe", 50);
+	}
+
+	@After
+	public void shutdownWatcher() {
+		watcher.shutdown();
+		processTable.shutdown();
+	}
+
+	@Test
+	public void reportsExitOfAWatchedProcess() throws Exception {
+		Process process = new ProcessBuilder("sleep", "30").start();
+		Thread.sleep(200);
+		String subscriptionId = watcher.subscribe(EventType.PROCESS_EXITED, "sleep");
+		// Other sleep processes of the machine may exit meanwhile, only the events of ours count
+		assertNull(eventOf(watcher.poll(subscriptionId, 300), process.pid()));
+
+		process.destroyForcibly().waitFor();
+		Map<String, Comparable<?>> event = pollUntilEventOf(subscriptionId, process.pid());
+		assertEquals("PROCESS_EXITED", event.get(Watcher.TYPE));
+		assertTrue(watcher.unsubscribe(subscriptionId));
+	}
+
+	@Test
+	public void reportsCurrentStateFirst() throws Exception {
+		Process process = new ProcessBuilder("sleep", "30").start();
+		try {
+			Thread.sleep(200);
+			String started = watcher.subscribe(EventType.PROCESS_STARTED, "SLEEP");
+			List<Long> pids = new ArrayList<Long>();
+			for (Map<String, Comparable<?>> event : pollUntilEvent(started)) {
+				pids.add((Long) event.get(Watcher.PID));
+			}
+			assertTrue(pids.contains(process.pid()));
+
+			String exited = watcher.subscribe(EventType.PROCESS_EXITED, "no-such-image");
+			assertEquals(0L, pollUntilEvent(exited).get(0).get(Watcher.PID));
+		} finally {
+			process.destroyForcibly();
+		}
+	}
+
+	private Map<String, Comparable<?>> pollUntilEventOf(String subscriptionId, long pid) throws Exception {
+		long deadline = System.currentTimeMillis() + 5000;
+		while (System.currentTimeMillis() < deadline) {
+			Map<String, Comparable<?>> event = eventOf(watcher.poll(subscriptionId, 500), pid);
+			if (event != null) {
+				return event;
+			}
+		}
+		fail("No event of pid " + pid + " in time");
+		return null;
+	}
+
+	private static Map<String, Comparable<?>> eventOf(List<Map<String, Comparable<?>>> events, long pid) {
+		for (Map<String, Comparable<?>> event : events) {
+			if (Long.valueOf(pid).equals(event.get(Watcher.PID))) {
+				return event;
+			}
+		}
+		return null;
+	}
+
+	private List<Map<String, Comparable<?>>> pollUntilEvent(String subscriptionId) throws Exception {
+		List<Map<String, Comparable<?>>> events = watcher.poll(subscriptionId, 2000);
+		assertTrue("No event in time", !events.isEmpty());
+		return events;
+	}
+}